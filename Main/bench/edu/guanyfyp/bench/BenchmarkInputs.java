@@ -0,0 +1,231 @@
+/**
+ *
+ */
+package edu.guanyfyp.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The inputs the benchmarks run over.
+ *
+ * An input is named either by
+ * 	1. a path relative to Main/, e.g. demo_data/bad1.java, or
+ * 	2. synthetic:N, which is a generated class with N groups of members,
+ * 	so that the benchmarks can be scaled to files of any size, or
+ * 	3. documented:N, which is a generated class with N documented members,
+ * 	like generated code or a well documented API, or
+ * 	4. nested:N, which is a generated class whose scopes are nested N deep.
+ */
+final class BenchmarkInputs
+{
+	private BenchmarkInputs() {}
+
+	private static final String SYNTHETIC_PREFIX = "synthetic:";
+	private static final String DOCUMENTED_PREFIX = "documented:";
+	private static final String NESTED_PREFIX = "nested:";
+	// Statements in the innermost scope of a nested input.
+	private static final int NUM_INNERMOST_STATEMENTS = 500;
+
+	/**
+	 * @param input the name of the input
+	 * @return the source code of the input
+	 * @throws IOException if the file cannot be read
+	 */
+	static String load(String input) throws IOException
+	{
+		if(input.startsWith(SYNTHETIC_PREFIX))
+		{
+			return generate(Integer.parseInt(input.substring(SYNTHETIC_PREFIX.length())));
+		}
+		if(input.startsWith(DOCUMENTED_PREFIX))
+		{
+			return generateDocumented(Integer.parseInt(input.substring(DOCUMENTED_PREFIX.length())));
+		}
+		if(input.startsWith(NESTED_PREFIX))
+		{
+			return generateNested(Integer.parseInt(input.substring(NESTED_PREFIX.length())));
+		}
+
+		return Files.readString(Paths.get(input), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param numGroups how many groups of members the class has.
+	 * @return the source of a class with a mix of what real code has:
+	 * fields, JavaDocs, comments, methods with loops, branches, lambdas and nested scopes,
+	 * and a few format problems.
+	 */
+	static String generate(int numGroups)
+	{
+		StringBuilder src = new StringBuilder();
+		src.append("package synthetic;\n\n");
+		src.append("import java.util.ArrayList;\n");
+		src.append("import java.util.List;\n\n");
+		src.append("/**\n * A generated class.\n */\n");
+		src.append("public class Synthetic\n{\n");
+
+		for(int i = 0; i < numGroups; ++i)
+		{
+			src.append("    // Group ").append(i).append('\n');
+			src.append("    private static final int CONSTANT_").append(i).append(" = ").append(i).append(";\n");
+			src.append("    private List<String> list").append(i).append(" = new ArrayList<>();\n\n");
+
+			src.append("    /**\n");
+			src.append("     * Sums something.\n");
+			src.append("     * @param n how many\n");
+			src.append("     * @return the sum\n");
+			src.append("     */\n");
+			src.append("    public int sum").append(i).append("(int n)\n    {\n");
+			src.append("        int total = 0;\n");
+			src.append("        for (int k = 0; k < n; ++k)\n        {\n");
+			src.append("            if (k % 2 == 0) { total += k; }\n");
+			src.append("            else\n            {\n");
+			src.append("                total -= CONSTANT_").append(i).append(";\n");
+			src.append("            }\n");
+			src.append("        }\n");
+			src.append("        Runnable r = () -> {\n");
+			src.append("            list").append(i).append(".add(\"\" + total);\n");
+			src.append("        };\n");
+			src.append("        return total;\n");
+			src.append("    }\n\n");
+
+			// Some format problems
+			src.append("    void Bad_Name").append(i).append("(){int x=1;x++ ;}\n\n");
+		}
+
+		src.append("}\n");
+		return src.toString();
+	}
+
+	/**
+	 * @param numMembers how many documented members the class has.
+	 * @return the source of a class whose members are almost all documented, 
+	 * alternating between fields, methods and nested classes, with an undocumented member
+	 * and an unmatched JavaDoc every now and then.
+	 */
+	static String generateDocumented(int numMembers)
+	{
+		StringBuilder src = new StringBuilder();
+		src.append("package synthetic;\n\n");
+		src.append("/**\n * A generated class.\n */\n");
+		src.append("public class Documented\n{\n");
+
+		for(int i = 0; i < numMembers; ++i)
+		{
+			switch(i % 3)
+			{
+			case 0:
+				src.append("    /**\n     * Field ").append(i).append("\n     */\n");
+				src.append("    private int field").append(i).append(" = ").append(i).append(";\n\n");
+				break;
+			case 1:
+				src.append("    /**\n     * Method ").append(i).append('\n');
+				src.append("     * @param a the first\n     * @param b the second\n");
+				src.append("     * @return the sum\n     */\n");
+				src.append("    public int method").append(i).append("(int a, int b)\n    {\n");
+				src.append("        return a + b;\n    }\n\n");
+				break;
+			default:
+				src.append("    /**\n     * Nested class ").append(i).append("\n     */\n");
+				src.append("    static class Nested").append(i).append("\n    {\n");
+				src.append("        /**\n         * Its field\n         */\n");
+				src.append("        int value;\n    }\n\n");
+				break;
+			}
+
+			if(i % 50 == 49)
+			{
+				src.append("    private int undocumented").append(i).append(";\n");
+				src.append("    /** Not followed by any member */\n\n");
+			}
+		}
+
+		src.append("}\n");
+		return src.toString();
+	}
+
+	/**
+	 * @param depth how many scopes are nested, at least 1.
+	 * @return the source of a class whose scopes are nested depth deep:
+	 * lambdas inside switch expressions inside anonymous classes, etc.
+	 * Most of the tokens are in the innermost scope, and there are about as many of them whatever the depth.
+	 */
+	static String generateNested(int depth)
+	{
+		StringBuilder src = new StringBuilder();
+		// What closes each of the opened scopes.
+		Deque<String> closers = new ArrayDeque<>();
+
+		src.append("public class Nested {\n");
+		closers.push("}\n");
+		int level = 1;
+
+		// The first method, if it fits.
+		if(level + 1 <= depth)
+		{
+			indent(src, level).append("void m() {\n");
+			closers.push("}\n");
+			++level;
+		}
+
+		// Cycles through the kinds of nesting, each opens one or two scopes in a method body.
+		int kind = 0;
+		while(level < depth)
+		{
+			int n = level;
+			if(kind == 1 && level + 2 <= depth)
+			{
+				// A switch expression and the block of one of its cases.
+				indent(src, level).append("int s" + n + " = switch (" + n + ") { default -> {\n");
+				closers.push("yield " + n + "; } };\n");
+				level += 2;
+			}
+			else if(kind == 2 && level + 2 <= depth)
+			{
+				// An anonymous class and a method in it.
+				indent(src, level).append("Runnable a" + n + " = new Runnable() { public void run() {\n");
+				closers.push("} };\n");
+				level += 2;
+			}
+			else if(kind == 0)
+			{
+				// A lambda
+				indent(src, level).append("Runnable l" + n + " = () -> {\n");
+				closers.push("};\n");
+				++level;
+			}
+			else
+			{
+				// A plain block
+				indent(src, level).append("{\n");
+				closers.push("}\n");
+				++level;
+			}
+			kind = (kind + 1) % 3;
+		}
+
+		// The innermost scope. The declarations are valid in a class body as well as in a method body.
+		for(int i = 0; i < NUM_INNERMOST_STATEMENTS; ++i)
+		{
+			indent(src, level).append("int v" + i + " = " + i + " * 2 + 1;\n");
+		}
+
+		while(!closers.isEmpty())
+		{
+			--level;
+			indent(src, level).append(closers.pop());
+		}
+
+		return src.toString();
+	}
+
+	private static StringBuilder indent(StringBuilder src, int level)
+	{
+		return src.append("\t".repeat(Math.max(level, 0)));
+	}
+}
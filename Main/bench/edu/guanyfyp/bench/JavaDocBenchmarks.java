@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package edu.guanyfyp.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.guanyfyp.SourceFile;
+import edu.guanyfyp.generated.JavaLexer;
+import edu.guanyfyp.syntax.SyntaxStructureBuilder;
+import edu.guanyfyp.syntax.TwoStageParser;
+
+/**
+ * JMH benchmarks of matching the JavaDocs to the declarations they document,
+ * over files with thousands of documented members, where the matching is the most expensive.
+ *
+ * The matching is done by SyntaxStructureBuilder during the walk, so the walk is measured.
+ * PhaseBenchmarks.walk over synthetic inputs of similar sizes, which have fewer JavaDocs, is the baseline.
+ *
+ * Run the same way as PhaseBenchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JavaDocBenchmarks
+{
+	@Param({
+		"documented:1000",
+		"documented:5000",
+		"documented:20000"
+	})
+	public String input;
+
+	// A SourceFile of the input, whose JavaDocs the walk matches.
+	private SourceFile sourceFile;
+	// A parse tree of the input
+	private ParseTree parseTree;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		String source = BenchmarkInputs.load(input);
+		sourceFile = SourceFile.fromString(source);
+
+		var tokens = new CommonTokenStream(new JavaLexer(CharStreams.fromString(source)));
+		tokens.fill();
+		parseTree = TwoStageParser.parseCompilationUnit(tokens);
+	}
+
+	@Benchmark
+	public SyntaxStructureBuilder walk()
+	{
+		var builder = new SyntaxStructureBuilder(sourceFile);
+		new ParseTreeWalker().walk(builder, parseTree);
+		return builder;
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ *
+ */
+package edu.guanyfyp.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.guanyfyp.SourceFile;
+import edu.guanyfyp.format.FormatVerdict;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+import edu.guanyfyp.format.primitives.CodeBlock;
+import edu.guanyfyp.format.primitives.CommentBlock;
+import edu.guanyfyp.format.primitives.FormatToken;
+import edu.guanyfyp.format.primitives.JavaDocBlock;
+import edu.guanyfyp.format.primitives.WsBlock;
+import edu.guanyfyp.generated.JavaLexer;
+import edu.guanyfyp.syntax.SyntaxStructureBuilder;
+import edu.guanyfyp.syntax.TwoStageParser;
+
+/**
+ * JMH benchmarks of each phase a SourceFile goes through, in the order they happen:
+ * 	1. lex:						JavaLexer tokenizes the source.
+ * 	2. createFormatTokens:		a FormatToken is created for each lexer token.
+ * 	3. parse:					JavaParser parses the compilation unit (c.f. TwoStageParser).
+ * 	4. walk:					SyntaxStructureBuilder walks the parse tree.
+ * 	5. applyAttributes:			SyntaxStructureBuilder.applyAdditionalTokenAttributes().
+ * 	6. analyze:					SourceFile.analyze().
+ * Each phase only measures itself. What it needs from the earlier phases is prepared in the setup.
+ * 
+ * SourceFile does 3 and 4 in one pass, with the builder listening to the parser and no parse tree built,
+ * which parseWithBuilder measures.
+ *
+ * The inputs are files from demo_data and test_data and synthetic ones of growing sizes, c.f. BenchmarkInputs.
+ *
+ * The benchmarks are not part of the main build. To run them from Main/,
+ * with the JMH jars (jmh-core, jmh-generator-annprocess, jopt-simple, commons-math3) and ANTLR on CP:
+ * 	javac -cp CP -d bench_bin $(find src/edu bench -name "*.java")
+ * 	java -cp bench_bin:CP org.openjdk.jmh.Main [regexp of the benchmarks] [-p input=...]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmarks
+{
+	@Param({
+		"demo_data/good.java",
+		"demo_data/bad1.java",
+		"test_data/mixture1.txt",
+		"test_data/different_java_docs.java",
+		"synthetic:100",
+		"synthetic:1000"
+	})
+	public String input;
+
+	// The source code of the input
+	private String source;
+	// The lexer tokens of the input
+	private List<Token> lexerTokens;
+	// A SourceFile of the input, from which the later phases get what they need.
+	private SourceFile sourceFile;
+	// A parse tree of the input
+	private ParseTree parseTree;
+	// A builder that has walked parseTree.
+	private SyntaxStructureBuilder walkedBuilder;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		source = BenchmarkInputs.load(input);
+		lexerTokens = lex();
+
+		sourceFile = SourceFile.fromString(source);
+
+		parseTree = parse();
+		walkedBuilder = walk();
+	}
+
+//////////////////////// Phases ////////////////////////
+	@Benchmark
+	public List<Token> lex()
+	{
+		var tokens = new CommonTokenStream(new JavaLexer(CharStreams.fromString(source)));
+		tokens.fill();
+		return tokens.getTokens();
+	}
+
+	/**
+	 * Creates the FormatTokens the way SourceFile's constructor does,
+	 * but without grouping them into lines.
+	 */
+	@Benchmark
+	public List<FormatToken> createFormatTokens()
+	{
+		var ret = new ArrayList<FormatToken>(lexerTokens.size());
+		int line = 1;
+		int visual_pos = 0;
+		int index_in_line = 0;
+		for(Token t : lexerTokens)
+		{
+			if(t.getType() == Token.EOF || t.getText().isEmpty())
+			{
+				continue;
+			}
+			if(t.getLine() != line)
+			{
+				line = t.getLine();
+				visual_pos = 0;
+				index_in_line = 0;
+			}
+
+			FormatToken ft;
+			switch(t.getChannel())
+			{
+			case SourceFile.DEFAULT_CHANNEL:
+				var cb = new CodeBlock(t, visual_pos, index_in_line);
+				cb.additionalAttr.setTypeFromLexerTokenType(t.getType());
+				ft = cb;
+				break;
+			case SourceFile.WHITESPACE_CHANNEL:
+				ft = new WsBlock(t, visual_pos, index_in_line);
+				break;
+			case SourceFile.COMMENTS_CHANNEL:
+				ft = new CommentBlock(t, visual_pos, index_in_line);
+				break;
+			case SourceFile.JAVADOC_CHANNEL:
+				ft = new JavaDocBlock(t, visual_pos, index_in_line);
+				break;
+			default:
+				throw new RuntimeException("Unexpected channel number.");
+			}
+
+			ret.add(ft);
+			visual_pos += ft.visualLength;
+			++index_in_line;
+		}
+		return ret;
+	}
+
+	@Benchmark
+	public ParseTree parse()
+	{
+		var tokens = new CommonTokenStream(new JavaLexer(CharStreams.fromString(source)));
+		tokens.fill();
+		return TwoStageParser.parseCompilationUnit(tokens);
+	}
+
+	@Benchmark
+	public SyntaxStructureBuilder walk()
+	{
+		var builder = new SyntaxStructureBuilder(sourceFile);
+		new ParseTreeWalker().walk(builder, parseTree);
+		return builder;
+	}
+
+	@Benchmark
+	public SyntaxStructureBuilder parseWithBuilder()
+	{
+		var tokens = new CommonTokenStream(new JavaLexer(CharStreams.fromString(source)));
+		tokens.fill();
+		return TwoStageParser.parseCompilationUnit(tokens, ()->new SyntaxStructureBuilder(sourceFile));
+	}
+
+	@Benchmark
+	public SyntaxStructureBuilder applyAttributes()
+	{
+		walkedBuilder.applyAdditionalTokenAttributes();
+		return walkedBuilder;
+	}
+
+	/**
+	 * A primitive can only be evaluated once,
+	 * so analyze() needs a fresh SourceFile for every invocation.
+	 */
+	@State(Scope.Thread)
+	public static class FreshSourceFile
+	{
+		SourceFile sourceFile;
+
+		@Setup(Level.Invocation)
+		public void create(PhaseBenchmarks benchmarks)
+		{
+			sourceFile = SourceFile.fromString(benchmarks.source);
+		}
+	}
+
+	@Benchmark
+	public FormatVerdict analyze(FreshSourceFile fresh)
+	{
+		return fresh.sourceFile.analyze(AnalysisSettings.DEFAULT);
+	}
+}
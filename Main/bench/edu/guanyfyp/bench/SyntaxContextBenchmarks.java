@@ -0,0 +1,79 @@
+/**
+ *
+ */
+package edu.guanyfyp.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.guanyfyp.SourceFile;
+import edu.guanyfyp.syntax.SyntaxStructure;
+
+/**
+ * JMH benchmarks of SyntaxStructure.getSyntaxContext() over files whose scopes are nested 1 to 64 deep,
+ * c.f. BenchmarkInputs.generateNested().
+ *
+ * Every file has about the same number of tokens, most of them in the innermost scope,
+ * so if the lookup depended on the depth, it would show in the time per lookup.
+ * It should stay flat as the depth grows.
+ *
+ * Run the same way as PhaseBenchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SyntaxContextBenchmarks
+{
+	@Param({
+		"nested:1",
+		"nested:2",
+		"nested:4",
+		"nested:8",
+		"nested:16",
+		"nested:32",
+		"nested:64"
+	})
+	public String input;
+
+	private SourceFile sourceFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		sourceFile = SourceFile.fromString(BenchmarkInputs.load(input));
+	}
+
+	/**
+	 * Looks up the syntax context of every token and every line once.
+	 */
+	@Benchmark
+	public void lookUpAll(Blackhole bh)
+	{
+		SyntaxStructure ss = sourceFile.getSyntaxStructure();
+		for(int i = 0; i < sourceFile.numFormatTokens(); ++i)
+		{
+			bh.consume(ss.getSyntaxContext(sourceFile.getFormatToken(i)));
+		}
+		for(int i = 1; i <= sourceFile.numLines(); ++i)
+		{
+			bh.consume(ss.getSyntaxContext(sourceFile.getLine(i)));
+		}
+	}
+}
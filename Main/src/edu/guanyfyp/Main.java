@@ -3,49 +3,362 @@
  */
 package edu.guanyfyp;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.sun.net.httpserver.HttpServer;
+
+import edu.guanyfyp.batch.BatchAnalyzer;
+import edu.guanyfyp.batch.BatchSummary;
+import edu.guanyfyp.batch.FileWatcher;
+import edu.guanyfyp.batch.NdjsonWriter;
+import edu.guanyfyp.batch.VerdictCache;
 import edu.guanyfyp.format.FormatVerdict;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+import edu.guanyfyp.metrics.Metrics;
+import edu.guanyfyp.server.GradingServer;
 
 /**
  * The class where the main method is
  */
 public final class Main {
 
+	private static final String USAGE =
+			"Usage:\n" +
+			"\texecutable_name path_to_source_file\n" +
+			"\texecutable_name [-j num_workers] [--cache dir] [--ndjson [--issues]] [--metrics-port port] (file | directory | glob_pattern | zip_or_jar)...\n" +
+			"\texecutable_name --watch [--ndjson [--issues]] [--metrics-port port] (file | directory | glob_pattern)...\n" +
+			"\texecutable_name [-j num_workers] [--root dir] --serve-stdin\n" +
+			"\texecutable_name [-j num_workers] [--root dir] --serve-http port\n";
+
 	/**
-	 * Usage: executable_name path_to_source_file.
-	 * @param args contains the path_to_source_file.
+	 * Usage:
+	 * 	1. executable_name path_to_source_file.
+	 * 	2. executable_name [-j num_workers] [--cache dir] [--ndjson [--issues]] [--metrics-port port] (file | directory | glob_pattern | zip_or_jar)...
+	 * 	3. executable_name --watch [--ndjson [--issues]] [--metrics-port port] (file | directory | glob_pattern)...
+	 * 	4. executable_name [-j num_workers] [--root dir] --serve-stdin
+	 * 	5. executable_name [-j num_workers] [--root dir] --serve-http port
+	 * The second form analyzes all the source files denoted in one batch,
+	 * num_workers of them at a time (default: one per processor).
+	 * The .java entries of a zip or jar archive are analyzed without extracting them.
+	 * With --cache, the verdicts are cached in dir and files that have not changed are not analyzed again.
+	 * The third form analyzes the source files denoted, then keeps running 
+	 * and analyzes each of them again whenever it changes (c.f. FileWatcher).
+	 * With --ndjson, the second and third forms print one JSON object per line instead (c.f. NdjsonWriter),
+	 * with the locations of the issues if --issues is also given.
+	 * With --metrics-port, they serve their metrics on localhost:port/metrics while running (c.f. Metrics).
+	 * The metrics are also registered with JMX in the last four forms; the servers serve them on their HTTP port.
+	 * The last two forms keep running as a GradingServer,
+	 * serving the line protocol on stdin/stdout or HTTP on localhost:port.
+	 * With --root, they only analyze the files in dir.
+	 *
+	 * @param args contains the path_to_source_file, or the options and the inputs of a batch.
 	 */
 	public static void main(String[] args) {
-		
-		if(args.length != 1) {
-			System.out.println("The source file has grammatical errors.");
+
+		if(args.length == 0) {
+			System.out.println(USAGE);
 			return;
 		}
-		
-		String path = args[0];
+
+		// The original single file mode.
+		if(args.length == 1 && Files.isRegularFile(Paths.get(args[0])) 
+				&& !BatchAnalyzer.isArchive(Paths.get(args[0]))) {
+			analyzeSingleFile(args[0]);
+			return;
+		}
+
+		// Otherwise, it's a batch or a server.
+		int numWorkers = Runtime.getRuntime().availableProcessors();
+		boolean serveStdin = false;
+		int httpPort = -1;
+		String cacheDir = null;
+		String rootDir = null;
+		boolean watch = false;
+		boolean ndjson = false;
+		boolean withIssues = false;
+		int metricsPort = -1;
+		List<String> inputs = new ArrayList<>();
+		for(int i = 0; i < args.length; ++i) {
+			if(args[i].equals("-j") || args[i].equals("--jobs")) {
+				if(i+1 >= args.length) {
+					System.out.println(USAGE);
+					return;
+				}
+				try {
+					numWorkers = Integer.parseInt(args[++i]);
+				}
+				catch(NumberFormatException e) {
+					System.out.println("The number of workers must be an integer.");
+					return;
+				}
+				continue;
+			}
+			if(args[i].equals("--cache")) {
+				if(i+1 >= args.length) {
+					System.out.println(USAGE);
+					return;
+				}
+				cacheDir = args[++i];
+				continue;
+			}
+			if(args[i].equals("--root")) {
+				if(i+1 >= args.length) {
+					System.out.println(USAGE);
+					return;
+				}
+				rootDir = args[++i];
+				continue;
+			}
+			if(args[i].equals("--watch")) {
+				watch = true;
+				continue;
+			}
+			if(args[i].equals("--ndjson")) {
+				ndjson = true;
+				continue;
+			}
+			if(args[i].equals("--issues")) {
+				withIssues = true;
+				continue;
+			}
+			if(args[i].equals("--metrics-port")) {
+				if(i+1 >= args.length) {
+					System.out.println(USAGE);
+					return;
+				}
+				try {
+					metricsPort = Integer.parseInt(args[++i]);
+				}
+				catch(NumberFormatException e) {
+					System.out.println("The port must be an integer.");
+					return;
+				}
+				continue;
+			}
+			if(args[i].equals("--serve-stdin")) {
+				serveStdin = true;
+				continue;
+			}
+			if(args[i].equals("--serve-http")) {
+				if(i+1 >= args.length) {
+					System.out.println(USAGE);
+					return;
+				}
+				try {
+					httpPort = Integer.parseInt(args[++i]);
+				}
+				catch(NumberFormatException e) {
+					System.out.println("The port must be an integer.");
+					return;
+				}
+				continue;
+			}
+
+			inputs.add(args[i]);
+		}
+
+		Metrics.registerMBean();
+
+		if(serveStdin || httpPort >= 0) {
+			serve(numWorkers, rootDir, serveStdin, httpPort);
+			return;
+		}
+
+		HttpServer metricsServer = null;
+		if(metricsPort >= 0) {
+			try {
+				metricsServer = Metrics.startHttp(metricsPort);
+				System.err.println("Serving metrics on " + metricsServer.getAddress());
+			}
+			catch (IOException e) {
+				System.out.println(e.getMessage());
+				return;
+			}
+		}
+
+		// stdout is only flushed, never closed.
+		NdjsonWriter writer = ndjson ? new NdjsonWriter(System.out, withIssues, true) : null;
+
+		if(watch) {
+			watch(inputs, writer);
+		}
+		else {
+			analyzeBatch(inputs, numWorkers, cacheDir, writer);
+		}
+		if(metricsServer != null) {
+			metricsServer.stop(0);
+		}
+	}
+
+	/**
+	 * Analyzes one file and prints its verdict.
+	 * @param path
+	 */
+	private static void analyzeSingleFile(String path) {
 		SourceFile sourceFile = null;
 		try {
 			sourceFile = new SourceFile(path);
-		} 
+		}
 		catch (UnsupportedOperationException e) {
-			
+
 			System.out.println("The source file has grammatical errors.");
 			System.out.println(e.getMessage());
-		} 
+		}
 		catch (IOException e) {
-			
+
 			System.out.println("The source file could not be opened.");
 			System.out.println(e.getMessage());
 		}
-		
+
 		if(sourceFile == null) {
 			return; // error
 		}
-		
+
 		FormatVerdict verdict = sourceFile.analyze();
 		System.out.println("Verdict:");
 		System.out.println(verdict.toString());
 	}
 
+	/**
+	 * Analyzes all the files denoted by the inputs and prints the verdict of each
+	 * as soon as it is given, followed by the aggregate of the batch.
+	 * @param inputs files, directories, or glob patterns.
+	 * @param numWorkers
+	 * @param cacheDir where the verdicts are cached, or null not to cache them.
+	 * @param writer writes the results and the aggregate as NDJSON, or null to print them as text.
+	 */
+	private static void analyzeBatch(List<String> inputs, int numWorkers, String cacheDir, NdjsonWriter writer) {
+		List<Path> files;
+		BatchAnalyzer analyzer;
+		try {
+			VerdictCache cache = cacheDir == null ? null : new VerdictCache(Paths.get(cacheDir));
+			analyzer = new BatchAnalyzer(numWorkers, AnalysisSettings.fromGlobalSettings(), cache);
+			files = BatchAnalyzer.collectSourceFiles(inputs);
+		}
+		catch (IllegalArgumentException | IOException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+
+		BatchSummary summary;
+		try {
+			summary = analyzer.analyze(files, writer == null ? Main::printResult : writer);
+		}
+		catch (InterruptedException e) {
+			System.out.println("Interrupted.");
+			return;
+		}
+
+		if(writer != null) {
+			try {
+				writer.writeSummary(summary);
+			}
+			catch (IOException e) {
+				System.err.println(e.getMessage());
+			}
+			return;
+		}
+
+		System.out.println("Batch summary:");
+		System.out.println(summary.toString());
+	}
+
+	/**
+	 * Analyzes the files denoted by the inputs and prints the verdict of each,
+	 * then prints a new verdict whenever one of them changes, until the JVM is stopped.
+	 * @param inputs files, directories, or glob patterns.
+	 * @param writer writes the results as NDJSON, or null to print them as text.
+	 */
+	private static void watch(List<String> inputs, NdjsonWriter writer) {
+		try(FileWatcher watcher = new FileWatcher(inputs, AnalysisSettings.fromGlobalSettings())) {
+			watcher.run(writer == null ? Main::printResult : writer);
+		}
+		catch (IllegalArgumentException | IOException e) {
+			System.out.println(e.getMessage());
+		}
+		catch (InterruptedException e) {
+			System.out.println("Interrupted.");
+		}
+	}
+
+	/**
+	 * Prints the result of a file in a batch or of a file watched.
+	 * @param result
+	 */
+	private static void printResult(BatchAnalyzer.FileResult result) {
+		System.out.println("File: " + result.path);
+		if(result.succeeded()) {
+			System.out.println("Verdict:");
+			System.out.println(result.verdict.toString());
+		}
+		else {
+			System.out.println(result.errorMessage);
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Runs a GradingServer until stdin ends (line protocol) or the JVM is stopped (HTTP only).
+	 * @param numWorkers how many HTTP requests are served at the same time.
+	 * @param rootDir the directory the files analyzed must be in, or null if they can be anywhere.
+	 * @param serveStdin whether to serve the line protocol on stdin/stdout.
+	 * @param httpPort the port to serve HTTP on, or negative not to.
+	 */
+	private static void serve(int numWorkers, String rootDir, boolean serveStdin, int httpPort) {
+		GradingServer server;
+		try {
+			server = new GradingServer
+			(
+				numWorkers, AnalysisSettings.fromGlobalSettings(), 
+				rootDir == null ? null : Paths.get(rootDir)
+			);
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+
+		GradingServer.warmUp();
+
+		HttpServer http = null;
+		try {
+			if(httpPort >= 0) {
+				http = server.startHttp(httpPort);
+				// Not on stdout, which may be carrying the line protocol.
+				System.err.println("Serving HTTP on " + http.getAddress());
+			}
+			if(serveStdin) {
+				server.serveLines
+				(
+					new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+					System.out
+				);
+				if(http != null) {
+					http.stop(0);
+				}
+				return;
+			}
+		}
+		catch (IOException e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+
+		// HTTP only: the server's threads are daemons, so keep the main thread alive.
+		try {
+			Thread.currentThread().join();
+		}
+		catch (InterruptedException e) {
+			http.stop(0);
+		}
+	}
+
 }
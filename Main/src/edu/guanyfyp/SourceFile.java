@@ -4,21 +4,38 @@
 package edu.guanyfyp;
 
 import org.antlr.v4.runtime.*;
-import org.antlr.v4.runtime.misc.Pair;
+import org.antlr.v4.runtime.misc.Interval;
 import org.antlr.v4.runtime.tree.*;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
 
 import edu.guanyfyp.format.FormatVerdict;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
 import edu.guanyfyp.format.primitives.CodeBlock;
 import edu.guanyfyp.format.primitives.CommentBlock;
 import edu.guanyfyp.format.primitives.FormatToken;
 import edu.guanyfyp.format.primitives.JavaDocBlock;
 import edu.guanyfyp.format.primitives.Line;
 import edu.guanyfyp.format.primitives.PrimitiveContext;
+import edu.guanyfyp.format.primitives.TokenStore;
 import edu.guanyfyp.format.primitives.WsBlock;
 import edu.guanyfyp.format.summaries.CodeBlockSummary;
 import edu.guanyfyp.format.summaries.CommentBlockSummary;
@@ -26,10 +43,14 @@ import edu.guanyfyp.format.summaries.JavaDocSummary;
 import edu.guanyfyp.format.summaries.LineSummary;
 import edu.guanyfyp.format.summaries.WsBlockSummary;
 import edu.guanyfyp.generated.JavaLexer;
-import edu.guanyfyp.generated.JavaParser;
+import edu.guanyfyp.metrics.AnalysisEvents;
+import edu.guanyfyp.metrics.Metrics;
+import edu.guanyfyp.metrics.Metrics.Phase;
+import edu.guanyfyp.syntax.SyntaxContext;
+import edu.guanyfyp.syntax.SyntaxScope;
 import edu.guanyfyp.syntax.SyntaxStructure;
 import edu.guanyfyp.syntax.SyntaxStructureBuilder;
-import edu.guanyfyp.syntax.ThrowExceptionErrorListener;
+import edu.guanyfyp.syntax.TwoStageParser;
 
 /**
  * Represents a source code file.
@@ -46,20 +67,30 @@ public class SourceFile
 {
 //////////////////////////// Fields /////////////////////////
 	
+    // All the tokens for format checking, in the order they appear in the file.
+    // To support fast random access, the index of a token in the array is its token index.
+    private final FormatToken[] formatTokenArray;
+    
+    // The tokens of the line i+1 are formatTokenArray[lineStarts[i], lineStarts[i+1]).
+    // Therefore, it has one more element than there are lines, and the last one is formatTokenArray.length.
+    private final int[] lineStarts;
+    
+    // For each token in formatTokenArray, where the nearest visible token before/after it is,
+    // or -1 if there is none.
+    private final int[] prevVisibleTable;
+    private final int[] nextVisibleTable;
+    
     // All the tokens for format checking.
     // Each element of the outmost array represents a line in the source file.
     // Each element inside a line array is a token.
 	// The field in the end will be immutable, and each inner list will also be.
+    // Each inner list is only a view of a range of formatTokenArray.
     private final List<List<FormatToken>> formatTokens;
     
-	// To support fast random access of the format tokens,
-	// this table that maps
-	// token index -> {line index (starting from 0), token line index (from 0)}
-	// is built.
-    private final ArrayList<Pair<Integer, Integer>> formatTokenRandomAccessTable;
-    
     // All the lines in the source file, stored in the order they appear.
     // 0..n-1
+    private final Line[] lineArray;
+    // An immutable view of lineArray.
     private final List<Line> lines;
     
     // List of all java doc format tokens. They are also stored in formatTokens,
@@ -69,6 +100,18 @@ public class SourceFile
     // Created at beginning and is used to build the syntax structure during parsing.
     private final SyntaxStructureBuilder syntaxStructureBuilder;
     
+    // The source code, for edit().
+    private final CharStream source;
+    
+    // The settings analyze() was called with, or null if it has not been.
+    private AnalysisSettings analyzedWith = null;
+    // Only for a SourceFile given by edit(): the settings the primitives carried over 
+    // from the SourceFile edited were evaluated with, or null if none was evaluated.
+    private AnalysisSettings carriedSettings = null;
+    // Set when edit() has moved the tokens of this to the SourceFile it gives, 
+    // after which this cannot be used, c.f. checkNotEdited().
+    private boolean edited = false;
+    
 //////////////////////////// Static fields /////////////////////////
     
     // Channel numbers of the ANTLR lexer tokens
@@ -92,6 +135,33 @@ public class SourceFile
      */
     public SourceFile(String file_path) throws IOException, UnsupportedOperationException
     {
+    	this(readFile(file_path));
+    }
+    
+    /**
+     * Reads a file the way the file path ctor does, and records how long it took.
+     */
+    private static CharStream readFile(String file_path) throws IOException
+    {
+    	long start = System.nanoTime();
+    	CharStream ret = CharStreams.fromFileName(file_path);
+    	Metrics.global().record(Phase.READ, start);
+    	return ret;
+    }
+    
+    /**
+     * Parses the source code to create necessary objects to evaluate the format.
+     * All the other ctors and factories only differ in where the source code comes from.
+     * 
+     * @param inputStream the source code.
+     * @throws UnsupportedOperationException if the source code contains some syntax error.
+     */
+    private SourceFile(CharStream inputStream) throws UnsupportedOperationException
+    {
+    	source = inputStream;
+    	final var metrics = Metrics.global();
+    	long phase_start = System.nanoTime();
+    	
     	// Initialise temp fields
     	// Temp fields are used because the final fields can only be assigned to once.
     	// The final fields will be created by calling Collections.unmodifiableList().
@@ -100,14 +170,20 @@ public class SourceFile
     	List<JavaDocBlock> tempJavaDocs = new ArrayList<>();
     	
     	// Parse the source file with ANTLR4
-    	CharStream inputStream = CharStreams.fromFileName(file_path);
     	JavaLexer lexer = new JavaLexer(inputStream);
 		CommonTokenStream tokens = new CommonTokenStream(lexer);
 		
 		// Create all FormatTokens based on the lexer result
+		var lex_event = new AnalysisEvents.Lex();
 		{
+			lex_event.begin();
 			tokens.fill();
+			lex_event.end();
+			phase_start = metrics.record(Phase.LEX, phase_start);
 			List<Token> lexer_token_list = tokens.getTokens();
+			// What the FormatTokens need of the ANTLR tokens is copied here,
+			// so that the ANTLR tokens can be collected after parsing.
+			var store = new TokenStore(inputStream, lexer_token_list.size());
 			
 			// Container for the tokens in the current line.
 			var cur_line_tokens = new ArrayList<FormatToken>();
@@ -143,9 +219,9 @@ public class SourceFile
 					// Therefore, do this until I reach the next non-empty line.
 					while(cur_line < tLine)
 					{
-						// Push the tokens in the current line in the immutable version.
+						// Push the tokens in the current line.
 						// And creates a new container for tokens in the next line.
-						temp_format_tokens.add(Collections.unmodifiableList(cur_line_tokens));
+						temp_format_tokens.add(cur_line_tokens);
 						cur_line_tokens = new ArrayList<FormatToken>();
 						
 						// go to the next line.
@@ -159,52 +235,10 @@ public class SourceFile
 					cur_line_token_number = 0;
 				}
 				
-				FormatToken ft = null;
-				switch(t.getChannel())
+				FormatToken ft = createFormatToken(store, store.add(t), visual_pos, cur_line_token_number);
+				if(ft instanceof JavaDocBlock)
 				{
-				case DEFAULT_CHANNEL:
-					ft = new CodeBlock
-					(
-						t, visual_pos, 
-						cur_line_token_number // index of the token in the line
-					);
-					
-					// At this stage certain code block types are already deduced by the lexer.
-					// Assign such types now to reduce further deductions.
-					((CodeBlock)ft).additionalAttr.setTypeFromLexerTokenType(t.getType());
-					break;
-					
-				case WHITESPACE_CHANNEL:
-					ft = 
-					new WsBlock
-					(
-						t, visual_pos, 
-						cur_line_token_number // index of the token in the line
-					);
-					break;	
-					
-				case COMMENTS_CHANNEL:
-					ft =
-					new CommentBlock
-					(
-						t, visual_pos, 
-						cur_line_token_number // index of the token in the line
-					);
-					break;	
-					
-				case JAVADOC_CHANNEL:
-					ft =
-					new JavaDocBlock
-					(
-						t, visual_pos, 
-						cur_line_token_number // index of the token in the line
-					);
-					
 					tempJavaDocs.add((JavaDocBlock)ft);
-					break;	
-					
-				default:
-					throw new RuntimeException("Unexpected channel number. Check my grammar.");
 				}
 				
 				// Update the variables
@@ -213,28 +247,41 @@ public class SourceFile
 				++cur_line_token_number;
 			}
 			// Now the cur_line_tokens that is for the last line has yet to be added.
-			temp_format_tokens.add(Collections.unmodifiableList(cur_line_tokens));
-			
-			// Finally, turn format_tokens immutable
-			formatTokens = Collections.unmodifiableList(temp_format_tokens);		
+			temp_format_tokens.add(cur_line_tokens);
 			
 			// turn javaDocs immutable
 			javaDocs = Collections.unmodifiableList(tempJavaDocs);
 		}
 		
-		// Build the format token random access table
+		// Flatten the tokens into the array for fast random access,
+		// and make the lines views of it.
 		{
-			formatTokenRandomAccessTable = new ArrayList<Pair<Integer,Integer>>();
-			for(int i = 0; i < formatTokens.size(); ++i)
+			int num_tokens = 0;
+			for(var line : temp_format_tokens)
 			{
-				var line = formatTokens.get(i);
-				for(int j = 0; j < line.size(); ++j)
+				num_tokens += line.size();
+			}
+			
+			formatTokenArray = new FormatToken[num_tokens];
+			lineStarts = new int[temp_format_tokens.size() + 1];
+			int next = 0;
+			for(int i = 0; i < temp_format_tokens.size(); ++i)
+			{
+				lineStarts[i] = next;
+				for(var ft : temp_format_tokens.get(i))
 				{
-					formatTokenRandomAccessTable.add(new Pair<Integer, Integer>(i, j));
+					formatTokenArray[next++] = ft;
 				}
 			}
+			lineStarts[temp_format_tokens.size()] = next;
+			
+			formatTokens = makeLineViews(formatTokenArray, lineStarts);
 		}
 		
+		// Build the tables of the nearest visible tokens
+		prevVisibleTable = makePrevVisibleTable(formatTokenArray);
+		nextVisibleTable = makeNextVisibleTable(formatTokenArray);
+		
 		// Create the lines
 		{
 			for (int i = 0; i < formatTokens.size(); ++i)
@@ -251,51 +298,303 @@ public class SourceFile
 				}
 			}
 			
-			lines = Collections.unmodifiableList(temp_lines);
+			lineArray = temp_lines.toArray(new Line[0]);
+			lines = Collections.unmodifiableList(Arrays.asList(lineArray));
 		}
+		phase_start = metrics.record(Phase.FORMAT_TOKENS, phase_start);
 		
 		// Parse the program and fill missing attributes of the format tokens
 		{
 			// Reset the token stream because I retrieved all tokens once.
 			tokens.seek(0);
 			
-			// Parse the program and get a parse tree
-			JavaParser parser = new JavaParser(tokens);
-			// Use my own error listener to ALWAYS throw a exception
-			// on a syntax error
-			parser.removeErrorListeners(); // remove the default one
-			parser.addErrorListener(new ThrowExceptionErrorListener());
-			
+			// Parse the program and build the syntax context by using ContextBuilder,
+			// which listens to the parser, so no parse tree is built.
+			// SLL is tried first and full LL only if it fails (c.f. TwoStageParser).
 			// On syntax error,
 			// throw an UnsupportedOperationException with the error message
-			ParseTree parse_tree = null;
-			try
-			{
-				parse_tree = parser.compilationUnit();
-			}
-			catch(RuntimeException e)
-			{
-				throw new UnsupportedOperationException(e.getMessage());
-			}
+			var parse_event = new AnalysisEvents.Parse();
+			parse_event.begin();
+			this.syntaxStructureBuilder = TwoStageParser.parseCompilationUnit(tokens, ()->new SyntaxStructureBuilder(this));
+			parse_event.end();
+			phase_start = metrics.record(Phase.PARSE, phase_start);
 			
-			// Walk the parse tree and build the syntax context by using ContextBuilder
-			ParseTreeWalker tree_walker = new ParseTreeWalker();
-			this.syntaxStructureBuilder = new SyntaxStructureBuilder(this);
-			tree_walker.walk(syntaxStructureBuilder, parse_tree);
+			// Committed once the maximum scope depth is known.
+			commit(lex_event);
+			commit(parse_event);
 			
 			// Apply the additional token attributes after the syntax and partial semantic analysis
 			syntaxStructureBuilder.applyAdditionalTokenAttributes();
+			metrics.record(Phase.ATTRIBUTES, phase_start);
+		}
+		
+		metrics.recordFile(inputStream.size(), lineArray.length);
+    }
+    
+    /**
+     * Only for edit(). 
+     * Creates the SourceFile of the edited source code from the tokens and the lines
+     * that have been created or carried over, and the syntax structure of the SourceFile edited.
+     * 
+     * @param source the edited source code.
+     * @param format_token_array c.f. formatTokenArray
+     * @param line_starts c.f. lineStarts
+     * @param carried_lines the lines carried over. A line that is null is created.
+     * @param java_docs c.f. javaDocs
+     * @param syntax_structure_builder that has built the syntax structure. 
+     * The caller replaces the tokens in the syntax structure afterwards.
+     */
+    private SourceFile
+    (
+    	CharStream source,
+    	FormatToken[] format_token_array,
+    	int[] line_starts,
+    	Line[] carried_lines,
+    	List<JavaDocBlock> java_docs,
+    	SyntaxStructureBuilder syntax_structure_builder
+    )
+    {
+    	this.source = source;
+    	formatTokenArray = format_token_array;
+    	lineStarts = line_starts;
+    	formatTokens = makeLineViews(formatTokenArray, lineStarts);
+    	prevVisibleTable = makePrevVisibleTable(formatTokenArray);
+    	nextVisibleTable = makeNextVisibleTable(formatTokenArray);
+    	javaDocs = Collections.unmodifiableList(java_docs);
+    	syntaxStructureBuilder = syntax_structure_builder;
+    	
+    	// The lines are created after the tokens are in place, as they look the tokens up.
+    	lineArray = new Line[lineStarts.length - 1];
+    	for(int i = 0; i < lineArray.length; ++i)
+    	{
+    		if(carried_lines[i] != null)
+    		{
+    			lineArray[i] = carried_lines[i];
+    		}
+    		else if(lineStarts[i] < lineStarts[i+1])
+    		{
+    			lineArray[i] = new Line(i+1, formatTokenArray[lineStarts[i]], formatTokenArray[lineStarts[i+1]-1], this);
+    		}
+    		else
+    		{
+    			lineArray[i] = new Line(i+1, null, null, this);
+    		}
+    	}
+    	lines = Collections.unmodifiableList(Arrays.asList(lineArray));
+    }
+    
+//////////////////////////// Helpers of the ctors /////////////////////////
+    
+    /**
+     * Creates the FormatToken of a lexer token according to its channel.
+     * @param store where the lexer token is
+     * @param slot of the lexer token in store
+     * @param visual_pos its visual position.
+     * @param index_in_line the index of the token in the line
+     * @return the FormatToken
+     */
+    private static FormatToken createFormatToken(TokenStore store, int slot, int visual_pos, int index_in_line)
+    {
+		switch(store.channel(slot))
+		{
+		case DEFAULT_CHANNEL:
+			var cb = new CodeBlock(store, slot, visual_pos, index_in_line, new CodeBlock.AdditionalAttributes());
+			
+			// At this stage certain code block types are already deduced by the lexer.
+			// Assign such types now to reduce further deductions.
+			cb.additionalAttr.setTypeFromLexerTokenType(store.type(slot));
+			return cb;
+			
+		case WHITESPACE_CHANNEL:
+			return new WsBlock(store, slot, visual_pos, index_in_line);
+			
+		case COMMENTS_CHANNEL:
+			return new CommentBlock(store, slot, visual_pos, index_in_line);
+			
+		case JAVADOC_CHANNEL:
+			return new JavaDocBlock(store, slot, visual_pos, index_in_line);
+			
+		default:
+			throw new RuntimeException("Unexpected channel number. Check my grammar.");
+		}
+    }
+    
+    /**
+     * @param tokens
+     * @param line_starts c.f. lineStarts
+     * @return the immutable views of the tokens of each line, c.f. formatTokens.
+     * The view of a line is created when it is got, as few lines are ever looked at this way.
+     */
+    private static List<List<FormatToken>> makeLineViews(FormatToken[] tokens, int[] line_starts)
+    {
+		var all_tokens = Collections.unmodifiableList(Arrays.asList(tokens));
+		return new AbstractList<List<FormatToken>>()
+		{
+			@Override
+			public List<FormatToken> get(int i)
+			{
+				Objects.checkIndex(i, size());
+				return all_tokens.subList(line_starts[i], line_starts[i+1]);
+			}
+			
+			@Override
+			public int size()
+			{
+				return line_starts.length - 1;
+			}
+		};
+    }
+    
+    /**
+     * @param tokens
+     * @return c.f. prevVisibleTable
+     */
+    private static int[] makePrevVisibleTable(FormatToken[] tokens)
+    {
+		var table = new int[tokens.length];
+		int last_visible = -1;
+		for(int i = 0; i < tokens.length; ++i)
+		{
+			table[i] = last_visible;
+			if(tokens[i].isVisible())
+			{
+				last_visible = i;
+			}
+		}
+		return table;
+    }
+    
+    /**
+     * @param tokens
+     * @return c.f. nextVisibleTable
+     */
+    private static int[] makeNextVisibleTable(FormatToken[] tokens)
+    {
+		var table = new int[tokens.length];
+		int last_visible = -1;
+		for(int i = tokens.length-1; i >= 0; --i)
+		{
+			table[i] = last_visible;
+			if(tokens[i].isVisible())
+			{
+				last_visible = i;
+			}
 		}
+		return table;
+    }
+    
+//////////////////////////// Factories /////////////////////////
+    // For source code that is already in memory, or that is too large to be read the usual way.
+    
+    /**
+     * @param source the source code.
+     * @return the SourceFile of the source code.
+     * @throws UnsupportedOperationException if the source code contains some syntax error.
+     */
+    public static SourceFile fromString(CharSequence source) throws UnsupportedOperationException
+    {
+    	return new SourceFile(CharStreams.fromString(source.toString()));
+    }
+    
+    /**
+     * @param source the encoded source code.
+     * @param charset how source is encoded.
+     * @return the SourceFile of the source code.
+     * @throws UnsupportedOperationException if the source code contains some syntax error.
+     */
+    public static SourceFile fromBytes(byte[] source, Charset charset) throws UnsupportedOperationException
+    {
+    	return fromByteBuffer(ByteBuffer.wrap(source), charset);
+    }
+    
+    /**
+     * Decodes the remaining bytes of source directly, without copying them into an array first.
+     * The position of source is not changed.
+     * 
+     * @param source the encoded source code. Can be direct or memory-mapped.
+     * @param charset how source is encoded. Malformed input is replaced, as with the file path ctor.
+     * @return the SourceFile of the source code.
+     * @throws UnsupportedOperationException if the source code contains some syntax error.
+     */
+    public static SourceFile fromByteBuffer(ByteBuffer source, Charset charset) throws UnsupportedOperationException
+    {
+    	long start = System.nanoTime();
+    	CharBuffer chars = charset.decode(source.duplicate());
+    	Metrics.global().record(Phase.READ, start);
+    	return new SourceFile
+    	(
+    		CodePointCharStream.fromBuffer(CodePointBuffer.withChars(chars))
+    	);
+    }
+    
+    /**
+     * Reads the source code until the end of source. source is not closed.
+     * @param source the encoded source code.
+     * @param charset how source is encoded.
+     * @return the SourceFile of the source code.
+     * @throws IOException on reading error.
+     * @throws UnsupportedOperationException if the source code contains some syntax error.
+     */
+    public static SourceFile fromInputStream(InputStream source, Charset charset) 
+    		throws IOException, UnsupportedOperationException
+    {
+    	long start = System.nanoTime();
+    	CharStream chars = CharStreams.fromStream(source, charset);
+    	Metrics.global().record(Phase.READ, start);
+    	return new SourceFile(chars);
+    }
+    
+    /**
+     * Maps the file into memory and decodes it from there,
+     * which saves reading it into a buffer first. Meant for large files.
+     * 
+     * @param file_path The path to the file.
+     * @param charset how the file is encoded.
+     * @return the SourceFile of the file.
+     * @throws IOException on reading error.
+     * @throws UnsupportedOperationException if the source code contains some syntax error.
+     */
+    public static SourceFile fromMappedFile(Path file_path, Charset charset) 
+    		throws IOException, UnsupportedOperationException
+    {
+    	try(FileChannel channel = FileChannel.open(file_path, StandardOpenOption.READ))
+    	{
+    		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    		return fromByteBuffer(mapped, charset);
+    	}
     }
     
 //////////////////////////// Observers /////////////////////////
     
+    /**
+     * Every public method of a SourceFile calls this first.
+     * @throws IllegalStateException if edit() has moved the tokens of this to the SourceFile it gave.
+     */
+    private void checkNotEdited() throws IllegalStateException
+    {
+    	if(edited)
+    	{
+    		throw new IllegalStateException("The SourceFile has been edited. Use the one edit() gave instead.");
+    	}
+    }
+    
+    /**
+     * @return where the source code came from, e.g. the path of the file,
+     * or CharStream.UNKNOWN_SOURCE_NAME if it was not read from a file.
+     */
+    public String getSourceName()
+    {
+    	checkNotEdited();
+    	return source.getSourceName();
+    }
+    
     /**
      * @return the SyntaxStructureBuilder created with the source file,
      * in which the syntax structure built is contained.
      */
     public SyntaxStructureBuilder getSyntaxStructureBuilder()
     {
+    	checkNotEdited();
     	return syntaxStructureBuilder;
     }
     
@@ -304,6 +603,7 @@ public class SourceFile
      */
     public SyntaxStructure getSyntaxStructure()
     {
+    	checkNotEdited();
     	return syntaxStructureBuilder.getSyntaxStructure();
     }
     
@@ -316,11 +616,13 @@ public class SourceFile
      */
     public List<List<FormatToken>> getFormatTokens()
     {
+    	checkNotEdited();
     	return formatTokens;
     }
     
     public List<JavaDocBlock> getJavaDocs() 
     {
+    	checkNotEdited();
 		return javaDocs;
 	}
 
@@ -329,7 +631,8 @@ public class SourceFile
      */
     public int numFormatTokens()
     {
-    	return formatTokenRandomAccessTable.size();
+    	checkNotEdited();
+    	return formatTokenArray.length;
     }
     
     /**
@@ -340,13 +643,13 @@ public class SourceFile
      */
     public boolean hasFormatToken(int line, int index)
     {
+    	checkNotEdited();
     	int line_ind = line - 1;
     	if (line_ind < 0 || line_ind >= formatTokens.size())
     	{
     		return false;
     	}
-    	var line_array = formatTokens.get(line_ind);
-    	if(index < 0 || index >= line_array.size())
+    	if(index < 0 || index >= lineStarts[line_ind+1] - lineStarts[line_ind])
     	{
     		return false;
     	}
@@ -362,24 +665,12 @@ public class SourceFile
      */
     public FormatToken getFormatToken(int line, int index)
     {
-    	/*
-    	 * Does not invoke hasFormatToken as hasFormatToken
-    	 * gets a copy of the line_array, which I need to use here as well,
-    	 * so it would be done twice that way.
-    	 */
-    	
-    	int line_ind = line - 1;
-    	if (line_ind < 0 || line_ind >= formatTokens.size())
-    	{
-    		return null;
-    	}
-    	var line_array = formatTokens.get(line_ind);
-    	if(index < 0 || index >= line_array.size())
+    	if(!hasFormatToken(line, index))
     	{
     		return null;
     	}
     	
-    	return line_array.get(index);
+    	return formatTokenArray[lineStarts[line-1] + index];
     }
     
     /**
@@ -392,13 +683,13 @@ public class SourceFile
      */
     public FormatToken getFormatToken(int index)
     {
-    	if(index < 0 || index >= formatTokenRandomAccessTable.size())
+    	checkNotEdited();
+    	if(index < 0 || index >= formatTokenArray.length)
     	{
     		throw new ArrayIndexOutOfBoundsException("index is out of range");
     	}
     	
-    	var pair = formatTokenRandomAccessTable.get(index);
-    	return formatTokens.get(pair.a).get(pair.b);
+    	return formatTokenArray[index];
     }
     
     /**
@@ -423,40 +714,12 @@ public class SourceFile
      */
     public FormatToken getPrevFormatToken(FormatToken given)
     {
-    	int line = given.line();
-    	int index = given.indexInLine - 1;
+    	checkNotEdited();
+    	int pos = positionOf(given);
     	
-    	// If the token is the first in the line
-    	if(index < 0)
-    	{
-    		// This should be true.
-    		assert index == -1;
-    		
-        	int line_ind = line-1;
-    		// Keep going back until the previous line is non-empty
-    		// or until I have reached the first line.
-    		while(line_ind >= 1)
-    		{
-        		--line_ind;
-        		
-        		var line_array = formatTokens.get(line_ind);
-        		if(line_array.isEmpty())
-        		{
-        			continue;
-        		}
-        		
-        		// now the line is not empty
-        		// return the last token in the line.
-        		return line_array.get(line_array.size()-1);
-    		}
-    		
-    		// now line = 1 but it's still empty
-    		// or the token is already the first one.
-    		return null;    		
-    	}
-    	
-    	// Otherwise, the prev token is still in the line.
-    	return formatTokens.get(line-1).get(index);
+    	// Empty lines have no tokens in the array,
+    	// so the previous token, if any, is right before it.
+    	return pos > 0 ? formatTokenArray[pos-1] : null;
     }
     
     /**
@@ -470,41 +733,50 @@ public class SourceFile
      */
     public FormatToken getNextFormatToken(FormatToken given)
     {
-    	int line = given.line();
-    	int index = given.indexInLine + 1;
-    	
-    	int line_index = line-1;
-    	var cur_line_array = formatTokens.get(line_index);
-    	
-    	// If the token is the last in the line
-    	if(index >= cur_line_array.size())
-    	{
-    		// This should be true.
-    		assert index == cur_line_array.size();
-    		
-    		// Keep going back until the previous line is non-empty
-    		// or until I have reached the first line.
-    		while(line_index+1 < formatTokens.size())
-    		{
-        		++line_index;
-        		
-        		var line_array = formatTokens.get(line_index);
-        		if(line_array.isEmpty())
-        		{
-        			continue;
-        		}
-        		
-        		// now the line is not empty
-        		// return the first token in the line.
-        		return line_array.get(0);
-    		}
-    		
-    		// now line_index = size-1 but it's still empty
-    		return null;    		
-    	}
+    	checkNotEdited();
+    	int pos = positionOf(given);
     	
-    	// Otherwise, the next token is still in the line.
-    	return cur_line_array.get(index);
+    	// Empty lines have no tokens in the array,
+    	// so the next token, if any, is right after it.
+    	return pos+1 < formatTokenArray.length ? formatTokenArray[pos+1] : null;
+    }
+    
+    /**
+     * Gets the nearest visible token (i.e. not a WsBlock) before the given one, 
+     * skipping any whitespace in between, however many lines it spans.
+     * 
+     * @param given the token given.
+     * @return the visible token, or null if there is no visible token before given.
+     */
+    public FormatToken getPrevVisibleFormatToken(FormatToken given)
+    {
+    	checkNotEdited();
+    	int ind = prevVisibleTable[positionOf(given)];
+    	return ind == -1 ? null : formatTokenArray[ind];
+    }
+    
+    /**
+     * Gets the nearest visible token (i.e. not a WsBlock) after the given one, 
+     * skipping any whitespace in between, however many lines it spans.
+     * 
+     * @param given the token given.
+     * @return the visible token, or null if there is no visible token after given.
+     */
+    public FormatToken getNextVisibleFormatToken(FormatToken given)
+    {
+    	checkNotEdited();
+    	int ind = nextVisibleTable[positionOf(given)];
+    	return ind == -1 ? null : formatTokenArray[ind];
+    }
+    
+    /**
+     * @param given a token of the source file.
+     * @return where given is in formatTokenArray.
+     * @apiNote The behaviour is undefined if given is not part of the source file.
+     */
+    private int positionOf(FormatToken given)
+    {
+    	return lineStarts[given.line()-1] + given.indexInLine;
     }
 
     /**
@@ -513,6 +785,7 @@ public class SourceFile
      */
     public boolean includes(FormatToken tk)
     {
+    	checkNotEdited();
     	if(tk == null)
     	{
     		return false;
@@ -541,6 +814,7 @@ public class SourceFile
      */
     public List<Line> getLines()
     {
+    	checkNotEdited();
     	return this.lines;
     }
     
@@ -549,6 +823,7 @@ public class SourceFile
      */
     public int numLines()
     {
+    	checkNotEdited();
     	return lines.size();
     }
     
@@ -559,6 +834,7 @@ public class SourceFile
      */
     public Line getLine(int line_num)
     {
+    	checkNotEdited();
     	int line_ind = line_num - 1;
     	if(line_ind < 0 || line_ind >= lines.size())
     	{
@@ -568,93 +844,1220 @@ public class SourceFile
     	return lines.get(line_ind);
     }
     
-//////////////////////////// analyze() deserves a separator /////////////////////////
+//////////////////////////// Editing /////////////////////////
     
     /**
-     * Analyzes the source code in the file and give a result.
-     * @return the result given
+     * Gives the SourceFile of the source code after the text in [start, end) is replaced,
+     * reusing what the edit cannot have changed, so that a file being edited can be re-analyzed 
+     * after every edit without being lexed and parsed as a whole again.
+     * 
+     * If the edit changes no code, i.e. it only changes whitespace, line breaks, comments 
+     * or the text of JavaDocs, then only the tokens around it are lexed again,
+     * and the syntax structure, the other tokens and the lines are carried over,
+     * together with the results of their evaluation if this has been analyzed.
+     * If it changes code, then the innermost block around it, e.g. the body of a method, is parsed again on its own,
+     * and the syntax structure outside the block is carried over.
+     * Only if the braces of the block no longer match, or some declaration or JavaDoc is in it before or after the edit,
+     * is the edited source code parsed from scratch.
+     * 
+     * Unless it is, this SourceFile cannot be used afterwards, because the tokens carried over are moved 
+     * to where they are in the edited source code: every public method of it throws an IllegalStateException.
+     * Whether that is the case is decided before anything is moved, 
+     * so this is left as it is if the edited source code is parsed from scratch, or is invalid.
+     * 
+     * @param startLine the line where the text replaced starts, starting from 1.
+     * @param startColumn where the text replaced starts in startLine, in code points, starting from 0.
+     * @param endLine the line where the text replaced ends.
+     * @param endColumn where the text replaced ends (exclusive) in endLine.
+     * @param replacement the text that replaces [start, end).
+     * @return the SourceFile of the edited source code, or this if nothing changes.
+     * If this has been analyzed, then it must be analyzed with the same settings.
+     * @throws IllegalArgumentException if start or end is not in the source code, or end is before start.
+     * @throws UnsupportedOperationException if the edited source code contains some syntax error.
+     * @throws IllegalStateException if this has been edited already.
      */
-    public FormatVerdict analyze()
+    public SourceFile edit(int startLine, int startColumn, int endLine, int endColumn, String replacement)
+    		throws IllegalArgumentException, UnsupportedOperationException, IllegalStateException
     {
-		FormatVerdict verdict = new FormatVerdict();
-		
-		// Get the syntax structure for syntax contexts
-		final var syntax_structure = getSyntaxStructure();
-		
-		// Evaluate format tokens
-		{
-			// TODO: after summary classes for different CodeBlocks are written,
-			// add the evaluated code blocks to them.
-			
-			CodeBlockSummary cbSummary = new CodeBlockSummary();
-			WsBlockSummary wsBlockSummary = new WsBlockSummary();
-			CommentBlockSummary commentBlockSummary = new CommentBlockSummary();
-			JavaDocSummary javaDocSummary = new JavaDocSummary();
-			
-			// For each ft, evaluate it and add it to the corresponding summary.
-			for(int i = 0; i < numFormatTokens(); ++i)
-			{
-				var pair = formatTokenRandomAccessTable.get(i);
-		    	var tk = formatTokens.get(pair.a).get(pair.b);
-		    	
-		    	var tk_ctx = new PrimitiveContext(syntax_structure.getSyntaxContext(tk));
-		    	
-		    	tk.evaluateFormat(this, tk_ctx);
-		    	
-		    	if(tk instanceof WsBlock)
-		    	{
-		    		wsBlockSummary.include((WsBlock)tk);
-		    	}
-		    	else if(tk instanceof JavaDocBlock)
-		    	{
-		    		javaDocSummary.include((JavaDocBlock)tk);
-		    	}
-		    	else if(tk instanceof CommentBlock)
-		    	{
-		    		commentBlockSummary.include((CommentBlock)tk);
-		    	}
-		    	else if(tk instanceof CodeBlock)
-		    	{
-		    		cbSummary.include((CodeBlock)tk);
-		    	}
-			}
-			
-			cbSummary.summarize();
-			wsBlockSummary.summarize();
-			commentBlockSummary.summarize();
-			javaDocSummary.summarize();
-			
-			// Include the summaries in the verdict
-			verdict.include(wsBlockSummary);
-			verdict.include(commentBlockSummary);
-			verdict.include(javaDocSummary);
-			verdict.include(cbSummary);
-		}
-		
-		// Evaluate lines
-		{
-			LineSummary lineSummary = new LineSummary();
-			
-			// For each line, evaluate it and add it to the summary.
-			for(int i = 0; i < lines.size(); ++i)
-			{
-				var line = lines.get(i);
-		    	
-				var line_ctx = new PrimitiveContext(syntax_structure.getSyntaxContext(line));
-		    	line.evaluateFormat(this, line_ctx);
-		    	
-		    	lineSummary.include(line);
-			}
-			
-			lineSummary.summarize();
-			
-			// Include the summary in the verdict
-			verdict.include(lineSummary);
-		}
-		
-		// Don't forget to give verdict
-		verdict.giveVerdict();
-		
-		return verdict;
+    	checkNotEdited();
+    	final int start = offsetOf(startLine, startColumn);
+    	final int end = offsetOf(endLine, endColumn);
+    	if(end < start)
+    	{
+    		throw new IllegalArgumentException("The end of the edit is before its start.");
+    	}
+    	final int replacement_length = replacement.codePointCount(0, replacement.length());
+    	if(start == end && replacement_length == 0)
+    	{
+    		return this;
+    	}
+    	
+    	CharStream new_source = CharStreams.fromString
+    	(
+    		source.getText(Interval.of(0, start-1)) + replacement + source.getText(Interval.of(end, source.size()-1))
+    	);
+    	
+    	// How the text after the edit moves.
+    	final int char_delta = replacement_length - (end - start);
+    	final int new_end_line = startLine + (int)replacement.chars().filter(c -> c == '\n').count();
+    	final int line_delta = new_end_line - endLine;
+    	final int last_break = replacement.lastIndexOf('\n');
+    	final int new_end_column = last_break == -1 ? 
+    			startColumn + replacement_length : 
+    			replacement.codePointCount(last_break + 1, replacement.length());
+    	// Only for the rest of endLine.
+    	final int column_delta = new_end_column - endColumn;
+    	
+    	final int n = formatTokenArray.length;
+    	if(n == 0)
+    	{
+    		return rebuild(new_source);
+    	}
+    	
+    	// Lex again from the token before the one the edit starts in or right after,
+    	// as it may now extend into the edit,
+    	// or from the start of the source code if the edit starts before the first token.
+    	final boolean from_start = lastTokenStartingBefore(start) < 0;
+    	// a: the first old token lexed again.
+    	final int a = Math.max(0, lastTokenStartingBefore(start) - 1);
+    	// j: the first old token after the edit that is kept, n if none.
+    	int j = lastTokenStartingBefore(end) + 1;
+    	
+    	JavaLexer lexer = new JavaLexer(new_source);
+    	new_source.seek(from_start ? 0 : formatTokenArray[a].startIndex());
+    	lexer.setLine(from_start ? 1 : formatTokenArray[a].line());
+    	lexer.setCharPositionInLine(from_start ? 0 : formatTokenArray[a].actualPos());
+    	
+    	// Until the lexer is back at the start of an old token after the edit,
+    	// from where it would give the same tokens as before.
+    	var relexed = new ArrayList<Token>();
+    	for(Token t = lexer.nextToken(); t.getType() != Token.EOF; t = lexer.nextToken())
+    	{
+    		if(t.getText().isEmpty())
+    		{
+    			continue;
+    		}
+    		while(j < n && formatTokenArray[j].startIndex() + char_delta < t.getStartIndex())
+    		{
+    			++j;
+    		}
+    		if(j < n && formatTokenArray[j].startIndex() + char_delta == t.getStartIndex())
+    		{
+    			break;
+    		}
+    		relexed.add(t);
+    	}
+    	
+    	if(relexed.isEmpty())
+    	{
+    		return rebuild(new_source);
+    	}
+    	final int token_index_delta = relexed.size() - (j - a);
+    	
+    	// The tokens lexed again, at their visual positions.
+    	var relexed_tokens = new FormatToken[relexed.size()];
+    	int cur_line = from_start ? 1 : formatTokenArray[a].line();
+    	int visual_pos = from_start ? 0 : formatTokenArray[a].visualPos;
+    	int cur_line_token_number = from_start ? 0 : formatTokenArray[a].indexInLine;
+    	for(int k = 0; k < relexed_tokens.length; ++k)
+    	{
+    		var t = relexed.get(k);
+    		if(t.getLine() != cur_line)
+    		{
+    			cur_line = t.getLine();
+    			visual_pos = 0;
+    			cur_line_token_number = 0;
+    		}
+    		
+    		((WritableToken)t).setTokenIndex(a + k);
+    		relexed_tokens[k] = createFormatToken(TokenStore.of(t), 0, visual_pos, cur_line_token_number);
+    		visual_pos += relexed_tokens[k].visualLength;
+    		++cur_line_token_number;
+    	}
+    	
+    	// If the edit changes code, the innermost block around it is parsed again on its own, if it can be.
+    	final boolean same_code = sameCode(a, j, relexed);
+    	BlockReparse reparse = null;
+    	if(!same_code)
+    	{
+    		reparse = reparseBlock(a, j, relexed_tokens, token_index_delta);
+    		if(reparse == null)
+    		{
+    			return rebuild(new_source);
+    		}
+    	}
+    	
+    	// A scope that becomes one line or stops being one changes how its braces are evaluated,
+    	// so they are created again below.
+    	// The scopes are checked before anything is moved, on the lines the code will be in.
+    	// Those of the block parsed again are checked once it's in place.
+    	var new_code_lines = new int[same_code ? j - a : 0];
+    	if(same_code)
+    	{
+    		int next_code = 0;
+    		for(var t : relexed)
+    		{
+    			if(t.getChannel() == DEFAULT_CHANNEL)
+    			{
+    				while(!(formatTokenArray[a + next_code] instanceof CodeBlock))
+    				{
+    					++next_code;
+    				}
+    				new_code_lines[next_code++] = t.getLine();
+    			}
+    		}
+    	}
+    	var flipped_braces = new ArrayList<CodeBlock>();
+    	final var syntax_structure = getSyntaxStructure();
+    	for(int r = 0; r < syntax_structure.getNumRootScopes(); ++r)
+    	{
+    		addFlippedBraces
+    		(
+    			syntax_structure.getRootScope(r), reparse == null ? null : reparse.oldScope, 
+    			a, j, new_code_lines, line_delta, flipped_braces
+    		);
+    	}
+    	
+    	// How the braces and the lines in the block parsed again have been evaluated,
+    	// i.e. whether their scopes are one line and the levels of the scopes.
+    	IdentityHashMap<FormatToken, Boolean> old_one_line = null;
+    	int[] old_levels = null;
+    	int old_first_line = 0;
+    	if(reparse != null)
+    	{
+    		old_one_line = new IdentityHashMap<>();
+    		putOneLine(reparse.oldScope, old_one_line);
+    		
+    		old_first_line = reparse.oldScope.startToken.line() + 1;
+    		old_levels = new int[Math.max(0, reparse.oldScope.endToken.line() - old_first_line)];
+    		for(int k = 0; k < old_levels.length; ++k)
+    		{
+    			old_levels[k] = levelOf(syntax_structure.getSyntaxContext(lineArray[old_first_line + k - 1]));
+    		}
+    	}
+    	
+    	// From here on the tokens of this are moved, so this cannot be used any more.
+    	edited = true;
+    	
+    	// Move the old tokens after the edit, and the old code lexed again if the edit changes no code, 
+    	// to the edited source code.
+    	// The store is only for the moves. All the tokens are put in order into another one in the end.
+    	final var moved = new TokenStore(new_source, n - a);
+    	for(int i = j; i < n; ++i)
+    	{
+    		var tk = formatTokenArray[i];
+    		tk.shift(moved, line_delta, tk.line() == endLine ? column_delta : 0, char_delta, token_index_delta);
+    	}
+    	
+    	var new_tokens = new FormatToken[n + token_index_delta];
+    	// The old tokens replaced and what replace them.
+    	// The tokens are mutable and their hash codes change with their lines, so by identity.
+    	var replaced = new IdentityHashMap<FormatToken, FormatToken>();
+    	System.arraycopy(formatTokenArray, 0, new_tokens, 0, a);
+    	
+    	// The token before the edited ones is created again as what follows it has changed.
+    	if(a > 0)
+    	{
+    		var tk = formatTokenArray[a-1];
+    		new_tokens[a-1] = tk.recreate(tk.visualPos, tk.indexInLine);
+    		replaced.put(tk, new_tokens[a-1]);
+    	}
+    	
+    	// The tokens lexed again.
+    	// If the edit changes no code, the code and the JavaDocs in them are the same as the old ones, in the same order,
+    	// and the old ones are carried over in their places.
+    	if(same_code)
+    	{
+	    	var old_code = new ArrayList<FormatToken>();
+	    	var old_java_docs = new ArrayList<JavaDocBlock>();
+	    	for(int i = a; i < j; ++i)
+	    	{
+	    		var tk = formatTokenArray[i];
+	    		if(tk instanceof CodeBlock)
+	    		{
+	    			old_code.add(tk);
+	    		}
+	    		else if(tk instanceof JavaDocBlock)
+	    		{
+	    			old_java_docs.add((JavaDocBlock)tk);
+	    		}
+	    	}
+	    	int next_code = 0, next_java_doc = 0;
+	    	for(int k = 0; k < relexed_tokens.length; ++k)
+	    	{
+	    		var t = relexed.get(k);
+	    		var ft = relexed_tokens[k];
+	    		if(t.getChannel() == DEFAULT_CHANNEL)
+	    		{
+	    			// The old one is moved here, keeping what the syntax analysis has found about it.
+	    			var old = old_code.get(next_code++);
+	    			old.shift
+	    			(
+	    				moved,
+	    				t.getLine() - old.line(), t.getCharPositionInLine() - old.actualPos(), 
+	    				t.getStartIndex() - old.startIndex(), a + k - old.index()
+	    			);
+	    			relexed_tokens[k] = old.recreate(ft.visualPos, ft.indexInLine);
+	    			replaced.put(old, relexed_tokens[k]);
+	    		}
+	    		else if(t.getChannel() == JAVADOC_CHANNEL)
+	    		{
+	    			// Its text may have changed, but what follows it has not.
+	    			var old_java_doc = old_java_docs.get(next_java_doc++);
+	    			((JavaDocBlock)ft).setFollowing(old_java_doc.getFollowingType(), old_java_doc.getFollowingMethodInfo());
+	    			replaced.put(old_java_doc, ft);
+	    		}
+	    	}
+    	}
+    	System.arraycopy(relexed_tokens, 0, new_tokens, a, relexed_tokens.length);
+    	int pos = a + relexed_tokens.length;
+    	
+    	// The old tokens after them.
+    	// Those in the same line as the last token lexed again may be at other visual positions,
+    	// and what is before those up to the first visible one has changed.
+    	// Hence, they are created again, and so is the rest of the line where that visible one is.
+    	boolean seen_visible = false;
+    	int i = j;
+    	for(; i < n; ++i)
+    	{
+    		var tk = formatTokenArray[i];
+    		if(tk.line() != cur_line)
+    		{
+    			if(seen_visible)
+    			{
+    				break;
+    			}
+    			cur_line = tk.line();
+    			visual_pos = 0;
+    			cur_line_token_number = 0;
+    		}
+    		
+    		var ft = tk.recreate(visual_pos, cur_line_token_number);
+    		replaced.put(tk, ft);
+    		new_tokens[pos++] = ft;
+    		visual_pos += ft.visualLength;
+    		++cur_line_token_number;
+    		seen_visible = seen_visible || ft.isVisible();
+    	}
+    	// The rest are carried over as they are.
+    	System.arraycopy(formatTokenArray, i, new_tokens, pos, n - i);
+    	
+    	// The tokens carried over that are evaluated differently after the edit are created again.
+    	// The positions of the tokens created again here.
+    	var also_recreated = new ArrayList<Integer>();
+    	if(reparse != null)
+    	{
+    		final int relexed_end = a + relexed_tokens.length;
+    		// The old token at p after the edit, null if it has been lexed again.
+    		IntFunction<FormatToken> old_at = p -> p < a ? formatTokenArray[p] : 
+    			(p < relexed_end ? null : formatTokenArray[p - token_index_delta]);
+    		addFlippedBraces(reparse.newScope, new_tokens, old_at, old_one_line, flipped_braces);
+    	}
+    	for(var brace : flipped_braces)
+    	{
+    		// The brace has been moved to where it is.
+    		int p = brace.index();
+    		recreateAt(new_tokens, p, brace, null, replaced);
+    		also_recreated.add(p);
+    	}
+    	if(reparse != null)
+    	{
+    		// What the syntax analysis has found about the code in the block.
+    		// That of the code lexed again is applied to it as to the code of a new SourceFile.
+    		for(int p = reparse.start; p <= reparse.end; ++p)
+    		{
+    			if(!(new_tokens[p] instanceof CodeBlock))
+    			{
+    				continue;
+    			}
+    			var cb = (CodeBlock)new_tokens[p];
+    			var attr = reparse.builder.getAdditionalTokenAttributes(p - reparse.start);
+    			if(a <= p && p < a + relexed_tokens.length)
+    			{
+    				if(attr != null)
+    				{
+    					cb.additionalAttr.assign(attr);
+    				}
+    				continue;
+    			}
+    			
+    			if(attr == null)
+    			{
+    				attr = new CodeBlock.AdditionalAttributes();
+    				attr.setTypeFromLexerTokenType(cb.tokenType());
+    			}
+    			if(!cb.additionalAttr.sameAs(attr))
+    			{
+    				recreateAt(new_tokens, p, formatTokenArray[p < a ? p : p - token_index_delta], attr, replaced);
+    				also_recreated.add(p);
+    			}
+    		}
+    	}
+    	
+    	// The lines
+    	final int num_lines = new_tokens[new_tokens.length-1].line();
+    	var line_starts = new int[num_lines + 1];
+    	{
+    		int next_line = 0;
+    		for(int k = 0; k < new_tokens.length; ++k)
+    		{
+    			for(; next_line < new_tokens[k].line(); ++next_line)
+    			{
+    				line_starts[next_line] = k;
+    			}
+    		}
+    		line_starts[num_lines] = new_tokens.length;
+    	}
+    	// Lines [first_changed, last_changed] have tokens created again or are new. 
+    	// So do the lines of the tokens created again above.
+    	// The others are carried over.
+    	final int first_changed = a > 0 ? new_tokens[a-1].line() : 1;
+    	final int last_changed = pos > 0 ? new_tokens[pos-1].line() : num_lines;
+    	var carried_lines = new Line[num_lines];
+    	for(int l = 1; l < first_changed; ++l)
+    	{
+    		carried_lines[l-1] = lineArray[l-1];
+    	}
+    	for(int l = last_changed + 1; l <= num_lines; ++l)
+    	{
+    		var old = lineArray[l - line_delta - 1];
+    		carried_lines[l-1] = line_delta == 0 ? old : old.movedTo(l);
+    	}
+    	for(int p : also_recreated)
+    	{
+    		carried_lines[new_tokens[p].line() - 1] = null;
+    	}
+    	
+    	// The syntax structure, and the lines in the block parsed again that are in scopes of other levels now.
+    	if(reparse == null)
+    	{
+    		syntax_structure.replaceTokens(replaced, new_tokens.length, num_lines);
+    	}
+    	else
+    	{
+    		// The tokens the block has been parsed from are replaced by those where they are.
+    		for(int p = reparse.start; p <= reparse.end; ++p)
+    		{
+    			var tk = reparse.tokens[p - reparse.start];
+    			if(tk != new_tokens[p])
+    			{
+    				replaced.put(tk, new_tokens[p]);
+    			}
+    		}
+    		syntax_structure.replaceScope(reparse.oldScope, reparse.newScope, replaced, new_tokens.length, num_lines);
+    		
+    		for(int l = new_tokens[reparse.start].line() + 1; l < new_tokens[reparse.end].line(); ++l)
+    		{
+    			var line = carried_lines[l-1];
+    			int k = (l < first_changed ? l : l - line_delta) - old_first_line;
+    			if(line != null && (k < 0 || k >= old_levels.length || old_levels[k] != levelOf(syntax_structure.getSyntaxContext(line))))
+    			{
+    				carried_lines[l-1] = null;
+    			}
+    		}
+    	}
+    	
+    	// Nothing refers to the old source code and tokens afterwards.
+    	var store = new TokenStore(new_source, new_tokens.length);
+    	for(var tk : new_tokens)
+    	{
+    		tk.moveTo(store);
+    	}
+    	
+    	var java_docs = new ArrayList<JavaDocBlock>(javaDocs.size());
+    	for(var jd : javaDocs)
+    	{
+    		java_docs.add((JavaDocBlock)replaced.getOrDefault(jd, jd));
+    	}
+    	
+    	var ret = new SourceFile(new_source, new_tokens, line_starts, carried_lines, java_docs, syntaxStructureBuilder);
+    	ret.carriedSettings = analyzedWith != null ? analyzedWith : carriedSettings;
+    	return ret;
+    }
+    
+    /**
+     * Only for edit(), when the edit changes code.
+     * @param new_source
+     * @return the SourceFile of new_source, parsed from scratch.
+     * @throws UnsupportedOperationException if new_source contains some syntax error.
+     */
+    private static SourceFile rebuild(CharStream new_source) throws UnsupportedOperationException
+    {
+    	new_source.seek(0);
+    	return new SourceFile(new_source);
+    }
+    
+    /**
+     * @param line starting from 1.
+     * @param column in code points, starting from 0. Can be the end of the line.
+     * @return the index of the character at the location in source.
+     * @throws IllegalArgumentException if the location is not in source.
+     */
+    private int offsetOf(int line, int column) throws IllegalArgumentException
+    {
+    	if(line < 1 || column < 0)
+    	{
+    		throw new IllegalArgumentException("The location is not in the source code.");
+    	}
+    	
+    	// Start from the nearest line with tokens, whose start is known from its first token.
+    	int cur_line = 1;
+    	int offset = 0;
+    	for(int l = Math.min(line, lineArray.length); l >= 1; --l)
+    	{
+    		if(lineStarts[l-1] < lineStarts[l])
+    		{
+    			var first = formatTokenArray[lineStarts[l-1]];
+    			cur_line = l;
+    			offset = first.startIndex() - first.actualPos();
+    			break;
+    		}
+    	}
+    	
+    	// Then count the line breaks, as the lexer does.
+    	source.seek(offset);
+    	for(; cur_line < line; source.consume())
+    	{
+    		int c = source.LA(1);
+    		if(c == IntStream.EOF)
+    		{
+    			throw new IllegalArgumentException("The location is not in the source code.");
+    		}
+    		if(c == '\n')
+    		{
+    			++cur_line;
+    		}
+    	}
+    	offset = source.index();
+    	for(int i = 0; i < column; ++i)
+    	{
+    		int c = source.LA(1);
+    		if(c == IntStream.EOF || c == '\n')
+    		{
+    			throw new IllegalArgumentException("The location is not in the source code.");
+    		}
+    		source.consume();
+    	}
+    	return offset + column;
+    }
+    
+    /**
+     * @param offset the index of a character in source.
+     * @return the position of the last token that starts before offset, or -1 if none.
+     */
+    private int lastTokenStartingBefore(int offset)
+    {
+    	int lo = 0, hi = formatTokenArray.length;
+    	// The first token that starts at or after offset is in [lo, hi].
+    	while(lo < hi)
+    	{
+    		int mid = (lo + hi) >>> 1;
+    		if(formatTokenArray[mid].startIndex() < offset)
+    		{
+    			lo = mid + 1;
+    		}
+    		else
+    		{
+    			hi = mid;
+    		}
+    	}
+    	return lo - 1;
+    }
+    
+    /**
+     * @param from
+     * @param to
+     * @param relexed the tokens that replace formatTokenArray[from, to).
+     * @return true iff they have the same code and the same JavaDocs in the same places,
+     * i.e. only whitespace, comments, and the text of JavaDocs may differ.
+     */
+    private boolean sameCode(int from, int to, List<Token> relexed)
+    {
+    	var old_code = new ArrayList<String>();
+    	for(int i = from; i < to; ++i)
+    	{
+    		var tk = formatTokenArray[i];
+    		if(tk instanceof CodeBlock)
+    		{
+    			old_code.add(tk.characters());
+    		}
+    		else if(tk instanceof JavaDocBlock)
+    		{
+    			// Which code a JavaDoc is for only depends on where it is among the code.
+    			old_code.add(null);
+    		}
+    	}
+    	
+    	var new_code = new ArrayList<String>();
+    	for(var t : relexed)
+    	{
+    		if(t.getChannel() == DEFAULT_CHANNEL)
+    		{
+    			new_code.add(t.getText());
+    		}
+    		else if(t.getChannel() == JAVADOC_CHANNEL)
+    		{
+    			new_code.add(null);
+    		}
+    	}
+    	
+    	return old_code.equals(new_code);
+    }
+    
+    /**
+     * Adds the braces of s and its descendants that become one line or stop being one after the edit,
+     * except those of skipped and its descendants.
+     * @param s a scope of this.
+     * @param skipped a scope of this, or null.
+     * @param from the first token lexed again by edit().
+     * @param to the first token after them.
+     * @param new_code_lines for each CodeBlock in [from, to), the line it is in after the edit, 
+     * at its position - from.
+     * @param line_delta how far the tokens after them move down.
+     * @param braces where they are added.
+     */
+    private static void addFlippedBraces
+    (
+    	SyntaxScope s, SyntaxScope skipped, int from, int to, int[] new_code_lines, int line_delta,
+    	List<CodeBlock> braces
+    )
+    {
+    	if(s == skipped)
+    	{
+    		return;
+    	}
+    	int start_line = newLineOf(s.startToken, from, to, new_code_lines, line_delta);
+    	int end_line = newLineOf(s.endToken, from, to, new_code_lines, line_delta);
+    	if(s.oneLine != (start_line == end_line))
+    	{
+    		braces.add(s.startToken);
+    		braces.add(s.endToken);
+    	}
+    	for(var c : s.children)
+    	{
+    		addFlippedBraces(c, skipped, from, to, new_code_lines, line_delta, braces);
+    	}
+    }
+    
+    /**
+     * Adds the old braces of s and its descendants whose scopes were one line before the edit and are not now, 
+     * or the other way around.
+     * @param s a scope of the block parsed again.
+     * @param new_tokens the tokens after the edit.
+     * @param old_at gives the old token, moved to where it is after the edit, at an index after the edit,
+     * or null if the token there is new.
+     * @param old_one_line whether the scopes of the old braces were one line, c.f. putOneLine().
+     * @param braces where they are added.
+     */
+    private static void addFlippedBraces
+    (
+    	SyntaxScope s, FormatToken[] new_tokens, IntFunction<FormatToken> old_at, 
+    	Map<FormatToken, Boolean> old_one_line, List<CodeBlock> braces
+    )
+    {
+    	int start = s.startToken.index(), end = s.endToken.index();
+    	boolean one_line = new_tokens[start].line() == new_tokens[end].line();
+    	for(int p : new int[] { start, end })
+    	{
+    		var old = old_at.apply(p);
+    		var old_one = old == null ? null : old_one_line.get(old);
+    		if(old_one != null && old_one != one_line)
+    		{
+    			braces.add((CodeBlock)old);
+    		}
+    	}
+    	for(var c : s.children)
+    	{
+    		addFlippedBraces(c, new_tokens, old_at, old_one_line, braces);
+    	}
+    }
+    
+    /**
+     * Puts whether s and its descendants are one line, for each of their braces.
+     * @param s
+     * @param one_line
+     */
+    private static void putOneLine(SyntaxScope s, Map<FormatToken, Boolean> one_line)
+    {
+    	one_line.put(s.startToken, s.oneLine);
+    	one_line.put(s.endToken, s.oneLine);
+    	for(var c : s.children)
+    	{
+    		putOneLine(c, one_line);
+    	}
+    }
+    
+    /**
+     * c.f. addFlippedBraces()
+     * @return the line tk is in after the edit.
+     */
+    private static int newLineOf(CodeBlock tk, int from, int to, int[] new_code_lines, int line_delta)
+    {
+    	int pos = tk.index();
+    	if(pos < from)
+    	{
+    		return tk.line();
+    	}
+    	return pos < to ? new_code_lines[pos - from] : tk.line() + line_delta;
+    }
+    
+    /**
+     * @param context the syntax context of a line.
+     * @return the level the line is evaluated with, or -1 if it's in no scope.
+     */
+    private static int levelOf(SyntaxContext context)
+    {
+    	return context == null || context.scope == null ? -1 : context.scope.level;
+    }
+    
+    /**
+     * Only for edit(). 
+     * Creates the token at pos of tokens again, replacing it, as one that replaces old.
+     * @param tokens
+     * @param pos
+     * @param old the token of this that tokens[pos] is or has replaced.
+     * @param additional_attributes what the one created has, if it's a CodeBlock, 
+     * or null to keep those of tokens[pos].
+     * @param replaced the old tokens replaced and what replace them.
+     */
+    private static void recreateAt
+    (
+    	FormatToken[] tokens, int pos, FormatToken old, CodeBlock.AdditionalAttributes additional_attributes,
+    	Map<FormatToken, FormatToken> replaced
+    )
+    {
+    	var tk = tokens[pos];
+    	tokens[pos] = additional_attributes == null ? 
+    			tk.recreate(tk.visualPos, tk.indexInLine) : 
+    			((CodeBlock)tk).recreate(tk.visualPos, tk.indexInLine, additional_attributes);
+    	replaced.put(old, tokens[pos]);
+    	if(tk != old)
+    	{
+    		replaced.put(tk, tokens[pos]);
+    	}
+    }
+    
+    /**
+     * The innermost block around an edit that changes code, parsed again, c.f. reparseBlock().
+     */
+    private static final class BlockReparse
+    {
+    	// The scope of the block in this, and that built for it after the edit.
+    	SyntaxScope oldScope;
+    	SyntaxScope newScope;
+    	// Where the { and the } of the block are after the edit.
+    	int start;
+    	int end;
+    	// The tokens the block has been parsed from, from the { to the }, at the indices they have after the edit.
+    	// Those carried over from after the edit are copies, replaced by the tokens they are copied from.
+    	FormatToken[] tokens;
+    	// Its token indices start from the {.
+    	SyntaxStructureBuilder builder;
+    }
+    
+    /**
+     * Only for edit(), before anything is moved. 
+     * Parses again the innermost block around formatTokenArray[from, to), with the tokens lexed again in their place.
+     * 
+     * The block cannot be parsed on its own if its braces no longer match, 
+     * or if some declaration or JavaDoc is in it before or after the edit, 
+     * as which declaration a JavaDoc is for is found across the whole source code.
+     * 
+     * @param from the first token lexed again.
+     * @param to the first token after them.
+     * @param relexed_tokens the tokens that replace [from, to), at their indices after the edit.
+     * @param token_index_delta how far the tokens after them move.
+     * @return the block parsed again, or null if it cannot be.
+     */
+    private BlockReparse reparseBlock(int from, int to, FormatToken[] relexed_tokens, int token_index_delta)
+    {
+    	final var block = innermostBlockAround(from, to);
+    	if(block == null || hasClassScope(block))
+    	{
+    		return null;
+    	}
+    	
+    	final int start = block.startToken.index();
+    	final int old_end = block.endToken.index();
+    	for(int i = start; i <= old_end; ++i)
+    	{
+    		if(formatTokenArray[i] instanceof JavaDocBlock || 
+    			formatTokenArray[i] instanceof CodeBlock && isDeclaredName(((CodeBlock)formatTokenArray[i]).additionalAttr.getType()))
+    		{
+    			return null;
+    		}
+    	}
+    	for(var tk : relexed_tokens)
+    	{
+    		if(tk instanceof JavaDocBlock)
+    		{
+    			return null;
+    		}
+    	}
+    	
+    	final int end = old_end + token_index_delta;
+    	final int num_tokens = end - start + 1;
+    	final int relexed_end = from + relexed_tokens.length;
+    	
+    	// The tokens of the block after the edit.
+    	// Those after the edit are copied with the indices they will have, 
+    	// so that all are numbered the same way, and this is left as it is if the block cannot be parsed.
+    	// Only their indices are moved.
+    	final var block_tokens = new FormatToken[num_tokens];
+    	final var copies = new TokenStore(source, num_tokens);
+    	var tokens = new ArrayList<Token>(num_tokens);
+    	for(int i = 0; i < num_tokens; ++i)
+    	{
+    		int p = start + i;
+    		FormatToken tk;
+    		if(p < from)
+    		{
+    			tk = formatTokenArray[p];
+    		}
+    		else if(p < relexed_end)
+    		{
+    			tk = relexed_tokens[p - from];
+    		}
+    		else
+    		{
+    			var old = formatTokenArray[p - token_index_delta];
+    			tk = old.recreate(old.visualPos, old.indexInLine);
+    			tk.shift(copies, 0, 0, 0, token_index_delta);
+    		}
+    		block_tokens[i] = tk;
+    		
+    		var t = new CommonToken(tk.tokenType(), tk.characters());
+    		t.setChannel(tk instanceof CodeBlock ? Token.DEFAULT_CHANNEL : Token.HIDDEN_CHANNEL);
+    		tokens.add(t);
+    	}
+    	
+    	var ret = new BlockReparse();
+    	ret.tokens = block_tokens;
+    	try
+    	{
+    		ret.builder = TwoStageParser.parseBlock
+    		(
+    			new CommonTokenStream(new ListTokenSource(tokens)), 
+    			() -> new SyntaxStructureBuilder(i -> block_tokens[i], num_tokens, block.type, block.level)
+    		);
+    		ret.newScope = ret.builder.getSyntaxStructure().getRootScope(0);
+    	}
+    	catch(RuntimeException e)
+    	{
+    		// The braces no longer match, the code in them is not a block, 
+    		// or it cannot be built into scopes on its own for some other reason,
+    		// in which case the source code is parsed from scratch instead.
+    		return null;
+    	}
+    	
+    	ret.oldScope = block;
+    	ret.start = start;
+    	ret.end = end;
+    	if(hasClassScope(ret.newScope))
+    	{
+    		return null;
+    	}
+    	for(int i = 0; i < num_tokens; ++i)
+    	{
+    		var attr = ret.builder.getAdditionalTokenAttributes(i);
+    		if(attr != null && isDeclaredName(attr.getType()))
+    		{
+    			return null;
+    		}
+    	}
+    	return ret;
+    }
+    
+    /**
+     * @param from
+     * @param to
+     * @return the scope of the innermost block whose braces are outside formatTokenArray[from, to), 
+     * or null if none.
+     */
+    private SyntaxScope innermostBlockAround(int from, int to)
+    {
+    	SyntaxScope ret = null;
+    	var syntax_structure = getSyntaxStructure();
+    	SyntaxScope s = null;
+    	for(int r = 0; r < syntax_structure.getNumRootScopes() && s == null; ++r)
+    	{
+    		var root = syntax_structure.getRootScope(r);
+    		if(root.startToken.index() < from && root.endToken.index() >= to)
+    		{
+    			s = root;
+    		}
+    	}
+    	while(s != null)
+    	{
+    		if(s.block)
+    		{
+    			ret = s;
+    		}
+    		SyntaxScope inner = null;
+    		for(var c : s.children)
+    		{
+    			if(c.startToken.index() < from && c.endToken.index() >= to)
+    			{
+    				inner = c;
+    				break;
+    			}
+    		}
+    		s = inner;
+    	}
+    	return ret;
+    }
+    
+    /**
+     * @param s
+     * @return true iff s or any of its descendants is the scope of a class.
+     */
+    private static boolean hasClassScope(SyntaxScope s)
+    {
+    	if(s.type == SyntaxScope.Type.GENERAL_CLASS_DEF_SCOPE)
+    	{
+    		return true;
+    	}
+    	for(var c : s.children)
+    	{
+    		if(hasClassScope(c))
+    		{
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+    
+    /**
+     * @param type
+     * @return true iff type is that of a name a declaration gives to a class, a member, or a constructor.
+     */
+    private static boolean isDeclaredName(CodeBlock.Type type)
+    {
+    	return switch(type)
+    	{
+    		case CLASS_NAME, INTERFACE_NAME, ENUM_NAME, CONSTRUCTOR_NAME, METHOD_NAME, FIELD_NAME -> true;
+    		default -> false;
+    	};
+    }
+    
+//////////////////////////// analyze() deserves a separator /////////////////////////
+    
+    /**
+     * Analyzes the source code in the file with a snapshot of the global settings
+     * and give a result.
+     * @return the result given
+     * @see AnalysisSettings#fromGlobalSettings()
+     */
+    public FormatVerdict analyze()
+    {
+    	return analyze(AnalysisSettings.fromGlobalSettings());
+    }
+    
+    /**
+     * Analyzes the source code in the file and give a result.
+     * 
+     * For a SourceFile given by edit(), the primitives carried over that have been evaluated 
+     * are only included in the summaries, not evaluated again.
+     * 
+     * @param settings the settings every primitive is evaluated with.
+     * @return the result given
+     * @throws IllegalArgumentException if this is given by edit() and settings differ from
+     * those the SourceFile edited was analyzed with.
+     */
+    public FormatVerdict analyze(final AnalysisSettings settings)
+    {
+    	checkNotEdited();
+    	if(carriedSettings != null && !carriedSettings.equals(settings))
+    	{
+    		throw new IllegalArgumentException("The primitives carried over by edit() were evaluated with other settings.");
+    	}
+    	
+		final var summaries = new Summaries();
+		final var metrics = Metrics.global();
+		final var event = new AnalysisEvents.Evaluation();
+		event.begin();
+		long phase_start = System.nanoTime();
+		
+		// Evaluate format tokens
+		evaluateTokens(0, numFormatTokens(), settings, summaries);
+		phase_start = metrics.record(Phase.TOKEN_EVALUATION, phase_start);
+		
+		// Evaluate lines
+		evaluateLines(0, lineArray.length, settings, summaries);
+		metrics.record(Phase.LINE_EVALUATION, phase_start);
+		
+		carriedSettings = null;
+		analyzedWith = settings;
+		var verdict = summaries.giveVerdict();
+		event.end();
+		commit(event);
+		return verdict;
+    }
+    
+    // The default number of tokens or lines that analyzeParallel() evaluates in one task.
+    public static final int DEFAULT_PARALLEL_CHUNK_SIZE = 2048;
+    
+    /**
+     * The same as analyzeParallel(settings, DEFAULT_PARALLEL_CHUNK_SIZE).
+     * @param settings
+     * @return the result given
+     */
+    public FormatVerdict analyzeParallel(final AnalysisSettings settings)
+    {
+    	return analyzeParallel(settings, DEFAULT_PARALLEL_CHUNK_SIZE);
+    }
+    
+    /**
+     * Analyzes the source code in the file and gives the same result as analyze(settings),
+     * but evaluates the primitives in parallel, which pays off for a very large file.
+     * 
+     * The tokens and then the lines are split into chunks, 
+     * each of which is evaluated by a fork/join task into its own summaries.
+     * The summaries are merged in the order of the chunks (c.f. FormatEvalSummary.merge()).
+     * That works because evaluating a primitive only changes the primitive itself,
+     * and only reads the tables of the SourceFile and the syntax structure, which are not changed.
+     * 
+     * It runs in the ForkJoinPool the caller is in, or the common pool.
+     * 
+     * @param settings the settings every primitive is evaluated with.
+     * @param chunkSize the most tokens or lines evaluated in one task.
+     * @return the result given
+     * @throws IllegalArgumentException if chunkSize <= 0, or as analyze(settings) does.
+     */
+    public FormatVerdict analyzeParallel(final AnalysisSettings settings, int chunkSize)
+    {
+    	checkNotEdited();
+    	if(chunkSize <= 0)
+    	{
+    		throw new IllegalArgumentException("chunkSize must be positive.");
+    	}
+    	if(carriedSettings != null && !carriedSettings.equals(settings))
+    	{
+    		throw new IllegalArgumentException("The primitives carried over by edit() were evaluated with other settings.");
+    	}
+    	
+    	// The lines after the tokens, as in analyze().
+    	final var metrics = Metrics.global();
+    	final var event = new AnalysisEvents.Evaluation();
+    	event.begin();
+    	long phase_start = System.nanoTime();
+    	final var summaries = new EvaluationTask(false, 0, numFormatTokens(), settings, chunkSize).invoke();
+    	phase_start = metrics.record(Phase.TOKEN_EVALUATION, phase_start);
+    	summaries.merge(new EvaluationTask(true, 0, lineArray.length, settings, chunkSize).invoke());
+    	metrics.record(Phase.LINE_EVALUATION, phase_start);
+    	
+		carriedSettings = null;
+		analyzedWith = settings;
+		var verdict = summaries.giveVerdict();
+		event.end();
+		commit(event);
+		return verdict;
+    }
+    
+    /**
+     * Evaluates the tokens [from, to) in order, and includes them in summaries.
+     * A token carried over by edit() that has been evaluated is only included.
+     */
+    private void evaluateTokens(int from, int to, final AnalysisSettings settings, Summaries summaries)
+    {
+		// Get the syntax structure for syntax contexts
+		final var syntax_structure = getSyntaxStructure();
+		
+		// For each ft, evaluate it and add it to the corresponding summary.
+		for(int i = from; i < to; ++i)
+		{
+	    	var tk = formatTokenArray[i];
+	    	
+	    	if(carriedSettings == null || !tk.isEvaluated())
+	    	{
+	    		var tk_ctx = new PrimitiveContext(syntax_structure.getSyntaxContext(tk), settings);
+	    		tk.evaluateFormat(this, tk_ctx);
+	    	}
+	    	summaries.include(tk);
+		}
+    }
+    
+    /**
+     * Evaluates the lines [from, to) (0-based) in order, and includes them in summaries.
+     * A line carried over by edit() that has been evaluated is only included.
+     */
+    private void evaluateLines(int from, int to, final AnalysisSettings settings, Summaries summaries)
+    {
+		final var syntax_structure = getSyntaxStructure();
+		
+		// For each line, evaluate it and add it to the summary.
+		for(int i = from; i < to; ++i)
+		{
+			var line = lineArray[i];
+	    	
+			if(carriedSettings == null || !line.isEvaluated())
+			{
+				var line_ctx = new PrimitiveContext(syntax_structure.getSyntaxContext(line), settings);
+				line.evaluateFormat(this, line_ctx);
+			}
+	    	summaries.include(line);
+		}
+    }
+    
+    /**
+     * Only for analyzeParallel().
+     * Evaluates a range of the tokens or the lines, 
+     * splitting it in halves until it's within the chunk size.
+     */
+    private final class EvaluationTask extends RecursiveTask<Summaries>
+    {
+		private static final long serialVersionUID = 1L;
+		
+		// Whether the range is of the lines or of the tokens.
+		private final boolean ofLines;
+		// [from, to)
+		private final int from;
+		private final int to;
+		private final AnalysisSettings settings;
+		private final int chunkSize;
+		
+		EvaluationTask(boolean ofLines, int from, int to, AnalysisSettings settings, int chunkSize)
+		{
+			this.ofLines = ofLines;
+			this.from = from;
+			this.to = to;
+			this.settings = settings;
+			this.chunkSize = chunkSize;
+		}
+		
+		@Override
+		protected Summaries compute()
+		{
+			if(to - from <= chunkSize)
+			{
+				var ret = new Summaries();
+				if(ofLines)
+				{
+					evaluateLines(from, to, settings, ret);
+				}
+				else
+				{
+					evaluateTokens(from, to, settings, ret);
+				}
+				return ret;
+			}
+			
+			int mid = (from + to) >>> 1;
+			var left = new EvaluationTask(ofLines, from, mid, settings, chunkSize);
+			var right = new EvaluationTask(ofLines, mid, to, settings, chunkSize);
+			left.fork();
+			var right_summaries = right.compute();
+			var ret = left.join();
+			// In order: the left range is before the right.
+			ret.merge(right_summaries);
+			return ret;
+		}
+    }
+    
+    /**
+     * Commits an event of a phase that has ended, if it's recorded.
+     * @param event
+     */
+    private void commit(AnalysisEvents.Base event)
+    {
+    	if(event.shouldCommit())
+    	{
+    		event.set
+    		(
+    			getSourceName(), formatTokenArray.length, lineArray.length, 
+    			syntaxStructureBuilder.getMaxScopeDepth()
+    		);
+    		event.commit();
+    	}
+    }
+    
+    /**
+     * The summaries of all kinds of primitives of one analysis.
+     */
+    private static final class Summaries
+    {
+    	// TODO: after summary classes for different CodeBlocks are written,
+		// add the evaluated code blocks to them.
+		final CodeBlockSummary cbSummary = new CodeBlockSummary();
+		final WsBlockSummary wsBlockSummary = new WsBlockSummary();
+		final CommentBlockSummary commentBlockSummary = new CommentBlockSummary();
+		final JavaDocSummary javaDocSummary = new JavaDocSummary();
+		final LineSummary lineSummary = new LineSummary();
+		// Of all kinds, only for the metrics.
+		int numTokens = 0;
+		
+		/**
+		 * Adds an evaluated tk to the corresponding summary.
+		 * @param tk
+		 */
+		void include(FormatToken tk)
+		{
+			++numTokens;
+	    	if(tk instanceof WsBlock)
+	    	{
+	    		wsBlockSummary.include((WsBlock)tk);
+	    	}
+	    	else if(tk instanceof JavaDocBlock)
+	    	{
+	    		javaDocSummary.include((JavaDocBlock)tk);
+	    	}
+	    	else if(tk instanceof CommentBlock)
+	    	{
+	    		commentBlockSummary.include((CommentBlock)tk);
+	    	}
+	    	else if(tk instanceof CodeBlock)
+	    	{
+	    		cbSummary.include((CodeBlock)tk);
+	    	}
+		}
+		
+		void include(Line line)
+		{
+			lineSummary.include(line);
+		}
+		
+		/**
+		 * Merges other, which includes the primitives after those included in this, into this.
+		 * @param other
+		 */
+		void merge(Summaries other)
+		{
+			cbSummary.merge(other.cbSummary);
+			wsBlockSummary.merge(other.wsBlockSummary);
+			commentBlockSummary.merge(other.commentBlockSummary);
+			javaDocSummary.merge(other.javaDocSummary);
+			lineSummary.merge(other.lineSummary);
+			numTokens += other.numTokens;
+		}
+		
+		/**
+		 * Summarizes all the summaries, includes them in a verdict and gives the verdict.
+		 * @return the verdict.
+		 */
+		FormatVerdict giveVerdict()
+		{
+			long start = System.nanoTime();
+			FormatVerdict verdict = new FormatVerdict();
+			
+			cbSummary.summarize();
+			wsBlockSummary.summarize();
+			commentBlockSummary.summarize();
+			javaDocSummary.summarize();
+			lineSummary.summarize();
+			
+			// Include the summaries in the verdict
+			verdict.include(wsBlockSummary);
+			verdict.include(commentBlockSummary);
+			verdict.include(javaDocSummary);
+			verdict.include(cbSummary);
+			verdict.include(lineSummary);
+			
+			// Don't forget to give verdict
+			verdict.giveVerdict();
+			
+			Metrics.global().record(Phase.VERDICT, start);
+			Metrics.global().recordAnalysis(numTokens, lineSummary.getNumLines());
+			return verdict;
+		}
     }
 }
@@ -0,0 +1,644 @@
+/**
+ * 
+ */
+package edu.guanyfyp.batch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import edu.guanyfyp.SourceFile;
+import edu.guanyfyp.format.FormatVerdict;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+
+/**
+ * Analyzes many source files inside one JVM.
+ * 
+ * The files are analyzed concurrently on a fixed pool of workers.
+ * Each file is analyzed independently from the others (a SourceFile is never shared between threads),
+ * so the only things the workers share are the ANTLR lexer/parser caches, which ANTLR makes thread-safe.
+ * 
+ * Zip and jar archives of submissions are analyzed entry by entry, straight out of the archive,
+ * so they never have to be extracted.
+ * 
+ * With a VerdictCache, a file whose content and settings have a verdict cached gets that verdict
+ * without being analyzed again, and files with the same content in one batch are analyzed only once.
+ * 
+ * The result of each file is handed to a consumer on the calling thread as soon as it is available,
+ * so that the verdicts do not have to be kept until the end of the batch.
+ * Only the aggregate, a BatchSummary, is kept for the whole batch.
+ */
+public final class BatchAnalyzer
+{
+//////////////////////// Other members ////////////////////////
+	/**
+	 * Why a file could not be analyzed.
+	 */
+	public static enum Failure
+	{
+		// The file was analyzed.
+		NONE,
+		// The source code has syntax errors.
+		GRAMMATICAL_ERRORS,
+		// The file could not be read.
+		CANNOT_OPEN,
+		// The analysis failed unexpectedly, i.e. because of a bug in it.
+		INTERNAL_ERROR
+	}
+	
+	/**
+	 * The outcome of analyzing one file in a batch.
+	 * Exactly one of verdict and errorMessage is null.
+	 */
+	public static final class FileResult
+	{
+		public FileResult(Path path, FormatVerdict verdict, Failure failure, String errorMessage)
+		{
+			this.path = path;
+			this.verdict = verdict;
+			this.failure = failure;
+			this.errorMessage = errorMessage;
+		}
+
+		// The file analyzed.
+		public final Path path;
+		// The verdict of the file, or null if the file could not be analyzed.
+		public final FormatVerdict verdict;
+		// Why the file could not be analyzed, NONE if it was analyzed.
+		public final Failure failure;
+		// Why the file could not be analyzed, or null if it was analyzed.
+		public final String errorMessage;
+
+		/**
+		 * @return true iff the file was analyzed and has a verdict.
+		 */
+		public boolean succeeded()
+		{
+			return verdict != null;
+		}
+	}
+
+	// The extension of the files that are picked up when a directory is walked.
+	public static final String SOURCE_FILE_EXTENSION = ".java";
+	// The extensions of the archives whose entries are analyzed without extracting them.
+	public static final List<String> ARCHIVE_EXTENSIONS = List.of(".zip", ".jar");
+
+//////////////////////// Fields ////////////////////////
+	// How many files are analyzed at the same time.
+	private final int numWorkers;
+	// The settings all the files are analyzed with.
+	private final AnalysisSettings settings;
+	// Where the verdicts are cached, or null not to cache them.
+	private final VerdictCache cache;
+
+//////////////////////// Ctor ////////////////////////
+	/**
+	 * @param numWorkers how many files are analyzed at the same time.
+	 * @param settings the settings all the files are analyzed with.
+	 * @param cache where the verdicts are cached, or null not to cache them.
+	 * @throws IllegalArgumentException if numWorkers <= 0
+	 */
+	public BatchAnalyzer(int numWorkers, AnalysisSettings settings, VerdictCache cache)
+	{
+		if(numWorkers <= 0)
+		{
+			throw new IllegalArgumentException("numWorkers must be positive.");
+		}
+
+		this.numWorkers = numWorkers;
+		this.settings = settings;
+		this.cache = cache;
+	}
+
+	/**
+	 * Does not cache the verdicts.
+	 * @param numWorkers how many files are analyzed at the same time.
+	 * @param settings the settings all the files are analyzed with.
+	 * @throws IllegalArgumentException if numWorkers <= 0
+	 */
+	public BatchAnalyzer(int numWorkers, AnalysisSettings settings)
+	{
+		this(numWorkers, settings, null);
+	}
+
+	/**
+	 * Analyzes the files with a snapshot of the global settings.
+	 * @param numWorkers how many files are analyzed at the same time.
+	 * @throws IllegalArgumentException if numWorkers <= 0
+	 */
+	public BatchAnalyzer(int numWorkers)
+	{
+		this(numWorkers, AnalysisSettings.fromGlobalSettings());
+	}
+
+	/**
+	 * Uses one worker per available processor.
+	 */
+	public BatchAnalyzer()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public int getNumWorkers() { return numWorkers; }
+	public AnalysisSettings getSettings() { return settings; }
+	public VerdictCache getCache() { return cache; }
+
+//////////////////////// Collecting the inputs ////////////////////////
+
+	/**
+	 * Expands the inputs into the list of the source files they denote.
+	 * An input can be
+	 * 	1. a regular file, which is taken as it is. It can be an archive (c.f. analyze()).
+	 * 	2. a directory, which is walked recursively for all files that end with SOURCE_FILE_EXTENSION.
+	 * 	3. a glob pattern (e.g. submissions/** /*.java, without the space),
+	 * 	which is matched against the files under the longest leading part of it that has no glob character.
+	 *
+	 * A file denoted by more than one input is only included once.
+	 *
+	 * @param inputs the inputs.
+	 * @return the source files, in the order they are found.
+	 * @throws IOException if a directory cannot be walked.
+	 * @throws IllegalArgumentException if an input is neither an existing file or directory nor a glob pattern.
+	 */
+	public static List<Path> collectSourceFiles(List<String> inputs) throws IOException
+	{
+		Set<Path> files = new LinkedHashSet<>();
+
+		for(var input : inputs)
+		{
+			if(isGlobPattern(input))
+			{
+				collectGlobMatches(input, files);
+				continue;
+			}
+
+			Path p = Paths.get(input);
+			if(Files.isDirectory(p))
+			{
+				try(Stream<Path> walk = Files.walk(p))
+				{
+					walk.filter(Files::isRegularFile)
+						.filter(f -> f.getFileName().toString().endsWith(SOURCE_FILE_EXTENSION))
+						.sorted()
+						.forEach(files::add);
+				}
+			}
+			else if(Files.isRegularFile(p))
+			{
+				files.add(p);
+			}
+			else
+			{
+				throw new IllegalArgumentException(input + " is neither a file, a directory, nor a glob pattern.");
+			}
+		}
+
+		return new ArrayList<>(files);
+	}
+
+	/**
+	 * @param input
+	 * @return true iff input has any of the characters that have a special meaning in a glob.
+	 */
+	private static boolean isGlobPattern(String input)
+	{
+		for(int i = 0; i < input.length(); ++i)
+		{
+			switch(input.charAt(i))
+			{
+			case '*':
+			case '?':
+			case '[':
+			case '{':
+				return true;
+			default:
+				break;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds all the files that match the glob pattern to files.
+	 * The walk starts from the longest leading part of the pattern that has no glob character.
+	 * @param pattern the glob pattern
+	 * @param files where the matches go
+	 * @throws IOException if the walk fails.
+	 */
+	private static void collectGlobMatches(String pattern, Set<Path> files) throws IOException
+	{
+		// Find the longest leading directory without glob characters.
+		// Normalise the separators first so that both / and \ work on all platforms.
+		String normalised = pattern.replace('\\', '/');
+		int lastSep = -1;
+		for(int i = 0; i < normalised.length(); ++i)
+		{
+			char c = normalised.charAt(i);
+			if(c == '*' || c == '?' || c == '[' || c == '{')
+			{
+				break;
+			}
+			if(c == '/')
+			{
+				lastSep = i;
+			}
+		}
+
+		Path base = lastSep == -1 ? Paths.get(".") : Paths.get(normalised.substring(0, lastSep + 1));
+		if(!Files.isDirectory(base))
+		{
+			return;
+		}
+
+		// The matcher is applied to the paths relative to the base,
+		// so the leading part is cut off from the pattern as well.
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher
+		(
+			"glob:" + normalised.substring(lastSep + 1)
+		);
+		try(Stream<Path> walk = Files.walk(base))
+		{
+			walk.filter(Files::isRegularFile)
+				.filter(f -> matcher.matches(base.relativize(f)))
+				.sorted()
+				.forEach(files::add);
+		}
+	}
+
+//////////////////////// Analyzing ////////////////////////
+
+	/**
+	 * Analyzes one file.
+	 * Never throws for a file that cannot be analyzed, but reports it in the result.
+	 *
+	 * @param path the file
+	 * @param settings the settings the file is analyzed with.
+	 * @return the result
+	 */
+	public static FileResult analyzeOne(Path path, AnalysisSettings settings)
+	{
+		try
+		{
+			SourceFile sf = new SourceFile(path.toString());
+			return new FileResult(path, sf.analyze(settings), Failure.NONE, null);
+		}
+		catch(UnsupportedOperationException e)
+		{
+			return new FileResult
+			(
+				path, null, Failure.GRAMMATICAL_ERRORS, 
+				"The source file has grammatical errors. " + e.getMessage()
+			);
+		}
+		catch(IOException e)
+		{
+			return new FileResult
+			(
+				path, null, Failure.CANNOT_OPEN, 
+				"The source file could not be opened. " + e.getMessage()
+			);
+		}
+	}
+
+	/**
+	 * Analyzes one entry of an archive, decoding it from the archive as it's read.
+	 * Never throws for an entry that cannot be analyzed, but reports it in the result.
+	 *
+	 * @param archive the archive, which must be open.
+	 * @param entry the entry in archive.
+	 * @param archivePath where archive is. The path of the result is the entry's name resolved against it.
+	 * @param settings the settings the entry is analyzed with.
+	 * @return the result
+	 */
+	public static FileResult analyzeEntry(ZipFile archive, ZipEntry entry, Path archivePath, AnalysisSettings settings)
+	{
+		Path path = archivePath.resolve(entry.getName());
+		try(InputStream in = archive.getInputStream(entry))
+		{
+			var verdict = SourceFile.fromInputStream(in, StandardCharsets.UTF_8).analyze(settings);
+			return new FileResult(path, verdict, Failure.NONE, null);
+		}
+		catch(UnsupportedOperationException e)
+		{
+			return new FileResult
+			(
+				path, null, Failure.GRAMMATICAL_ERRORS, 
+				"The source file has grammatical errors. " + e.getMessage()
+			);
+		}
+		catch(IOException e)
+		{
+			return new FileResult
+			(
+				path, null, Failure.CANNOT_OPEN, 
+				"The source file could not be opened. " + e.getMessage()
+			);
+		}
+	}
+
+	/**
+	 * @param path
+	 * @return true iff path names a zip or jar archive, judged by its extension.
+	 */
+	public static boolean isArchive(Path path)
+	{
+		String name = path.getFileName().toString().toLowerCase();
+		for(var ext : ARCHIVE_EXTENSIONS)
+		{
+			if(name.endsWith(ext))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Analyzes all the files on the worker pool.
+	 * A file that is an archive (c.f. isArchive()) is not analyzed itself,
+	 * but each of its entries that ends with SOURCE_FILE_EXTENSION is, straight out of the archive.
+	 * An archive that cannot be opened gets one CANNOT_OPEN result.
+	 *
+	 * onResult is called on the calling thread, once for each file or entry,
+	 * in the order in which they finish (not in the order given).
+	 *
+	 * @param files the files to analyze.
+	 * @param onResult receives each result. Can be null if one only wants the summary.
+	 * @return the summary of the whole batch.
+	 * @throws InterruptedException if the calling thread is interrupted while waiting.
+	 * In that case the remaining files are not analyzed.
+	 */
+	public BatchSummary analyze(List<Path> files, Consumer<FileResult> onResult) throws InterruptedException
+	{
+		BatchSummary summary = new BatchSummary();
+		// The archives stay open until all their entries are analyzed.
+		List<ZipFile> archives = new ArrayList<>();
+		// The verdicts of the contents analyzed in this batch, by their keys in the cache.
+		Map<String, CompletableFuture<FormatVerdict>> inBatch = new ConcurrentHashMap<>();
+		try
+		{
+			List<Callable<FileResult>> tasks = new ArrayList<>(files.size());
+			// The file or entry of each task, for the result if the task fails unexpectedly.
+			List<Path> taskPaths = new ArrayList<>(files.size());
+			for(var f : files)
+			{
+				if(!isArchive(f))
+				{
+					taskPaths.add(f);
+					tasks.add
+					(
+						cache == null ? 
+						() -> analyzeOne(f, settings) :
+						() -> analyzeCached(f, () -> Files.readAllBytes(f), inBatch)
+					);
+					continue;
+				}
+
+				ZipFile archive;
+				try
+				{
+					archive = new ZipFile(f.toFile(), StandardCharsets.UTF_8);
+				}
+				catch(IOException e)
+				{
+					var result = new FileResult
+					(
+						f, null, Failure.CANNOT_OPEN, 
+						"The archive could not be opened. " + e.getMessage()
+					);
+					taskPaths.add(f);
+					tasks.add(() -> result);
+					continue;
+				}
+				archives.add(archive);
+
+				// ZipFile can be read by many threads at the same time.
+				archive.stream()
+					.filter(entry -> !entry.isDirectory() && entry.getName().endsWith(SOURCE_FILE_EXTENSION))
+					.forEach(entry -> 
+					{
+						taskPaths.add(f.resolve(entry.getName()));
+						tasks.add
+						(
+							cache == null ?
+							() -> analyzeEntry(archive, entry, f, settings) :
+							() -> analyzeCached
+							(
+								f.resolve(entry.getName()), 
+								() -> { try(var in = archive.getInputStream(entry)) { return in.readAllBytes(); } },
+								inBatch
+							)
+						);
+					});
+			}
+
+			runTasks(tasks, taskPaths, summary, onResult);
+		}
+		finally
+		{
+			for(var archive : archives)
+			{
+				try
+				{
+					archive.close();
+				}
+				catch(IOException e)
+				{
+					// Only read from, so nothing is lost.
+				}
+			}
+		}
+
+		return summary;
+	}
+
+	/**
+	 * Reads the content of a file or an entry.
+	 */
+	@FunctionalInterface
+	private static interface ContentReader
+	{
+		byte[] read() throws IOException;
+	}
+
+	/**
+	 * Gives the verdict of a content from, in this order,
+	 * 	1. the file or entry with the same content in this batch that was analyzed first,
+	 * 	2. the cache,
+	 * 	3. analyzing the content, after which the verdict is cached.
+	 * Never throws for a content that cannot be analyzed, but reports it in the result.
+	 *
+	 * @param path the file or entry, only for the result.
+	 * @param reader reads the content.
+	 * @param inBatch the verdicts of the contents analyzed in this batch.
+	 * @return the result
+	 */
+	private FileResult analyzeCached(Path path, ContentReader reader, Map<String, CompletableFuture<FormatVerdict>> inBatch)
+	{
+		try
+		{
+			byte[] content = reader.read();
+			String key = VerdictCache.keyOf(content, settings);
+
+			var mine = new CompletableFuture<FormatVerdict>();
+			var first = inBatch.putIfAbsent(key, mine);
+			FormatVerdict verdict;
+			if(first != null)
+			{
+				// The same content is being or has been analyzed by another worker.
+				// Because that worker is already running, waiting for it cannot deadlock.
+				verdict = first.join();
+			}
+			else
+			{
+				try
+				{
+					verdict = cache.get(key);
+					if(verdict == null)
+					{
+						verdict = SourceFile.fromInputStream
+						(
+							new ByteArrayInputStream(content), StandardCharsets.UTF_8
+						).analyze(settings);
+						try
+						{
+							cache.put(key, verdict);
+						}
+						catch(IOException e)
+						{
+							// It's only not cached.
+						}
+					}
+				}
+				catch(RuntimeException e)
+				{
+					// Those waiting for the verdict get the failure as well.
+					mine.completeExceptionally(e);
+					throw e;
+				}
+				mine.complete(verdict);
+			}
+
+			return new FileResult(path, verdict, Failure.NONE, null);
+		}
+		catch(CompletionException e)
+		{
+			if(!(e.getCause() instanceof UnsupportedOperationException))
+			{
+				throw e;
+			}
+			return new FileResult
+			(
+				path, null, Failure.GRAMMATICAL_ERRORS, 
+				"The source file has grammatical errors. " + e.getCause().getMessage()
+			);
+		}
+		catch(UnsupportedOperationException e)
+		{
+			return new FileResult
+			(
+				path, null, Failure.GRAMMATICAL_ERRORS, 
+				"The source file has grammatical errors. " + e.getMessage()
+			);
+		}
+		catch(IOException e)
+		{
+			return new FileResult
+			(
+				path, null, Failure.CANNOT_OPEN, 
+				"The source file could not be opened. " + e.getMessage()
+			);
+		}
+	}
+
+	/**
+	 * Runs the tasks on the worker pool and hands each result to summary and then onResult,
+	 * on the calling thread, as soon as it is available.
+	 *
+	 * A task that throws gets an INTERNAL_ERROR result, and the others go on.
+	 *
+	 * @param tasks each analyzes one file or entry and reports the expected failures itself.
+	 * @param taskPaths the file or entry of each task.
+	 * @param summary
+	 * @param onResult can be null.
+	 * @throws InterruptedException if the calling thread is interrupted while waiting.
+	 */
+	private void runTasks(List<Callable<FileResult>> tasks, List<Path> taskPaths, BatchSummary summary, Consumer<FileResult> onResult) 
+			throws InterruptedException
+	{
+		if(tasks.isEmpty())
+		{
+			return;
+		}
+
+		// Never start more threads than there are tasks.
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(numWorkers, tasks.size()));
+		try
+		{
+			CompletionService<FileResult> completion = new ExecutorCompletionService<>(pool);
+			// The futures are compared by identity.
+			Map<Future<FileResult>, Path> paths = new HashMap<>();
+			for(int i = 0; i < tasks.size(); ++i)
+			{
+				paths.put(completion.submit(tasks.get(i)), taskPaths.get(i));
+			}
+
+			for(int i = 0; i < tasks.size(); ++i)
+			{
+				FileResult result;
+				Future<FileResult> done = completion.take();
+				try
+				{
+					result = done.get();
+				}
+				catch(ExecutionException e)
+				{
+					// The tasks report the expected failures themselves,
+					// so this is a bug somewhere in the analysis, which should not cost the other files their results.
+					result = new FileResult
+					(
+						paths.get(done), null, Failure.INTERNAL_ERROR, 
+						"The analysis failed unexpectedly. " + e.getCause()
+					);
+				}
+
+				summary.include(result);
+				if(onResult != null)
+				{
+					onResult.accept(result);
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+}
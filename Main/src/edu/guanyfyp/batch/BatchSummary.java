@@ -0,0 +1,110 @@
+/**
+ * 
+ */
+package edu.guanyfyp.batch;
+
+import edu.guanyfyp.format.AggregateVerdict;
+import edu.guanyfyp.format.FormatVerdict;
+
+/**
+ * The aggregate of the results of a batch of files.
+ * 
+ * Only running sums are kept, so including a result does not keep its verdict alive.
+ * The frequencies are the means of those of the files that have a verdict.
+ * The pooled frequencies of the same files are kept alongside, in an AggregateVerdict (c.f. getAggregate()).
+ */
+public final class BatchSummary
+{
+//////////////////////// Fields ////////////////////////
+	private int numFiles = 0;
+	private int numFailed = 0;
+	private int numFilesWithComments = 0;
+
+	// Sums of the frequencies of the verdicts included.
+	private double identifierLengthProblemSum = 0.0;
+	private double identifierNamingProblemSum = 0.0;
+	private double spacingProblemSum = 0.0;
+	private double inconsistentScopeStyleSum = 0.0;
+	private double badJavaDocSum = 0.0;
+	private double lineLengthProblemSum = 0.0;
+	private double lineIndentationProblemSum = 0.0;
+
+	private final AggregateVerdict aggregate = new AggregateVerdict();
+
+//////////////////////// Methods ////////////////////////
+	/**
+	 * Includes the result of one file.
+	 * @param result
+	 */
+	public void include(BatchAnalyzer.FileResult result)
+	{
+		++numFiles;
+		if(!result.succeeded())
+		{
+			++numFailed;
+			return;
+		}
+
+		FormatVerdict v = result.verdict;
+		identifierLengthProblemSum += v.getIdentifierLengthProblemFrequency();
+		identifierNamingProblemSum += v.getIdentifierNamingProblemFrequency();
+		spacingProblemSum += v.getSpacingProblemFrequency();
+		inconsistentScopeStyleSum += v.getInconsistentScopeStyleFrequency();
+		badJavaDocSum += v.getBadJavaDocFrequency();
+		lineLengthProblemSum += v.getLineLengthProblemFrequency();
+		lineIndentationProblemSum += v.getLineIndentationProblemFrequency();
+		if(v.getHasCommentAtAll())
+		{
+			++numFilesWithComments;
+		}
+		aggregate.include(v);
+	}
+
+	public int getNumFiles() { return numFiles; }
+	public int getNumFailed() { return numFailed; }
+	public int getNumAnalyzed() { return numFiles - numFailed; }
+	public int getNumFilesWithComments() { return numFilesWithComments; }
+	/**
+	 * @return the aggregate of the verdicts of the analyzed files, whose frequencies are pooled over all their elements.
+	 */
+	public AggregateVerdict getAggregate() { return aggregate; }
+
+	/**
+	 * @param sum
+	 * @return the mean of sum over the analyzed files, or 0 if no file was analyzed.
+	 */
+	private float mean(double sum)
+	{
+		int n = getNumAnalyzed();
+		return n == 0 ? 0.0f : (float)(sum / n);
+	}
+
+	public float getMeanIdentifierLengthProblemFrequency() { return mean(identifierLengthProblemSum); }
+	public float getMeanIdentifierNamingProblemFrequency() { return mean(identifierNamingProblemSum); }
+	public float getMeanSpacingProblemFrequency() { return mean(spacingProblemSum); }
+	public float getMeanInconsistentScopeStyleFrequency() { return mean(inconsistentScopeStyleSum); }
+	public float getMeanBadJavaDocFrequency() { return mean(badJavaDocSum); }
+	public float getMeanLineLengthProblemFrequency() { return mean(lineLengthProblemSum); }
+	public float getMeanLineIndentationProblemFrequency() { return mean(lineIndentationProblemSum); }
+
+	@Override
+	public String toString()
+	{
+		StringBuilder ret = new StringBuilder();
+		ret.append("numFiles = ").append(numFiles).append('\n');
+		ret.append("numFailed = ").append(numFailed).append('\n');
+		ret.append("numFilesWithComments = ").append(numFilesWithComments).append('\n');
+		ret.append("meanIdentifierLengthProblemFrequency = ").append(getMeanIdentifierLengthProblemFrequency()).append('\n');
+		ret.append("meanIdentifierNamingProblemFrequency = ").append(getMeanIdentifierNamingProblemFrequency()).append('\n');
+		ret.append("meanSpacingProblemFrequency = ").append(getMeanSpacingProblemFrequency()).append('\n');
+		ret.append("meanInconsistentScopeStyleFrequency = ").append(getMeanInconsistentScopeStyleFrequency()).append('\n');
+		ret.append("meanBadJavaDocFrequency = ").append(getMeanBadJavaDocFrequency()).append('\n');
+		ret.append("meanLineLengthProblemFrequency = ").append(getMeanLineLengthProblemFrequency()).append('\n');
+		ret.append("meanLineIndentationProblemFrequency = ").append(getMeanLineIndentationProblemFrequency()).append('\n');
+		ret.append('\n');
+		ret.append("Pooled over the analyzed files:\n");
+		ret.append(aggregate);
+
+		return ret.toString();
+	}
+}
@@ -0,0 +1,497 @@
+/**
+ *
+ */
+package edu.guanyfyp.batch;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import edu.guanyfyp.SourceFile;
+import edu.guanyfyp.batch.BatchAnalyzer.Failure;
+import edu.guanyfyp.batch.BatchAnalyzer.FileResult;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+
+/**
+ * Watches source files and grades each one again as soon as it changes,
+ * for students who run the checker while they code, 
+ * so that they do not have to launch it again and again.
+ *
+ * The last SourceFile and verdict of each file are kept.
+ * When the file system reports changes, only the files whose modification time has changed
+ * are read, and only those whose content hash has also changed are analyzed again.
+ * A changed file is edited into its last SourceFile (c.f. SourceFile.edit()),
+ * so that a change of only whitespace or comments is not parsed again.
+ *
+ * Bursts of events, e.g. from an editor that writes a file several times when it saves it,
+ * are debounced: the files are only checked once no event has come for a while.
+ *
+ * The inputs are those of BatchAnalyzer.collectSourceFiles(), but archives are not watched.
+ * Source files created later are picked up in the directories given, but not for the glob patterns.
+ *
+ * It is not thread-safe, except that close() can be called from any thread to stop run().
+ */
+public final class FileWatcher implements Closeable
+{
+//////////////////////// Other members ////////////////////////
+	// How long no event must come before the files that changed are checked.
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 50;
+
+	/**
+	 * What is known about a file since it was last checked.
+	 */
+	private static final class WatchedFile
+	{
+		// When it was last modified, or null if it could not be read.
+		FileTime modified = null;
+		// The hash of its content, or null if it could not be read.
+		String hash = null;
+		// Its content and its SourceFile, which has been analyzed, 
+		// or null if it could not be analyzed.
+		String text = null;
+		SourceFile sourceFile = null;
+		// The last result, or null if it has never been checked.
+		FileResult result = null;
+	}
+
+//////////////////////// Fields ////////////////////////
+	// The settings all the files are analyzed with.
+	private final AnalysisSettings settings;
+	private final long debounceMillis;
+
+	private final WatchService watchService;
+	// The directory each key watches.
+	private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+	// The directories in which the source files created later are also watched.
+	private final Set<Path> walkedDirectories = new HashSet<>();
+	// The files watched, by their absolute paths, in the order they were found.
+	private final Map<Path, WatchedFile> files = new LinkedHashMap<>();
+
+//////////////////////// Ctor ////////////////////////
+	/**
+	 * Starts watching the source files denoted by the inputs. 
+	 * They are not analyzed until run() or refresh() is called.
+	 *
+	 * @param inputs files, directories, or glob patterns, c.f. BatchAnalyzer.collectSourceFiles().
+	 * @param settings the settings all the files are analyzed with.
+	 * @param debounceMillis how long no event must come before the files that changed are checked.
+	 * @throws IOException if a directory cannot be walked or watched.
+	 * @throws IllegalArgumentException if an input is neither an existing file or directory nor a glob pattern,
+	 * or debounceMillis < 0
+	 */
+	public FileWatcher(List<String> inputs, AnalysisSettings settings, long debounceMillis) throws IOException
+	{
+		if(debounceMillis < 0)
+		{
+			throw new IllegalArgumentException("debounceMillis must not be negative.");
+		}
+
+		this.settings = settings;
+		this.debounceMillis = debounceMillis;
+
+		var sourceFiles = BatchAnalyzer.collectSourceFiles(inputs);
+		watchService = FileSystems.getDefault().newWatchService();
+		try
+		{
+			for(var input : inputs)
+			{
+				Path p = Paths.get(input);
+				if(Files.isDirectory(p))
+				{
+					watchTree(absolute(p));
+				}
+			}
+			for(var f : sourceFiles)
+			{
+				if(BatchAnalyzer.isArchive(f))
+				{
+					continue;
+				}
+				Path file = absolute(f);
+				watchDirectory(file.getParent());
+				files.putIfAbsent(file, new WatchedFile());
+			}
+		}
+		catch(IOException e)
+		{
+			watchService.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Uses DEFAULT_DEBOUNCE_MILLIS.
+	 * @param inputs
+	 * @param settings
+	 * @throws IOException
+	 */
+	public FileWatcher(List<String> inputs, AnalysisSettings settings) throws IOException
+	{
+		this(inputs, settings, DEFAULT_DEBOUNCE_MILLIS);
+	}
+
+//////////////////////// Observers ////////////////////////
+	public AnalysisSettings getSettings() { return settings; }
+	public long getDebounceMillis() { return debounceMillis; }
+
+	/**
+	 * @return the absolute paths of the files watched, in the order they were found.
+	 */
+	public List<Path> getFiles()
+	{
+		return new ArrayList<>(files.keySet());
+	}
+
+	/**
+	 * @param file
+	 * @return the last result of file, or null if it is not watched or has not been checked.
+	 */
+	public FileResult getResult(Path file)
+	{
+		var w = files.get(absolute(file));
+		return w == null ? null : w.result;
+	}
+
+	/**
+	 * @param file
+	 * @return the last SourceFile of file, which has been analyzed, 
+	 * or null if it is not watched or could not be analyzed.
+	 * It MUST NOT be analyzed or edited, as it is edited when file changes.
+	 */
+	public SourceFile getSourceFile(Path file)
+	{
+		var w = files.get(absolute(file));
+		return w == null ? null : w.sourceFile;
+	}
+
+//////////////////////// Watching ////////////////////////
+
+	/**
+	 * Analyzes all the files, then analyzes each file again whenever it changes,
+	 * until close() is called or the thread is interrupted.
+	 *
+	 * @param onResult called with each new result, on the calling thread.
+	 * @throws InterruptedException if interrupted while waiting for changes.
+	 */
+	public void run(Consumer<FileResult> onResult) throws InterruptedException
+	{
+		for(var f : getFiles())
+		{
+			report(refresh(f), onResult);
+		}
+
+		try
+		{
+			while(true)
+			{
+				// Wait for the first event, then for the burst to end.
+				var changed = new LinkedHashSet<Path>();
+				WatchKey key = watchService.take();
+				do
+				{
+					collectChanges(key, changed);
+					key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+				}
+				while(key != null);
+
+				for(var f : changed)
+				{
+					report(refresh(f), onResult);
+				}
+			}
+		}
+		catch(ClosedWatchServiceException e)
+		{
+			// Closed.
+		}
+	}
+
+	/**
+	 * Checks file and analyzes it again if it has changed since it was last checked.
+	 * A file that is not watched yet starts being watched.
+	 *
+	 * @param file
+	 * @return the new result of file, or null if it has not changed.
+	 */
+	public FileResult refresh(Path file)
+	{
+		file = absolute(file);
+		var w = files.computeIfAbsent(file, f -> new WatchedFile());
+
+		FileTime modified;
+		byte[] content;
+		try
+		{
+			modified = Files.getLastModifiedTime(file);
+			if(modified.equals(w.modified))
+			{
+				return null;
+			}
+			content = Files.readAllBytes(file);
+		}
+		catch(IOException e)
+		{
+			var was = w.result;
+			forget(w);
+			w.result = new FileResult
+			(
+				file, null, Failure.CANNOT_OPEN, 
+				"The source file could not be opened. " + e.getMessage()
+			);
+			// Report it only once.
+			return was != null && was.failure == Failure.CANNOT_OPEN ? null : w.result;
+		}
+
+		w.modified = modified;
+		String hash = VerdictCache.sha256(content);
+		if(hash.equals(w.hash))
+		{
+			// Saved without changes.
+			return null;
+		}
+
+		String text = new String(content, StandardCharsets.UTF_8);
+		try
+		{
+			var sf = w.sourceFile == null ? SourceFile.fromString(text) : editInto(w.sourceFile, w.text, text);
+			var verdict = sf.analyze(settings);
+			w.sourceFile = sf;
+			w.text = text;
+			w.hash = hash;
+			w.result = new FileResult(file, verdict, Failure.NONE, null);
+		}
+		catch(UnsupportedOperationException e)
+		{
+			// The last SourceFile cannot be used after being edited.
+			w.sourceFile = null;
+			w.text = null;
+			w.hash = hash;
+			w.result = new FileResult
+			(
+				file, null, Failure.GRAMMATICAL_ERRORS, 
+				"The source file has grammatical errors. " + e.getMessage()
+			);
+		}
+		catch(RuntimeException | AssertionError e)
+		{
+			// A bug in the analysis must not end watching. 
+			// Nothing about the file can be trusted, so it's analyzed from scratch when it's checked again.
+			forget(w);
+			w.result = new FileResult
+			(
+				file, null, Failure.INTERNAL_ERROR, 
+				"The analysis failed unexpectedly. " + e
+			);
+		}
+		return w.result;
+	}
+
+	/**
+	 * Stops watching. A run() in progress returns.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		watchService.close();
+	}
+
+//////////////////////// Helpers ////////////////////////
+
+	private static Path absolute(Path p)
+	{
+		return p.toAbsolutePath().normalize();
+	}
+
+	private static void report(FileResult result, Consumer<FileResult> onResult)
+	{
+		if(result != null)
+		{
+			onResult.accept(result);
+		}
+	}
+
+	/**
+	 * Forgets the content of the file, so that it is analyzed from scratch when it can be read again.
+	 * @param w
+	 */
+	private static void forget(WatchedFile w)
+	{
+		w.modified = null;
+		w.hash = null;
+		w.text = null;
+		w.sourceFile = null;
+	}
+
+	/**
+	 * @param dir absolute.
+	 * @throws IOException
+	 */
+	private void watchDirectory(Path dir) throws IOException
+	{
+		if(watchedDirectories.containsValue(dir))
+		{
+			return;
+		}
+		watchedDirectories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+	}
+
+	/**
+	 * Watches root and all the directories under it, 
+	 * and the source files created in them later.
+	 * @param root absolute.
+	 * @throws IOException
+	 */
+	private void watchTree(Path root) throws IOException
+	{
+		try(Stream<Path> walk = Files.walk(root))
+		{
+			for(var dir : (Iterable<Path>)walk.filter(Files::isDirectory)::iterator)
+			{
+				watchDirectory(dir);
+				walkedDirectories.add(dir);
+			}
+		}
+	}
+
+	/**
+	 * Adds the watched files that the events of key may have changed to changed, and resets key.
+	 * @param key
+	 * @param changed
+	 */
+	private void collectChanges(WatchKey key, Set<Path> changed)
+	{
+		Path dir = watchedDirectories.get(key);
+		for(WatchEvent<?> event : key.pollEvents())
+		{
+			if(event.kind() == OVERFLOW)
+			{
+				// Some events are lost, so check everything.
+				changed.addAll(files.keySet());
+				continue;
+			}
+
+			Path p = dir.resolve((Path)event.context());
+			if(event.kind() == ENTRY_CREATE && walkedDirectories.contains(dir) && Files.isDirectory(p))
+			{
+				try
+				{
+					watchTree(p);
+					try(Stream<Path> walk = Files.walk(p))
+					{
+						walk.filter(this::isNewSourceFile).forEach(changed::add);
+					}
+				}
+				catch(IOException e)
+				{
+					// Gone already.
+				}
+				continue;
+			}
+
+			if(files.containsKey(p) || isNewSourceFile(p))
+			{
+				changed.add(p);
+			}
+		}
+
+		if(!key.reset())
+		{
+			// The directory is gone.
+			watchedDirectories.remove(key);
+		}
+	}
+
+	/**
+	 * @param p absolute
+	 * @return true iff p is a source file in a directory where new source files are watched.
+	 */
+	private boolean isNewSourceFile(Path p)
+	{
+		return walkedDirectories.contains(p.getParent()) &&
+				p.getFileName().toString().endsWith(BatchAnalyzer.SOURCE_FILE_EXTENSION) &&
+				Files.isRegularFile(p);
+	}
+
+	/**
+	 * Edits sf, whose source code is old, into the SourceFile of now.
+	 * The text between the longest common prefix and suffix of them is replaced.
+	 * @param sf
+	 * @param old
+	 * @param now
+	 * @return the SourceFile of now.
+	 * @throws UnsupportedOperationException if now contains some syntax error.
+	 */
+	private static SourceFile editInto(SourceFile sf, String old, String now) throws UnsupportedOperationException
+	{
+		int max = Math.min(old.length(), now.length());
+		int prefix = 0;
+		while(prefix < max && old.charAt(prefix) == now.charAt(prefix))
+		{
+			++prefix;
+		}
+		// Do not split a code point.
+		if(prefix > 0 && Character.isHighSurrogate(old.charAt(prefix - 1)))
+		{
+			--prefix;
+		}
+		int suffix = 0;
+		while(suffix < max - prefix && 
+				old.charAt(old.length() - 1 - suffix) == now.charAt(now.length() - 1 - suffix))
+		{
+			++suffix;
+		}
+		if(suffix > 0 && Character.isLowSurrogate(old.charAt(old.length() - suffix)))
+		{
+			--suffix;
+		}
+
+		int[] start = locationOf(old, prefix);
+		int[] end = locationOf(old, old.length() - suffix);
+		return sf.edit(start[0], start[1], end[0], end[1], now.substring(prefix, now.length() - suffix));
+	}
+
+	/**
+	 * @param text
+	 * @param offset of a char in text
+	 * @return the line (from 1) and the column (in code points, from 0) of it, as the lexer counts them.
+	 */
+	private static int[] locationOf(String text, int offset)
+	{
+		int line = 1;
+		int lineStart = 0;
+		for(int i = 0; i < offset; ++i)
+		{
+			if(text.charAt(i) == '\n')
+			{
+				++line;
+				lineStart = i + 1;
+			}
+		}
+		return new int[] { line, text.codePointCount(lineStart, offset) };
+	}
+}
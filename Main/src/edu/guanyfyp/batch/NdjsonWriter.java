@@ -0,0 +1,337 @@
+/**
+ *
+ */
+package edu.guanyfyp.batch;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import edu.guanyfyp.format.AggregateVerdict;
+import edu.guanyfyp.format.FormatVerdict;
+import edu.guanyfyp.format.summaries.CompactSummary;
+import edu.guanyfyp.format.summaries.CompactSummary.Rule;
+
+/**
+ * Writes the results of a batch as newline-delimited JSON (NDJSON): one compact JSON object per line.
+ *
+ * Each result is written as soon as it is given (it's a Consumer of FileResult, c.f. BatchAnalyzer.analyze()),
+ * straight into a buffered writer, so nothing of the batch is kept and the output can be consumed live.
+ * A file that was analyzed:
+ * 	{"type":"file","path":...,"ok":true,"frequencies":{...},"counts":{...},"issues":{...}}
+ * A file that was not:
+ * 	{"type":"file","path":...,"ok":false,"failure":"GRAMMATICAL_ERRORS","error":...}
+ * And at the end of a batch (c.f. writeSummary()):
+ * 	{"type":"batch","numFiles":...,...}
+ *
+ * The counts and the issues come from the summaries of the verdict, or from its compact summaries.
+ * A verdict read from a VerdictCache has neither, so it only has the frequencies.
+ * The issues are [line, column] pairs by CompactSummary.Rule, and are only written if asked for.
+ */
+public final class NdjsonWriter implements Consumer<BatchAnalyzer.FileResult>, Flushable, Closeable
+{
+//////////////////////// Fields ////////////////////////
+	private final Writer out;
+	private final boolean withIssues;
+	// Whether to flush after every line, for readers that consume the output live.
+	private final boolean autoFlush;
+
+//////////////////////// Ctors ////////////////////////
+	/**
+	 * @param out where the lines are written. Should be buffered.
+	 * @param withIssues whether to write the locations of the issues.
+	 * @param autoFlush whether to flush after every line.
+	 */
+	public NdjsonWriter(Writer out, boolean withIssues, boolean autoFlush)
+	{
+		this.out = out;
+		this.withIssues = withIssues;
+		this.autoFlush = autoFlush;
+	}
+
+	/**
+	 * Writes to out in UTF-8, buffered.
+	 * @param out
+	 * @param withIssues
+	 * @param autoFlush
+	 */
+	public NdjsonWriter(OutputStream out, boolean withIssues, boolean autoFlush)
+	{
+		this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), withIssues, autoFlush);
+	}
+
+//////////////////////// Methods ////////////////////////
+	/**
+	 * Writes the line of a result.
+	 * @param result
+	 * @throws UncheckedIOException if it cannot be written.
+	 */
+	@Override
+	public void accept(BatchAnalyzer.FileResult result)
+	{
+		try
+		{
+			write(result);
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the line of a result. Can be called by many threads; the lines are never interleaved.
+	 * @param result
+	 * @throws IOException
+	 */
+	public synchronized void write(BatchAnalyzer.FileResult result) throws IOException
+	{
+		out.write("{\"type\":\"file\",\"path\":");
+		writeString(result.path.toString());
+		if(result.succeeded())
+		{
+			out.write(",\"ok\":true");
+			writeVerdict(result.verdict);
+		}
+		else
+		{
+			out.write(",\"ok\":false,\"failure\":");
+			writeString(result.failure.name());
+			out.write(",\"error\":");
+			writeString(result.errorMessage);
+		}
+		endLine();
+	}
+
+	/**
+	 * Writes the line of the aggregate of a batch.
+	 * @param summary
+	 * @throws IOException
+	 */
+	public synchronized void writeSummary(BatchSummary summary) throws IOException
+	{
+		out.write("{\"type\":\"batch\"");
+		writeField("numFiles", summary.getNumFiles());
+		writeField("numFailed", summary.getNumFailed());
+		writeField("numFilesWithComments", summary.getNumFilesWithComments());
+		writeField("meanIdentifierLengthProblemFrequency", summary.getMeanIdentifierLengthProblemFrequency());
+		writeField("meanIdentifierNamingProblemFrequency", summary.getMeanIdentifierNamingProblemFrequency());
+		writeField("meanSpacingProblemFrequency", summary.getMeanSpacingProblemFrequency());
+		writeField("meanInconsistentScopeStyleFrequency", summary.getMeanInconsistentScopeStyleFrequency());
+		writeField("meanBadJavaDocFrequency", summary.getMeanBadJavaDocFrequency());
+		writeField("meanLineLengthProblemFrequency", summary.getMeanLineLengthProblemFrequency());
+		writeField("meanLineIndentationProblemFrequency", summary.getMeanLineIndentationProblemFrequency());
+
+		AggregateVerdict a = summary.getAggregate();
+		out.write(",\"pooledFrequencies\":{");
+		out.write("\"identifierLengthProblem\":" + a.getIdentifierLengthProblemFrequency());
+		writeField("identifierNamingProblem", a.getIdentifierNamingProblemFrequency());
+		writeField("spacingProblem", a.getSpacingProblemFrequency());
+		writeField("inconsistentScopeStyle", a.getInconsistentScopeStyleFrequency());
+		writeField("badJavaDoc", a.getBadJavaDocFrequency());
+		writeField("lineLengthProblem", a.getLineLengthProblemFrequency());
+		writeField("lineIndentationProblem", a.getLineIndentationProblemFrequency());
+		out.write('}');
+		endLine();
+	}
+
+	@Override
+	public synchronized void flush() throws IOException
+	{
+		out.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		out.close();
+	}
+
+//////////////////////// Helpers ////////////////////////
+
+	private void writeVerdict(FormatVerdict v) throws IOException
+	{
+		out.write(",\"frequencies\":{");
+		out.write("\"identifierLengthProblem\":" + v.getIdentifierLengthProblemFrequency());
+		writeField("identifierNamingProblem", v.getIdentifierNamingProblemFrequency());
+		writeField("spacingProblem", v.getSpacingProblemFrequency());
+		writeField("inconsistentScopeStyle", v.getInconsistentScopeStyleFrequency());
+		writeField("badJavaDoc", v.getBadJavaDocFrequency());
+		writeField("lineLengthProblem", v.getLineLengthProblemFrequency());
+		writeField("lineIndentationProblem", v.getLineIndentationProblemFrequency());
+		out.write('}');
+		out.write(",\"hasComments\":" + v.getHasCommentAtAll());
+
+		// The compact forms, which have the counts and the locations of all the rules.
+		CompactSummary codeBlocks;
+		CompactSummary lines;
+		CompactSummary javaDocs;
+		if(v.isCompact())
+		{
+			codeBlocks = v.getCompactCodeBlockSummary();
+			lines = v.getCompactLineSummary();
+			javaDocs = v.getCompactJavaDocSummary();
+		}
+		else if(v.getLineSummary() != null)
+		{
+			codeBlocks = v.getCodeBlockSummary() == null ? null : v.getCodeBlockSummary().compact(0);
+			lines = v.getLineSummary().compact(0);
+			javaDocs = v.getJavaDocSummary() == null ? null : v.getJavaDocSummary().compact(0);
+		}
+		else
+		{
+			// Read from a cache: only the frequencies are known.
+			return;
+		}
+
+		out.write(",\"counts\":{");
+		boolean first = true;
+		if(codeBlocks != null)
+		{
+			first = writeCount("codeBlocks", codeBlocks.getNumIncluded(), first);
+		}
+		if(v.getCodeBlockSummary() != null)
+		{
+			var s = v.getCodeBlockSummary();
+			first = writeCount("identifiers", s.numIdentifiers, first);
+			first = writeCount("operators", s.numOperators, first);
+			first = writeCount("punctuation", s.numPunctuation, first);
+		}
+		if(lines != null)
+		{
+			first = writeCount("lines", lines.getNumIncluded(), first);
+		}
+		if(javaDocs != null)
+		{
+			first = writeCount("javaDocs", javaDocs.getNumIncluded(), first);
+		}
+		if(v.getCommentBlockSummary() != null)
+		{
+			first = writeCount("comments", v.getCommentBlockSummary().getNumComments(), first);
+		}
+		for(var rule : Rule.values())
+		{
+			int n = countOf(rule, codeBlocks) + countOf(rule, lines) + countOf(rule, javaDocs);
+			first = writeCount(rule.name(), n, first);
+		}
+		out.write('}');
+
+		if(withIssues)
+		{
+			out.write(",\"issues\":{");
+			first = true;
+			for(var rule : Rule.values())
+			{
+				CompactSummary of = countOf(rule, codeBlocks) > 0 ? codeBlocks :
+									countOf(rule, lines) > 0 ? lines :
+									countOf(rule, javaDocs) > 0 ? javaDocs : null;
+				if(of == null)
+				{
+					continue;
+				}
+
+				if(!first)
+				{
+					out.write(',');
+				}
+				first = false;
+				writeString(rule.name());
+				out.write(":[");
+				boolean firstIssue = true;
+				for(int i = 0; i < of.getNumRecords(); ++i)
+				{
+					if(of.getRule(i) != rule)
+					{
+						continue;
+					}
+					if(!firstIssue)
+					{
+						out.write(',');
+					}
+					firstIssue = false;
+					out.write("[" + of.getLine(i) + "," + of.getColumn(i) + "]");
+				}
+				out.write(']');
+			}
+			out.write('}');
+		}
+	}
+
+	private static int countOf(Rule rule, CompactSummary compact)
+	{
+		return compact == null ? 0 : compact.getCount(rule);
+	}
+
+	/**
+	 * Writes "name":n in an object.
+	 * @param first whether it's the first field of the object.
+	 * @return false, i.e. the next field is not the first.
+	 */
+	private boolean writeCount(String name, long n, boolean first) throws IOException
+	{
+		if(!first)
+		{
+			out.write(',');
+		}
+		writeString(name);
+		out.write(":" + n);
+		return false;
+	}
+
+	/**
+	 * Writes ,"name":value after the first field of an object.
+	 */
+	private void writeField(String name, Object value) throws IOException
+	{
+		out.write(',');
+		writeString(name);
+		out.write(":" + value);
+	}
+
+	/**
+	 * Writes s as a JSON string.
+	 * @param s
+	 */
+	private void writeString(String s) throws IOException
+	{
+		out.write('"');
+		for(int i = 0; i < s.length(); ++i)
+		{
+			char c = s.charAt(i);
+			switch(c)
+			{
+			case '"': out.write("\\\""); break;
+			case '\\': out.write("\\\\"); break;
+			case '\n': out.write("\\n"); break;
+			case '\r': out.write("\\r"); break;
+			case '\t': out.write("\\t"); break;
+			default:
+				if(c < 0x20)
+				{
+					out.write(String.format("\\u%04x", (int)c));
+				}
+				else
+				{
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+
+	private void endLine() throws IOException
+	{
+		out.write("}\n");
+		if(autoFlush)
+		{
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,340 @@
+/**
+ *
+ */
+package edu.guanyfyp.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import edu.guanyfyp.format.FormatVerdict;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+
+/**
+ * A persistent cache of verdicts on disk, so that files that have not changed
+ * are not lexed and parsed again when a batch is run again.
+ *
+ * It is content-addressed: the key of a verdict is the hash of the content of the file
+ * together with the version of the analyzer and the hash of the settings it was analyzed with (c.f. keyOf()),
+ * so a renamed or copied file hits, and a changed file, analyzer or rubric misses.
+ * Each verdict is one file in the directory of the cache, named after its key.
+ *
+ * The total size of the files is kept within a bound. When it goes over,
+ * the least recently used verdicts are evicted (the modification time of a file is when it was last used).
+ *
+ * It can be used by many threads at the same time, and by many processes that share the directory,
+ * because a verdict is written to a temporary file first and then moved into place.
+ */
+public final class VerdictCache
+{
+//////////////////////// Other members ////////////////////////
+	// The default bound of the total size of the cache.
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * The version of the analysis that gives the verdicts, which is part of every key.
+	 * MUST be bumped whenever the evaluation logic changes (how the primitives are evaluated, summarized
+	 * or judged), so that the verdicts given by an older analyzer miss instead of being served.
+	 * Changing what FormatVerdict.writeTo() writes does not need it, since that has its own version.
+	 */
+	public static final int ANALYZER_VERSION = 1;
+
+	// The extension of the files of the verdicts.
+	private static final String ENTRY_EXTENSION = ".verdict";
+	// When the total size goes over the bound, evict until it is within this fraction of it,
+	// so that not every put() after that has to evict.
+	private static final double EVICT_TO_FRACTION = 0.9;
+
+//////////////////////// Fields ////////////////////////
+	private final Path directory;
+	private final long maxBytes;
+
+	// Guarded by this.
+	// The total size of the verdicts in the directory, as far as this cache knows.
+	private long totalBytes;
+	private long numHits = 0;
+	private long numMisses = 0;
+
+//////////////////////// Ctor ////////////////////////
+	/**
+	 * Opens the cache in directory, creating the directory if it does not exist.
+	 * The verdicts already in it are used.
+	 *
+	 * @param directory where the verdicts are.
+	 * @param maxBytes the bound of the total size of the verdicts.
+	 * @throws IOException if the directory cannot be created or listed.
+	 * @throws IllegalArgumentException if maxBytes <= 0
+	 */
+	public VerdictCache(Path directory, long maxBytes) throws IOException
+	{
+		if(maxBytes <= 0)
+		{
+			throw new IllegalArgumentException("maxBytes must be positive.");
+		}
+
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+
+		Files.createDirectories(directory);
+		long total = 0;
+		for(var e : listEntries())
+		{
+			total += e.size;
+		}
+		totalBytes = total;
+	}
+
+	/**
+	 * Opens the cache with the default bound.
+	 * @param directory
+	 * @throws IOException
+	 */
+	public VerdictCache(Path directory) throws IOException
+	{
+		this(directory, DEFAULT_MAX_BYTES);
+	}
+
+//////////////////////// Keys ////////////////////////
+
+	/**
+	 * @param content the bytes of a source file.
+	 * @param settings the settings the file is analyzed with.
+	 * @return the key of the verdict of the file analyzed with the settings by this version of the analyzer.
+	 */
+	public static String keyOf(byte[] content, AnalysisSettings settings)
+	{
+		// AnalysisSettings.toString() has all the values of the settings.
+		return sha256(content) + "-v" + ANALYZER_VERSION + "-" +
+				sha256(settings.toString().getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+	}
+
+	/**
+	 * @param bytes
+	 * @return the SHA-256 of bytes in hex.
+	 */
+	static String sha256(byte[] bytes)
+	{
+		try
+		{
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to support SHA-256.
+			throw new RuntimeException(e);
+		}
+	}
+
+//////////////////////// Methods ////////////////////////
+
+	/**
+	 * @param key c.f. keyOf()
+	 * @return the verdict cached under key, or null if there is none.
+	 * A verdict that cannot be read is removed and counted as a miss.
+	 */
+	public FormatVerdict get(String key)
+	{
+		Path file = fileOf(key);
+		FormatVerdict verdict;
+		try(var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+		{
+			verdict = FormatVerdict.readFrom(in);
+		}
+		catch(NoSuchFileException e)
+		{
+			countMiss();
+			return null;
+		}
+		catch(IOException e)
+		{
+			// Corrupted or written in another format.
+			remove(file);
+			countMiss();
+			return null;
+		}
+
+		// Mark it as used. Not being able to only makes it be evicted earlier.
+		try
+		{
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		}
+		catch(IOException e)
+		{
+		}
+
+		countHit();
+		return verdict;
+	}
+
+	/**
+	 * Caches verdict under key, replacing what was cached under it,
+	 * and evicts the least recently used verdicts if the bound is exceeded.
+	 *
+	 * @param key c.f. keyOf()
+	 * @param verdict must have been given.
+	 * @throws IOException if it cannot be written.
+	 */
+	public void put(String key, FormatVerdict verdict) throws IOException
+	{
+		Path file = fileOf(key);
+		Path tmp = Files.createTempFile(directory, key, ".tmp");
+		try
+		{
+			try(var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))
+			{
+				verdict.writeTo(out);
+			}
+
+			long size = Files.size(tmp);
+			long replaced = Files.exists(file) ? Files.size(file) : 0;
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			synchronized(this)
+			{
+				totalBytes += size - replaced;
+				if(totalBytes > maxBytes)
+				{
+					evict(file);
+				}
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	public Path getDirectory() { return directory; }
+	public long getMaxBytes() { return maxBytes; }
+	public synchronized long getTotalBytes() { return totalBytes; }
+	public synchronized long getNumHits() { return numHits; }
+	public synchronized long getNumMisses() { return numMisses; }
+
+//////////////////////// Helpers ////////////////////////
+
+	/**
+	 * A verdict file and what eviction needs to know about it.
+	 */
+	private static final class Entry
+	{
+		Entry(Path file, long size, long lastUsed)
+		{
+			this.file = file;
+			this.size = size;
+			this.lastUsed = lastUsed;
+		}
+
+		final Path file;
+		final long size;
+		final long lastUsed;
+	}
+
+	private Path fileOf(String key)
+	{
+		return directory.resolve(key + ENTRY_EXTENSION);
+	}
+
+	private synchronized void countHit() { ++numHits; }
+	private synchronized void countMiss() { ++numMisses; }
+
+	/**
+	 * @return the verdict files in the directory. Those that disappear while listed are left out.
+	 * @throws IOException if the directory cannot be listed.
+	 */
+	private List<Entry> listEntries() throws IOException
+	{
+		var ret = new ArrayList<Entry>();
+		try(Stream<Path> files = Files.list(directory))
+		{
+			for(var f : (Iterable<Path>)files::iterator)
+			{
+				if(!f.getFileName().toString().endsWith(ENTRY_EXTENSION))
+				{
+					continue;
+				}
+				try
+				{
+					ret.add(new Entry(f, Files.size(f), Files.getLastModifiedTime(f).toMillis()));
+				}
+				catch(NoSuchFileException e)
+				{
+					// Evicted by someone else.
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Removes the least recently used verdicts until the total size is within
+	 * EVICT_TO_FRACTION of the bound. Must hold the lock of this.
+	 * The total size is recounted from the directory, because other processes may share it.
+	 * @param justPut is never evicted. The times of the files may be too coarse to tell it's the newest.
+	 */
+	private void evict(Path justPut)
+	{
+		List<Entry> entries;
+		try
+		{
+			entries = listEntries();
+		}
+		catch(IOException e)
+		{
+			// Try again at the next put().
+			return;
+		}
+
+		long total = 0;
+		for(var e : entries)
+		{
+			total += e.size;
+		}
+
+		entries.sort(Comparator.comparingLong((Entry e) -> e.lastUsed));
+		long target = (long)(maxBytes * EVICT_TO_FRACTION);
+		for(var e : entries)
+		{
+			if(total <= target)
+			{
+				break;
+			}
+			if(!e.file.equals(justPut) && remove(e.file))
+			{
+				total -= e.size;
+			}
+		}
+
+		totalBytes = total;
+	}
+
+	/**
+	 * @param file
+	 * @return true iff the file was removed.
+	 */
+	private static boolean remove(Path file)
+	{
+		try
+		{
+			return Files.deleteIfExists(file);
+		}
+		catch(IOException e)
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/**
+ *
+ */
+package edu.guanyfyp.format;
+
+import java.util.stream.Collector;
+
+import edu.guanyfyp.format.FormatVerdict.Count;
+
+import edu.guanyfyp.format.summaries.CodeBlockSummary;
+import edu.guanyfyp.format.summaries.CommentBlockSummary;
+import edu.guanyfyp.format.summaries.FormatEvalSummary;
+import edu.guanyfyp.format.summaries.JavaDocSummary;
+import edu.guanyfyp.format.summaries.LineSummary;
+import edu.guanyfyp.format.summaries.WsBlockSummary;
+
+/**
+ * The verdict of many source files together, e.g. of a class or of an assignment.
+ *
+ * Unlike FormatVerdict, it includes any number of summaries of the same kind,
+ * and only keeps the counts of them, never the primitives, so it stays small however many files it includes.
+ * merge() is associative, so the files can be split among workers, each with its own aggregate,
+ * and the aggregates merged in any grouping (c.f. collector()).
+ *
+ * The frequencies are pooled: the problems of all the files over the elements of all the files,
+ * so a large file weighs more than a small one.
+ * c.f. BatchSummary for the means of the frequencies of the files instead.
+ */
+public final class AggregateVerdict
+{
+//////////////////////// Fields ////////////////////////
+	// All counts are long, since the sums of many files can exceed an int.
+	private long numFiles = 0;
+	private long numFilesWithComments = 0;
+
+	// CodeBlock
+	private long numCodeBlocks = 0;
+	private long numIdentifiers = 0;
+	private long numOperators = 0;
+	private long numPunctuation = 0;
+	private long numTooLongIdentifiers = 0;
+	private long numTooShortIdentifiers = 0;
+	private long numBadlyNamed = 0;
+	private long numSpaceProblems = 0;
+	private long numScopes = 0;
+	// Sum over the summaries of the number of scopes of the style less used in it,
+	// i.e. inconsistent with the rest of its own file.
+	private long numMinorityStyleScopes = 0;
+
+	// JavaDocBlock and CommentBlock
+	private long numJavaDocs = 0;
+	private long numBadJavaDocs = 0;
+	private long numComments = 0;
+
+	// Line
+	private long numLines = 0;
+	private long numTooLongLines = 0;
+	private long numBadlyIndentedLines = 0;
+
+//////////////////////// Methods ////////////////////////
+	/**
+	 * Includes the counts of the verdict of a file (c.f. FormatVerdict.getCount()), and counts the file.
+	 * The verdict may be compact or read by readFrom(), since it keeps its counts.
+	 *
+	 * @param verdict must have been given.
+	 * @throws IllegalArgumentException if the verdict has not been given.
+	 */
+	public void include(FormatVerdict verdict)
+	{
+		if(!verdict.hasGivenVerdict())
+		{
+			throw new IllegalArgumentException("the verdict has not been given.");
+		}
+
+		++numFiles;
+		if(verdict.getHasCommentAtAll())
+		{
+			++numFilesWithComments;
+		}
+
+		numCodeBlocks += verdict.getCount(Count.CODE_BLOCKS);
+		numIdentifiers += verdict.getCount(Count.IDENTIFIERS);
+		numOperators += verdict.getCount(Count.OPERATORS);
+		numPunctuation += verdict.getCount(Count.PUNCTUATION);
+		numTooLongIdentifiers += verdict.getCount(Count.TOO_LONG_IDENTIFIERS);
+		numTooShortIdentifiers += verdict.getCount(Count.TOO_SHORT_IDENTIFIERS);
+		numBadlyNamed += verdict.getCount(Count.BADLY_NAMED);
+		numSpaceProblems += verdict.getCount(Count.SPACE_PROBLEMS);
+		int newLineScopes = verdict.getCount(Count.LBRACE_NEW_LINE_SCOPES);
+		int noNewLineScopes = verdict.getCount(Count.LBRACE_NO_NEW_LINE_SCOPES);
+		numScopes += newLineScopes + noNewLineScopes;
+		numMinorityStyleScopes += Math.min(newLineScopes, noNewLineScopes);
+
+		numJavaDocs += verdict.getCount(Count.JAVADOCS);
+		numBadJavaDocs += verdict.getCount(Count.BAD_JAVADOCS);
+		numComments += verdict.getCount(Count.COMMENTS);
+
+		numLines += verdict.getCount(Count.LINES);
+		numTooLongLines += verdict.getCount(Count.TOO_LONG_LINES);
+		numBadlyIndentedLines += verdict.getCount(Count.BADLY_INDENTED_LINES);
+	}
+
+	/**
+	 * Includes the counts of a summary according to its dynamic type.
+	 * Any number of summaries of the same kind can be included. Does not count a file.
+	 *
+	 * @param summary must be done.
+	 * @throws IllegalStateException if the summary is not done.
+	 * @throws UnsupportedOperationException if that kind of summary is not supported.
+	 */
+	public void include(FormatEvalSummary<?> summary)
+	{
+		if(!summary.isSummaryDone())
+		{
+			throw new IllegalStateException("the summary is not done.");
+		}
+
+		if(summary instanceof CodeBlockSummary)
+		{
+			var s = (CodeBlockSummary)summary;
+			numCodeBlocks += s.numTotal;
+			numIdentifiers += s.numIdentifiers;
+			numOperators += s.numOperators;
+			numPunctuation += s.numPunctuation;
+			numTooLongIdentifiers += s.tooLongList.size();
+			numTooShortIdentifiers += s.tooShortList.size();
+			numBadlyNamed += s.badlyNamedList.size();
+			numSpaceProblems += s.spaceProblemsList.size();
+			numScopes += s.lbraceNewLineScopes.size() + s.lbraceNoNewLineScopes.size();
+			numMinorityStyleScopes += Math.min(s.lbraceNewLineScopes.size(), s.lbraceNoNewLineScopes.size());
+		}
+		else if(summary instanceof JavaDocSummary)
+		{
+			var s = (JavaDocSummary)summary;
+			numJavaDocs += s.getNumJavaDocs();
+			numBadJavaDocs += s.getBadJavaDocsList().size();
+		}
+		else if(summary instanceof CommentBlockSummary)
+		{
+			numComments += ((CommentBlockSummary)summary).getNumComments();
+		}
+		else if(summary instanceof LineSummary)
+		{
+			var s = (LineSummary)summary;
+			numLines += s.getNumLines();
+			numTooLongLines += s.getTooLongLines().size();
+			numBadlyIndentedLines += s.getBadlyIndentedLines().size();
+		}
+		else if(summary instanceof WsBlockSummary)
+		{
+			// Nothing is counted of white spaces for now.
+		}
+		else // unsupported summary type
+		{
+			throw new UnsupportedOperationException("Unsupported summary type.");
+		}
+	}
+
+	/**
+	 * Adds the counts of other to this. other is unchanged.
+	 * Associative and commutative, so aggregates can be merged in any order and grouping.
+	 * @param other must not be this.
+	 * @throws IllegalArgumentException if other is this.
+	 */
+	public void merge(AggregateVerdict other)
+	{
+		if(other == this)
+		{
+			throw new IllegalArgumentException("cannot merge an aggregate into itself.");
+		}
+
+		numFiles += other.numFiles;
+		numFilesWithComments += other.numFilesWithComments;
+
+		numCodeBlocks += other.numCodeBlocks;
+		numIdentifiers += other.numIdentifiers;
+		numOperators += other.numOperators;
+		numPunctuation += other.numPunctuation;
+		numTooLongIdentifiers += other.numTooLongIdentifiers;
+		numTooShortIdentifiers += other.numTooShortIdentifiers;
+		numBadlyNamed += other.numBadlyNamed;
+		numSpaceProblems += other.numSpaceProblems;
+		numScopes += other.numScopes;
+		numMinorityStyleScopes += other.numMinorityStyleScopes;
+
+		numJavaDocs += other.numJavaDocs;
+		numBadJavaDocs += other.numBadJavaDocs;
+		numComments += other.numComments;
+
+		numLines += other.numLines;
+		numTooLongLines += other.numTooLongLines;
+		numBadlyIndentedLines += other.numBadlyIndentedLines;
+	}
+
+	/**
+	 * @return a collector that aggregates verdicts. It can be used by parallel streams,
+	 * where each thread aggregates its own part and the parts are merged.
+	 */
+	public static Collector<FormatVerdict, AggregateVerdict, AggregateVerdict> collector()
+	{
+		return Collector.of
+		(
+			AggregateVerdict::new,
+			AggregateVerdict::include,
+			(a, b) -> { a.merge(b); return a; },
+			Collector.Characteristics.IDENTITY_FINISH,
+			Collector.Characteristics.UNORDERED
+		);
+	}
+
+//////////////////////// Observers ////////////////////////
+	public long getNumFiles() { return numFiles; }
+	public long getNumFilesWithComments() { return numFilesWithComments; }
+	public long getNumCodeBlocks() { return numCodeBlocks; }
+	public long getNumIdentifiers() { return numIdentifiers; }
+	public long getNumJavaDocs() { return numJavaDocs; }
+	public long getNumComments() { return numComments; }
+	public long getNumLines() { return numLines; }
+
+	/**
+	 * @param num
+	 * @param denom
+	 * @return num / denom, or 0 if denom is 0, like the frequencies of FormatVerdict.
+	 */
+	private static float frequency(long num, long denom)
+	{
+		return denom == 0 ? 0.0f : (float)((double)num / (double)denom);
+	}
+
+	public float getIdentifierLengthProblemFrequency()
+	{
+		return frequency(numTooLongIdentifiers + numTooShortIdentifiers, numIdentifiers);
+	}
+	public float getIdentifierNamingProblemFrequency() { return frequency(numBadlyNamed, numIdentifiers); }
+	public float getSpacingProblemFrequency() { return frequency(numSpaceProblems, numOperators + numPunctuation); }
+	/**
+	 * The scopes of a file are compared with the rest of that file, not with the other files,
+	 * since different files may consistently use different styles.
+	 * For a single file, it equals that of its FormatVerdict.
+	 * @return 2 * (the scopes in the style less used in their files) / (all the scopes)
+	 */
+	public float getInconsistentScopeStyleFrequency() { return frequency(2 * numMinorityStyleScopes, numScopes); }
+	public float getBadJavaDocFrequency() { return frequency(numBadJavaDocs, numJavaDocs); }
+	public float getLineLengthProblemFrequency() { return frequency(numTooLongLines, numLines); }
+	public float getLineIndentationProblemFrequency() { return frequency(numBadlyIndentedLines, numLines); }
+
+	@Override
+	public String toString()
+	{
+		StringBuilder ret = new StringBuilder();
+		ret.append("numFiles = " + numFiles + "\n");
+		ret.append("numFilesWithComments = " + numFilesWithComments + "\n");
+		ret.append("numCodeBlocks = " + numCodeBlocks + "\n");
+		ret.append("numIdentifiers = " + numIdentifiers + "\n");
+		ret.append("numJavaDocs = " + numJavaDocs + "\n");
+		ret.append("numComments = " + numComments + "\n");
+		ret.append("numLines = " + numLines + "\n");
+		ret.append("identifierLengthProblemFrequency = " + getIdentifierLengthProblemFrequency() + "\n");
+		ret.append("identifierNamingProblemFrequency = " + getIdentifierNamingProblemFrequency() + "\n");
+		ret.append("spacingProblemFrequency = " + getSpacingProblemFrequency() + "\n");
+		ret.append("inconsistentScopeStyleFrequency = " + getInconsistentScopeStyleFrequency() + "\n");
+		ret.append("badJavaDocFrequency = " + getBadJavaDocFrequency() + "\n");
+		ret.append("lineLengthProblemFrequency = " + getLineLengthProblemFrequency() + "\n");
+		ret.append("lineIndentationProblemFrequency = " + getLineIndentationProblemFrequency() + "\n");
+
+		return ret.toString();
+	}
+}
@@ -3,8 +3,14 @@
  */
 package edu.guanyfyp.format;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 import edu.guanyfyp.format.summaries.CodeBlockSummary;
 import edu.guanyfyp.format.summaries.CommentBlockSummary;
+import edu.guanyfyp.format.summaries.CompactSummary;
 import edu.guanyfyp.format.summaries.FormatEvalSummary;
 import edu.guanyfyp.format.summaries.JavaDocSummary;
 import edu.guanyfyp.format.summaries.LineSummary;
@@ -45,6 +51,11 @@ public class FormatVerdict
 	// TODO: add summary class for Line and add a field for it
 	private LineSummary lineSummary = null;
 	
+	// After compact(), the summaries above are null and these are their compact forms.
+	private CompactSummary compactCodeBlockSummary = null;
+	private CompactSummary compactLineSummary = null;
+	private CompactSummary compactJavaDocSummary = null;
+	
 //////////////////////// Verdict Fields ////////////////////////
 	// Each will 0.0f the default value if the source file has no such element.
 	
@@ -60,6 +71,40 @@ public class FormatVerdict
 	// false iff numComments = numJavaDocs = 0.
 	private boolean hasCommentsAtAll = false;
 	
+	// The counts the frequencies are computed from, indexed by Count.ordinal().
+	// Unlike the summaries, they are kept by compact() and written by writeTo(),
+	// so that any given verdict can be included in an AggregateVerdict.
+	private final int[] counts = new int[Count.values().length];
+	
+	// The report of the summaries of a verdict read back by readFrom(), which has no summary.
+	// null for a verdict given by giveVerdict().
+	private String summariesReport = null;
+	
+	// Changed whenever what writeTo() writes is changed.
+	private static final int SERIAL_FORMAT_VERSION = 2;
+	
+	/**
+	 * The counts of the elements of the source file and of their problems (c.f. getCount()).
+	 */
+	public enum Count {
+		CODE_BLOCKS,
+		IDENTIFIERS,
+		OPERATORS,
+		PUNCTUATION,
+		TOO_LONG_IDENTIFIERS,
+		TOO_SHORT_IDENTIFIERS,
+		BADLY_NAMED,
+		SPACE_PROBLEMS,
+		LBRACE_NEW_LINE_SCOPES,
+		LBRACE_NO_NEW_LINE_SCOPES,
+		JAVADOCS,
+		BAD_JAVADOCS,
+		COMMENTS,
+		LINES,
+		TOO_LONG_LINES,
+		BADLY_INDENTED_LINES
+	}
+	
 //////////////////////// Methods ////////////////////////	
 	
 	public boolean hasGivenVerdict() { return hasVerdict; }
@@ -131,10 +176,46 @@ public class FormatVerdict
 			hasCommentsAtAll = true;
 		}
 		
+		countSummaries();
 		
 		hasVerdict = true;
 	}
 	
+	/**
+	 * Fills the counts from the summaries. A missing summary counts 0.
+	 */
+	private void countSummaries()
+	{
+		if(codeBlockSummary != null)
+		{
+			counts[Count.CODE_BLOCKS.ordinal()] = codeBlockSummary.numTotal;
+			counts[Count.IDENTIFIERS.ordinal()] = codeBlockSummary.numIdentifiers;
+			counts[Count.OPERATORS.ordinal()] = codeBlockSummary.numOperators;
+			counts[Count.PUNCTUATION.ordinal()] = codeBlockSummary.numPunctuation;
+			counts[Count.TOO_LONG_IDENTIFIERS.ordinal()] = codeBlockSummary.tooLongList.size();
+			counts[Count.TOO_SHORT_IDENTIFIERS.ordinal()] = codeBlockSummary.tooShortList.size();
+			counts[Count.BADLY_NAMED.ordinal()] = codeBlockSummary.badlyNamedList.size();
+			counts[Count.SPACE_PROBLEMS.ordinal()] = codeBlockSummary.spaceProblemsList.size();
+			counts[Count.LBRACE_NEW_LINE_SCOPES.ordinal()] = codeBlockSummary.lbraceNewLineScopes.size();
+			counts[Count.LBRACE_NO_NEW_LINE_SCOPES.ordinal()] = codeBlockSummary.lbraceNoNewLineScopes.size();
+		}
+		if(javaDocSummary != null)
+		{
+			counts[Count.JAVADOCS.ordinal()] = javaDocSummary.getNumJavaDocs();
+			counts[Count.BAD_JAVADOCS.ordinal()] = javaDocSummary.getBadJavaDocsList().size();
+		}
+		if(commentBlockSummary != null)
+		{
+			counts[Count.COMMENTS.ordinal()] = commentBlockSummary.getNumComments();
+		}
+		if(lineSummary != null)
+		{
+			counts[Count.LINES.ordinal()] = lineSummary.getNumLines();
+			counts[Count.TOO_LONG_LINES.ordinal()] = lineSummary.getTooLongLines().size();
+			counts[Count.BADLY_INDENTED_LINES.ordinal()] = lineSummary.getBadlyIndentedLines().size();
+		}
+	}
+	
 	/**
 	 * Includes a `FormatEvalSummary` to the future verdict according to its dynamic type.
 	 * 
@@ -222,6 +303,59 @@ public class FormatVerdict
 		return lineSummary;
 	}
 
+	public CompactSummary getCompactCodeBlockSummary() {
+		return compactCodeBlockSummary;
+	}
+
+	public CompactSummary getCompactLineSummary() {
+		return compactLineSummary;
+	}
+
+	public CompactSummary getCompactJavaDocSummary() {
+		return compactJavaDocSummary;
+	}
+	
+	/**
+	 * @return true iff compact() has been called on it.
+	 */
+	public boolean isCompact() {
+		return compactCodeBlockSummary != null || compactLineSummary != null || compactJavaDocSummary != null;
+	}
+
+	/**
+	 * Replaces the summaries with their compact forms (c.f. CompactSummary),
+	 * so that the verdict no longer keeps the primitives, and through them the source file, alive.
+	 * The frequencies are unchanged, but the report of the summaries in toString() is the compact one.
+	 * 
+	 * @param maxSamples the most primitives described in each compact summary.
+	 * @throws IllegalStateException if no verdict has been given, or it has no summary 
+	 * (it's already compact or was read by readFrom()).
+	 */
+	public void compact(int maxSamples) {
+		if(!hasGivenVerdict()) {
+			throw new IllegalStateException("Has no verdict yet.");
+		}
+		if(summariesReport != null || isCompact()) {
+			throw new IllegalStateException("Has no summary to compact.");
+		}
+		
+		if(codeBlockSummary != null) {
+			compactCodeBlockSummary = codeBlockSummary.compact(maxSamples);
+		}
+		if(lineSummary != null) {
+			compactLineSummary = lineSummary.compact(maxSamples);
+		}
+		if(javaDocSummary != null) {
+			compactJavaDocSummary = javaDocSummary.compact(maxSamples);
+		}
+		
+		wsBlockSummary = null;
+		commentBlockSummary = null;
+		javaDocSummary = null;
+		codeBlockSummary = null;
+		lineSummary = null;
+	}
+
 	public float getIdentifierLengthProblemFrequency() {
 		return identifierLengthProblemFrequency;
 	}
@@ -254,6 +388,15 @@ public class FormatVerdict
 		return hasCommentsAtAll;
 	}
 	
+	/**
+	 * Available for any given verdict, including a compact one or one read by readFrom().
+	 * @param count
+	 * @return the count, or 0 if the source file has no such element or no verdict has been given.
+	 */
+	public int getCount(Count count) {
+		return counts[count.ordinal()];
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder ret = new StringBuilder();
@@ -266,16 +409,106 @@ public class FormatVerdict
 		ret.append("lineIndentationProblemFrequency = " + lineIndentationProblemFrequency + "\n");
 		ret.append("hasCommentsAtAll = " + hasCommentsAtAll + "\n");
 
+		ret.append(summariesReport());
+		
+		return ret.toString();
+	}
+	
+	/**
+	 * @return the part of toString() that reports the summaries.
+	 */
+	private String summariesReport() {
+		if(summariesReport != null) {
+			return summariesReport;
+		}
+		
+		boolean compact = isCompact();
+		StringBuilder ret = new StringBuilder();
 		ret.append('\n');
 		ret.append("CodeBlocks summary:\n");
-		ret.append(codeBlockSummary.toString());
+		ret.append(compact ? compactCodeBlockSummary : codeBlockSummary);
 		ret.append('\n');
 		ret.append("Lines summary:\n");
-		ret.append(lineSummary.toString());
+		ret.append(compact ? compactLineSummary : lineSummary);
 		ret.append('\n');
 		ret.append("JavaDocs summary:\n");
-		ret.append(javaDocSummary.toString());
+		ret.append(compact ? compactJavaDocSummary : javaDocSummary);
 		
 		return ret.toString();
 	}
+	
+//////////////////////// Serialization ////////////////////////
+	// The summaries refer to the primitives of the source file, so they are not written.
+	// What is written is what the verdict gives: the frequencies, the counts and the report of the summaries.
+	
+	/**
+	 * Writes the verdict so that readFrom() can read it back.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 * @throws IllegalStateException if no verdict has been given.
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		if(!hasGivenVerdict()) {
+			throw new IllegalStateException("Has no verdict yet.");
+		}
+		
+		out.writeInt(SERIAL_FORMAT_VERSION);
+		out.writeFloat(identifierLengthProblemFrequency);
+		out.writeFloat(identifierNamingProblemFrequency);
+		out.writeFloat(spacingProblemFrequency);
+		out.writeFloat(inconsistentScopeStyleFrequency);
+		out.writeFloat(badJavaDocFrequency);
+		out.writeFloat(lineLengthProblemFrequency);
+		out.writeFloat(lineIndentationProblemFrequency);
+		out.writeBoolean(hasCommentsAtAll);
+		for(int count : counts) {
+			out.writeInt(count);
+		}
+		
+		// writeUTF() is limited to 64KB, which the report of a large file can exceed.
+		byte[] report = summariesReport().getBytes(StandardCharsets.UTF_8);
+		out.writeInt(report.length);
+		out.write(report);
+	}
+	
+	/**
+	 * Reads a verdict written by writeTo().
+	 * The verdict read has the same frequencies, counts and toString(), but has no summary:
+	 * all the getXXXSummary() return null.
+	 * 
+	 * @param in
+	 * @return the verdict, which has been given.
+	 * @throws IOException if it cannot be read, or was written in another format.
+	 */
+	public static FormatVerdict readFrom(DataInput in) throws IOException {
+		int version = in.readInt();
+		if(version != SERIAL_FORMAT_VERSION) {
+			throw new IOException("Unknown verdict format " + version + ".");
+		}
+		
+		var ret = new FormatVerdict();
+		ret.identifierLengthProblemFrequency = in.readFloat();
+		ret.identifierNamingProblemFrequency = in.readFloat();
+		ret.spacingProblemFrequency = in.readFloat();
+		ret.inconsistentScopeStyleFrequency = in.readFloat();
+		ret.badJavaDocFrequency = in.readFloat();
+		ret.lineLengthProblemFrequency = in.readFloat();
+		ret.lineIndentationProblemFrequency = in.readFloat();
+		ret.hasCommentsAtAll = in.readBoolean();
+		for(int i = 0; i < ret.counts.length; ++i) {
+			ret.counts[i] = in.readInt();
+		}
+		
+		int length = in.readInt();
+		if(length < 0) {
+			throw new IOException("Corrupted verdict.");
+		}
+		byte[] report = new byte[length];
+		in.readFully(report);
+		ret.summariesReport = new String(report, StandardCharsets.UTF_8);
+		
+		ret.hasVerdict = true;
+		return ret;
+	}
 }
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package edu.guanyfyp.format.primitives;
+
+import java.util.Objects;
+
+import edu.guanyfyp.format.primitives.CodeBlock.NamingStyle;
+
+/**
+ * All the settings (i.e. the rubric) that one analysis of a source file is done with.
+ *
+ * It is immutable. The mutable CodeBlock.Settings and Line.Settings are used to prepare the values,
+ * and an AnalysisSettings takes a snapshot of them when it is constructed.
+ * Therefore, changing those settings afterwards does not affect any analysis that uses the snapshot,
+ * and analyses with different settings can run at the same time without any locking.
+ *
+ * It is given to SourceFile.analyze(), which passes it to every evaluateFormat() through the PrimitiveContext.
+ */
+public final class AnalysisSettings
+{
+//////////////////////// CodeBlock settings ////////////////////////
+	// c.f. CodeBlock.Settings for their meanings.
+
+	// Identifier settings
+	public final int longestIdentifierLength;
+	public final int shortestIdentifierLength;
+	public final NamingStyle desiredClassNamingStyle;
+	public final NamingStyle desiredMethodNamingStyle;
+	public final NamingStyle desiredVariableNamingStyle;
+	public final NamingStyle desiredConstantNamingStyle;
+
+	// Punctuation settings
+	public final boolean checkPunctuationSpacesAround;
+
+	// Operator settings
+	public final boolean checkOperatorSpacesAround;
+	public final boolean checkSpaceAroundIncDec;
+
+//////////////////////// Line settings ////////////////////////
+	// c.f. Line.Settings for their meanings.
+
+	public final int maximumGoodLineVOffset;
+
+//////////////////////// Ctors ////////////////////////
+	/**
+	 * Takes a snapshot of the values of the settings.
+	 *
+	 * @param codeBlockSettings
+	 * @param lineSettings
+	 */
+	public AnalysisSettings(CodeBlock.Settings codeBlockSettings, Line.Settings lineSettings)
+	{
+		longestIdentifierLength = codeBlockSettings.longestIdentifierLength;
+		shortestIdentifierLength = codeBlockSettings.shortestIdentifierLength;
+		desiredClassNamingStyle = codeBlockSettings.desiredClassNamingStyle;
+		desiredMethodNamingStyle = codeBlockSettings.desiredMethodNamingStyle;
+		desiredVariableNamingStyle = codeBlockSettings.desiredVariableNamingStyle;
+		desiredConstantNamingStyle = codeBlockSettings.desiredConstantNamingStyle;
+		checkPunctuationSpacesAround = codeBlockSettings.checkPunctuationSpacesAround;
+		checkOperatorSpacesAround = codeBlockSettings.checkOperatorSpacesAround;
+		checkSpaceAroundIncDec = codeBlockSettings.checkSpaceAroundIncDec;
+
+		maximumGoodLineVOffset = lineSettings.getMaximumGoodLineVOffset();
+	}
+
+	/**
+	 * The settings with all the default values.
+	 */
+	public static final AnalysisSettings DEFAULT =
+			new AnalysisSettings(new CodeBlock.Settings(), new Line.Settings());
+
+	/**
+	 * Takes a snapshot of the global settings, CodeBlock.settings and Line.settings.
+	 * They are what the analysis used before the settings could be given per analysis,
+	 * so this is what is used when no AnalysisSettings is given.
+	 *
+	 * @return the snapshot.
+	 */
+	public static AnalysisSettings fromGlobalSettings()
+	{
+		return new AnalysisSettings(CodeBlock.settings, Line.settings);
+	}
+
+//////////////////////// From Object ////////////////////////
+	/**
+	 * @return true iff all the settings have the same values.
+	 */
+	@Override
+	public boolean equals(Object other)
+	{
+		if(this == other)
+		{
+			return true;
+		}
+		if(!(other instanceof AnalysisSettings))
+		{
+			return false;
+		}
+
+		var o = (AnalysisSettings)other;
+		return longestIdentifierLength == o.longestIdentifierLength &&
+				shortestIdentifierLength == o.shortestIdentifierLength &&
+				desiredClassNamingStyle == o.desiredClassNamingStyle &&
+				desiredMethodNamingStyle == o.desiredMethodNamingStyle &&
+				desiredVariableNamingStyle == o.desiredVariableNamingStyle &&
+				desiredConstantNamingStyle == o.desiredConstantNamingStyle &&
+				checkPunctuationSpacesAround == o.checkPunctuationSpacesAround &&
+				checkOperatorSpacesAround == o.checkOperatorSpacesAround &&
+				checkSpaceAroundIncDec == o.checkSpaceAroundIncDec &&
+				maximumGoodLineVOffset == o.maximumGoodLineVOffset;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash
+		(
+			longestIdentifierLength, shortestIdentifierLength,
+			desiredClassNamingStyle, desiredMethodNamingStyle,
+			desiredVariableNamingStyle, desiredConstantNamingStyle,
+			checkPunctuationSpacesAround, checkOperatorSpacesAround, checkSpaceAroundIncDec,
+			maximumGoodLineVOffset
+		);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "longestIdentifierLength=" + longestIdentifierLength +
+				",shortestIdentifierLength=" + shortestIdentifierLength +
+				",desiredClassNamingStyle=" + desiredClassNamingStyle +
+				",desiredMethodNamingStyle=" + desiredMethodNamingStyle +
+				",desiredVariableNamingStyle=" + desiredVariableNamingStyle +
+				",desiredConstantNamingStyle=" + desiredConstantNamingStyle +
+				",checkPunctuationSpacesAround=" + checkPunctuationSpacesAround +
+				",checkOperatorSpacesAround=" + checkOperatorSpacesAround +
+				",checkSpaceAroundIncDec=" + checkSpaceAroundIncDec +
+				",maximumGoodLineVOffset=" + maximumGoodLineVOffset;
+	}
+}
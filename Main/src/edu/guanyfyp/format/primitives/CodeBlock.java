@@ -65,6 +65,26 @@ public class CodeBlock extends FormatToken
 		);
 		this.additionalAttr = additional_attributes;
 	}
+	
+	/**
+	 * c.f. FormatToken(TokenStore, int, int, int)
+	 * @param additional_attributes
+	 */
+	public CodeBlock
+	(
+		TokenStore store,
+		int slot,
+		int visual_pos,
+		int index_in_line,
+		AdditionalAttributes additional_attributes
+	)
+	{
+		super
+		(
+			store, slot, visual_pos, index_in_line
+		);
+		this.additionalAttr = additional_attributes;
+	}
 
 //////////////////// Abstract overrides ///////////////////////////////
 	
@@ -146,7 +166,7 @@ public class CodeBlock extends FormatToken
 			this.type = Type.UNKNOWN;
 			this.oopModifiers = 0;
 			this.otherModifiers = 0;
-			this.annotationModifiers = new ArrayList<>();
+			this.annotationModifiers = List.of();
 		}
 		/**
 		 * (deep) copy constructor
@@ -157,7 +177,7 @@ public class CodeBlock extends FormatToken
 			this.type = other.type;
 			this.oopModifiers = other.oopModifiers;
 			this.otherModifiers = other.otherModifiers;
-			this.annotationModifiers = new ArrayList<AnnotationContext>(other.annotationModifiers);
+			this.annotationModifiers = copyOf(other.annotationModifiers);
 		}
 		
 		/**
@@ -178,7 +198,7 @@ public class CodeBlock extends FormatToken
 			this.type = type;
 			this.oopModifiers = OOP_modifiers;
 			this.otherModifiers = other_modifiers;
-			this.annotationModifiers = new ArrayList<AnnotationContext>(annotation_modifiers);
+			this.annotationModifiers = copyOf(annotation_modifiers);
 		}
 		
 		/**
@@ -190,7 +210,7 @@ public class CodeBlock extends FormatToken
 			this.type = other.type;
 			this.oopModifiers = other.oopModifiers;
 			this.otherModifiers = other.otherModifiers;
-			this.annotationModifiers = new ArrayList<AnnotationContext>(other.annotationModifiers);
+			this.annotationModifiers = copyOf(other.annotationModifiers);
 		}
 		
 		/**
@@ -220,13 +240,40 @@ public class CodeBlock extends FormatToken
 		// other modifiers
 		private int otherModifiers;
 		
-		// This is the list of annotation modifiers
+		// This is the list of annotation modifiers.
+		// Most code blocks have none, so it is the shared empty list until one is added.
 		private List<AnnotationContext> annotationModifiers;
 		public void addAnnotationModifier(AnnotationContext annotation)
 		{
+			if(annotationModifiers.isEmpty())
+			{
+				annotationModifiers = new ArrayList<>(1);
+			}
 			annotationModifiers.add(annotation);
 		}
 		
+		/**
+		 * @param other
+		 * @return true iff other has the same type and modifiers, and as many annotation modifiers. 
+		 * The annotation modifiers themselves are nodes of the parse tree, 
+		 * so they differ if the code is parsed again.
+		 */
+		public boolean sameAs(AdditionalAttributes other)
+		{
+			return type == other.type &&
+					oopModifiers == other.oopModifiers &&
+					otherModifiers == other.otherModifiers &&
+					annotationModifiers.size() == other.annotationModifiers.size();
+		}
+		
+		/**
+		 * @param annotation_modifiers
+		 * @return a copy of annotation_modifiers that can be added to.
+		 */
+		private static List<AnnotationContext> copyOf(List<AnnotationContext> annotation_modifiers)
+		{
+			return annotation_modifiers.isEmpty() ? List.of() : new ArrayList<>(annotation_modifiers);
+		}
 		/**
 		 * modifiers related to access and inheritance
 		 * stored using bitwise operations
@@ -520,14 +567,17 @@ public class CodeBlock extends FormatToken
 		// unless I set it to false later in specific case
 		hasSpaceAroundWhenItShould = true;
 		
+		final var settings = context.settings;
+		
 		// 1.
 		if(isIdentifier())
 		{
 			//throw new RuntimeException("TODO: only judge too short for some types.");
 			// i.
-			judgeLength();
+			judgeLength(settings);
 			// ii.
 			decideCurrentNamingStyle();
+			correctNamingStyle = getCorrectNamingStyle(settings);
 			
 			return;
 		}
@@ -536,7 +586,7 @@ public class CodeBlock extends FormatToken
 		if(settings.checkPunctuationSpacesAround)
 		{
 			// 2.1. {
-			if(antlrToken.getType() == JavaLexer.LBRACE)
+			if(tokenType() == JavaLexer.LBRACE)
 			{
 				var containingScope = context.syntaxContext.scope;
 				if(containingScope.oneLine)
@@ -575,9 +625,9 @@ public class CodeBlock extends FormatToken
 						else
 						{
 							// now the prev token is a ws block
-							// check if the one before the prev is in the same line
-							var prevPrev = sf.getPrevFormatToken(prev);
-							if(prevPrev == null || prevPrev.line() < prev.line())
+							// check if the visible token before it is in the same line
+							var prevVisible = sf.getPrevVisibleFormatToken(this);
+							if(prevVisible == null || prevVisible.line() < prev.line())
 							{
 								currentScopeStyle = ScopeStyle.LBRACE_STARTS_NEW_LINE;
 							}
@@ -593,7 +643,7 @@ public class CodeBlock extends FormatToken
 				return;
 			}
 			// 2.2 }
-			else if(antlrToken.getType() == JavaLexer.RBRACE)
+			else if(tokenType() == JavaLexer.RBRACE)
 			{
 				// check the space if it's of a oneline scope
 				var containingScope = context.syntaxContext.scope;
@@ -618,7 +668,7 @@ public class CodeBlock extends FormatToken
 				return;
 			}
 			// 2.3 if there is a space after ,
-			else if(antlrToken.getType() == JavaLexer.COMMA)
+			else if(tokenType() == JavaLexer.COMMA)
 			{
 				var next = sf.getNextFormatToken(this);
 				hasSpaceAfterComma = nextSpaceOrNewLine(next);
@@ -627,7 +677,7 @@ public class CodeBlock extends FormatToken
 				return;
 			}
 			// 2.4 if there is space after ; or if ; ends a line
-			else if(antlrToken.getType() == JavaLexer.SEMI)
+			else if(tokenType() == JavaLexer.SEMI)
 			{
 				var next = sf.getNextFormatToken(this);
 				hasSpaceOrNewLineAfterSemi = nextSpaceOrNewLine(next);
@@ -712,7 +762,7 @@ public class CodeBlock extends FormatToken
 	private boolean tooShort = false;
 	public boolean isTooShort() { return tooShort; }
 	
-	private void judgeLength()
+	private void judgeLength(AnalysisSettings settings)
 	{
 		assert(!tooLong && !tooShort);
 		
@@ -756,14 +806,22 @@ public class CodeBlock extends FormatToken
 	// Only meaningful if it's an identifier.
 	
 	private NamingStyle namingStyle = NamingStyle.OTHER;
+	// Decided in evaluateFormat() with the settings of the analysis.
+	private NamingStyle correctNamingStyle = NamingStyle.OTHER;
 	/** 
 	 * @return The current naming style of this 
 	 */
 	public NamingStyle getNamingStyle() {return namingStyle; }
 	/** 
-	 * @return The correct naming style for this's type of identifier 
+	 * @return The correct naming style for this's type of identifier,
+	 * according to the settings it was evaluated with.
 	 */
-	public NamingStyle getCorrectNamingStyle() 
+	public NamingStyle getCorrectNamingStyle() { return correctNamingStyle; }
+	/** 
+	 * @param settings
+	 * @return The correct naming style for this's type of identifier under the settings.
+	 */
+	public NamingStyle getCorrectNamingStyle(AnalysisSettings settings) 
 	{
 		// Decide correct naming style
 		switch(additionalAttr.type)
@@ -911,6 +969,10 @@ public class CodeBlock extends FormatToken
 	
 //////////////////////// Settings ////////////////////////
 	
+	/**
+	 * Mutable settings, used to prepare the values of an AnalysisSettings,
+	 * which is what the evaluation actually reads.
+	 */
 	public static final class Settings
 	{
 		// Default values come from the Java coding convention by oracle.
@@ -931,8 +993,32 @@ public class CodeBlock extends FormatToken
 		public boolean checkSpaceAroundIncDec = true;
 	}
 	
+	/**
+	 * The global settings. They are only read when an analysis is not given an AnalysisSettings,
+	 * c.f. AnalysisSettings.fromGlobalSettings().
+	 */
 	public static final Settings settings = new Settings();
 
+	/**
+	 * The token created shares the additional attributes with this.
+	 */
+	@Override
+	public FormatToken recreate(int visual_pos, int index_in_line)
+	{
+		return new CodeBlock(store, slot, visual_pos, index_in_line, additionalAttr);
+	}
+	
+	/**
+	 * The same as recreate(visual_pos, index_in_line), 
+	 * but the token created has other additional attributes,
+	 * for when the syntax analysis has found something else about it after an edit.
+	 * @param additional_attributes which the token created has, not copied.
+	 */
+	public CodeBlock recreate(int visual_pos, int index_in_line, AdditionalAttributes additional_attributes)
+	{
+		return new CodeBlock(store, slot, visual_pos, index_in_line, additional_attributes);
+	}
+
 	@Override
 	public String toString()
 	{
@@ -32,6 +32,23 @@ public class CommentBlock extends FormatToken
 			antlr_token, visual_pos, index_in_line
 		);
 	}
+	
+	/**
+	 * c.f. FormatToken(TokenStore, int, int, int)
+	 */
+	public CommentBlock
+	(
+		TokenStore store,
+		int slot,
+		int visual_pos,
+		int index_in_line
+	)
+	{
+		super
+		(
+			store, slot, visual_pos, index_in_line
+		);
+	}
 
 	/**
 	 * For comments.
@@ -96,6 +113,12 @@ public class CommentBlock extends FormatToken
 		super.evaluateFormat(sf, context);
 	}
 	
+	@Override
+	public FormatToken recreate(int visual_pos, int index_in_line)
+	{
+		return new CommentBlock(store, slot, visual_pos, index_in_line);
+	}
+	
 	@Override
 	public String toString()
 	{
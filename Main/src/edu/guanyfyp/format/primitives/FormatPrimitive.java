@@ -13,6 +13,18 @@ public abstract class FormatPrimitive
 //////////////////////// Fields ////////////////////////
 	private boolean evaluated = false;
 	
+//////////////////////// Ctors ////////////////////////
+	protected FormatPrimitive() {}
+	
+	/**
+	 * Copies the state of other, so that the copy has been evaluated iff other has.
+	 * @param other
+	 */
+	protected FormatPrimitive(FormatPrimitive other)
+	{
+		evaluated = other.evaluated;
+	}
+	
 //////////////////////// Methods ////////////////////////
 	public boolean isEvaluated() { return evaluated; }
 	
@@ -49,8 +49,10 @@ public abstract class FormatToken extends FormatPrimitive
 	public final int indexInLine;
 
 	
-	// Its corresponding ANTLR token.
-	protected final Token antlrToken;
+	// Where what the lexer has found about it is, c.f. TokenStore.
+	// Not final because SourceFile.edit() moves the tokens carried over to the store of the edited source code.
+	protected TokenStore store;
+	protected int slot;
 	
 	// Indicates how good the single token's format is,
 	// taking its context into consideration.
@@ -74,10 +76,30 @@ public abstract class FormatToken extends FormatPrimitive
 		int index_in_line
 	)
 	{
-		this.antlrToken = antlr_token;
+		this(TokenStore.of(antlr_token), 0, visual_pos, index_in_line);
+	}
+	
+	/**
+	 * Creates a Format token of a token in a TokenStore.
+	 * 
+	 * @param store where the token is.
+	 * @param slot of the token in store.
+	 * @param visual_pos Its visual position, calculated by its creator.
+	 * @param index_in_line The index of the token in the line, 0..n-1
+	 */
+	public FormatToken
+	(
+		TokenStore store,
+		int slot,
+		int visual_pos,
+		int index_in_line
+	)
+	{
+		this.store = store;
+		this.slot = slot;
 		this.visualPos = visual_pos;
 		this.indexInLine = index_in_line;
-		this.visualLength = calculateVisualLength(antlr_token.getText());
+		this.visualLength = calculateVisualLength(store.text(slot));
 	}
 	
 /////////////////////////// Observers ////////////////////////////
@@ -86,7 +108,7 @@ public abstract class FormatToken extends FormatPrimitive
 	 */
 	public String characters()
 	{
-		return antlrToken.getText();
+		return store.text(slot);
 	}
 	
 	/**
@@ -102,7 +124,7 @@ public abstract class FormatToken extends FormatPrimitive
 	 */
 	public int actualPos()
 	{
-		return antlrToken.getCharPositionInLine();
+		return store.column(slot);
 	}
 	
 	/**
@@ -110,7 +132,7 @@ public abstract class FormatToken extends FormatPrimitive
 	 */
 	public int line()
 	{
-		return antlrToken.getLine();
+		return store.line(slot);
 	}
 	
 	/**
@@ -118,7 +140,23 @@ public abstract class FormatToken extends FormatPrimitive
 	 */
 	public int index()
 	{
-		return antlrToken.getTokenIndex();
+		return store.tokenIndex(slot);
+	}
+	
+	/**
+	 * @return The index of the first character of this token in the whole source code, 0..n-1
+	 */
+	public int startIndex()
+	{
+		return store.startIndex(slot);
+	}
+	
+	/**
+	 * @return The type the lexer has given the token, c.f. JavaLexer.
+	 */
+	public int tokenType()
+	{
+		return store.type(slot);
 	}
 	
 	/**
@@ -126,6 +164,46 @@ public abstract class FormatToken extends FormatPrimitive
 	 */
 	public abstract boolean isVisible();
 	
+/////////////////////////// Editing ////////////////////////////
+	// MUST only be called within SourceFile.edit(), 
+	// on the tokens of the SourceFile being edited, which cannot be used afterwards.
+	
+	/**
+	 * Moves the token to where it is after the source code has been edited around it.
+	 * The tokens created again from it before stay where they are.
+	 * 
+	 * @param other a store of the edited source code, which the token is copied to.
+	 * @param line_delta how many lines it moves down.
+	 * @param char_pos_delta how far it moves to the right in its line.
+	 * @param char_index_delta how far it moves in the whole source code.
+	 * @param token_index_delta how far it moves in the tokens of the source file.
+	 */
+	public void shift(TokenStore other, int line_delta, int char_pos_delta, int char_index_delta, int token_index_delta)
+	{
+		slot = other.copy(store, slot, line_delta, char_pos_delta, char_index_delta, token_index_delta);
+		store = other;
+	}
+	
+	/**
+	 * Moves the token to another store of the edited source code without moving it in the source code.
+	 * @param other
+	 */
+	public void moveTo(TokenStore other)
+	{
+		shift(other, 0, 0, 0, 0);
+	}
+	
+	/**
+	 * Creates a token of the same kind from the same token in the store at another position in the line,
+	 * keeping what the syntax analysis has found about this one.
+	 * The token created has not been evaluated.
+	 * 
+	 * @param visual_pos Its visual position.
+	 * @param index_in_line The index of the token in the line, 0..n-1
+	 * @return the token created.
+	 */
+	public abstract FormatToken recreate(int visual_pos, int index_in_line);
+	
 /////////////////////////// Virtual methods ////////////////////////////
 	
 	/**
@@ -163,7 +241,7 @@ public abstract class FormatToken extends FormatPrimitive
 	}
 	
 	/**
-	 * @return true iff the two has the SAME underlying ANTLR token.
+	 * @return true iff the two are the SAME token in the same store.
 	 */
 	@Override
 	public boolean equals(Object other)
@@ -177,7 +255,7 @@ public abstract class FormatToken extends FormatPrimitive
 		// There can only be one token at a position.
 		// For different files, I will manage tokens of a single file together
 		// and not let tokens of other files intervene the process.
-		return antlrToken == o.antlrToken;
+		return store == o.store && slot == o.slot;
 	}
 }
 
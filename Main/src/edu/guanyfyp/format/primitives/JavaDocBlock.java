@@ -182,10 +182,24 @@ public final class JavaDocBlock extends CommentBlock
 		int visual_pos,
 		int index_in_line
 	) 
+	{
+		this(TokenStore.of(antlr_token), 0, visual_pos, index_in_line);
+	}
+	
+	/**
+	 * c.f. FormatToken(TokenStore, int, int, int)
+	 */
+	public JavaDocBlock
+	(
+		TokenStore store,
+		int slot,
+		int visual_pos,
+		int index_in_line
+	)
 	{
 		super
 		(
-			antlr_token, visual_pos, index_in_line
+			store, slot, visual_pos, index_in_line
 		);	
 		
 		// Parses the javadoc string
@@ -509,6 +523,14 @@ public final class JavaDocBlock extends CommentBlock
 	}
 
 	
+	@Override
+	public FormatToken recreate(int visual_pos, int index_in_line)
+	{
+		var ret = new JavaDocBlock(store, slot, visual_pos, index_in_line);
+		ret.setFollowing(following, followingMethod);
+		return ret;
+	}
+	
 	@Override
 	public String toString()
 	{
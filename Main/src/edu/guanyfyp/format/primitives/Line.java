@@ -149,6 +149,40 @@ public final class Line extends FormatPrimitive
 		}
 	}
 
+	/**
+	 * Copies other to another line number, including the result of its evaluation.
+	 * @param other
+	 * @param lineNumber
+	 */
+	private Line(Line other, int lineNumber)
+	{
+		super(other);
+		
+		this.lineNumber = lineNumber;
+		firstToken = other.firstToken;
+		lastToken = other.lastToken;
+		firstVisibleToken = other.firstVisibleToken;
+		lastVisibleToken = other.lastVisibleToken;
+		indentationLevel = other.indentationLevel;
+		visualLength = other.visualLength;
+		
+		tooLong = other.tooLong;
+		correctIndentation = other.correctIndentation;
+		indentationCorrect = other.indentationCorrect;
+	}
+	
+	/**
+	 * For SourceFile.edit(), when lines are inserted or removed before this one
+	 * but nothing in this line has changed.
+	 * 
+	 * @param lineNumber the new number of the line, which must agree with its tokens, if any.
+	 * @return a copy of this at lineNumber, which has been evaluated iff this has, with the same result.
+	 */
+	public Line movedTo(int lineNumber)
+	{
+		return new Line(this, lineNumber);
+	}
+
 ///////////////////////////// Fields /////////////////////////////
 	// The number of the line in the source file, 1..n.
 	// Especially important if the line does not have any token.
@@ -254,7 +288,7 @@ public final class Line extends FormatPrimitive
 	public void evaluateFormat(SourceFile sf, PrimitiveContext context) 
 	{		
 		// 1
-		if(visualOffset() > settings.maximumGoodLineVOffset)
+		if(visualOffset() > context.settings.maximumGoodLineVOffset)
 		{
 			tooLong = true;
 		}
@@ -300,6 +334,10 @@ public final class Line extends FormatPrimitive
 	
 //////////////////////// Format evaluation Settings ////////////////////////
 	
+	/**
+	 * Mutable settings, used to prepare the values of an AnalysisSettings,
+	 * which is what the evaluation actually reads.
+	 */
 	public static final class Settings
 	{
 		//////////////////////// maximum good line length ////////////////////////
@@ -334,5 +372,9 @@ public final class Line extends FormatPrimitive
 		//////////////////////// another entry ////////////////////////
 	}
 	
+	/**
+	 * The global settings. They are only read when an analysis is not given an AnalysisSettings,
+	 * c.f. AnalysisSettings.fromGlobalSettings().
+	 */
 	public static final Settings settings = new Settings();
 }
@@ -11,6 +11,7 @@ import edu.guanyfyp.syntax.SyntaxContext;
     Normally the primitive itself has such informatin so it might not be stored in the context.
     - b. has the syntax context of the primitive. That is, it stores an instance of the class `SyntaxContext`.
     - c. final. All primitives share the same context representation.
+    - d. has the AnalysisSettings that the primitive is to be evaluated with.
  */
 public final class PrimitiveContext 
 {
@@ -18,17 +19,34 @@ public final class PrimitiveContext
 	// May not need to store textual context
 	
 	final SyntaxContext syntaxContext;
+	
+	// The settings of the analysis the evaluation is part of.
+	final AnalysisSettings settings;
 
 //////////////////////// Constructors ////////////////////////
 	
+	/**
+	 * Construct a primitive context with only the syntax context and the settings,
+	 * which means the primitive will know its textual context from itself.
+	 * 
+	 * @param syntaxContext
+	 * @param settings the settings of the analysis
+	 */
+	public PrimitiveContext(final SyntaxContext syntaxContext, final AnalysisSettings settings)
+	{
+		this.syntaxContext = syntaxContext;
+		this.settings = settings;
+	}
+	
 	/**
 	 * Construct a primitive context with only the syntax context,
 	 * which means the primitive will know its textual context from itself.
+	 * The primitive will be evaluated with a snapshot of the global settings.
 	 * 
-	 * @param syntax_context
+	 * @param syntaxContext
 	 */
 	public PrimitiveContext(final SyntaxContext syntaxContext)
 	{
-		this.syntaxContext = syntaxContext;
+		this(syntaxContext, AnalysisSettings.fromGlobalSettings());
 	}
 }
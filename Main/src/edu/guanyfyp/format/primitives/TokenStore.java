@@ -0,0 +1,140 @@
+/**
+ *
+ */
+package edu.guanyfyp.format.primitives;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * What the lexer has found about the tokens of a source file, i.e. their types, channels and positions,
+ * kept in one primitive array per field, indexed by slot.
+ *
+ * The FormatTokens read these from the store instead of keeping their ANTLR tokens,
+ * so that the ANTLR tokens can be collected once the source code has been parsed.
+ * The text of a token is not copied but read from the source code by its start and stop indices,
+ * as the ANTLR token does.
+ *
+ * @implNote The store is filled once by its creator and read only afterwards.
+ * SourceFile.edit() copies the tokens carried over to the stores of the edited source code instead of changing them.
+ */
+public final class TokenStore
+{
+//////////////////////// Fields ////////////////////////
+	// The source code the tokens are in, or null if the texts are kept in texts.
+	private final CharStream source;
+	// Only for the stores of single tokens (c.f. of(Token)), whose source code may be unknown.
+	private final String[] texts;
+
+	// The ANTLR token types fit in a short, and the channels in a byte.
+	private final short[] types;
+	private final byte[] channels;
+	private final int[] lines;
+	private final int[] columns;
+	private final int[] startIndices;
+	private final int[] stopIndices;
+	private final int[] tokenIndices;
+
+	private int size = 0;
+
+//////////////////////// Ctors ////////////////////////
+	/**
+	 * Creates an empty store of the tokens of source.
+	 * @param source the source code the tokens are lexed from.
+	 * @param capacity the number of tokens it can take.
+	 */
+	public TokenStore(CharStream source, int capacity)
+	{
+		this(source, null, capacity);
+	}
+
+	private TokenStore(CharStream source, String[] texts, int capacity)
+	{
+		this.source = source;
+		this.texts = texts;
+		types = new short[capacity];
+		channels = new byte[capacity];
+		lines = new int[capacity];
+		columns = new int[capacity];
+		startIndices = new int[capacity];
+		stopIndices = new int[capacity];
+		tokenIndices = new int[capacity];
+	}
+
+	/**
+	 * Creates the store of a single token, e.g. one created outside a SourceFile.
+	 * The text of the token is kept, as where it comes from may not be known.
+	 * @param t
+	 * @return the store, where t is at slot 0.
+	 */
+	public static TokenStore of(Token t)
+	{
+		var ret = new TokenStore(null, new String[] { t.getText() }, 1);
+		ret.add(t);
+		return ret;
+	}
+
+//////////////////////// Filling ////////////////////////
+	/**
+	 * Adds what the lexer has found about t.
+	 * @param t a token lexed from the source code of the store.
+	 * @return the slot of t.
+	 * @throws ArrayIndexOutOfBoundsException if the store is full.
+	 */
+	public int add(Token t)
+	{
+		int slot = size++;
+		types[slot] = (short)t.getType();
+		channels[slot] = (byte)t.getChannel();
+		lines[slot] = t.getLine();
+		columns[slot] = t.getCharPositionInLine();
+		startIndices[slot] = t.getStartIndex();
+		stopIndices[slot] = t.getStopIndex();
+		tokenIndices[slot] = t.getTokenIndex();
+		return slot;
+	}
+
+	/**
+	 * Adds a copy of the token at slot of another store, moved by the deltas,
+	 * c.f. FormatToken.shift().
+	 * @return the slot of the copy.
+	 * @throws ArrayIndexOutOfBoundsException if the store is full.
+	 */
+	public int copy(TokenStore other, int slot, int line_delta, int char_pos_delta, int char_index_delta, int token_index_delta)
+	{
+		int ret = size++;
+		types[ret] = other.types[slot];
+		channels[ret] = other.channels[slot];
+		lines[ret] = other.lines[slot] + line_delta;
+		columns[ret] = other.columns[slot] + char_pos_delta;
+		startIndices[ret] = other.startIndices[slot] + char_index_delta;
+		stopIndices[ret] = other.stopIndices[slot] + char_index_delta;
+		tokenIndices[ret] = other.tokenIndices[slot] + token_index_delta;
+		return ret;
+	}
+
+//////////////////////// Observers ////////////////////////
+	public int size() { return size; }
+
+	public int type(int slot) { return types[slot]; }
+	public int channel(int slot) { return channels[slot]; }
+	public int line(int slot) { return lines[slot]; }
+	public int column(int slot) { return columns[slot]; }
+	public int startIndex(int slot) { return startIndices[slot]; }
+	public int stopIndex(int slot) { return stopIndices[slot]; }
+	public int tokenIndex(int slot) { return tokenIndices[slot]; }
+
+	/**
+	 * @param slot
+	 * @return the text of the token at slot.
+	 */
+	public String text(int slot)
+	{
+		if(texts != null)
+		{
+			return texts[slot];
+		}
+		return source.getText(Interval.of(startIndices[slot], stopIndices[slot]));
+	}
+}
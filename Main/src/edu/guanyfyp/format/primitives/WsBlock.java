@@ -44,6 +44,23 @@ public class WsBlock extends FormatToken
 		);
 		// TODO Auto-generated constructor stub
 	}
+	
+	/**
+	 * c.f. FormatToken(TokenStore, int, int, int)
+	 */
+	public WsBlock
+	(
+		TokenStore store,
+		int slot,
+		int visual_pos,
+		int index_in_line
+	)
+	{
+		super
+		(
+			store, slot, visual_pos, index_in_line
+		);
+	}
 
 	/**
 	 * Used for testing.
@@ -120,6 +137,12 @@ public class WsBlock extends FormatToken
 		super.evaluateFormat(sf, context);
 	}
 	
+	@Override
+	public FormatToken recreate(int visual_pos, int index_in_line)
+	{
+		return new WsBlock(store, slot, visual_pos, index_in_line);
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -5,10 +5,13 @@ package edu.guanyfyp.format.summaries;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import edu.guanyfyp.format.primitives.CodeBlock;
 import edu.guanyfyp.format.primitives.CodeBlock.ScopeStyle;
+import edu.guanyfyp.format.summaries.CompactSummary.Rule;
 
 /**
  * Dedicated to testing the evalFormat() method of Line
@@ -154,6 +157,28 @@ public class CodeBlockSummary extends FormatEvalSummary<CodeBlock>
 		}
 	}
 
+	@Override
+	public void merge(FormatEvalSummary<CodeBlock> other)
+	{
+		super.merge(other);
+		var o = (CodeBlockSummary)other;
+		
+		numTotal += o.numTotal;
+		numIdentifiers += o.numIdentifiers;
+		numPunctuation += o.numPunctuation;
+		numOperators += o.numOperators;
+		numKeywords += o.numKeywords;
+		numLiterals += o.numLiterals;
+		numOthers += o.numOthers;
+		
+		tooLongList.addAll(o.tooLongList);
+		tooShortList.addAll(o.tooShortList);
+		badlyNamedList.addAll(o.badlyNamedList);
+		spaceProblemsList.addAll(o.spaceProblemsList);
+		lbraceNoNewLineScopes.addAll(o.lbraceNoNewLineScopes);
+		lbraceNewLineScopes.addAll(o.lbraceNewLineScopes);
+	}
+
 	@Override
 	public void summarize() 
 	{
@@ -168,6 +193,55 @@ public class CodeBlockSummary extends FormatEvalSummary<CodeBlock>
 		lbraceNoNewLineScopes = Collections.unmodifiableList(lbraceNoNewLineScopes);
 	}
 	
+	/**
+	 * You can only get it after the summary.
+	 * @param maxSamples the most code blocks described in it.
+	 * @return the compact form of the summary, which does not refer to any code block.
+	 * The samples are the code blocks with the most problems.
+	 * @throws IllegalStateException if the summary is not done.
+	 */
+	public CompactSummary compact(int maxSamples)
+	{
+		if(!isSummaryDone())
+		{
+			throw new IllegalStateException("the summary is not done.");
+		}
+		
+		var ret = new CompactSummary(numTotal, maxSamples);
+		
+		// The number of problems of each code block that has any.
+		var severities = new IdentityHashMap<CodeBlock, Integer>();
+		addRecords(ret, Rule.IDENTIFIER_TOO_LONG, tooLongList, severities);
+		addRecords(ret, Rule.IDENTIFIER_TOO_SHORT, tooShortList, severities);
+		addRecords(ret, Rule.BADLY_NAMED, badlyNamedList, severities);
+		addRecords(ret, Rule.SPACE_PROBLEM, spaceProblemsList, severities);
+		// A scope style is not a problem by itself.
+		addRecords(ret, Rule.LBRACE_STARTS_NEW_LINE, lbraceNewLineScopes, null);
+		addRecords(ret, Rule.LBRACE_STAYS_IN_OLD_LINE, lbraceNoNewLineScopes, null);
+		
+		for(var e : severities.entrySet())
+		{
+			ret.sample(e.getValue(), e.getKey().index(), e.getKey().toString());
+		}
+		return ret;
+	}
+	
+	/**
+	 * Adds a record of rule for each code block in list to compact.
+	 * @param severities if not null, counts the records of each code block.
+	 */
+	private static void addRecords(CompactSummary compact, Rule rule, List<CodeBlock> list, Map<CodeBlock, Integer> severities)
+	{
+		for(var c : list)
+		{
+			compact.add(rule, c.line(), c.actualPos(), c.index());
+			if(severities != null)
+			{
+				severities.merge(c, 1, Integer::sum);
+			}
+		}
+	}
+	
 //////////////////////// Settings ////////////////////////
 	public static final class Settings
 	{
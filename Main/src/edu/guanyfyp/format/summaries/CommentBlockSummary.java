@@ -31,6 +31,13 @@ public class CommentBlockSummary extends FormatEvalSummary<CommentBlock>
 		++numComments;
 	}
 	
+	@Override
+	public void merge(FormatEvalSummary<CommentBlock> other)
+	{
+		super.merge(other);
+		numComments += ((CommentBlockSummary)other).numComments;
+	}
+	
 	public int getNumComments() { return numComments; }
 	
 }
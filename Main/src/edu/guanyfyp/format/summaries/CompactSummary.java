@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package edu.guanyfyp.format.summaries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A compact form of a summary, made by the compact() of CodeBlockSummary, LineSummary, and JavaDocSummary.
+ *
+ * A summary keeps every primitive that has a problem, which keeps its SourceFile alive.
+ * This keeps instead,
+ * 	1. the number of primitives included in the summary and the number of problems of each rule;
+ * 	2. a record of each problem: the line, the column, the token index, and the rule, all ints;
+ * 	3. the descriptions (toString()) of at most maxSamples primitives that have the most problems.
+ * Nothing of it refers to the primitives, so it can outlive the SourceFile cheaply.
+ */
+public final class CompactSummary
+{
+//////////////////////// Rules ////////////////////////
+	/**
+	 * What a problem record is about.
+	 */
+	public static enum Rule
+	{
+		// CodeBlock
+		IDENTIFIER_TOO_LONG,
+		IDENTIFIER_TOO_SHORT,
+		BADLY_NAMED,
+		SPACE_PROBLEM,
+		// Not a problem by itself, but the two styles should not be mixed.
+		LBRACE_STARTS_NEW_LINE,
+		LBRACE_STAYS_IN_OLD_LINE,
+		// Line
+		LINE_TOO_LONG,
+		LINE_BADLY_INDENTED,
+		// JavaDocBlock
+		BAD_JAVADOC
+	}
+	private static final Rule[] RULES = Rule.values();
+
+//////////////////////// Fields ////////////////////////
+	public static final int DEFAULT_MAX_SAMPLES = 10;
+
+	// A record is these ints, in this order.
+	private static final int RECORD_LINE = 0;
+	private static final int RECORD_COLUMN = 1;
+	private static final int RECORD_TOKEN_INDEX = 2;
+	private static final int RECORD_RULE = 3;
+	private static final int RECORD_SIZE = 4;
+
+	private final int numIncluded;
+	private final int[] counts = new int[RULES.length];
+
+	// The records one after another. Grows by doubling.
+	private int[] records = new int[RECORD_SIZE * 16];
+	private int numRecords = 0;
+
+	/**
+	 * The description of a primitive that has problems.
+	 */
+	private static final class Sample
+	{
+		Sample(int severity, int order, String description)
+		{
+			this.severity = severity;
+			this.order = order;
+			this.description = description;
+		}
+
+		final int severity;
+		// Of two samples of the same severity, the one with the smaller order is worse.
+		final int order;
+		final String description;
+	}
+	// The worse of two samples is the greater.
+	private static final Comparator<Sample> SAMPLE_ORDER =
+			Comparator.comparingInt((Sample s) -> s.severity).thenComparing((Sample s) -> -s.order);
+
+	private final int maxSamples;
+	// The least bad sample is at the head, to be replaced by a worse one when full.
+	private final PriorityQueue<Sample> samples = new PriorityQueue<Sample>(SAMPLE_ORDER);
+
+//////////////////////// Ctor and methods ////////////////////////
+	/**
+	 * @param numIncluded the number of primitives included in the summary.
+	 * @param maxSamples the most samples kept.
+	 * @throws IllegalArgumentException if maxSamples < 0
+	 */
+	CompactSummary(int numIncluded, int maxSamples)
+	{
+		if(maxSamples < 0)
+		{
+			throw new IllegalArgumentException("maxSamples must not be negative.");
+		}
+
+		this.numIncluded = numIncluded;
+		this.maxSamples = maxSamples;
+	}
+
+	/**
+	 * Records a problem.
+	 * @param rule
+	 * @param line of the primitive, 1..n
+	 * @param column of the primitive, 0..n-1
+	 * @param tokenIndex of the primitive, or -1 if it is not a token.
+	 */
+	void add(Rule rule, int line, int column, int tokenIndex)
+	{
+		if(RECORD_SIZE * (numRecords + 1) > records.length)
+		{
+			records = Arrays.copyOf(records, records.length * 2);
+		}
+
+		int at = RECORD_SIZE * numRecords;
+		records[at + RECORD_LINE] = line;
+		records[at + RECORD_COLUMN] = column;
+		records[at + RECORD_TOKEN_INDEX] = tokenIndex;
+		records[at + RECORD_RULE] = rule.ordinal();
+		++numRecords;
+		++counts[rule.ordinal()];
+	}
+
+	/**
+	 * Offers a primitive that has problems as a sample.
+	 * It's kept iff it's among the maxSamples worst ones offered.
+	 * @param severity how many problems it has.
+	 * @param order where it is in the source file.
+	 * @param description its toString().
+	 */
+	void sample(int severity, int order, String description)
+	{
+		if(maxSamples == 0)
+		{
+			return;
+		}
+
+		var s = new Sample(severity, order, description);
+		if(samples.size() < maxSamples)
+		{
+			samples.add(s);
+		}
+		else if(SAMPLE_ORDER.compare(s, samples.peek()) > 0)
+		{
+			samples.poll();
+			samples.add(s);
+		}
+	}
+
+//////////////////////// Observers ////////////////////////
+	public int getNumIncluded() { return numIncluded; }
+	public int getNumRecords() { return numRecords; }
+	public int getCount(Rule rule) { return counts[rule.ordinal()]; }
+	public int getMaxSamples() { return maxSamples; }
+
+	public int getLine(int record) { return field(record, RECORD_LINE); }
+	public int getColumn(int record) { return field(record, RECORD_COLUMN); }
+	public int getTokenIndex(int record) { return field(record, RECORD_TOKEN_INDEX); }
+	public Rule getRule(int record) { return RULES[field(record, RECORD_RULE)]; }
+
+	/**
+	 * @return the descriptions of the samples, the worst first.
+	 */
+	public List<String> getWorstSamples()
+	{
+		var sorted = new ArrayList<Sample>(samples);
+		sorted.sort(SAMPLE_ORDER.reversed());
+
+		var ret = new ArrayList<String>(sorted.size());
+		for(var s : sorted)
+		{
+			ret.add(s.description);
+		}
+		return ret;
+	}
+
+	private int field(int record, int field)
+	{
+		if(record < 0 || record >= numRecords)
+		{
+			throw new IndexOutOfBoundsException("record is out of range");
+		}
+		return records[RECORD_SIZE * record + field];
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder builder = new StringBuilder();
+
+		for(var rule : RULES)
+		{
+			if(counts[rule.ordinal()] == 0)
+			{
+				continue;
+			}
+
+			builder.append(rule);
+			builder.append(": ");
+			builder.append(counts[rule.ordinal()]);
+			builder.append(" at");
+			for(int i = 0; i < numRecords; ++i)
+			{
+				if(records[RECORD_SIZE * i + RECORD_RULE] == rule.ordinal())
+				{
+					builder.append(' ');
+					builder.append(getLine(i));
+					builder.append(':');
+					builder.append(getColumn(i));
+				}
+			}
+			builder.append('\n');
+		}
+
+		var worst = getWorstSamples();
+		if(!worst.isEmpty())
+		{
+			builder.append("Worst:\n");
+			for(var d : worst)
+			{
+				builder.append('\t');
+				builder.append(d);
+				builder.append('\n');
+			}
+		}
+
+		return builder.toString();
+	}
+}
@@ -54,6 +54,29 @@ public abstract class FormatEvalSummary<T extends FormatPrimitive>
 		}
 	}
 	
+	/**
+	 * Merges other into this, as if the primitives included in other were included in this,
+	 * after those already included. Therefore, it is associative:
+	 * summaries of consecutive ranges of primitives can be merged in any grouping, as long as in order.
+	 * The default implementation checks the states only.
+	 * 
+	 * @param other a summary of the same class. It must not be used afterwards.
+	 * @throws IllegalStateException if either already has a summary.
+	 * @throws IllegalArgumentException if other is this or not of the same class.
+	 */
+	public void merge(FormatEvalSummary<T> other)
+	{
+		if(isSummaryDone() || other.isSummaryDone())
+		{
+			throw new IllegalStateException("Already summarised.");
+		}
+		
+		if(other == this || other.getClass() != getClass())
+		{
+			throw new IllegalArgumentException("other must be another summary of the same class.");
+		}
+	}
+	
 	/**
 	 * Summarises all the evaluated primitives included.
 	 * The results of the method are stored in fields of the class and are accessed through its observers.
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import edu.guanyfyp.format.primitives.JavaDocBlock;
+import edu.guanyfyp.format.summaries.CompactSummary.Rule;
 
 /**
  * 
@@ -58,6 +59,16 @@ public final class JavaDocSummary extends FormatEvalSummary<JavaDocBlock>
 		}
 	}
 
+	@Override
+	public void merge(FormatEvalSummary<JavaDocBlock> other)
+	{
+		super.merge(other);
+		var o = (JavaDocSummary)other;
+		
+		numJavaDocs += o.numJavaDocs;
+		badJavaDocsList.addAll(o.badJavaDocsList);
+	}
+
 	public int getNumJavaDocs() {
 		return numJavaDocs;
 	}
@@ -66,6 +77,26 @@ public final class JavaDocSummary extends FormatEvalSummary<JavaDocBlock>
 		return badJavaDocsList;
 	}
 	
+	/**
+	 * You can only get it after the summary.
+	 * @param maxSamples the most JavaDocs described in it.
+	 * @return the compact form of the summary, which does not refer to any JavaDoc.
+	 * A bad JavaDoc has one problem, so the samples are the first bad ones.
+	 * @throws IllegalStateException if the summary is not done.
+	 */
+	public CompactSummary compact(int maxSamples) {
+		if(!isSummaryDone()) {
+			throw new IllegalStateException("the summary is not done.");
+		}
+		
+		var ret = new CompactSummary(numJavaDocs, maxSamples);
+		for(var jd : badJavaDocsList) {
+			ret.add(Rule.BAD_JAVADOC, jd.line(), jd.actualPos(), jd.index());
+			ret.sample(1, jd.index(), jd.toString());
+		}
+		return ret;
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -5,9 +5,12 @@ package edu.guanyfyp.format.summaries;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import edu.guanyfyp.format.primitives.Line;
+import edu.guanyfyp.format.summaries.CompactSummary.Rule;
 
 /**
  * Summary of the quality of all the lines in a source file
@@ -58,6 +61,17 @@ public final class LineSummary extends FormatEvalSummary<Line>
 		}
 	}
 
+	@Override
+	public void merge(FormatEvalSummary<Line> other)
+	{
+		super.merge(other);
+		var o = (LineSummary)other;
+		
+		numLines += o.numLines;
+		badlyIndentedLines.addAll(o.badlyIndentedLines);
+		tooLongLines.addAll(o.tooLongLines);
+	}
+
 	@Override
 	public void summarize() 
 	{
@@ -101,6 +115,50 @@ public final class LineSummary extends FormatEvalSummary<Line>
 
 	public int getNumLines() { return numLines; }
 	
+	/**
+	 * You can only get it after the summary.
+	 * @param maxSamples the most lines described in it.
+	 * @return the compact form of the summary, which does not refer to any line.
+	 * The column of a record is the indentation of the line,
+	 * and the token index is of its first visible token, or -1 if it has none.
+	 * The samples are the lines with the most problems.
+	 * @throws IllegalStateException if the summary is not done.
+	 */
+	public CompactSummary compact(int maxSamples)
+	{
+		if(!isSummaryDone())
+		{
+			throw new IllegalStateException("the summary is not done.");
+		}
+		
+		var ret = new CompactSummary(numLines, maxSamples);
+		
+		// The number of problems of each line that has any.
+		var severities = new IdentityHashMap<Line, Integer>();
+		addRecords(ret, Rule.LINE_TOO_LONG, tooLongLines, severities);
+		addRecords(ret, Rule.LINE_BADLY_INDENTED, badlyIndentedLines, severities);
+		
+		for(var e : severities.entrySet())
+		{
+			ret.sample(e.getValue(), e.getKey().lineNumber, e.getKey().toString());
+		}
+		return ret;
+	}
+	
+	/**
+	 * Adds a record of rule for each line in list to compact,
+	 * and counts the records of each line in severities.
+	 */
+	private static void addRecords(CompactSummary compact, Rule rule, List<Line> list, Map<Line, Integer> severities)
+	{
+		for(var l : list)
+		{
+			int token_index = l.hasVisibleToken() ? l.firstVisibleToken.index() : -1;
+			compact.add(rule, l.lineNumber, l.indentationLevel, token_index);
+			severities.merge(l, 1, Integer::sum);
+		}
+	}
+	
 //////////////////////// Settings ////////////////////////
 	
 	// To be added. Not used now.
@@ -26,5 +26,16 @@ public class WsBlockSummary extends FormatEvalSummary<WsBlock>
 		super();
 	}
 
+	@Override
+	public void merge(FormatEvalSummary<WsBlock> other)
+	{
+		super.merge(other);
+		var o = (WsBlockSummary)other;
+		
+		numTabBlocks += o.numTabBlocks;
+		numSpaceTabBlocks += o.numSpaceTabBlocks;
+		numSingleSpaces += o.numSingleSpaces;
+	}
+
 
 }
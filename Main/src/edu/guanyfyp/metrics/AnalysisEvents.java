@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package edu.guanyfyp.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Java Flight Recorder events of the phases of a SourceFile,
+ * so that a recording can tell which files are slow and what the GC and the allocations were doing meanwhile.
+ *
+ * Each phase is timed by begin() and end() around it, and committed only if shouldCommit(),
+ * which is false unless a recording has the event enabled, so they cost next to nothing otherwise.
+ * The fields are only set when the event is to be committed:
+ *
+ * 	var event = new AnalysisEvents.Lex();
+ * 	event.begin();
+ * 	...
+ * 	event.end();
+ * 	if(event.shouldCommit())
+ * 	{
+ * 		event.set(path, numTokens, numLines, maxScopeDepth);
+ * 		event.commit();
+ * 	}
+ */
+public final class AnalysisEvents
+{
+	private AnalysisEvents() {}
+
+	/**
+	 * What every event of a phase carries.
+	 */
+	@Category({"guanyfyp", "Analysis"})
+	@StackTrace(false)
+	public static abstract class Base extends Event
+	{
+		@Label("Path")
+		@Description("Where the source code came from, e.g. the path of the file.")
+		String path;
+
+		@Label("Token Count")
+		int tokenCount;
+
+		@Label("Line Count")
+		int lineCount;
+
+		@Label("Max Scope Depth")
+		@Description("The depth of the most nested scope, or 0 if it is not known yet.")
+		int maxScopeDepth;
+
+		/**
+		 * Sets all the fields.
+		 * @param path
+		 * @param tokenCount
+		 * @param lineCount
+		 * @param maxScopeDepth
+		 */
+		public void set(String path, int tokenCount, int lineCount, int maxScopeDepth)
+		{
+			this.path = path;
+			this.tokenCount = tokenCount;
+			this.lineCount = lineCount;
+			this.maxScopeDepth = maxScopeDepth;
+		}
+	}
+
+	@Name("edu.guanyfyp.Lex")
+	@Label("Lexing")
+	public static final class Lex extends Base {}
+
+	// The syntax structure and the JavaDoc matches are found during parsing,
+	// so this includes most of building them. The two below are what's left after parsing.
+	@Name("edu.guanyfyp.Parse")
+	@Label("Parsing")
+	public static final class Parse extends Base {}
+
+	@Name("edu.guanyfyp.ScopeBuilding")
+	@Label("Scope Building")
+	@Description("Indexing the scopes found while parsing.")
+	public static final class ScopeBuilding extends Base {}
+
+	@Name("edu.guanyfyp.JavaDocMatching")
+	@Label("JavaDoc Matching")
+	@Description("Setting what each JavaDoc is followed by.")
+	public static final class JavaDocMatching extends Base {}
+
+	@Name("edu.guanyfyp.Evaluation")
+	@Label("Evaluation")
+	@Description("Evaluating the tokens and the lines and giving the verdict.")
+	public static final class Evaluation extends Base {}
+}
@@ -0,0 +1,154 @@
+/**
+ *
+ */
+package edu.guanyfyp.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative longs (e.g. nanoseconds or sizes) that many threads can record into without locking.
+ *
+ * The buckets are log-linear, like those of an HDR histogram:
+ * each power of 2 is split into SUB_BUCKETS equal buckets, so the relative error of a value read back
+ * is at most 1 / SUB_BUCKETS wherever it is in the range.
+ * Recording is a few bit operations and an atomic increment.
+ */
+public final class LatencyHistogram
+{
+//////////////////////// Constants ////////////////////////
+	// The buckets of each power of 2. Must be a power of 2.
+	static final int SUB_BUCKET_BITS = 3;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// The values below SUB_BUCKETS each have a bucket of their own,
+	// and each power of 2 from SUB_BUCKETS to 2^62 has SUB_BUCKETS of them.
+	private static final int NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+//////////////////////// Fields ////////////////////////
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+//////////////////////// Methods ////////////////////////
+	/**
+	 * Records a value. A negative one is recorded as 0.
+	 * @param value
+	 */
+	public void record(long value)
+	{
+		if(value < 0)
+		{
+			value = 0;
+		}
+
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * @param value non-negative
+	 * @return the index of the bucket of value.
+	 */
+	static int bucketOf(long value)
+	{
+		if(value < SUB_BUCKETS)
+		{
+			return (int)value;
+		}
+
+		// value is in [2^exponent, 2^(exponent+1))
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		// The SUB_BUCKET_BITS bits right after the highest one.
+		int sub = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @param bucket
+	 * @return the greatest value in bucket.
+	 */
+	static long upperBoundOf(int bucket)
+	{
+		if(bucket < SUB_BUCKETS)
+		{
+			return bucket;
+		}
+
+		int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + sub * width + (width - 1);
+	}
+
+	public long getCount() { return count.sum(); }
+	public long getSum() { return sum.sum(); }
+	public long getMax() { return max.get(); }
+
+	/**
+	 * @return the mean of the values recorded, or 0 if there is none.
+	 */
+	public double getMean()
+	{
+		long n = getCount();
+		return n == 0 ? 0.0 : (double)getSum() / n;
+	}
+
+	/**
+	 * @param limit
+	 * @return the number of values recorded that are <= limit.
+	 * Exact iff limit + 1 is 0 or a bucket boundary, e.g. a power of 2 minus 1.
+	 */
+	public long countAtMost(long limit)
+	{
+		long ret = 0;
+		for(int i = 0; i < NUM_BUCKETS && upperBoundOf(i) <= limit; ++i)
+		{
+			ret += counts.get(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * @param quantile in [0, 1]
+	 * @return the upper bound of the bucket that has the value at quantile, or 0 if nothing has been recorded.
+	 * It's never below the value, and above it by at most 1 / SUB_BUCKETS of it.
+	 * @throws IllegalArgumentException if quantile is not in [0, 1].
+	 */
+	public long getValueAtQuantile(double quantile)
+	{
+		if(!(quantile >= 0.0 && quantile <= 1.0))
+		{
+			throw new IllegalArgumentException("quantile must be in [0, 1].");
+		}
+
+		// Read the counts once, so the total matches them even if others are recording.
+		long[] snapshot = new long[NUM_BUCKETS];
+		long total = 0;
+		for(int i = 0; i < NUM_BUCKETS; ++i)
+		{
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if(total == 0)
+		{
+			return 0;
+		}
+
+		long rank = Math.max(1, (long)Math.ceil(quantile * total));
+		long seen = 0;
+		for(int i = 0; i < NUM_BUCKETS; ++i)
+		{
+			seen += snapshot[i];
+			if(seen >= rank)
+			{
+				return Math.min(upperBoundOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+}
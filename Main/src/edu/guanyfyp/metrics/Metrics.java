@@ -0,0 +1,354 @@
+/**
+ *
+ */
+package edu.guanyfyp.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The metrics of the analyses in this JVM: how long each phase of a SourceFile takes,
+ * how many tokens and lines are evaluated, and how large the files are.
+ *
+ * There is one registry per JVM (c.f. global()), which SourceFile records into.
+ * Recording is lock-free (c.f. LatencyHistogram) and only happens once per phase of a file,
+ * so its cost is negligible next to the phase itself.
+ *
+ * They are exposed through
+ * 	1. JMX, as the MXBean METRICS_OBJECT_NAME (c.f. registerMBean() and MetricsMXBean);
+ * 	2. the Prometheus text format (c.f. writePrometheus()), served on localhost by startHttp()
+ * 	or by the /metrics of a GradingServer.
+ */
+public final class Metrics implements MetricsMXBean
+{
+//////////////////////// Phases ////////////////////////
+	/**
+	 * The phases of creating and analyzing a SourceFile, in the order they run.
+	 */
+	public static enum Phase
+	{
+		// Reading the source code into a CharStream.
+		READ,
+		// Lexing all the tokens.
+		LEX,
+		// Creating the FormatTokens, the lines, and their tables.
+		FORMAT_TOKENS,
+		// Parsing, during which the syntax structure is built (c.f. TwoStageParser.parseCompilationUnit()).
+		PARSE,
+		// Applying the additional token attributes found while parsing.
+		ATTRIBUTES,
+		TOKEN_EVALUATION,
+		LINE_EVALUATION,
+		// Summarizing and giving the verdict.
+		VERDICT
+	}
+	private static final Phase[] PHASES = Phase.values();
+
+//////////////////////// Constants ////////////////////////
+	public static final String METRICS_OBJECT_NAME = "edu.guanyfyp:type=Metrics";
+	// The prefix of the names of the Prometheus metrics.
+	private static final String PREFIX = "guanyfyp_";
+
+	private static final Metrics GLOBAL = new Metrics();
+
+	private static final double NANOS_PER_SECOND = 1e9;
+
+//////////////////////// Fields ////////////////////////
+	private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+	// The numbers of chars and lines of each file parsed.
+	private final LatencyHistogram fileChars = new LatencyHistogram();
+	private final LatencyHistogram fileLines = new LatencyHistogram();
+
+	private final LongAdder numFilesAnalyzed = new LongAdder();
+	private final LongAdder numTokensEvaluated = new LongAdder();
+	private final LongAdder numLinesEvaluated = new LongAdder();
+
+//////////////////////// Ctor ////////////////////////
+	/**
+	 * Only for tests. Everything else records into global().
+	 */
+	public Metrics()
+	{
+		for(var p : PHASES)
+		{
+			phases.put(p, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * @return the registry of this JVM.
+	 */
+	public static Metrics global() { return GLOBAL; }
+
+//////////////////////// Recording ////////////////////////
+	/**
+	 * Records how long a phase took.
+	 * @param phase
+	 * @param startNanos the System.nanoTime() when the phase started. It ends now.
+	 * @return now, i.e. when the next phase starts.
+	 */
+	public long record(Phase phase, long startNanos)
+	{
+		long now = System.nanoTime();
+		phases.get(phase).record(now - startNanos);
+		return now;
+	}
+
+	/**
+	 * Records how long a phase took.
+	 * @param phase
+	 * @param nanos
+	 */
+	public void recordNanos(Phase phase, long nanos)
+	{
+		phases.get(phase).record(nanos);
+	}
+
+	/**
+	 * Records the size of a file parsed.
+	 * @param numChars
+	 * @param numLines
+	 */
+	public void recordFile(long numChars, long numLines)
+	{
+		fileChars.record(numChars);
+		fileLines.record(numLines);
+	}
+
+	/**
+	 * Records an analysis that has given a verdict.
+	 * @param numTokens the number of tokens evaluated.
+	 * @param numLines the number of lines evaluated.
+	 */
+	public void recordAnalysis(long numTokens, long numLines)
+	{
+		numFilesAnalyzed.increment();
+		numTokensEvaluated.add(numTokens);
+		numLinesEvaluated.add(numLines);
+	}
+
+//////////////////////// Observers ////////////////////////
+	public LatencyHistogram getPhase(Phase phase) { return phases.get(phase); }
+	public LatencyHistogram getFileChars() { return fileChars; }
+	public LatencyHistogram getFileLines() { return fileLines; }
+
+	@Override public long getNumFilesParsed() { return fileChars.getCount(); }
+	@Override public long getNumFilesAnalyzed() { return numFilesAnalyzed.sum(); }
+	@Override public long getNumTokensEvaluated() { return numTokensEvaluated.sum(); }
+	@Override public long getNumLinesEvaluated() { return numLinesEvaluated.sum(); }
+
+	@Override
+	public double getTokensPerSecond()
+	{
+		return perSecond(getNumTokensEvaluated(), phases.get(Phase.TOKEN_EVALUATION).getSum());
+	}
+
+	@Override
+	public double getLinesPerSecond()
+	{
+		return perSecond(getNumLinesEvaluated(), phases.get(Phase.LINE_EVALUATION).getSum());
+	}
+
+	private static double perSecond(long n, long nanos)
+	{
+		return nanos == 0 ? 0.0 : n * NANOS_PER_SECOND / nanos;
+	}
+
+	@Override public Map<String, Double> getPhaseMeanMillis() { return phaseMillis(-1.0); }
+	@Override public Map<String, Double> getPhaseP50Millis() { return phaseMillis(0.5); }
+	@Override public Map<String, Double> getPhaseP99Millis() { return phaseMillis(0.99); }
+	@Override public Map<String, Double> getPhaseMaxMillis() { return phaseMillis(1.0); }
+
+	@Override
+	public Map<String, Long> getPhaseCounts()
+	{
+		var ret = new LinkedHashMap<String, Long>();
+		for(var p : PHASES)
+		{
+			ret.put(p.name(), phases.get(p).getCount());
+		}
+		return ret;
+	}
+
+	/**
+	 * @param quantile negative for the means.
+	 * @return the durations of the phases at quantile in milliseconds, by the names of the phases.
+	 */
+	private Map<String, Double> phaseMillis(double quantile)
+	{
+		var ret = new LinkedHashMap<String, Double>();
+		for(var p : PHASES)
+		{
+			var h = phases.get(p);
+			double nanos = quantile < 0 ? h.getMean() : h.getValueAtQuantile(quantile);
+			ret.put(p.name(), nanos / 1e6);
+		}
+		return ret;
+	}
+
+//////////////////////// JMX ////////////////////////
+	/**
+	 * Registers global() with the platform MBean server as METRICS_OBJECT_NAME.
+	 * Does nothing if it has been registered.
+	 * @throws IllegalStateException if it cannot be registered.
+	 */
+	public static void registerMBean()
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL, new ObjectName(METRICS_OBJECT_NAME));
+		}
+		catch(InstanceAlreadyExistsException e)
+		{
+			// Registered already.
+		}
+		catch(JMException e)
+		{
+			throw new IllegalStateException("The metrics cannot be registered.", e);
+		}
+	}
+
+//////////////////////// Prometheus ////////////////////////
+	// The bounds of the buckets written, in the unit of the histogram:
+	// every other power of 2, which are boundaries of the buckets of LatencyHistogram, so the counts are exact.
+	private static final int MIN_BOUND_EXPONENT = 10;
+	private static final int MAX_BOUND_EXPONENT = 36;
+
+	/**
+	 * Writes all the metrics in the Prometheus text exposition format.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writePrometheus(Appendable out) throws IOException
+	{
+		out.append("# HELP " + PREFIX + "phase_duration_seconds How long each phase of a source file takes.\n");
+		out.append("# TYPE " + PREFIX + "phase_duration_seconds histogram\n");
+		for(var p : PHASES)
+		{
+			writeHistogram
+			(
+				out, PREFIX + "phase_duration_seconds",
+				"phase=\"" + p.name().toLowerCase(Locale.ROOT) + "\"",
+				phases.get(p), NANOS_PER_SECOND
+			);
+		}
+
+		out.append("# HELP " + PREFIX + "file_chars The number of chars of each source file parsed.\n");
+		out.append("# TYPE " + PREFIX + "file_chars histogram\n");
+		writeHistogram(out, PREFIX + "file_chars", null, fileChars, 1.0);
+
+		out.append("# HELP " + PREFIX + "file_lines The number of lines of each source file parsed.\n");
+		out.append("# TYPE " + PREFIX + "file_lines histogram\n");
+		writeHistogram(out, PREFIX + "file_lines", null, fileLines, 1.0);
+
+		writeCounter(out, "files_analyzed_total", "The number of verdicts given.", getNumFilesAnalyzed());
+		writeCounter(out, "tokens_evaluated_total", "The number of tokens evaluated.", getNumTokensEvaluated());
+		writeCounter(out, "lines_evaluated_total", "The number of lines evaluated.", getNumLinesEvaluated());
+	}
+
+	/**
+	 * Writes the buckets, the sum and the count of h.
+	 * @param labels the labels without braces, or null if none.
+	 * @param unit what a unit of the metric is in the values of h.
+	 */
+	private static void writeHistogram(Appendable out, String name, String labels, LatencyHistogram h, double unit)
+			throws IOException
+	{
+		String prefix = labels == null ? "" : labels + ",";
+		// Exact bounds below 2^MIN_BOUND_EXPONENT are too fine for durations, but not for sizes.
+		int min_exponent = unit == 1.0 ? 4 : MIN_BOUND_EXPONENT;
+		for(int e = min_exponent; e <= MAX_BOUND_EXPONENT; e += 2)
+		{
+			long bound = 1L << e;
+			out.append(name + "_bucket{" + prefix + "le=\"" + format(bound / unit) + "\"} " + h.countAtMost(bound - 1) + "\n");
+		}
+		out.append(name + "_bucket{" + prefix + "le=\"+Inf\"} " + h.getCount() + "\n");
+
+		String braced = labels == null ? "" : "{" + labels + "}";
+		out.append(name + "_sum" + braced + " " + format(h.getSum() / unit) + "\n");
+		out.append(name + "_count" + braced + " " + h.getCount() + "\n");
+	}
+
+	private static void writeCounter(Appendable out, String name, String help, long value) throws IOException
+	{
+		out.append("# HELP " + PREFIX + name + " " + help + "\n");
+		out.append("# TYPE " + PREFIX + name + " counter\n");
+		out.append(PREFIX + name + " " + value + "\n");
+	}
+
+	private static String format(double d)
+	{
+		return d == Math.rint(d) && Math.abs(d) < 1e15 ? Long.toString((long)d) : Double.toString(d);
+	}
+
+	/**
+	 * @return writePrometheus() as a String.
+	 */
+	public String toPrometheusText()
+	{
+		var ret = new StringBuilder();
+		try
+		{
+			writePrometheus(ret);
+		}
+		catch(IOException e)
+		{
+			// A StringBuilder never throws.
+			throw new AssertionError(e);
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Serves GET /metrics of an HTTP exchange with toPrometheusText().
+	 * @param exchange
+	 * @throws IOException
+	 */
+	public void handleScrape(HttpExchange exchange) throws IOException
+	{
+		byte[] bytes = toPrometheusText().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try(OutputStream os = exchange.getResponseBody())
+		{
+			os.write(bytes);
+		}
+	}
+
+	/**
+	 * Starts serving GET /metrics of global() on the loopback interface, on a daemon thread.
+	 * @param port 0 to let the system choose one.
+	 * @return the started server. Call stop() on it to stop serving.
+	 * @throws IOException if the server cannot be bound.
+	 */
+	public static HttpServer startHttp(int port) throws IOException
+	{
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", GLOBAL::handleScrape);
+		server.setExecutor(Executors.newSingleThreadExecutor((r) -> {
+			Thread t = new Thread(r, "metrics-scrape");
+			// Don't keep the JVM alive once the server is stopped.
+			t.setDaemon(true);
+			return t;
+		}));
+		server.start();
+		return server;
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package edu.guanyfyp.metrics;
+
+import java.util.Map;
+
+/**
+ * What Metrics exposes through JMX.
+ * The maps are by the names of Metrics.Phase.
+ */
+public interface MetricsMXBean
+{
+	long getNumFilesParsed();
+	long getNumFilesAnalyzed();
+	long getNumTokensEvaluated();
+	long getNumLinesEvaluated();
+
+	// Over the time spent evaluating them.
+	double getTokensPerSecond();
+	double getLinesPerSecond();
+
+	Map<String, Long> getPhaseCounts();
+	Map<String, Double> getPhaseMeanMillis();
+	Map<String, Double> getPhaseP50Millis();
+	Map<String, Double> getPhaseP99Millis();
+	Map<String, Double> getPhaseMaxMillis();
+}
@@ -0,0 +1,459 @@
+/**
+ *
+ */
+package edu.guanyfyp.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.guanyfyp.batch.BatchAnalyzer;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+import edu.guanyfyp.generated.JavaLexer;
+import edu.guanyfyp.generated.JavaParserBaseListener;
+import edu.guanyfyp.metrics.Metrics;
+import edu.guanyfyp.syntax.TwoStageParser;
+
+/**
+ * A long-running grading server.
+ *
+ * Starting a JVM and warming up the ANTLR lexer and parser costs much more than analyzing a small file.
+ * The ATN/DFA caches of JavaLexer and JavaParser are static, so they stay warm as long as the JVM lives.
+ * Hence the server keeps one JVM alive, warms the caches up once, and then serves analysis requests
+ * through one of two local protocols:
+ *
+ * 1. A line protocol (e.g. over stdin/stdout). Each request is a line:
+ * 		ANALYZE path	the verdict of the file is returned.
+ * 		PING			PONG is returned.
+ * 		QUIT			the server stops reading.
+ * 	Each response to ANALYZE is either OK or ERROR message on one line, followed by the verdict (if OK),
+ * 	and ended by a line that is exactly END.
+ *
+ * 2. HTTP on the loopback interface only:
+ * 		GET /analyze?path=url_encoded_path	200 with the verdict as text/plain,
+ * 			or 422 if the file has grammatical errors, or 404 if it cannot be opened.
+ * 		GET /ping							200 with PONG.
+ * 		GET /metrics						200 with the metrics in the Prometheus text format (c.f. Metrics).
+ * 	Any request whose Host is not the loopback interface gets 403, even though it reached it,
+ * 	so that a web page cannot reach the server by DNS rebinding.
+ *
+ * If the server is given a root directory, only the files in it can be analyzed,
+ * and relative paths are resolved against it. Any other path gets ERROR or 403.
+ */
+public final class GradingServer
+{
+//////////////////////// Constants ////////////////////////
+	public static final String END_OF_RESPONSE = "END";
+
+	// A piece of code that covers the most common syntax structures.
+	// Parsing it fills the parser's DFA cache with the decisions real inputs need the most.
+	private static final String WARM_UP_SOURCE =
+			"package a.b;\n" +
+			"import java.util.*;\n" +
+			"/** doc */\n" +
+			"public final class WarmUp<T extends Comparable<T>> extends Object implements Runnable {\n" +
+			"    private static final int CONSTANT = 1;\n" +
+			"    private List<String> list = new ArrayList<>();\n" +
+			"    int[] array = {1, 2, 3};\n" +
+			"    public WarmUp(int a, String... rest) { super(); this.list.add(\"\" + a); }\n" +
+			"    @Override public void run() {\n" +
+			"        for (int i = 0; i < array.length; ++i) { array[i] += i * 2 - 1; }\n" +
+			"        for (var s : list) { if (s == null || s.isEmpty()) continue; else break; }\n" +
+			"        while (true) { try { Thread.sleep(1); } catch (InterruptedException e) { return; } finally { } }\n" +
+			"    }\n" +
+			"    <R> R apply(java.util.function.Function<T, R> f, T t) { return f.apply(t); }\n" +
+			"    int sw(int x) {\n" +
+			"        int y = switch (x) { case 1 -> 2; default -> { yield x > 0 ? x : -x; } };\n" +
+			"        switch (y) { case 0: return 0; default: break; }\n" +
+			"        Runnable r = () -> System.out.println(y);\n" +
+			"        new Thread(new Runnable() { public void run() { r.run(); } }).start();\n" +
+			"        return (int) (long) y;\n" +
+			"    }\n" +
+			"    interface I { void m(); default int n() { return 0; } }\n" +
+			"    enum E { A, B; E() { } }\n" +
+			"}\n";
+
+	// How many times the warm-up source is parsed.
+	private static final int NUM_WARM_UP_ROUNDS = 3;
+
+	// The names of the loopback interface a Host header may have, in lower case.
+	private static final Set<String> LOOPBACK_HOSTS = Set.of("localhost", "127.0.0.1", "[::1]");
+
+	private static final String OUTSIDE_ROOT_MESSAGE = "The path is outside the root directory.";
+
+//////////////////////// Fields ////////////////////////
+	// The settings all the requests are analyzed with.
+	private final AnalysisSettings settings;
+	// How many HTTP requests are served at the same time.
+	private final int numWorkers;
+	// The real path of the directory the files analyzed must be in, or null if they can be anywhere.
+	private final Path root;
+
+//////////////////////// Ctor ////////////////////////
+	/**
+	 * @param numWorkers How many HTTP requests are served at the same time.
+	 * @param settings The settings all the requests are analyzed with.
+	 * @throws IllegalArgumentException if numWorkers <= 0
+	 */
+	public GradingServer(int numWorkers, AnalysisSettings settings)
+	{
+		this(numWorkers, settings, null);
+	}
+
+	/**
+	 * @param numWorkers How many HTTP requests are served at the same time.
+	 * @param settings The settings all the requests are analyzed with.
+	 * @param root The directory the files analyzed must be in, or null if they can be anywhere.
+	 * @throws IllegalArgumentException if numWorkers <= 0, or root is not a directory.
+	 */
+	public GradingServer(int numWorkers, AnalysisSettings settings, Path root)
+	{
+		if(numWorkers <= 0)
+		{
+			throw new IllegalArgumentException("numWorkers must be positive.");
+		}
+		if(root != null && !Files.isDirectory(root))
+		{
+			throw new IllegalArgumentException("The root " + root + " is not a directory.");
+		}
+
+		this.numWorkers = numWorkers;
+		this.settings = settings;
+		try
+		{
+			this.root = root == null ? null : root.toRealPath();
+		}
+		catch(IOException e)
+		{
+			throw new IllegalArgumentException("The root " + root + " cannot be resolved. " + e.getMessage());
+		}
+	}
+
+//////////////////////// Warming up ////////////////////////
+	/**
+	 * Lexes and parses a piece of code that has the most common syntax structures
+	 * to fill the static DFA caches of JavaLexer and JavaParser.
+	 * All SourceFiles created later in the JVM benefit from it.
+	 */
+	public static void warmUp()
+	{
+		for(int i = 0; i < NUM_WARM_UP_ROUNDS; ++i)
+		{
+			JavaLexer lexer = new JavaLexer(CharStreams.fromString(WARM_UP_SOURCE));
+			lexer.removeErrorListeners();
+			// Parse it the way a SourceFile does, with a listener and no parse tree.
+			// The base listener does nothing, so only the caches are filled.
+			TwoStageParser.parseCompilationUnit(new CommonTokenStream(lexer), JavaParserBaseListener::new);
+		}
+	}
+
+//////////////////////// Line protocol ////////////////////////
+	/**
+	 * Serves requests of the line protocol read from in until it ends or QUIT is read.
+	 * The requests are served one by one in the order they are read.
+	 *
+	 * @param in where the requests are read from.
+	 * @param out where the responses are written to. It's flushed after every response.
+	 * @throws IOException if in cannot be read.
+	 */
+	public void serveLines(BufferedReader in, PrintStream out) throws IOException
+	{
+		String line;
+		while((line = in.readLine()) != null)
+		{
+			line = line.strip();
+			if(line.isEmpty())
+			{
+				continue;
+			}
+			if(line.equals("QUIT"))
+			{
+				break;
+			}
+
+			out.print(handleRequestLine(line));
+			out.flush();
+		}
+	}
+
+	/**
+	 * @param line a request of the line protocol, not QUIT.
+	 * @return the complete response, including the END line.
+	 */
+	String handleRequestLine(String line)
+	{
+		StringBuilder response = new StringBuilder();
+
+		if(line.equals("PING"))
+		{
+			response.append("PONG\n");
+		}
+		else if(line.startsWith("ANALYZE "))
+		{
+			Path path = resolve(line.substring("ANALYZE ".length()).strip());
+			BatchAnalyzer.FileResult result;
+			try
+			{
+				result = path == null ? null : BatchAnalyzer.analyzeOne(path, settings);
+			}
+			catch(RuntimeException e)
+			{
+				// A bug in the analysis must not end the server, so only this request fails.
+				response.append("ERROR ").append(oneLine(internalErrorMessage(e))).append('\n');
+				response.append(END_OF_RESPONSE).append('\n');
+				return response.toString();
+			}
+			
+			if(result == null)
+			{
+				response.append("ERROR ").append(OUTSIDE_ROOT_MESSAGE).append('\n');
+			}
+			else if(result.succeeded())
+			{
+				response.append("OK\n");
+				response.append(result.verdict.toString());
+				response.append('\n');
+			}
+			else
+			{
+				response.append("ERROR ").append(oneLine(result.errorMessage)).append('\n');
+			}
+		}
+		else
+		{
+			response.append("ERROR Unknown request: ").append(oneLine(line)).append('\n');
+		}
+
+		response.append(END_OF_RESPONSE).append('\n');
+		return response.toString();
+	}
+
+	/**
+	 * @param path a path given by a request.
+	 * @return where path is, or null if it is not in the root directory.
+	 * A path that is in it but does not exist is returned as it is, for the analysis to report.
+	 */
+	Path resolve(String path)
+	{
+		Path p = Paths.get(path);
+		if(root == null)
+		{
+			return p;
+		}
+
+		p = root.resolve(p).normalize();
+		if(!p.startsWith(root))
+		{
+			return null;
+		}
+		// It may be a link to somewhere else.
+		try
+		{
+			return p.toRealPath().startsWith(root) ? p : null;
+		}
+		catch(IOException e)
+		{
+			return p;
+		}
+	}
+
+	/**
+	 * @param e what the analysis has thrown unexpectedly.
+	 * @return the message of the error response to the request.
+	 */
+	private static String internalErrorMessage(RuntimeException e)
+	{
+		return "The analysis failed unexpectedly: " + e;
+	}
+
+	/**
+	 * @param s
+	 * @return s with the line terminators replaced by spaces, so that it fits in one line of the protocol.
+	 */
+	private static String oneLine(String s)
+	{
+		return s.replaceAll("[\r\n]+", " ");
+	}
+
+//////////////////////// HTTP ////////////////////////
+	/**
+	 * Starts serving HTTP on the loopback interface.
+	 *
+	 * @param port the port to listen on. 0 to let the system choose one.
+	 * @return the started server. Call stop() on it to stop serving.
+	 * @throws IOException if the server cannot be bound.
+	 */
+	public HttpServer startHttp(int port) throws IOException
+	{
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/analyze", loopbackOnly(this::handleAnalyze));
+		server.createContext("/ping", loopbackOnly((exchange) -> respond(exchange, 200, "PONG\n")));
+		server.createContext("/metrics", loopbackOnly(Metrics.global()::handleScrape));
+
+		ExecutorService workers = Executors.newFixedThreadPool(numWorkers, (r) -> {
+			Thread t = new Thread(r, "grading-server-worker");
+			// Don't keep the JVM alive once the server is stopped.
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(workers);
+		server.start();
+
+		return server;
+	}
+
+	/**
+	 * @param handler
+	 * @return a handler that passes the requests whose Host is the loopback interface at the server's port
+	 * to handler, and answers the others with 403.
+	 */
+	private static HttpHandler loopbackOnly(HttpHandler handler)
+	{
+		return (exchange) -> {
+			if(isLoopbackHost(exchange.getRequestHeaders().getFirst("Host"), exchange.getLocalAddress().getPort()))
+			{
+				handler.handle(exchange);
+			}
+			else
+			{
+				respond(exchange, 403, "The Host must be localhost.\n");
+			}
+		};
+	}
+
+	/**
+	 * @param host the Host header of a request. Can be null.
+	 * @param port the port the server listens on.
+	 * @return true iff host is a name of the loopback interface, with no port or with port.
+	 */
+	static boolean isLoopbackHost(String host, int port)
+	{
+		if(host == null)
+		{
+			return false;
+		}
+
+		host = host.strip().toLowerCase(Locale.ROOT);
+		String suffix = ":" + port;
+		if(host.endsWith(suffix))
+		{
+			host = host.substring(0, host.length() - suffix.length());
+		}
+		return LOOPBACK_HOSTS.contains(host);
+	}
+
+	/**
+	 * Handles GET /analyze?path=...
+	 * @param exchange
+	 * @throws IOException
+	 */
+	private void handleAnalyze(HttpExchange exchange) throws IOException
+	{
+		if(!exchange.getRequestMethod().equals("GET"))
+		{
+			respond(exchange, 405, "Only GET is supported.\n");
+			return;
+		}
+
+		String path = queryParameter(exchange.getRequestURI().getRawQuery(), "path");
+		if(path == null || path.isEmpty())
+		{
+			respond(exchange, 400, "The path parameter is missing.\n");
+			return;
+		}
+
+		Path resolved = resolve(path);
+		if(resolved == null)
+		{
+			respond(exchange, 403, OUTSIDE_ROOT_MESSAGE + "\n");
+			return;
+		}
+
+		BatchAnalyzer.FileResult result;
+		try
+		{
+			result = BatchAnalyzer.analyzeOne(resolved, settings);
+		}
+		catch(RuntimeException e)
+		{
+			// A bug in the analysis must not end the server, so only this request fails.
+			respond(exchange, 500, internalErrorMessage(e) + "\n");
+			return;
+		}
+		
+		if(result.succeeded())
+		{
+			respond(exchange, 200, result.verdict.toString());
+		}
+		else if(result.failure == BatchAnalyzer.Failure.GRAMMATICAL_ERRORS)
+		{
+			respond(exchange, 422, result.errorMessage + "\n");
+		}
+		else
+		{
+			respond(exchange, 404, result.errorMessage + "\n");
+		}
+	}
+
+	/**
+	 * @param rawQuery the raw query string of a URI. Can be null.
+	 * @param name the name of the parameter
+	 * @return the decoded value of the first parameter called name, or null if there is no such parameter.
+	 */
+	static String queryParameter(String rawQuery, String name)
+	{
+		if(rawQuery == null)
+		{
+			return null;
+		}
+
+		for(var pair : rawQuery.split("&"))
+		{
+			int eq = pair.indexOf('=');
+			String key = eq == -1 ? pair : pair.substring(0, eq);
+			if(URLDecoder.decode(key, StandardCharsets.UTF_8).equals(name))
+			{
+				return eq == -1 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Sends a text/plain response and closes the exchange.
+	 * @param exchange
+	 * @param status the HTTP status code
+	 * @param body the text to send
+	 * @throws IOException
+	 */
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException
+	{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream os = exchange.getResponseBody())
+		{
+			os.write(bytes);
+		}
+	}
+}
@@ -106,11 +106,19 @@ public final class SyntaxScope
 	 */
 	public final boolean oneLine;
 	
+	/**
+	 * If the scope is that of a block, i.e. of statements in braces (c.f. the rule block of JavaParser),
+	 * e.g. a method body, but not a class body or an array initializer.
+	 * Such a scope can be parsed on its own, c.f. TwoStageParser.parseBlock().
+	 */
+	public final boolean block;
+	
 //////////////////////// Ctors //////////////////////////////
 	/**
 	 * Creates a new syntax scope with the parameters.
 	 * It is impossible to give a valid parent here unless the scope is root, but you MUST give all its children here.
 	 * After the construction, the children's parent will be set to this.
+	 * The scope is not that of a block, c.f. this.block.
 	 * 
 	 * @param type which kind of syntactical structure this scope is (or is part of)
 	 * @param unless this is root, the parameter is meaningless. If it's root, then the argument MUST be null.
@@ -133,6 +141,22 @@ public final class SyntaxScope
 		CodeBlock startToken, CodeBlock endToken,
 		int level
 	)
+	{
+		this(type, parent, children, startToken, endToken, level, false);
+	}
+	
+	/**
+	 * The same as the other ctor, but the scope may be that of a block.
+	 * @param block c.f. this.block
+	 */
+	public SyntaxScope
+	(
+		Type type,
+		SyntaxScope parent, List<SyntaxScope> children,
+		CodeBlock startToken, CodeBlock endToken,
+		int level,
+		boolean block
+	)
 	{	
 		// check the start and end token
 		if(!startToken.characters().equals("{") || !endToken.characters().equals("}"))
@@ -172,6 +196,7 @@ public final class SyntaxScope
 		
 		// calclaute oneLine
 		oneLine = (startToken.line() == endToken.line());
+		this.block = block;
 	}
 	
 
@@ -4,9 +4,14 @@
 package edu.guanyfyp.syntax;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
+import edu.guanyfyp.format.primitives.CodeBlock;
 import edu.guanyfyp.format.primitives.FormatPrimitive;
+import edu.guanyfyp.format.primitives.FormatToken;
+import edu.guanyfyp.format.primitives.Line;
 
 /**
  * Represents the syntax structure of some piece of source code
@@ -24,6 +29,21 @@ public final class SyntaxStructure
 	 */
 	protected List<SyntaxScope> rootScopes = new ArrayList<SyntaxScope>();
 	
+	/**
+	 * The syntax context of each format token, indexed by the token's index,
+	 * and that of each line, indexed by the line number (element 0 is unused).
+	 * Built by buildIndex() once all the scopes are built.
+	 * 
+	 * The contexts are immutable, so one context is shared by all the primitives in the same scope.
+	 */
+	private SyntaxContext[] tokenContexts = new SyntaxContext[0];
+	private SyntaxContext[] lineContexts = new SyntaxContext[0];
+	
+	/**
+	 * The context of the primitives outside of any scope.
+	 */
+	private static final SyntaxContext NO_SCOPE_CONTEXT = new SyntaxContext(null);
+	
 ////////////////////////// Observers //////////////////////////
 	public int getNumRootScopes() { return rootScopes.size(); }
 	
@@ -41,53 +61,218 @@ public final class SyntaxStructure
 	 * Get the syntax context of the primitive p.
 	 * Should at least support getting Line's and FormatToken's
 	 * 
+	 * The context's scope is the innermost scope whose range covers p,
+	 * c.f. SyntaxScope.isPrimitiveInRange().
+	 * 
+	 * @implNote It is a lookup in the tables built by buildIndex(),
+	 * so it takes O(1) no matter how deep p is nested.
+	 * 
 	 * @param p the format primitive
 	 * @return its syntax context
 	 * @throws UnsupportedOperationException if p is of a type that is not supported
 	 */
 	public SyntaxContext getSyntaxContext(FormatPrimitive p)
 	{
-		// Algorithm to find:
-		// 1. find the root scope that contains p
-		// If p is outside of any root scope, then return.
-		// 2. for each children, c, of scope, check if p is in c.
-		// 3. if so, scope = c. goto 2.
-		// 4. if none of c has p, then we are done.
+		SyntaxContext[] table;
+		int ind;
+		if(p instanceof FormatToken)
+		{
+			table = tokenContexts;
+			ind = ((FormatToken)p).index();
+		}
+		else if(p instanceof Line)
+		{
+			table = lineContexts;
+			ind = ((Line)p).lineNumber;
+		}
+		else
+		{
+			throw new UnsupportedOperationException("This kind of primitive is not supported.");
+		}
+		
+		// Check if p is outside of any scope
+		if(ind < 0 || ind >= table.length || table[ind] == null)
+		{
+			return NO_SCOPE_CONTEXT;
+		}
+		return table[ind];
+	}
+	
+////////////////////////// Building //////////////////////////
+	/**
+	 * Builds the tables that getSyntaxContext() looks up.
+	 * Must be called once all the root scopes have been added.
+	 * 
+	 * @implNote Every scope fills the gaps between its children with its own context
+	 * and lets each child fill its own range.
+	 * Hence, each element is written once, and the whole build takes O(numTokens + numLines + numScopes).
+	 * 
+	 * @param numTokens the number of format tokens in the source file.
+	 * @param numLines the number of lines in the source file.
+	 */
+	void buildIndex(int numTokens, int numLines)
+	{
+		tokenContexts = new SyntaxContext[numTokens];
+		lineContexts = new SyntaxContext[numLines + 1];
 		
-		// 1.
-		SyntaxScope scope = null;
 		for(var r : rootScopes)
 		{
-			if(r.isPrimitiveInRange(p))
-			{
-				scope = r;
-				break;
-			}
+			fillIndex(r);
 		}
-		// Check if p is outside of any scope
-		if(scope == null)
+	}
+	
+	/**
+	 * Fills the tables for s and its descendants.
+	 * Elements outside of any scope are left null.
+	 * @param s
+	 */
+	private void fillIndex(SyntaxScope s)
+	{
+		var ctx = new SyntaxContext(s);
+		
+		// Tokens: [start, end], inclusive.
+		int nextToken = s.startToken.index();
+		// Lines: (start line, end line), exclusive.
+		int nextLine = s.startToken.line() + 1;
+		
+		for(var c : s.children)
 		{
-			return new SyntaxContext(null);
+			fill(tokenContexts, nextToken, c.startToken.index(), ctx);
+			// The line of a child's { is not in its range, so it is in s's.
+			fill(lineContexts, nextLine, c.startToken.line() + 1, ctx);
+			
+			fillIndex(c);
+			
+			nextToken = c.endToken.index() + 1;
+			// The line of a child's } is not in its range, so it is in s's.
+			nextLine = Math.max(nextLine, c.endToken.line());
 		}
 		
-		while(true)
+		fill(tokenContexts, nextToken, s.endToken.index() + 1, ctx);
+		fill(lineContexts, nextLine, s.endToken.line(), ctx);
+	}
+	
+////////////////////////// Editing //////////////////////////
+	/**
+	 * MUST only be called within SourceFile.edit(), after an edit that has changed no code
+	 * but has replaced some of the tokens.
+	 * 
+	 * A scope is immutable, so each scope that starts or ends with a replaced token is rebuilt,
+	 * and so is each of its ancestors, whose list of children changes.
+	 * All the other scopes are kept. Then the tables are built again.
+	 * 
+	 * @param replaced maps the tokens replaced to those replacing them, by identity.
+	 * @param numTokens the number of format tokens in the source file after the edit.
+	 * @param numLines the number of lines in the source file after the edit.
+	 */
+	public void replaceTokens(Map<FormatToken, FormatToken> replaced, int numTokens, int numLines)
+	{
+		replaceScope(null, null, replaced, numTokens, numLines);
+	}
+	
+	/**
+	 * MUST only be called within SourceFile.edit(), after an edit that has changed the code in a block,
+	 * which has been parsed again on its own.
+	 * 
+	 * The same as replaceTokens(replaced, numTokens, numLines), but in addition,
+	 * oldScope is replaced by newScope, and so are their descendants.
+	 * newScope and its descendants are rebuilt as well, as the tokens have been moved since they were built.
+	 * 
+	 * @param oldScope the scope of the block before the edit, or null if none is replaced.
+	 * @param newScope the scope the block has been parsed into, at the level of oldScope.
+	 * @param replaced c.f. replaceTokens()
+	 * @param numTokens c.f. replaceTokens()
+	 * @param numLines c.f. replaceTokens()
+	 */
+	public void replaceScope(SyntaxScope oldScope, SyntaxScope newScope, Map<FormatToken, FormatToken> replaced, int numTokens, int numLines)
+	{
+		for(int i = 0; i < rootScopes.size(); ++i)
+		{
+			rootScopes.set(i, replaceTokens(rootScopes.get(i), oldScope, newScope, replaced));
+		}
+		
+		buildIndex(numTokens, numLines);
+	}
+	
+	/**
+	 * @param s
+	 * @param oldScope
+	 * @param newScope
+	 * @param replaced
+	 * @return s if neither s nor any of its descendants has a replaced token or is oldScope, 
+	 * otherwise the scope rebuilt from s. 
+	 */
+	private static SyntaxScope replaceTokens(SyntaxScope s, SyntaxScope oldScope, SyntaxScope newScope, Map<FormatToken, FormatToken> replaced)
+	{
+		if(s == oldScope)
+		{
+			return rebuild(newScope, replaced);
+		}
+		
+		// Only copied when a child is rebuilt.
+		List<SyntaxScope> children = null;
+		for(int i = 0; i < s.children.size(); ++i)
 		{
-			// 2.
-			for(var c : scope.children)
+			var c = s.children.get(i);
+			var rebuilt = replaceTokens(c, oldScope, newScope, replaced);
+			if(rebuilt != c)
 			{
-				if(c.isPrimitiveInRange(p))
+				if(children == null)
 				{
-					// 3.
-					scope = c;
-					break;
+					children = new ArrayList<>(s.children);
 				}
+				children.set(i, rebuilt);
 			}
-			
-			// 4. None of its children contains p.
-			// we are done.
-			break;
 		}
 		
-		return new SyntaxContext(scope);
+		var start = (CodeBlock)replaced.getOrDefault(s.startToken, s.startToken);
+		var end = (CodeBlock)replaced.getOrDefault(s.endToken, s.endToken);
+		if(children == null && start == s.startToken && end == s.endToken)
+		{
+			return s;
+		}
+		
+		// The ctor sets the parent of the children, 
+		// and the parent of this is set when its parent is rebuilt in turn.
+		return new SyntaxScope
+		(
+			s.type, s.parent,
+			children == null ? new ArrayList<>(s.children) : children,
+			start, end, s.level, s.block
+		);
+	}
+	
+	/**
+	 * @param s
+	 * @param replaced
+	 * @return s and all its descendants rebuilt, with the replaced tokens.
+	 */
+	private static SyntaxScope rebuild(SyntaxScope s, Map<FormatToken, FormatToken> replaced)
+	{
+		var children = new ArrayList<SyntaxScope>(s.children.size());
+		for(var c : s.children)
+		{
+			children.add(rebuild(c, replaced));
+		}
+		return new SyntaxScope
+		(
+			s.type, null, children,
+			(CodeBlock)replaced.getOrDefault(s.startToken, s.startToken),
+			(CodeBlock)replaced.getOrDefault(s.endToken, s.endToken),
+			s.level, s.block
+		);
+	}
+	
+	/**
+	 * Fills table[from, to) with ctx. Does nothing if the range is empty.
+	 */
+	private static void fill(SyntaxContext[] table, int from, int to, SyntaxContext ctx)
+	{
+		from = Math.max(from, 0);
+		to = Math.min(to, table.length);
+		if(from < to)
+		{
+			Arrays.fill(table, from, to, ctx);
+		}
 	}
 }
@@ -4,38 +4,102 @@
 package edu.guanyfyp.syntax;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.SortedMap;
 import java.util.Stack;
-import java.util.TreeMap;
+import java.util.function.IntFunction;
 
 import org.antlr.v4.runtime.ParserRuleContext;
-import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
 import edu.guanyfyp.SourceFile;
 import edu.guanyfyp.format.primitives.CodeBlock;
 import edu.guanyfyp.format.primitives.CodeBlock.AdditionalAttributes;
+import edu.guanyfyp.format.primitives.FormatToken;
 import edu.guanyfyp.format.primitives.JavaDocBlock;
 import edu.guanyfyp.format.primitives.JavaDocBlock.FollowingMethod;
 import edu.guanyfyp.format.primitives.JavaDocBlock.FollowingType;
 import edu.guanyfyp.generated.JavaParser;
 import edu.guanyfyp.generated.JavaParserBaseListener;
+import edu.guanyfyp.metrics.AnalysisEvents;
 import edu.guanyfyp.syntax.SyntaxScope.Type;
 import edu.guanyfyp.generated.JavaParser.AnnotationContext;
+import edu.guanyfyp.generated.JavaParser.ClassBodyDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.ClassDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.ConstructorDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.EnumDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.FieldDeclarationContext;
 import edu.guanyfyp.generated.JavaParser.ForInitContext;
+import edu.guanyfyp.generated.JavaParser.FormalParameterContext;
+import edu.guanyfyp.generated.JavaParser.FormalParametersContext;
+import edu.guanyfyp.generated.JavaParser.GenericConstructorDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.GenericMethodDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.InterfaceBodyDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.InterfaceCommonBodyDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.InterfaceDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.LastFormalParameterContext;
+import edu.guanyfyp.generated.JavaParser.LocalTypeDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.LocalVariableDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.MethodDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.ReceiverParameterContext;
+import edu.guanyfyp.generated.JavaParser.TypeDeclarationContext;
+import edu.guanyfyp.generated.JavaParser.VariableDeclaratorContext;
+import edu.guanyfyp.generated.JavaParser.VariableDeclaratorIdContext;
 
 /**
- * Builds a SyntaxContext by walking the parse tree.
+ * Builds a SyntaxContext by walking the parse tree,
+ * or during parsing, when it is attached to the parser as a parse listener
+ * (c.f. TwoStageParser.parseCompilationUnit(CommonTokenStream, Supplier)).
  * In addition, it completes the syntactical information stored in the SourceFile
  * during the walk.
  */
 public class SyntaxStructureBuilder extends JavaParserBaseListener {
 
 	public SyntaxStructureBuilder(SourceFile sf) 
+	{
+		this(sf, sf::getFormatToken, sf.numFormatTokens(), sf.getJavaDocs().size(), 0);
+		
+		var java_docs = sf.getJavaDocs();
+		for(int i = 0; i < javaDocIndices.length; ++i)
+		{
+			javaDocIndices[i] = java_docs.get(i).index();
+		}
+	}
+	
+	/**
+	 * Only for SourceFile.edit(). 
+	 * Creates a builder of a block with no JavaDoc in it, which is parsed on its own (c.f. TwoStageParser.parseBlock()).
+	 * The syntax structure built has the scope of the block as its only root scope, 
+	 * and the tokens are indexed from the { of the block.
+	 * The compilation unit is never exited, so the syntax structure is not indexed.
+	 * 
+	 * @param formatTokens gives the format token of each token index in the block.
+	 * @param numTokens the number of tokens in the block.
+	 * @param type the type of the scope of the block.
+	 * @param level the level of the scope of the block.
+	 */
+	public SyntaxStructureBuilder(IntFunction<FormatToken> formatTokens, int numTokens, SyntaxScope.Type type, int level)
+	{
+		this(null, formatTokens, numTokens, 0, level);
+		pendingScopeType = type;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private SyntaxStructureBuilder(SourceFile sf, IntFunction<FormatToken> formatTokens, int numTokens, int numJavaDocs, int baseLevel)
 	{
 		this.sourceFile = sf;
+		this.formatTokens = formatTokens;
+		this.baseLevel = baseLevel;
+		
+		attributeTypes = new CodeBlock.Type[numTokens];
+		attributeOopModifiers = new int[numTokens];
+		attributeOtherModifiers = new int[numTokens];
+		attributeAnnotations = (List<AnnotationContext>[])new List<?>[numTokens];
+		
+		javaDocIndices = new int[numJavaDocs];
+		javaDocFollowingTypes = new FollowingType[numJavaDocs];
+		javaDocFollowingMethods = new FollowingMethod[numJavaDocs];
 	}
 
 	
@@ -43,8 +107,14 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	/**
 	 * Reference to the SourceFile that produced this listener.
 	 * The listener will attach more information to the tokens of the source_file.
+	 * null if a block is built on its own.
 	 */
 	private final SourceFile sourceFile;
+	/**
+	 * Gives the format token of a token index, 
+	 * i.e. sourceFile.getFormatToken() unless a block is built on its own.
+	 */
+	private final IntFunction<FormatToken> formatTokens;
 	/**
 	 * The syntax structure the listener will build during a walk.
 	 * It should be complete after a walk.
@@ -57,15 +127,37 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	
 	
 ///////////////////////////// additional attributes related /////////////////////////
-	// A list of additional attributes for the format tokens is built during a walk.
-	// token index (in the token stream, getTokenIndex()) -> additional information
+	// A table of additional attributes for the format tokens is built during a walk.
+	// It is indexed by the token index (in the token stream, getTokenIndex()),
+	// and has one array per attribute, so that nothing is boxed or allocated per token.
 	// Because the tokens that the parser processes are only CodeBlocks,
 	// only this Type's information is needed.
-	// defined as sorted map so I can get all keys in a range.
-	private final SortedMap<Integer, CodeBlock.AdditionalAttributes> additionalTokenAttributes = new TreeMap<>();
-	public SortedMap<Integer, CodeBlock.AdditionalAttributes> getAdditionalTokenAttributes()
+	// A token has additional attributes iff its type is not null.
+	private final CodeBlock.Type[] attributeTypes;
+	private final int[] attributeOopModifiers;
+	private final int[] attributeOtherModifiers;
+	// null if the token has no annotation modifiers.
+	private final List<AnnotationContext>[] attributeAnnotations;
+	
+	/**
+	 * @param tokenIndex the index of a token.
+	 * @return a copy of the additional attributes built for the token,
+	 * or null if none was built for it.
+	 */
+	public CodeBlock.AdditionalAttributes getAdditionalTokenAttributes(int tokenIndex)
 	{
-		return additionalTokenAttributes;
+		if(tokenIndex < 0 || tokenIndex >= attributeTypes.length || attributeTypes[tokenIndex] == null)
+		{
+			return null;
+		}
+		
+		return new AdditionalAttributes
+		(
+			attributeTypes[tokenIndex], 
+			attributeOopModifiers[tokenIndex], 
+			attributeOtherModifiers[tokenIndex],
+			attributeAnnotations[tokenIndex] == null ? List.of() : attributeAnnotations[tokenIndex]
+		);
 	}
 	
 	/**
@@ -75,12 +167,26 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	 */
 	public void applyAdditionalTokenAttributes()
 	{
-		var indices = additionalTokenAttributes.keySet();
-		for(int ind : indices)
+		for(int ind = 0; ind < attributeTypes.length; ++ind)
 		{
-			CodeBlock cb = (CodeBlock)sourceFile.getFormatToken(ind);
-			// move the additional attributes to the code block's
-			cb.additionalAttr.move(additionalTokenAttributes.get(ind));
+			if(attributeTypes[ind] == null)
+			{
+				continue;
+			}
+			
+			// Overwrite what the code block's attributes have, 
+			// i.e. the type deduced by the lexer.
+			var attr = ((CodeBlock)formatTokens.apply(ind)).additionalAttr;
+			attr.setType(attributeTypes[ind]);
+			attr.assignOopModifiers(attributeOopModifiers[ind]);
+			attr.assignOtherModifiers(attributeOtherModifiers[ind]);
+			if(attributeAnnotations[ind] != null)
+			{
+				for(var a : attributeAnnotations[ind])
+				{
+					attr.addAnnotationModifier(a);
+				}
+			}
 		}
 	}
 	
@@ -97,17 +203,40 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	 * 
 	 * On a legal piece of Java code, this reset process should work without problems.
 	 */
-	private AdditionalAttributes pendingAttributes = new AdditionalAttributes();
+	// The pending attributes are kept in these fields, which are reused for every code block,
+	// and the type is given when they are consumed.
+	private int pendingOopModifiers = 0;
+	private int pendingOtherModifiers = 0;
+	private final List<AnnotationContext> pendingAnnotations = new ArrayList<>();
 	
 	/**
 	 * Resets pending_modifiers to having no additional information
-	 * i.e. to a new AdditionalAttributes();
 	 */
 	private void resetPendingAttributes() 
 	{ 
-		pendingAttributes = new AdditionalAttributes();
+		pendingOopModifiers = 0;
+		pendingOtherModifiers = 0;
+		pendingAnnotations.clear();
 	}
 	
+	/**
+	 * A declaration can declare many variables, as in "int a, b = 1, c;",
+	 * all of which have the modifiers of the declaration.
+	 * The modifiers are taken from the pending attributes before the first variable,
+	 * because an initializer may have declarations of its own (e.g. an anonymous class).
+	 */
+	private static class DeclaratorsInfo
+	{
+		CodeBlock.Type type;
+		int oopModifiers;
+		int otherModifiers;
+		// null if there are no annotation modifiers.
+		List<AnnotationContext> annotations;
+	}
+	
+	// The declarations whose variables are being declared, innermost on top.
+	private final Stack<DeclaratorsInfo> declaratorsBuildingStack = new Stack<DeclaratorsInfo>();
+	
 ///////////////////////////// SyntaxScope building /////////////////////////
 	/*
 	 * After a walk, I must have a complete syntax scope tree.
@@ -159,6 +288,8 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 		// the } does not need to be stored.
 		// It's available when it's created.
 		CodeBlock start;
+		// c.f. SyntaxScope.block
+		boolean block;
 		final List<SyntaxScope> children = new ArrayList<SyntaxScope>();
 		// The level does not need to be stored.
 		// It's available when it's created.
@@ -166,6 +297,11 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	
 	private final Stack<ScopeBuildingInfo> scopeBuildingStack = new Stack<ScopeBuildingInfo>();
 	private SyntaxScope.Type pendingScopeType = Type.GENERAL_STATEMENT_SCOPE;
+	// The level of the scopes built as roots, which is not 0 only for a block built on its own.
+	private final int baseLevel;
+	// The depth of the most nested scope created so far. A root scope is 1 deep.
+	private int maxScopeDepth = 0;
+	public int getMaxScopeDepth() { return maxScopeDepth; }
 	
 	/**
 	 * Called when a { is encountered 
@@ -177,10 +313,11 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 			 	
 			3.c. Whenever a { is encountered, retrieve the pendingType and reset it back to Type.STANDALONE_SCOPE.
 	 */
-	private void onLBraceEncountered(CodeBlock lb)
+	private void onLBraceEncountered(CodeBlock lb, boolean block)
 	{
 		ScopeBuildingInfo info = new ScopeBuildingInfo();
 		info.start = lb;
+		info.block = block;
 		// 3.c. Whenever a { is encountered, retrieve the pendingType and reset it back to Type.STANDALONE_SCOPE.
 		info.type = pendingScopeType;
 		pendingScopeType = Type.GENERAL_STATEMENT_SCOPE;
@@ -211,11 +348,12 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 		// 2.c
 		var info = scopeBuildingStack.pop();
 		var end = rb;
-		int level = scopeBuildingStack.size();
+		int level = baseLevel + scopeBuildingStack.size();
+		maxScopeDepth = Math.max(maxScopeDepth, level + 1);
 		
 		// 2.d
 		// The children's parent are set in the constructor.
-		var newScope = new SyntaxScope(info.type, null, info.children, info.start, end, level);
+		var newScope = new SyntaxScope(info.type, null, info.children, info.start, end, level, info.block);
 		
 		// 2.e.
 		if(scopeBuildingStack.empty())
@@ -240,11 +378,22 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	 */
 	private int examinedJavaDocInd = 0;
 	
-	private JavaDocBlock examinedJavaDoc()
-	{
-		assert(examinedJavaDocInd >=0 && examinedJavaDocInd < sourceFile.getJavaDocs().size());
-		return sourceFile.getJavaDocs().get(examinedJavaDocInd);
-	}
+	// The token indices of sourceFile.getJavaDocs(), which are in ascending order,
+	// so that the JavaDoc before a structure can be binary searched.
+	private final int[] javaDocIndices;
+	
+	// What each JavaDoc is followed by, null if it is unmatched.
+	// They are set to the JavaDocs only when the compilation unit is exited,
+	// so that a parse that gives up midway leaves the JavaDocs untouched (c.f. TwoStageParser).
+	private final FollowingType[] javaDocFollowingTypes;
+	private final FollowingMethod[] javaDocFollowingMethods;
+	
+	// The methods and constructors being declared, innermost on top.
+	// The return type and the parameter names are filled in as they are exited.
+	private final Stack<FollowingMethod> methodBuildingStack = new Stack<FollowingMethod>();
+	// The method or constructor declaration exited last.
+	// A declaration that ends with one (e.g. a generic method declaration) is exited right after it.
+	private FollowingMethod lastExitedMethod = null;
 	
 	/**
 	 * On entering a syntax structure, check if it's before or after the start position of the 
@@ -259,12 +408,12 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	private boolean isAfterExaminedJavaDoc(int antlrTokenInd)
 	{
 		// check if we have already examined all javadocs
-		if(examinedJavaDocInd >= sourceFile.getJavaDocs().size())
+		if(examinedJavaDocInd >= javaDocIndices.length)
 		{
 			return false;
 		}
 		
-		return antlrTokenInd > examinedJavaDoc().index();
+		return antlrTokenInd > javaDocIndices[examinedJavaDocInd];
 	}
 
 	/**
@@ -288,8 +437,8 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 			// which means they use the default FollowingType: OTHER, which means they are unmatched.
 			
 			examinedJavaDocInd = nearestJDInd;
-			var jD = examinedJavaDoc();
-			jD.setFollowing(type, method);
+			javaDocFollowingTypes[examinedJavaDocInd] = type;
+			javaDocFollowingMethods[examinedJavaDocInd] = method;
 			++examinedJavaDocInd;
 		}
 	}
@@ -305,29 +454,34 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 		// If it is an annotation modifier.
 		if (modifier instanceof AnnotationContext)
 		{
-			pendingAttributes.addAnnotationModifier((AnnotationContext)modifier);
+			pendingAnnotations.add((AnnotationContext)modifier);
 			return;
 		}
 		
-		// Otherwise, it is a keyword modifier
-		switch(modifier.getText())
+		// Otherwise, it is a keyword modifier, which is one token.
+		// The text is taken from the token, because the parse tree may not be built.
+		if(modifier.start != modifier.stop)
+		{
+			return;
+		}
+		switch(modifier.start.getText())
 		{
 		// I only care about these keyword modifiers in this project.
 		// Other keywords are ignored.
 		case "public" -> 
-			pendingAttributes.setOopModifier(AdditionalAttributes.OOP_MODIFIER_PUBLIC);
+			pendingOopModifiers |= AdditionalAttributes.OOP_MODIFIER_PUBLIC;
 		case "protected" ->
-			pendingAttributes.setOopModifier(AdditionalAttributes.OOP_MODIFIER_PROTECTED);
+			pendingOopModifiers |= AdditionalAttributes.OOP_MODIFIER_PROTECTED;
 		case "private" ->
-			pendingAttributes.setOopModifier(AdditionalAttributes.OOP_MODIFIER_PRIVATE);
+			pendingOopModifiers |= AdditionalAttributes.OOP_MODIFIER_PRIVATE;
 		case "static" -> 
-			pendingAttributes.setOtherModifiers(AdditionalAttributes.MODIFIER_STATIC);
+			pendingOtherModifiers |= AdditionalAttributes.MODIFIER_STATIC;
 		case "abstract" ->
-			pendingAttributes.setOopModifier(AdditionalAttributes.OOP_MODIFIER_ABSTRACT);
+			pendingOopModifiers |= AdditionalAttributes.OOP_MODIFIER_ABSTRACT;
 		case "final" ->
-			pendingAttributes.setOtherModifiers(AdditionalAttributes.MODIFIER_FINAL);
+			pendingOtherModifiers |= AdditionalAttributes.MODIFIER_FINAL;
 		case "strictfp" -> 
-			pendingAttributes.setOtherModifiers(AdditionalAttributes.MODIFIER_STRICTFP);
+			pendingOtherModifiers |= AdditionalAttributes.MODIFIER_STRICTFP;
 		}
 	}
 	
@@ -345,11 +499,13 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 		boolean reset
 	)
 	{
-		// Sets the type of the code block
-		pendingAttributes.setType(type);
-		// Adds the attributes to the list
-		additionalTokenAttributes.put(tokenInd, pendingAttributes);
-		// Resets the attributes to a new and blank object, 
+		// Adds the attributes with the type of the code block to the table
+		attributeTypes[tokenInd] = type;
+		attributeOopModifiers[tokenInd] = pendingOopModifiers;
+		attributeOtherModifiers[tokenInd] = pendingOtherModifiers;
+		// The pending list is reused, so it must be copied. Most code has no annotations.
+		attributeAnnotations[tokenInd] = pendingAnnotations.isEmpty() ? null : new ArrayList<>(pendingAnnotations);
+		// Resets the attributes to nothing, 
 		// if the parameter orders so
 		if(reset) resetPendingAttributes();
 	}
@@ -364,6 +520,83 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 		setAdditionalTokenAttributesForTheCode(type, tokenInd, true);
 	}
 	
+	/**
+	 * Sets the additional modifiers for a variable declared in a declaration
+	 * @param info of the declaration
+	 * @param tokenInd the index of the token of the variable name
+	 */
+	private void setAdditionalTokenAttributesForTheDeclarator(DeclaratorsInfo info, int tokenInd)
+	{
+		attributeTypes[tokenInd] = info.type;
+		attributeOopModifiers[tokenInd] = info.oopModifiers;
+		attributeOtherModifiers[tokenInd] = info.otherModifiers;
+		attributeAnnotations[tokenInd] = info.annotations == null ? null : new ArrayList<>(info.annotations);
+	}
+	
+	/**
+	 * @param ctx
+	 * @return the code of ctx without whitespaces and comments,
+	 * which is what ctx.getText() gives when the parse tree is built.
+	 */
+	private String codeTextOf(ParserRuleContext ctx)
+	{
+		var sb = new StringBuilder();
+		int end = ctx.stop.getTokenIndex();
+		for(int i = ctx.start.getTokenIndex(); i <= end; ++i)
+		{
+			var token = formatTokens.apply(i);
+			if(token instanceof CodeBlock)
+			{
+				sb.append(token.characters());
+			}
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * @param method
+	 * @return a FollowingMethod with the same return type and parameter names as method.
+	 */
+	private static FollowingMethod copyOf(FollowingMethod method)
+	{
+		var ret = new FollowingMethod();
+		ret.returnType = method.returnType;
+		ret.parameterNames.addAll(method.parameterNames);
+		return ret;
+	}
+	
+	/**
+	 * @param ctx
+	 * @return true iff ctx is a parameter of a method or a constructor, 
+	 * but not of a lambda, which also has formalParameter.
+	 */
+	private static boolean isMethodParameter(ParserRuleContext ctx)
+	{
+		return (ctx instanceof FormalParameterContext || ctx instanceof LastFormalParameterContext) &&
+				ctx.getParent().getParent() instanceof FormalParametersContext;
+	}
+	
+	/**
+	 * Adds the names of the parameters to methodInfo, in order.
+	 * Each parameter has additional attributes built for it at the index of its name,
+	 * so they are the tokens that have some in the range of the parameters.
+	 * 
+	 * @param methodInfo
+	 * @param formalParameters whose parameters have been walked.
+	 */
+	private void addParameterNames(FollowingMethod methodInfo, JavaParser.FormalParametersContext formalParameters)
+	{
+		// [(, )), a slice of the table.
+		int end = formalParameters.stop.getTokenIndex();
+		for(int pi = formalParameters.start.getTokenIndex(); pi < end; ++pi)
+		{
+			if(attributeTypes[pi] != null)
+			{
+				methodInfo.parameterNames.add(formatTokens.apply(pi).characters());
+			}
+		}
+	}
+	
 	/**
 	 * Some javadoc may be unmatched.
 	 * Therefore, after examination, examinedJavaDocInd may increase by more than 1.
@@ -372,6 +605,8 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	 * @param antlrTokenInd
 	 * @return the index of the nearest Javadoc before the structure, after the examinedJavaDocInd.
 	 * or -1 if !isAfterExaminedJavaDoc(antlrTokenInd)
+	 * @implNote It binary searches javaDocIndices, 
+	 * so a file with many JavaDocs does not pay for each structure in proportion to them.
 	 */
 	private int findTheNearestJavaDoc(int antlrTokenInd)
 	{
@@ -381,25 +616,13 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 		}
 		
 		// find the first i such that it's after the structure
-		// then return i-1
-		int i = examinedJavaDocInd;
-		while(i < sourceFile.getJavaDocs().size())
-		{
-			var jD = sourceFile.getJavaDocs().get(i);
-			int jDTokenInd = jD.index();
-			
-			if(jDTokenInd > antlrTokenInd)
-			{
-				assert(i != examinedJavaDocInd);
-				return i-1;
-			}
-			
-			++i;
-		}
-		
-		// all remaining javaDocs are before the structure.
-		// return the last one
-		return sourceFile.getJavaDocs().size()-1;
+		// then return i-1.
+		// If all remaining javaDocs are before the structure, i is the size,
+		// and the last one is returned.
+		// The structure's token is never a javadoc, so it is never found.
+		int i = -(Arrays.binarySearch(javaDocIndices, examinedJavaDocInd, javaDocIndices.length, antlrTokenInd) + 1);
+		assert(i != examinedJavaDocInd);
+		return i-1;
 
 	}
 		
@@ -473,35 +696,23 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	 * 	
 	 */
 	
-	// entering things
-	
-	/**
-	 * Because I care about the modifiers, I have to explore here
-	 * @see the comment for pending_type_modifiers
+	/*
+	 * The callbacks below only use what is known when the parser triggers them,
+	 * so that the builder can be attached to the parser as a parse listener
+	 * and the parse tree need not be built (c.f. TwoStageParser).
+	 * That is,
+	 * 	on entering a context: its start token and its parents;
+	 * 	on exiting a context: in addition, its stop token.
+	 * Its children are never looked at.
+	 * A walk triggers them in the same order with the same information, so the builder can walk a parse tree as well.
+	 * 
+	 * Therefore, what used to be examined on entering a structure, 
+	 * is now examined on exiting the children that have it. 
+	 * For example, a modifier is added to the pending attributes when it is exited,
+	 * and the name of a class is given the pending attributes when the identifier is exited.
 	 */
-	@Override
-	public void enterTypeDeclaration(JavaParser.TypeDeclarationContext ctx)
-	{		
-		var modifiersList = ctx.classOrInterfaceModifier();
-		for(var modifier : modifiersList)
-		{
-			addPendingModifier(modifier);
-		}
-	}
 	
-	/**
-	 * ClassBodyDeclarations also include modifiers
-	 * @see the comment for pending_type_modifiers
-	 */
-	@Override
-	public void enterClassBodyDeclaration(JavaParser.ClassBodyDeclarationContext ctx)
-	{	
-		var modifiersList = ctx.modifier();
-		for(var modifier : modifiersList)
-		{
-			addPendingModifier(modifier);
-		}
-	}
+	// entering things
 	
 	/**
 	 * ClassBody is part of ClassBodyDeclarations
@@ -515,20 +726,6 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 		}
 	}
 	
-	/**
-	 * InterfaceBodyDeclarations also include modifiers
-	 * @see the comment for pending_type_modifiers
-	 */
-	@Override
-	public void enterInterfaceBodyDeclaration(JavaParser.InterfaceBodyDeclarationContext ctx)
-	{
-		var modifiersList = ctx.modifier();
-		for(var modifier : modifiersList)
-		{
-			addPendingModifier(modifier);
-		}
-	}
-	
 	/**
 	 * InterfaceBody is part of InterfaceBodyDeclarations
 	 */
@@ -579,6 +776,8 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 
 	/**
 	 * A statement.
+	 * Which path it is on is told by its first token,
+	 * as the switch, the single block, the try, and the synchronized paths all start with a keyword or {.
 	 */
 	@Override
 	public void enterStatement(JavaParser.StatementContext ctx)
@@ -589,26 +788,23 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 			// Actually all scopes here have this GENERAL_STATMENT_SCOPE type,
 			// but I must be careful not to override the type unless needed.
 			// Don't do this here: pendingScopeType = Type.GENERAL_STATMENT_SCOPE;
-			if(ctx.SWITCH() != null) // the switch path
+			switch(ctx.start.getType())
 			{
+			case JavaParser.SWITCH -> // the switch path
+				// A switch expression statement also starts with it,
+				// but enterSwitchExpression() overrides this before the {.
 				pendingScopeType = Type.GENERAL_STATEMENT_SCOPE;
-			}
-			else if(ctx.blockLabel != null) // the single block path
-			{
+			case JavaParser.LBRACE -> // the single block path
+				// the onlbrace will be called in the block
 				pendingScopeType = Type.STANDALONE_SCOPE;
+			case JavaParser.TRY -> // the try path
 				// the onlbrace will be called in the block
-			}
-			else if(ctx.TRY() != null) // the try path
-			{
 				pendingScopeType = Type.GENERAL_STATEMENT_SCOPE;
+			case JavaParser.SYNCHRONIZED -> // the synchronized path
 				// the onlbrace will be called in the block
-			}
-			else if(ctx.SYNCHRONIZED() != null) // the synchronized path
-			{
 				pendingScopeType = Type.GENERAL_STATEMENT_SCOPE;
-				// the onlbrace will be called in the block
+			default -> {}
 			}
-
 		}
 	}
 	
@@ -685,134 +881,39 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	}
 	
 	/**
-	 * LocalTypeDeclarationDeclarations also include modifiers
-	 * @see the comment for pending_type_modifiers
+	 * Variables declared in a field or a local variable declaration.
+	 * All of them are given the modifiers pending now,
+	 * so they are taken from the pending attributes before the initializers of the variables are parsed.
 	 */
 	@Override
-	public void enterLocalTypeDeclaration(JavaParser.LocalTypeDeclarationContext ctx)
+	public void enterVariableDeclarators(JavaParser.VariableDeclaratorsContext ctx)
 	{
-		var modifiersList = ctx.classOrInterfaceModifier();
-		for(var modifier : modifiersList)
-		{
-			addPendingModifier(modifier);
-		}
-	}
-	
-	/**
-	 * All method parameters go here
-	 * I can handle both the modifiers and the identifiers here
-	 * @see the comment for pending_type_modifiers
-	 */
-	@Override
-	public void enterFormalParameters(JavaParser.FormalParametersContext ctx)
-	{
-		//  receiverParameter?
-        //| receiverParameter (COMMA formalParameterList)?
-        //| formalParameterList?
-		
-		// need to handle both the receiver parameter
-		// and the formal parameters
-		// But I can handle them independently
-		
-		// first check the receive parameters
-		var rp = ctx.receiverParameter();
-		if(rp != null)
+		// 1.
 		{
-			// receive parameters do not have modifiers
-			var identifiers = rp.identifier();
-			for(var par : identifiers)
+			var parent = ctx.getParent();
+			CodeBlock.Type type;
+			if(parent instanceof FieldDeclarationContext)
 			{
-				Token token = par.getStart();
-				setAdditionalTokenAttributesForTheCode(CodeBlock.Type.PARAMETER_NAME, token.getTokenIndex());
+				type = CodeBlock.Type.FIELD_NAME;
 			}
-		}
-		
-		// then check the formal parameters
-		var fp_list = ctx.formalParameterList();
-		if(fp_list != null)
-		{
-			var formal_parameters = fp_list.formalParameter();
-			if(formal_parameters != null)
+			else if(parent instanceof LocalVariableDeclarationContext)
 			{
-				for(var fp : formal_parameters)
-				{
-					var modifiers = fp.variableModifier();
-					for(var modifier : modifiers)
-					{
-						addPendingModifier(modifier);
-					}
-					
-					Token token = fp.variableDeclaratorId().identifier().getStart();
-					setAdditionalTokenAttributesForTheCode(CodeBlock.Type.PARAMETER_NAME, token.getTokenIndex());
-				}
+				// decide if it is a local variable or a for-loop variable
+				type = parent.getParent() instanceof ForInitContext ?
+						CodeBlock.Type.FOR_VARIABLE_NAME : CodeBlock.Type.VARIABLE_NAME;
 			}
-			
-			// But it can also be lastFormalParameter
-			var lfp = fp_list.lastFormalParameter();
-			if(lfp != null)
+			else
 			{
-				var modifiers = lfp.variableModifier();
-				for(var modifier : modifiers)
-				{
-					addPendingModifier(modifier);
-				}
-				
-				Token token = lfp.variableDeclaratorId().identifier().getStart();
-				setAdditionalTokenAttributesForTheCode(CodeBlock.Type.PARAMETER_NAME, token.getTokenIndex());
+				return;
 			}
-		}
-	}
-	
-	/**
-	 * LocalVariableDeclarations include modifiers, too.
-	 * But it also has only one possibility of declarations
-	 * (unlike type declaration, where I could have a class, interface, enum, or annotation)
-	 * Therefore, I can handle the type at the same time here.
-	 * @see the comment for pending_type_modifiers
-	 */
-	@Override
-	public void enterLocalVariableDeclaration(JavaParser.LocalVariableDeclarationContext ctx)
-	{
-		var modifiersList = ctx.variableModifier();
-		for(var modifier : modifiersList)
-		{
-			addPendingModifier(modifier);
-		}
-		
-		// decide if it is a local variable or a for-loop variable
-		CodeBlock.Type local_or_for;
-		if(ctx.getParent() instanceof ForInitContext)
-		{
-			local_or_for = CodeBlock.Type.FOR_VARIABLE_NAME;
-		}
-		else
-		{
-			local_or_for = CodeBlock.Type.VARIABLE_NAME;
-		}
-		
-		// variableModifier* (VAR identifier ASSIGN expression | typeType variableDeclarators)
-		// See if this is a var declaration or explicit declaration
-		if(ctx.identifier() != null)
-		{
-			// This is a var declaration
 			
-			// The local variable name token
-			Token token = ctx.identifier().getStart();
-			setAdditionalTokenAttributesForTheCode(local_or_for, token.getTokenIndex());
-		}
-		else
-		{
-			// this is declared using variableDeclarators
-			var variable_declarator_list = ctx.variableDeclarators().variableDeclarator();
-			for(var variable_declarator : variable_declarator_list)
-			{
-				// One variable token.
-				Token token = variable_declarator.variableDeclaratorId().identifier().getStart();
-				
-				// don't reset
-				setAdditionalTokenAttributesForTheCode(local_or_for, token.getTokenIndex(), false);
-			}
-			// don't forget to reset pending_modifiers in the end
+			var info = new DeclaratorsInfo();
+			info.type = type;
+			info.oopModifiers = pendingOopModifiers;
+			info.otherModifiers = pendingOtherModifiers;
+			info.annotations = pendingAnnotations.isEmpty() ? null : new ArrayList<>(pendingAnnotations);
+			declaratorsBuildingStack.push(info);
+			
 			resetPendingAttributes();
 		}
 	}
@@ -823,14 +924,7 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	@Override
 	public void enterClassDeclaration(JavaParser.ClassDeclarationContext ctx)
 	{
-		// 1.
-		{
-			// the class name token.
-			Token token = ctx.identifier().getStart();
-			
-			// additional attributes
-			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.CLASS_NAME, token.getTokenIndex());
-		}
+		// 1. is done in exitIdentifier()
 		
 		// 3.
 		{
@@ -844,14 +938,7 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	@Override
 	public void enterEnumDeclaration(JavaParser.EnumDeclarationContext ctx)
 	{
-		// 1.
-		{
-			// the enumeration name token.
-			Token token = ctx.identifier().getStart();
-
-			// additional attributes
-			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.ENUM_NAME, token.getTokenIndex());
-		}
+		// 1. is done in exitIdentifier()
 
 		// 2.
 		{
@@ -870,14 +957,7 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	@Override
 	public void enterInterfaceDeclaration(JavaParser.InterfaceDeclarationContext ctx)
 	 {
-		// 1.
-		{
-			// the interface name token.
-			Token token = ctx.identifier().getStart();
-
-			// additional attributes
-			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.INTERFACE_NAME, token.getTokenIndex());
-		}
+		// 1. is done in exitIdentifier()
 		
 		// 3.
 		{
@@ -891,186 +971,271 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	@Override
 	public void enterMethodDeclaration(JavaParser.MethodDeclarationContext ctx)
 	{
-		// 1.
-		{
-			// the method name token.
-			Token token = ctx.identifier().getStart();
+		// 1. is done in exitIdentifier()
 		
-			// additional attributes
-			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.METHOD_NAME, token.getTokenIndex());
+		// 3. is done in exiting, when the return type and all parameters have been built
+		{
+			methodBuildingStack.push(new FollowingMethod());
 		}
-		
-		// 3. is done in exiting where all parameters have been built by enterFormalParameters
 	}
 	
 	/**
-	 * When a declaration of a generic class method is encountered
+	 * The part of an interface method declaration after the modifiers.
 	 */
 	@Override
-	public void enterGenericMethodDeclaration(JavaParser.GenericMethodDeclarationContext ctx)
+	public void enterInterfaceCommonBodyDeclaration(JavaParser.InterfaceCommonBodyDeclarationContext ctx)
 	{
-		// 1.
+		// 3. is done in exiting the interface method declaration
 		{
-			// the generic method name token.
-			Token token = ctx.methodDeclaration().identifier().getStart();
-		
-			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.METHOD_NAME, token.getTokenIndex());
+			methodBuildingStack.push(new FollowingMethod());
 		}
-		
-		// 3. is done in exiting.
 	}
 	
 	/**
-	 * When a declaration of an interface method is encountered
+	 * When a declaration of a constructor is encountered
 	 */
 	@Override
-	public void enterInterfaceMethodDeclaration(JavaParser.InterfaceMethodDeclarationContext ctx)
+	public void enterConstructorDeclaration(JavaParser.ConstructorDeclarationContext ctx)
 	{
-		// 1.
+		// 1. is done in exitIdentifier()
+		
+		// 2.
 		{
-			// Strangely, there can be some additional modifiers here
-			var modifiersList = ctx.interfaceMethodModifier();
-			for(var modifier : modifiersList)
-			{
-				addPendingModifier(modifier);
-			}
-			
-			// the method name token.
-			Token token = ctx.interfaceCommonBodyDeclaration().identifier().getStart();
+			pendingScopeType = Type.GENERAL_METHOD_DEF_SCOPE;
+		}
 		
-			// additional attributes
-			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.METHOD_NAME, token.getTokenIndex());
+		// 3. is done in exiting
+		{
+			// a constructor returns nothing, which FollowingMethod has by default.
+			methodBuildingStack.push(new FollowingMethod());
 		}
 	}
 	
 	/**
-	 * When a declaration of a generic interface method is encountered
+	 * When a declaration of a generic constructor is encountered
 	 */
 	@Override
-	public void enterGenericInterfaceMethodDeclaration(JavaParser.GenericInterfaceMethodDeclarationContext ctx)
+	public void enterGenericConstructorDeclaration(JavaParser.GenericConstructorDeclarationContext ctx)
 	{
-		// Strangely, there can be some additional modifiers here
-		var modifiersList = ctx.interfaceMethodModifier();
-		for(var modifier : modifiersList)
+		// 1. is done in exitIdentifier()
+		
+		// 2.
 		{
-			addPendingModifier(modifier);
+			pendingScopeType = Type.GENERAL_METHOD_DEF_SCOPE;
 		}
 		
-		// the generic method name token.
-		Token token = ctx.interfaceCommonBodyDeclaration().identifier().getStart();
-	
-		setAdditionalTokenAttributesForTheCode(CodeBlock.Type.METHOD_NAME, token.getTokenIndex());
+		// 3. is done in exiting
 	}
 	
 	/**
-	 * When a declaration of a constructor is encountered
+	 * When a declaration of a field is encountered
 	 */
+	@Override 
+	public void enterFieldDeclaration(JavaParser.FieldDeclarationContext ctx)
+	{
+		// 1. is done in enterVariableDeclarators() and exitIdentifier()
+		
+		// 3.
+		{
+			examineJavaDoc(ctx, FollowingType.FIELD, null);
+		}
+	}
+
 	@Override
-	public void enterConstructorDeclaration(JavaParser.ConstructorDeclarationContext ctx)
+	public void enterAnnotationTypeDeclaration(JavaParser.AnnotationTypeDeclarationContext ctx)
 	{
-		// 1.
+		// 3.
 		{
-			// the constructor name token.
-			Token token = ctx.identifier().getStart();
-		
-			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.CONSTRUCTOR_NAME, token.getTokenIndex());
+			examineJavaDoc(ctx, FollowingType.CLASS_LIKE, null);
 		}
-		
-		// 2.
+	}
+	
+	// exiting things
+	
+	/**
+	 * The modifiers of a type declaration or a local type declaration
+	 * @see the comment for pending_type_modifiers
+	 */
+	@Override
+	public void exitClassOrInterfaceModifier(JavaParser.ClassOrInterfaceModifierContext ctx)
+	{
+		// Those in a modifier are added as the modifier.
+		var parent = ctx.getParent();
+		if(parent instanceof TypeDeclarationContext || parent instanceof LocalTypeDeclarationContext)
 		{
-			pendingScopeType = Type.GENERAL_METHOD_DEF_SCOPE;
+			addPendingModifier(ctx);
 		}
-		
-		// 3. is done in exiting
 	}
 	
 	/**
-	 * When a declaration of a generic constructor is encountered
+	 * The modifiers of a ClassBodyDeclaration or an InterfaceBodyDeclaration
+	 * @see the comment for pending_type_modifiers
 	 */
 	@Override
-	public void enterGenericConstructorDeclaration(JavaParser.GenericConstructorDeclarationContext ctx)
+	public void exitModifier(JavaParser.ModifierContext ctx)
 	{
-		// 1.
+		var parent = ctx.getParent();
+		if(parent instanceof ClassBodyDeclarationContext || parent instanceof InterfaceBodyDeclarationContext)
 		{
-			// the generic constructor method name token.
-			Token token = ctx.constructorDeclaration().identifier().getStart();
-		
-			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.CONSTRUCTOR_NAME, token.getTokenIndex());
+			addPendingModifier(ctx);
 		}
-		
-		// 2.
+	}
+	
+	/**
+	 * Strangely, there can be some additional modifiers in an interface method declaration
+	 * @see the comment for pending_type_modifiers
+	 */
+	@Override
+	public void exitInterfaceMethodModifier(JavaParser.InterfaceMethodModifierContext ctx)
+	{
+		addPendingModifier(ctx);
+	}
+	
+	/**
+	 * The modifiers of a local variable declaration or a method parameter
+	 * @see the comment for pending_type_modifiers
+	 */
+	@Override
+	public void exitVariableModifier(JavaParser.VariableModifierContext ctx)
+	{
+		var parent = ctx.getParent();
+		if(parent instanceof LocalVariableDeclarationContext || isMethodParameter(parent))
 		{
-			pendingScopeType = Type.GENERAL_METHOD_DEF_SCOPE;
+			addPendingModifier(ctx);
 		}
-		
-		// 3. is done in exiting
 	}
 	
 	/**
-	 * When a declaration of a field is encountered
+	 * The names of all the declared things are identifiers.
+	 * What the name is for is told by the parent of the identifier.
+	 * @see the comment for pending_type_modifiers
 	 */
-	@Override 
-	public void enterFieldDeclaration(JavaParser.FieldDeclarationContext ctx)
+	@Override
+	public void exitIdentifier(JavaParser.IdentifierContext ctx)
 	{
 		// 1.
+		var parent = ctx.getParent();
+		int tokenInd = ctx.start.getTokenIndex();
+		if(parent instanceof ClassDeclarationContext)
 		{
-			// A field declaration can declare multiple variables,
-			// as in "int a, b, c;"
-			var variable_declarator_list = ctx.variableDeclarators().variableDeclarator();
-			for(var variable_declarator : variable_declarator_list)
+			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.CLASS_NAME, tokenInd);
+		}
+		else if(parent instanceof EnumDeclarationContext)
+		{
+			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.ENUM_NAME, tokenInd);
+		}
+		else if(parent instanceof InterfaceDeclarationContext)
+		{
+			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.INTERFACE_NAME, tokenInd);
+		}
+		else if(parent instanceof MethodDeclarationContext)
+		{
+			if(parent.getParent() instanceof GenericMethodDeclarationContext)
 			{
-				// One variable token.
-				Token token = variable_declarator.variableDeclaratorId().identifier().getStart();
-				
-				// Don't reset
-				setAdditionalTokenAttributesForTheCode(CodeBlock.Type.FIELD_NAME, token.getTokenIndex(), false);
+				// The generic method declaration is entered before the method declaration,
+				// so its name is given the pending attributes twice: the second time they have been reset.
+				setAdditionalTokenAttributesForTheCode(CodeBlock.Type.METHOD_NAME, tokenInd);
 			}
-			// don't forget to reset pending_modifiers in the end
-			resetPendingAttributes();
+			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.METHOD_NAME, tokenInd);
 		}
-		
+		else if(parent instanceof InterfaceCommonBodyDeclarationContext)
+		{
+			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.METHOD_NAME, tokenInd);
+		}
+		else if(parent instanceof ConstructorDeclarationContext)
+		{
+			if(parent.getParent() instanceof GenericConstructorDeclarationContext)
+			{
+				// The same as the generic method declaration.
+				setAdditionalTokenAttributesForTheCode(CodeBlock.Type.CONSTRUCTOR_NAME, tokenInd);
+			}
+			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.CONSTRUCTOR_NAME, tokenInd);
+		}
+		else if(parent instanceof ReceiverParameterContext)
+		{
+			// receive parameters do not have modifiers
+			setAdditionalTokenAttributesForTheCode(CodeBlock.Type.PARAMETER_NAME, tokenInd);
+		}
+		else if(parent instanceof LocalVariableDeclarationContext)
+		{
+			// The var declaration path
+			// variableModifier* (VAR identifier ASSIGN expression | typeType variableDeclarators)
+			var local_or_for = parent.getParent() instanceof ForInitContext ?
+					CodeBlock.Type.FOR_VARIABLE_NAME : CodeBlock.Type.VARIABLE_NAME;
+			setAdditionalTokenAttributesForTheCode(local_or_for, tokenInd);
+		}
+		else if(parent instanceof VariableDeclaratorIdContext)
+		{
+			var declarator = parent.getParent();
+			if(declarator instanceof VariableDeclaratorContext)
+			{
+				var declared_in = declarator.getParent().getParent();
+				if(declared_in instanceof FieldDeclarationContext || declared_in instanceof LocalVariableDeclarationContext)
+				{
+					// One variable token.
+					setAdditionalTokenAttributesForTheDeclarator(declaratorsBuildingStack.peek(), tokenInd);
+				}
+			}
+			else if(isMethodParameter(declarator))
+			{
+				setAdditionalTokenAttributesForTheCode(CodeBlock.Type.PARAMETER_NAME, tokenInd);
+			}
+		}
+	}
+	
+	@Override
+	public void exitVariableDeclarators(JavaParser.VariableDeclaratorsContext ctx)
+	{
+		var parent = ctx.getParent();
+		if(parent instanceof FieldDeclarationContext || parent instanceof LocalVariableDeclarationContext)
+		{
+			declaratorsBuildingStack.pop();
+		}
+	}
+	
+	/**
+	 * The return type of a method
+	 */
+	@Override
+	public void exitTypeTypeOrVoid(JavaParser.TypeTypeOrVoidContext ctx)
+	{
 		// 3.
+		var parent = ctx.getParent();
+		if(parent instanceof MethodDeclarationContext || parent instanceof InterfaceCommonBodyDeclarationContext)
 		{
-			examineJavaDoc(ctx, FollowingType.FIELD, null);
+			methodBuildingStack.peek().returnType = codeTextOf(ctx);
 		}
 	}
-
+	
+	/**
+	 * The parameters of a method or a constructor, all of which have been given their attributes.
+	 */
 	@Override
-	public void enterAnnotationTypeDeclaration(JavaParser.AnnotationTypeDeclarationContext ctx)
+	public void exitFormalParameters(JavaParser.FormalParametersContext ctx)
 	{
 		// 3.
+		var parent = ctx.getParent();
+		if
+		(
+			parent instanceof MethodDeclarationContext || 
+			parent instanceof InterfaceCommonBodyDeclarationContext ||
+			parent instanceof ConstructorDeclarationContext
+		)
 		{
-			examineJavaDoc(ctx, FollowingType.CLASS_LIKE, null);
+			addParameterNames(methodBuildingStack.peek(), ctx);
 		}
 	}
 	
-	// exiting things
 	/**
 	 * When a declaration of a class method is exited
 	 */
 	@Override
 	public void exitMethodDeclaration(JavaParser.MethodDeclarationContext ctx)
 	{
-		// 3. is done in exiting where all parameters have been built by enterFormalParameters
+		// 3.
 		{
-			FollowingMethod methodInfo = new FollowingMethod();
-			methodInfo.returnType = ctx.typeTypeOrVoid().getText();
-			
-			// indices of parameters 
-			// (each parameter has an additionalTokenAttributes structure built for it,
-			// and the structure is mapped to by the index of the parameter).
-			var parTokenIndices = additionalTokenAttributes.subMap
-			(
-				ctx.formalParameters().start.getTokenIndex(), 
-				ctx.formalParameters().stop.getTokenIndex()
-			).keySet();
-			for(Integer pi : parTokenIndices)
-			{
-				methodInfo.parameterNames.add(sourceFile.getFormatToken(pi).characters());
-			}
-			
-			//methodInfo.parameterNames
-			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, methodInfo);
+			lastExitedMethod = methodBuildingStack.pop();
+			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, lastExitedMethod);
 		}
 	}
 	
@@ -1080,26 +1245,18 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	@Override
 	public void exitGenericMethodDeclaration(JavaParser.GenericMethodDeclarationContext ctx)
 	{		
-		// 3. is done in exiting where all parameters have been built by enterFormalParameters
+		// 3. The method declaration is its last child, so it was exited just now.
 		{
-			FollowingMethod methodInfo = new FollowingMethod();
-			methodInfo.returnType = ctx.methodDeclaration().typeTypeOrVoid().getText();
-			
-			// indices of parameters 
-			// (each parameter has an additionalTokenAttributes structure built for it,
-			// and the structure is mapped to by the index of the parameter).
-			var parTokenIndices = additionalTokenAttributes.subMap
-			(
-				ctx.methodDeclaration().formalParameters().start.getTokenIndex(), 
-				ctx.methodDeclaration().formalParameters().stop.getTokenIndex()
-			).keySet();
-			for(Integer pi : parTokenIndices)
-			{
-				methodInfo.parameterNames.add(sourceFile.getFormatToken(pi).characters());
-			}
-			
-			//methodInfo.parameterNames
-			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, methodInfo);
+			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, copyOf(lastExitedMethod));
+		}
+	}
+	
+	@Override
+	public void exitInterfaceCommonBodyDeclaration(JavaParser.InterfaceCommonBodyDeclarationContext ctx)
+	{
+		// 3. is done by the interface method declaration that contains it.
+		{
+			lastExitedMethod = methodBuildingStack.pop();
 		}
 	}
 	
@@ -1109,27 +1266,9 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	@Override
 	public void exitInterfaceMethodDeclaration(JavaParser.InterfaceMethodDeclarationContext ctx)
 	{
-		// 3.
+		// 3. The common body declaration is its last child, so it was exited just now.
 		{
-			FollowingMethod methodInfo = new FollowingMethod();
-			var methodCtx = ctx.interfaceCommonBodyDeclaration();
-			methodInfo.returnType = methodCtx.typeTypeOrVoid().getText();
-			
-			// indices of parameters 
-			// (each parameter has an additionalTokenAttributes structure built for it,
-			// and the structure is mapped to by the index of the parameter).
-			var parTokenIndices = additionalTokenAttributes.subMap
-			(
-				methodCtx.formalParameters().start.getTokenIndex(), 
-				methodCtx.formalParameters().stop.getTokenIndex()
-			).keySet();
-			for(Integer pi : parTokenIndices)
-			{
-				methodInfo.parameterNames.add(sourceFile.getFormatToken(pi).characters());
-			}
-			
-			//methodInfo.parameterNames
-			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, methodInfo);
+			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, lastExitedMethod);
 		}
 	}
 	
@@ -1139,27 +1278,9 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	@Override
 	public void exitGenericInterfaceMethodDeclaration(JavaParser.GenericInterfaceMethodDeclarationContext ctx)
 	{
-		// 3.
+		// 3. The common body declaration is its last child, so it was exited just now.
 		{
-			FollowingMethod methodInfo = new FollowingMethod();
-			var methodCtx = ctx.interfaceCommonBodyDeclaration();
-			methodInfo.returnType = methodCtx.typeTypeOrVoid().getText();
-			
-			// indices of parameters 
-			// (each parameter has an additionalTokenAttributes structure built for it,
-			// and the structure is mapped to by the index of the parameter).
-			var parTokenIndices = additionalTokenAttributes.subMap
-			(
-				methodCtx.formalParameters().start.getTokenIndex(), 
-				methodCtx.formalParameters().stop.getTokenIndex()
-			).keySet();
-			for(Integer pi : parTokenIndices)
-			{
-				methodInfo.parameterNames.add(sourceFile.getFormatToken(pi).characters());
-			}
-			
-			//methodInfo.parameterNames
-			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, methodInfo);
+			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, lastExitedMethod);
 		}
 	}
 
@@ -1170,27 +1291,10 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	@Override
 	public void exitConstructorDeclaration(JavaParser.ConstructorDeclarationContext ctx)
 	{
-		// 3. is done in exiting where all parameters have been built by enterFormalParameters
+		// 3.
 		{
-			FollowingMethod methodInfo = new FollowingMethod();
-			// a constructor returns nothing
-			methodInfo.returnType = "void";
-			
-			// indices of parameters 
-			// (each parameter has an additionalTokenAttributes structure built for it,
-			// and the structure is mapped to by the index of the parameter).
-			var parTokenIndices = additionalTokenAttributes.subMap
-			(
-				ctx.formalParameters().start.getTokenIndex(), 
-				ctx.formalParameters().stop.getTokenIndex()
-			).keySet();
-			for(Integer pi : parTokenIndices)
-			{
-				methodInfo.parameterNames.add(sourceFile.getFormatToken(pi).characters());
-			}
-			
-			//methodInfo.parameterNames
-			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, methodInfo);
+			lastExitedMethod = methodBuildingStack.pop();
+			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, lastExitedMethod);
 		}
 	}
 	
@@ -1200,27 +1304,9 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 	@Override
 	public void exitGenericConstructorDeclaration(JavaParser.GenericConstructorDeclarationContext ctx)
 	{
-		// 3. is done in exiting where all parameters have been built by enterFormalParameters
+		// 3. The constructor declaration is its last child, so it was exited just now.
 		{
-			FollowingMethod methodInfo = new FollowingMethod();
-			// a constructor returns nothing
-			methodInfo.returnType = "void";
-			
-			// indices of parameters 
-			// (each parameter has an additionalTokenAttributes structure built for it,
-			// and the structure is mapped to by the index of the parameter).
-			var parTokenIndices = additionalTokenAttributes.subMap
-			(
-				ctx.constructorDeclaration().formalParameters().start.getTokenIndex(), 
-				ctx.constructorDeclaration().formalParameters().stop.getTokenIndex()
-			).keySet();
-			for(Integer pi : parTokenIndices)
-			{
-				methodInfo.parameterNames.add(sourceFile.getFormatToken(pi).characters());
-			}
-			
-			//methodInfo.parameterNames
-			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, methodInfo);
+			examineJavaDoc(ctx, FollowingType.METHOD_LIKE, copyOf(lastExitedMethod));
 		}
 	}
 	
@@ -1233,15 +1319,55 @@ public class SyntaxStructureBuilder extends JavaParserBaseListener {
 			if(t.getText().equals("{"))
 			{
 				var lBraceAntlrToken = t.getSymbol();
-				var lBraceCodeBlock = (CodeBlock)sourceFile.getFormatToken(lBraceAntlrToken);
-				onLBraceEncountered(lBraceCodeBlock);
+				var lBraceCodeBlock = (CodeBlock)formatTokens.apply(lBraceAntlrToken.getTokenIndex());
+				onLBraceEncountered(lBraceCodeBlock, t.getParent() instanceof JavaParser.BlockContext);
 			}
 			else if(t.getText().equals("}"))
 			{
 				var rBraceAntlrToken = t.getSymbol();
-				var rBraceCodeBlock = (CodeBlock)sourceFile.getFormatToken(rBraceAntlrToken);
+				var rBraceCodeBlock = (CodeBlock)formatTokens.apply(rBraceAntlrToken.getTokenIndex());
 				onRBraceEncountered(rBraceCodeBlock);
 			}
 		}
 	}
+	
+	/**
+	 * All the scopes have been built by now.
+	 * Index them so that the syntax contexts can be looked up quickly.
+	 * And all the JavaDocs have been examined, so set what follows them.
+	 */
+	@Override
+	public void exitCompilationUnit(JavaParser.CompilationUnitContext ctx)
+	{
+		var scope_event = new AnalysisEvents.ScopeBuilding();
+		scope_event.begin();
+		syntaxStructure.buildIndex(sourceFile.numFormatTokens(), sourceFile.numLines());
+		scope_event.end();
+		commit(scope_event);
+		
+		var java_doc_event = new AnalysisEvents.JavaDocMatching();
+		java_doc_event.begin();
+		var java_docs = sourceFile.getJavaDocs();
+		for(int i = 0; i < javaDocFollowingTypes.length; ++i)
+		{
+			if(javaDocFollowingTypes[i] != null)
+			{
+				java_docs.get(i).setFollowing(javaDocFollowingTypes[i], javaDocFollowingMethods[i]);
+			}
+		}
+		java_doc_event.end();
+		commit(java_doc_event);
+	}
+	
+	/**
+	 * Commits an event that has ended with what is known about the source file, if it's recorded.
+	 */
+	private void commit(AnalysisEvents.Base event)
+	{
+		if(event.shouldCommit())
+		{
+			event.set(sourceFile.getSourceName(), sourceFile.numFormatTokens(), sourceFile.numLines(), maxScopeDepth);
+			event.commit();
+		}
+	}
 }
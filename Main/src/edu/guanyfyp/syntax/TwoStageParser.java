@@ -0,0 +1,171 @@
+/**
+ *
+ */
+package edu.guanyfyp.syntax;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+
+import edu.guanyfyp.generated.JavaParser;
+
+/**
+ * Parses a compilation unit in two stages.
+ *
+ * 1. SLL prediction with a bail-out error strategy.
+ * 	SLL is much faster than full LL, and for almost all valid programs it gives the same parse tree.
+ * 	On the first error it gives up at once instead of reporting or recovering.
+ * 2. Only if the first stage gives up, the tokens are parsed again with full LL
+ * 	and the ThrowExceptionErrorListener.
+ * 	An error here is a real syntax error, because full LL is only wrong when the input is.
+ *
+ * Therefore, valid programs are (nearly always) parsed only once, in the fast way,
+ * and the errors are reported exactly as before, by the full LL stage.
+ *
+ * A compilation unit can also be parsed with a listener attached to the parser,
+ * which is told of the rules and the tokens as they are parsed, and then no parse tree is built.
+ * So can a block on its own, c.f. parseBlock().
+ */
+public final class TwoStageParser
+{
+	private TwoStageParser() {}
+
+	/**
+	 * Parses tokens as a compilation unit.
+	 *
+	 * @param tokens the tokens of the source file, starting from the first.
+	 * @return the parse tree of the compilation unit.
+	 * @throws UnsupportedOperationException with the error message, if there is a syntax error.
+	 */
+	public static ParseTree parseCompilationUnit(CommonTokenStream tokens)
+	{
+		JavaParser parser = new JavaParser(tokens);
+
+		// Stage 1: SLL, bail out on any error.
+		toStage1(parser);
+		try
+		{
+			return parser.compilationUnit();
+		}
+		catch(ParseCancellationException e)
+		{
+			// Fall through to stage 2.
+		}
+
+		// Stage 2: full LL, throw an exception on every error.
+		toStage2(parser, tokens);
+		try
+		{
+			return parser.compilationUnit();
+		}
+		catch(RuntimeException e)
+		{
+			throw new UnsupportedOperationException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Parses tokens as a compilation unit with a listener attached to the parser
+	 * (c.f. Parser.addParseListener()), without building the parse tree.
+	 * The listener is triggered in the same order as a walk on the parse tree would,
+	 * but a context has no children, only its start and stop tokens and its parents.
+	 *
+	 * If the first stage gives up, what the listener has been told is wrong,
+	 * so the second stage is listened to by a new listener.
+	 *
+	 * @param tokens the tokens of the source file, starting from the first.
+	 * @param newListener creates a listener for each stage.
+	 * @return the listener that has listened to the whole compilation unit.
+	 * @throws UnsupportedOperationException with the error message, if there is a syntax error.
+	 */
+	public static <L extends ParseTreeListener> L parseCompilationUnit(CommonTokenStream tokens, Supplier<L> newListener)
+	{
+		return parse(tokens, newListener, JavaParser::compilationUnit);
+	}
+
+	/**
+	 * Parses tokens as a block, i.e. statements in braces, in the same way as 
+	 * parseCompilationUnit(tokens, newListener), so that a block of a source file can be parsed on its own.
+	 *
+	 * @param tokens the tokens of the block, from its { to its }.
+	 * @param newListener creates a listener for each stage.
+	 * @return the listener that has listened to the whole block.
+	 * @throws UnsupportedOperationException with the error message, if there is a syntax error,
+	 * or if the block ends before the tokens do.
+	 */
+	public static <L extends ParseTreeListener> L parseBlock(CommonTokenStream tokens, Supplier<L> newListener)
+	{
+		return parse(tokens, newListener, parser ->
+		{
+			parser.block();
+			if(parser.getCurrentToken().getType() != Token.EOF)
+			{
+				// Not reported by the parser, which stops at the end of the rule.
+				throw new ParseCancellationException("The block ends before its tokens do.");
+			}
+		});
+	}
+
+	/**
+	 * Parses tokens with rule and a listener in two stages.
+	 * @param rule parses the tokens, and throws a ParseCancellationException in stage 1 on an error.
+	 */
+	private static <L extends ParseTreeListener> L parse(CommonTokenStream tokens, Supplier<L> newListener, Consumer<JavaParser> rule)
+	{
+		JavaParser parser = new JavaParser(tokens);
+		parser.setBuildParseTree(false);
+
+		// Stage 1: SLL, bail out on any error.
+		toStage1(parser);
+		L listener = newListener.get();
+		parser.addParseListener(listener);
+		try
+		{
+			rule.accept(parser);
+			return listener;
+		}
+		catch(ParseCancellationException e)
+		{
+			// Fall through to stage 2.
+		}
+
+		// Stage 2: full LL, throw an exception on every error.
+		toStage2(parser, tokens);
+		parser.removeParseListeners();
+		listener = newListener.get();
+		parser.addParseListener(listener);
+		try
+		{
+			rule.accept(parser);
+			return listener;
+		}
+		catch(RuntimeException e)
+		{
+			throw new UnsupportedOperationException(e.getMessage());
+		}
+	}
+
+	private static void toStage1(JavaParser parser)
+	{
+		parser.removeErrorListeners(); // the errors may not be real, so don't report them
+		parser.setErrorHandler(new BailErrorStrategy());
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+	}
+
+	private static void toStage2(JavaParser parser, CommonTokenStream tokens)
+	{
+		tokens.seek(0);
+		parser.reset();
+		parser.addErrorListener(new ThrowExceptionErrorListener());
+		parser.setErrorHandler(new DefaultErrorStrategy());
+		parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+	}
+}
@@ -0,0 +1,161 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import edu.guanyfyp.format.AggregateVerdict;
+import edu.guanyfyp.format.FormatVerdict;
+import edu.guanyfyp.format.summaries.CodeBlockSummary;
+
+/**
+ * Tests the verdict of many source files together.
+ */
+public class TestAggregateVerdict
+{
+	private static final String[] SF_PATHS =
+	{
+		"demo_data/bad1.java",
+		"demo_data/good.java",
+		"test_data/different_lines.txt",
+		"test_data/different_java_docs.java",
+		"test_data/different_scopes.txt",
+		"test_data/mixture1.txt"
+	};
+
+	private static List<FormatVerdict> analyzeAll()
+	{
+		var ret = new ArrayList<FormatVerdict>();
+		for(var p : SF_PATHS)
+		{
+			ret.add(TestUtils.createSourceFileNoError(p).analyze());
+		}
+		return ret;
+	}
+
+	/**
+	 * Test if the aggregate of a single file has the frequencies of its verdict.
+	 */
+	@Test
+	public void testSingleFile()
+	{
+		for(var v : analyzeAll())
+		{
+			var aggregate = new AggregateVerdict();
+			aggregate.include(v);
+
+			assertEquals(1, aggregate.getNumFiles());
+			assertEquals(v.getIdentifierLengthProblemFrequency(), aggregate.getIdentifierLengthProblemFrequency());
+			assertEquals(v.getIdentifierNamingProblemFrequency(), aggregate.getIdentifierNamingProblemFrequency());
+			assertEquals(v.getSpacingProblemFrequency(), aggregate.getSpacingProblemFrequency());
+			assertEquals(v.getInconsistentScopeStyleFrequency(), aggregate.getInconsistentScopeStyleFrequency());
+			assertEquals(v.getBadJavaDocFrequency(), aggregate.getBadJavaDocFrequency());
+			assertEquals(v.getLineLengthProblemFrequency(), aggregate.getLineLengthProblemFrequency());
+			assertEquals(v.getLineIndentationProblemFrequency(), aggregate.getLineIndentationProblemFrequency());
+		}
+	}
+
+	/**
+	 * Test if merging in any grouping gives the same aggregate as including one by one.
+	 */
+	@Test
+	public void testMerge()
+	{
+		var verdicts = analyzeAll();
+
+		var sequential = new AggregateVerdict();
+		long numLines = 0;
+		long numIdentifiers = 0;
+		for(var v : verdicts)
+		{
+			sequential.include(v);
+			numLines += v.getLineSummary().getNumLines();
+			numIdentifiers += v.getCodeBlockSummary().numIdentifiers;
+		}
+		assertEquals(verdicts.size(), sequential.getNumFiles());
+		assertEquals(numLines, sequential.getNumLines());
+		assertEquals(numIdentifiers, sequential.getNumIdentifiers());
+
+		// One aggregate per file, merged from the right
+		var right = new AggregateVerdict();
+		for(int i = verdicts.size() - 1; i >= 0; --i)
+		{
+			var one = new AggregateVerdict();
+			one.include(verdicts.get(i));
+			one.merge(right);
+			right = one;
+		}
+		assertEquals(sequential.toString(), right.toString());
+
+		// Two halves
+		var first = new AggregateVerdict();
+		var second = new AggregateVerdict();
+		for(int i = 0; i < verdicts.size(); ++i)
+		{
+			(i % 2 == 0 ? first : second).include(verdicts.get(i));
+		}
+		second.merge(first);
+		assertEquals(sequential.toString(), second.toString());
+
+		// A parallel stream
+		assertEquals(sequential.toString(), verdicts.parallelStream().collect(AggregateVerdict.collector()).toString());
+
+		// An empty one changes nothing.
+		sequential.merge(new AggregateVerdict());
+		assertEquals(right.toString(), sequential.toString());
+
+		var aggregate = sequential;
+		assertThrows(IllegalArgumentException.class, ()->aggregate.merge(aggregate));
+	}
+
+	/**
+	 * Test if summaries of the same kind can be included again, and what cannot be included.
+	 */
+	@Test
+	public void testInclude()
+	{
+		var v = TestUtils.createSourceFileNoError(SF_PATHS[0]).analyze();
+		var aggregate = new AggregateVerdict();
+		aggregate.include(v.getCodeBlockSummary());
+		aggregate.include(v.getCodeBlockSummary());
+		assertEquals(0, aggregate.getNumFiles());
+		assertEquals(2L * v.getCodeBlockSummary().numIdentifiers, aggregate.getNumIdentifiers());
+		assertEquals(v.getIdentifierNamingProblemFrequency(), aggregate.getIdentifierNamingProblemFrequency());
+
+		assertThrows(IllegalStateException.class, ()->aggregate.include(new CodeBlockSummary()));
+		assertThrows(IllegalArgumentException.class, ()->aggregate.include(new FormatVerdict()));
+	}
+
+	/**
+	 * Test if compact verdicts and verdicts read back by readFrom() aggregate like the verdicts they come from.
+	 */
+	@Test
+	public void testCompactAndRead() throws IOException
+	{
+		var expected = new AggregateVerdict();
+		var compact = new AggregateVerdict();
+		var read = new AggregateVerdict();
+		for(var v : analyzeAll())
+		{
+			expected.include(v);
+
+			var bytes = new ByteArrayOutputStream();
+			v.writeTo(new DataOutputStream(bytes));
+			read.include(FormatVerdict.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+
+			v.compact(1);
+			compact.include(v);
+		}
+		assertEquals(SF_PATHS.length, compact.getNumFiles());
+		assertEquals(expected.toString(), compact.toString());
+		assertEquals(expected.toString(), read.toString());
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+import edu.guanyfyp.format.primitives.CodeBlock;
+import edu.guanyfyp.format.primitives.Line;
+
+/**
+ * Tests that the settings are given per analysis.
+ */
+public class TestAnalysisSettings
+{
+	private static final String BAD1_SF_PATH = "demo_data/bad1.java";
+
+	/**
+	 * An AnalysisSettings must not change when the settings it was made from change.
+	 */
+	@Test
+	public void testSnapshot()
+	{
+		var cbSettings = new CodeBlock.Settings();
+		var lineSettings = new Line.Settings();
+		var snapshot = new AnalysisSettings(cbSettings, lineSettings);
+
+		cbSettings.longestIdentifierLength = 100;
+		lineSettings.setMaximumGoodLineVOffset(120);
+
+		assertEquals(15, snapshot.longestIdentifierLength);
+		assertEquals(80, snapshot.maximumGoodLineVOffset);
+		assertEquals(AnalysisSettings.DEFAULT, snapshot);
+		assertNotEquals(AnalysisSettings.DEFAULT, new AnalysisSettings(cbSettings, lineSettings));
+	}
+
+	/**
+	 * Two analyses of the same file with different settings
+	 * should each follow their own settings.
+	 */
+	@Test
+	public void testDifferentSettingsSameFile()
+	{
+		var cbSettings = new CodeBlock.Settings();
+		// No identifier in bad1 can be too long or too short now.
+		cbSettings.longestIdentifierLength = 1000;
+		cbSettings.shortestIdentifierLength = 0;
+		var lineSettings = new Line.Settings();
+		lineSettings.setMaximumGoodLineVOffset(1000);
+		var lenient = new AnalysisSettings(cbSettings, lineSettings);
+
+		var defaultVerdict = TestUtils.createSourceFileNoError(BAD1_SF_PATH).analyze(AnalysisSettings.DEFAULT);
+		var lenientVerdict = TestUtils.createSourceFileNoError(BAD1_SF_PATH).analyze(lenient);
+
+		assertEquals(.3125f, defaultVerdict.getIdentifierLengthProblemFrequency());
+		assertEquals(.041666668f, defaultVerdict.getLineLengthProblemFrequency());
+		assertEquals(0.f, lenientVerdict.getIdentifierLengthProblemFrequency());
+		assertEquals(0.f, lenientVerdict.getLineLengthProblemFrequency());
+
+		// The other problems do not depend on the changed settings.
+		assertEquals
+		(
+			defaultVerdict.getIdentifierNamingProblemFrequency(),
+			lenientVerdict.getIdentifierNamingProblemFrequency()
+		);
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import edu.guanyfyp.batch.BatchAnalyzer;
+import edu.guanyfyp.batch.BatchSummary;
+import edu.guanyfyp.batch.VerdictCache;
+import edu.guanyfyp.format.AggregateVerdict;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+
+/**
+ * Tests the batch mode.
+ */
+public class TestBatchAnalyzer
+{
+	/**
+	 * Tests if directories, files, and glob patterns are expanded correctly.
+	 */
+	@Test
+	public void testCollectSourceFiles() throws IOException
+	{
+		// A directory is walked for .java files.
+		var fromDir = BatchAnalyzer.collectSourceFiles(List.of("demo_data"));
+		assertEquals(2, fromDir.size());
+
+		// A glob pattern
+		var fromGlob = BatchAnalyzer.collectSourceFiles(List.of("test_data/syntax_error*.txt"));
+		assertEquals(3, fromGlob.size());
+
+		// A file given twice is only included once.
+		var duplicated = BatchAnalyzer.collectSourceFiles(List.of("demo_data/good.java", "demo_data"));
+		assertEquals(2, duplicated.size());
+		assertEquals(Paths.get("demo_data/good.java"), duplicated.get(0));
+
+		// Something that does not exist.
+		assertThrows(IllegalArgumentException.class, ()->{
+			BatchAnalyzer.collectSourceFiles(List.of("demo_data/not_a_file.java"));
+		});
+	}
+
+	/**
+	 * Tests if each file gets a result and the summary counts them all.
+	 */
+	@Test
+	public void testAnalyze() throws InterruptedException
+	{
+		List<Path> files = List.of
+		(
+			Paths.get("demo_data/good.java"),
+			Paths.get("demo_data/bad1.java"),
+			Paths.get("test_data/syntax_error1.txt")
+		);
+
+		var results = new ArrayList<BatchAnalyzer.FileResult>();
+		BatchSummary summary = new BatchAnalyzer(2).analyze(files, results::add);
+
+		assertEquals(3, results.size());
+		assertEquals(3, summary.getNumFiles());
+		assertEquals(1, summary.getNumFailed());
+
+		for(var r : results)
+		{
+			if(r.path.endsWith("syntax_error1.txt"))
+			{
+				assertFalse(r.succeeded());
+				assertNotNull(r.errorMessage);
+			}
+			else
+			{
+				assertTrue(r.succeeded());
+				assertTrue(r.verdict.hasGivenVerdict());
+			}
+		}
+
+		// good.java has no problem, so the mean is half of bad1.java's.
+		var bad1 = BatchAnalyzer.analyzeOne(Paths.get("demo_data/bad1.java"), AnalysisSettings.DEFAULT);
+		assertEquals
+		(
+			bad1.verdict.getIdentifierNamingProblemFrequency() / 2.f,
+			summary.getMeanIdentifierNamingProblemFrequency(), 1e-6
+		);
+
+		// The aggregate pools the verdicts of the files analyzed.
+		var expected = new AggregateVerdict();
+		expected.include(BatchAnalyzer.analyzeOne(Paths.get("demo_data/good.java"), AnalysisSettings.DEFAULT).verdict);
+		expected.include(bad1.verdict);
+		assertEquals(2, summary.getAggregate().getNumFiles());
+		assertEquals(expected.toString(), summary.getAggregate().toString());
+	}
+
+	/**
+	 * A file whose analysis fails unexpectedly should get an INTERNAL_ERROR result,
+	 * and the other files of the batch should still be analyzed, with or without a cache.
+	 */
+	@Test
+	public void testAnalyzeInternalError() throws IOException, InterruptedException
+	{
+		// Evaluating the { outside the class throws.
+		Path crash = Paths.get("test_data/stray_brace.txt");
+		Path good = Paths.get("demo_data/good.java");
+		Path dir = Files.createTempDirectory("cache");
+		try
+		{
+			for(var cache : new VerdictCache[] {null, new VerdictCache(dir)})
+			{
+				var results = new ArrayList<BatchAnalyzer.FileResult>();
+				BatchSummary summary = new BatchAnalyzer(2, AnalysisSettings.DEFAULT, cache).analyze(List.of(crash, good), results::add);
+				assertEquals(2, results.size());
+				assertEquals(1, summary.getNumFailed());
+				
+				for(var r : results)
+				{
+					if(r.path.equals(crash))
+					{
+						assertFalse(r.succeeded());
+						assertEquals(BatchAnalyzer.Failure.INTERNAL_ERROR, r.failure);
+						assertTrue(r.errorMessage.startsWith("The analysis failed unexpectedly."));
+					}
+					else
+					{
+						assertEquals(good, r.path);
+						assertTrue(r.succeeded());
+					}
+				}
+			}
+		}
+		finally
+		{
+			try(var walk = Files.walk(dir))
+			{
+				walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+			}
+		}
+	}
+
+	/**
+	 * Tests if the .java entries of an archive are analyzed without extracting it,
+	 * each the same as the file it was made from.
+	 */
+	@Test
+	public void testAnalyzeArchive() throws IOException, InterruptedException
+	{
+		Path zip = Files.createTempFile("submissions", ".zip");
+		try
+		{
+			try(var out = new ZipOutputStream(Files.newOutputStream(zip)))
+			{
+				for(var name : List.of("good.java", "bad1.java"))
+				{
+					out.putNextEntry(new ZipEntry("student1/" + name));
+					out.write(Files.readAllBytes(Paths.get("demo_data", name)));
+					out.closeEntry();
+				}
+				// Not source files
+				out.putNextEntry(new ZipEntry("student1/"));
+				out.closeEntry();
+				out.putNextEntry(new ZipEntry("student1/readme.txt"));
+				out.write("not java".getBytes(StandardCharsets.UTF_8));
+				out.closeEntry();
+			}
+
+			assertTrue(BatchAnalyzer.isArchive(zip));
+			assertFalse(BatchAnalyzer.isArchive(Paths.get("demo_data/good.java")));
+
+			var results = new ArrayList<BatchAnalyzer.FileResult>();
+			BatchSummary summary = new BatchAnalyzer(2).analyze(List.of(zip), results::add);
+			assertEquals(2, results.size());
+			assertEquals(0, summary.getNumFailed());
+
+			for(var r : results)
+			{
+				assertTrue(r.succeeded());
+				assertTrue(r.path.startsWith(zip));
+				var fromFile = BatchAnalyzer.analyzeOne
+				(
+					Paths.get("demo_data", r.path.getFileName().toString()), AnalysisSettings.fromGlobalSettings()
+				);
+				assertEquals(fromFile.verdict.toString(), r.verdict.toString());
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(zip);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import edu.guanyfyp.SourceFile;
+import edu.guanyfyp.format.FormatVerdict;
+import edu.guanyfyp.format.primitives.CodeBlock;
+import edu.guanyfyp.format.summaries.CompactSummary;
+import edu.guanyfyp.format.summaries.CompactSummary.Rule;
+
+/**
+ * Tests the compact summaries and the compact verdict.
+ */
+public class TestCompactSummary
+{
+	private static final String BAD1_SF_PATH = "demo_data/bad1.java";
+	private static final String DIFFERENT_LINES_SF_PATH = "test_data/different_lines.txt";
+
+	/**
+	 * Test if the records and the counts are the same as the lists of the summary.
+	 */
+	@Test
+	public void testRecords()
+	{
+		SourceFile sf = TestUtils.createSourceFileNoError(BAD1_SF_PATH);
+		var summary = sf.analyze().getCodeBlockSummary();
+		CompactSummary compact = summary.compact(CompactSummary.DEFAULT_MAX_SAMPLES);
+
+		assertEquals(summary.numTotal, compact.getNumIncluded());
+		assertEquals(summary.tooLongList.size(), compact.getCount(Rule.IDENTIFIER_TOO_LONG));
+		assertEquals(summary.tooShortList.size(), compact.getCount(Rule.IDENTIFIER_TOO_SHORT));
+		assertEquals(summary.badlyNamedList.size(), compact.getCount(Rule.BADLY_NAMED));
+		assertEquals(summary.spaceProblemsList.size(), compact.getCount(Rule.SPACE_PROBLEM));
+		assertEquals(summary.lbraceNewLineScopes.size(), compact.getCount(Rule.LBRACE_STARTS_NEW_LINE));
+		assertEquals(summary.lbraceNoNewLineScopes.size(), compact.getCount(Rule.LBRACE_STAYS_IN_OLD_LINE));
+		assertEquals(0, compact.getCount(Rule.LINE_TOO_LONG));
+
+		// Each record is where the code block is.
+		int i = 0;
+		for(var c : summary.badlyNamedList)
+		{
+			while(compact.getRule(i) != Rule.BADLY_NAMED)
+			{
+				++i;
+			}
+			assertEquals(c.line(), compact.getLine(i));
+			assertEquals(c.actualPos(), compact.getColumn(i));
+			assertEquals(c.index(), compact.getTokenIndex(i));
+			assertSame(c, sf.getFormatToken(compact.getTokenIndex(i)));
+			++i;
+		}
+		assertThrows(IndexOutOfBoundsException.class, ()->compact.getLine(compact.getNumRecords()));
+
+		// Lines
+		SourceFile linesSf = TestUtils.createSourceFileNoError(DIFFERENT_LINES_SF_PATH);
+		var lineSummary = linesSf.analyze().getLineSummary();
+		var compactLines = lineSummary.compact(CompactSummary.DEFAULT_MAX_SAMPLES);
+		assertEquals(lineSummary.getNumLines(), compactLines.getNumIncluded());
+		assertEquals(3, compactLines.getCount(Rule.LINE_TOO_LONG));
+		assertEquals(2, compactLines.getCount(Rule.LINE_BADLY_INDENTED));
+		assertEquals(8, compactLines.getLine(0));
+		assertEquals(9, compactLines.getLine(3));
+
+		// More records than the initial capacity, so they have grown.
+		var many = new StringBuilder("class A\n{\n");
+		for(int j = 0; j < 100; ++j)
+		{
+			many.append("   int x" + j + ";\n");
+		}
+		many.append("}\n");
+		var manyLines = SourceFile.fromString(many.toString()).analyze().getLineSummary().compact(2);
+		assertEquals(100, manyLines.getCount(Rule.LINE_BADLY_INDENTED));
+		for(int j = 0; j < 100; ++j)
+		{
+			assertEquals(j + 3, manyLines.getLine(j));
+			assertEquals(3, manyLines.getColumn(j));
+		}
+		assertEquals(2, manyLines.getWorstSamples().size());
+	}
+
+	/**
+	 * Test if only the worst samples are kept, the worst first.
+	 */
+	@Test
+	public void testSamples()
+	{
+		SourceFile sf = TestUtils.createSourceFileNoError(BAD1_SF_PATH);
+		var summary = sf.analyze().getCodeBlockSummary();
+
+		// The number of problems of each code block
+		var severities = new IdentityHashMap<CodeBlock, Integer>();
+		for(var list : List.of(summary.tooLongList, summary.tooShortList, summary.badlyNamedList, summary.spaceProblemsList))
+		{
+			for(var c : list)
+			{
+				severities.merge(c, 1, Integer::sum);
+			}
+		}
+		int worst = severities.values().stream().max(Integer::compare).get();
+
+		var compact = summary.compact(3);
+		var samples = compact.getWorstSamples();
+		assertEquals(3, samples.size());
+		// The first one is one of the worst.
+		boolean found = false;
+		for(var e : severities.entrySet())
+		{
+			if(e.getValue() == worst && e.getKey().toString().equals(samples.get(0)))
+			{
+				found = true;
+			}
+		}
+		assertTrue(found);
+
+		// All are kept if there are not more than the bound.
+		assertEquals(severities.size(), summary.compact(severities.size() + 5).getWorstSamples().size());
+		assertTrue(summary.compact(0).getWorstSamples().isEmpty());
+		assertThrows(IllegalArgumentException.class, ()->summary.compact(-1));
+	}
+
+	/**
+	 * Test if a compact verdict keeps its frequencies and drops its summaries.
+	 */
+	@Test
+	public void testCompactVerdict()
+	{
+		FormatVerdict verdict = TestUtils.createSourceFileNoError(BAD1_SF_PATH).analyze();
+		FormatVerdict expected = TestUtils.createSourceFileNoError(BAD1_SF_PATH).analyze();
+
+		verdict.compact(CompactSummary.DEFAULT_MAX_SAMPLES);
+		assertTrue(verdict.isCompact());
+		assertNull(verdict.getCodeBlockSummary());
+		assertNull(verdict.getLineSummary());
+		assertNull(verdict.getJavaDocSummary());
+		assertNotNull(verdict.getCompactCodeBlockSummary());
+		assertNotNull(verdict.getCompactLineSummary());
+		assertNotNull(verdict.getCompactJavaDocSummary());
+
+		assertEquals(expected.getIdentifierLengthProblemFrequency(), verdict.getIdentifierLengthProblemFrequency());
+		assertEquals(expected.getSpacingProblemFrequency(), verdict.getSpacingProblemFrequency());
+		assertEquals(expected.getLineIndentationProblemFrequency(), verdict.getLineIndentationProblemFrequency());
+		assertEquals(expected.getBadJavaDocFrequency(), verdict.getBadJavaDocFrequency());
+		assertTrue(verdict.toString().contains("BADLY_NAMED: "));
+
+		assertThrows(IllegalStateException.class, ()->verdict.compact(1));
+		assertThrows(IllegalStateException.class, ()->new FormatVerdict().compact(1));
+	}
+}
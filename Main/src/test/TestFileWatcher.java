@@ -0,0 +1,184 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.guanyfyp.SourceFile;
+import edu.guanyfyp.batch.BatchAnalyzer;
+import edu.guanyfyp.batch.FileWatcher;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+
+/**
+ * Tests the watch mode.
+ */
+public class TestFileWatcher
+{
+	private Path dir;
+	private Path file;
+	private String text;
+
+	@BeforeEach
+	public void setUp() throws IOException
+	{
+		dir = Files.createTempDirectory("watched");
+		file = dir.resolve("bad1.java");
+		text = Files.readString(Paths.get("demo_data/bad1.java"));
+		Files.writeString(file, text);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException
+	{
+		try(Stream<Path> files = Files.walk(dir))
+		{
+			for(var f : (Iterable<Path>)files.sorted(Comparator.reverseOrder())::iterator)
+			{
+				Files.delete(f);
+			}
+		}
+	}
+
+	/**
+	 * Writes content to the file and makes sure its modification time changes.
+	 */
+	private void write(String content) throws IOException
+	{
+		FileTime before = Files.getLastModifiedTime(file);
+		Files.writeString(file, content);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(before.toMillis() + 1000));
+	}
+
+	/**
+	 * Tests if a file is analyzed again only when its content changes,
+	 * and the verdict is the same as that of a fresh analysis.
+	 */
+	@Test
+	public void testRefresh() throws IOException
+	{
+		try(var watcher = new FileWatcher(List.of(dir.toString()), AnalysisSettings.DEFAULT))
+		{
+			assertEquals(List.of(file.toAbsolutePath()), watcher.getFiles());
+
+			var first = watcher.refresh(file);
+			assertTrue(first.succeeded());
+			assertEquals(BatchAnalyzer.analyzeOne(file, AnalysisSettings.DEFAULT).verdict.toString(), first.verdict.toString());
+
+			// Nothing has changed.
+			assertNull(watcher.refresh(file));
+			// Saved without changes.
+			Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+			assertNull(watcher.refresh(file));
+			assertSame(first, watcher.getResult(file));
+
+			// Whitespace, comments and code
+			String[] versions =
+			{
+				text.replace("    private int i;", "  private int i;"),
+				text.replace("    private int i;", "  private int i;").replace("// too short", "// much too short"),
+				text.replace("private int i;", "private int j;"),
+			};
+			for(var v : versions)
+			{
+				write(v);
+				var r = watcher.refresh(file);
+				assertTrue(r.succeeded());
+				assertEquals(SourceFile.fromString(v).analyze(AnalysisSettings.DEFAULT).toString(), r.verdict.toString());
+				assertNotNull(watcher.getSourceFile(file));
+			}
+
+			// A syntax error, then fixed.
+			write("class A { int }");
+			assertEquals(BatchAnalyzer.Failure.GRAMMATICAL_ERRORS, watcher.refresh(file).failure);
+			assertNull(watcher.getSourceFile(file));
+			write(text);
+			assertEquals(first.verdict.toString(), watcher.refresh(file).verdict.toString());
+
+			// A bug in the analysis, which is tried again on the next save, then fixed.
+			final String crash = Files.readString(Paths.get("test_data/stray_brace.txt"));
+			write(crash);
+			assertEquals(BatchAnalyzer.Failure.INTERNAL_ERROR, watcher.refresh(file).failure);
+			assertNull(watcher.getSourceFile(file));
+			write(crash);
+			assertEquals(BatchAnalyzer.Failure.INTERNAL_ERROR, watcher.refresh(file).failure);
+			write(text);
+			assertEquals(first.verdict.toString(), watcher.refresh(file).verdict.toString());
+			
+			// Deleted
+			Files.delete(file);
+			assertEquals(BatchAnalyzer.Failure.CANNOT_OPEN, watcher.refresh(file).failure);
+			assertNull(watcher.refresh(file));
+			Files.writeString(file, text);
+			assertTrue(watcher.refresh(file).succeeded());
+		}
+	}
+
+	/**
+	 * Tests if run() reports the files at first, then each change once after a burst of writes,
+	 * and new files in the directory watched.
+	 */
+	@Test
+	public void testRun() throws Exception
+	{
+		BlockingQueue<BatchAnalyzer.FileResult> results = new LinkedBlockingQueue<>();
+		var watcher = new FileWatcher(List.of(dir.toString()), AnalysisSettings.DEFAULT, 300);
+		var thread = new Thread(() -> {
+			try
+			{
+				watcher.run(results::add);
+			}
+			catch(InterruptedException e)
+			{
+			}
+		});
+		thread.start();
+
+		try
+		{
+			var first = results.poll(10, TimeUnit.SECONDS);
+			assertEquals(file.toAbsolutePath(), first.path);
+
+			// A burst of writes
+			String last = text;
+			for(int i = 0; i < 3; ++i)
+			{
+				last = last.replace("    private int i;", "    private int i; ");
+				Files.writeString(file, last);
+			}
+			var changed = results.poll(10, TimeUnit.SECONDS);
+			assertNotNull(changed);
+			assertEquals(SourceFile.fromString(last).analyze(AnalysisSettings.DEFAULT).toString(), changed.verdict.toString());
+			assertNull(results.poll(1, TimeUnit.SECONDS));
+
+			// A new file
+			Path added = dir.resolve("Good.java");
+			Files.copy(Paths.get("demo_data/good.java"), added);
+			var r = results.poll(10, TimeUnit.SECONDS);
+			assertEquals(added.toAbsolutePath(), r.path);
+			assertTrue(r.succeeded());
+		}
+		finally
+		{
+			watcher.close();
+			thread.join(10000);
+		}
+		assertFalse(thread.isAlive());
+	}
+}
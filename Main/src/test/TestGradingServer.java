@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+import edu.guanyfyp.server.GradingServer;
+
+/**
+ * Tests the line protocol and the HTTP of the grading server.
+ */
+public class TestGradingServer
+{
+	/**
+	 * Each request should get exactly one response ended by END,
+	 * and nothing after QUIT should be served.
+	 */
+	@Test
+	public void testServeLines() throws IOException
+	{
+		GradingServer.warmUp();
+
+		String requests =
+				"PING\n" +
+				"ANALYZE demo_data/good.java\n" +
+				"\n" +
+				"ANALYZE test_data/syntax_error1.txt\n" +
+				"ANALYZE demo_data/not_a_file.java\n" +
+				"QUIT\n" +
+				"PING\n";
+
+		var bytes = new ByteArrayOutputStream();
+		var server = new GradingServer(1, AnalysisSettings.DEFAULT);
+		server.serveLines
+		(
+			new BufferedReader(new StringReader(requests)),
+			new PrintStream(bytes, true, StandardCharsets.UTF_8)
+		);
+
+		String[] responses = bytes.toString(StandardCharsets.UTF_8).split(GradingServer.END_OF_RESPONSE + "\n", -1);
+		// 4 responses and what's after the last END, which must be nothing.
+		assertEquals(5, responses.length);
+		assertEquals("", responses[4]);
+
+		assertEquals("PONG\n", responses[0]);
+		assertTrue(responses[1].startsWith("OK\n"));
+		assertTrue(responses[1].contains("identifierNamingProblemFrequency = 0.0"));
+		assertTrue(responses[2].startsWith("ERROR The source file has grammatical errors."));
+		assertTrue(responses[3].startsWith("ERROR The source file could not be opened."));
+	}
+
+	/**
+	 * A request whose analysis fails unexpectedly should get an error,
+	 * and the server should go on serving the requests after it.
+	 */
+	@Test
+	public void testFailingRequest() throws IOException
+	{
+		// Evaluating the { outside the class throws.
+		var server = new GradingServer(1, AnalysisSettings.DEFAULT, Paths.get("test_data"));
+		
+		var bytes = new ByteArrayOutputStream();
+		server.serveLines
+		(
+			new BufferedReader(new StringReader("ANALYZE stray_brace.txt\nPING\n")),
+			new PrintStream(bytes, true, StandardCharsets.UTF_8)
+		);
+		String[] responses = bytes.toString(StandardCharsets.UTF_8).split(GradingServer.END_OF_RESPONSE + "\n", -1);
+		assertEquals(3, responses.length);
+		assertTrue(responses[0].startsWith("ERROR The analysis failed unexpectedly"));
+		assertEquals("PONG\n", responses[1]);
+		
+		var http = server.startHttp(0);
+		try
+		{
+			int port = http.getAddress().getPort();
+			String local = "localhost:" + port;
+			assertEquals(500, get(port, local, "/analyze?path=stray_brace.txt"));
+			assertEquals(200, get(port, local, "/ping"));
+		}
+		finally
+		{
+			http.stop(0);
+		}
+	}
+
+	@Test
+	public void testCtor()
+	{
+		assertThrows(IllegalArgumentException.class, ()->{
+			new GradingServer(0, AnalysisSettings.DEFAULT);
+		});
+	}
+
+	/**
+	 * Only the requests to the loopback interface by name should be served,
+	 * and only the files in the root.
+	 */
+	@Test
+	public void testHttpGuards() throws IOException
+	{
+		var server = new GradingServer(1, AnalysisSettings.DEFAULT, Paths.get("demo_data"));
+		var http = server.startHttp(0);
+		try
+		{
+			int port = http.getAddress().getPort();
+			String local = "localhost:" + port;
+
+			assertEquals(200, get(port, local, "/ping"));
+			assertEquals(200, get(port, "127.0.0.1:" + port, "/ping"));
+			assertEquals(200, get(port, "LOCALHOST", "/ping"));
+			// DNS rebinding
+			assertEquals(403, get(port, "evil.example:" + port, "/ping"));
+			assertEquals(403, get(port, "localhost.evil.example", "/analyze?path=good.java"));
+			assertEquals(403, get(port, null, "/metrics"));
+
+			// Relative to the root
+			assertEquals(200, get(port, local, "/analyze?path=good.java"));
+			assertEquals(404, get(port, local, "/analyze?path=not_a_file.java"));
+			// Outside of it
+			assertEquals(403, get(port, local, "/analyze?path=" + encode("../test_data/mixture1.txt")));
+			assertEquals(403, get(port, local, "/analyze?path=" + encode(Paths.get("test_data/mixture1.txt").toAbsolutePath().toString())));
+		}
+		finally
+		{
+			http.stop(0);
+		}
+
+		// The line protocol
+		var bytes = new ByteArrayOutputStream();
+		server.serveLines
+		(
+			new BufferedReader(new StringReader("ANALYZE ../test_data/mixture1.txt\nANALYZE good.java\n")),
+			new PrintStream(bytes, true, StandardCharsets.UTF_8)
+		);
+		String[] responses = bytes.toString(StandardCharsets.UTF_8).split(GradingServer.END_OF_RESPONSE + "\n");
+		assertEquals("ERROR The path is outside the root directory.\n", responses[0]);
+		assertTrue(responses[1].startsWith("OK\n"));
+
+		assertThrows(IllegalArgumentException.class, ()->{
+			new GradingServer(1, AnalysisSettings.DEFAULT, Paths.get("demo_data/good.java"));
+		});
+	}
+
+	/**
+	 * Sends a GET request with the Host header given, which HTTP clients do not let one set.
+	 * @param port
+	 * @param host the Host header, or null not to send one.
+	 * @param target
+	 * @return the status code of the response.
+	 */
+	private static int get(int port, String host, String target) throws IOException
+	{
+		try(var socket = new Socket(InetAddress.getLoopbackAddress(), port))
+		{
+			String request = "GET " + target + " HTTP/1.1\r\n" +
+					(host == null ? "" : "Host: " + host + "\r\n") +
+					"Connection: close\r\n\r\n";
+			socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+			socket.getOutputStream().flush();
+
+			var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			// e.g. HTTP/1.1 200 OK
+			return Integer.parseInt(in.readLine().split(" ")[1]);
+		}
+	}
+
+	private static String encode(String s)
+	{
+		return URLEncoder.encode(s, StandardCharsets.UTF_8);
+	}
+}
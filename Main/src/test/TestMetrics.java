@@ -0,0 +1,197 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import edu.guanyfyp.SourceFile;
+import edu.guanyfyp.metrics.AnalysisEvents;
+import edu.guanyfyp.metrics.LatencyHistogram;
+import edu.guanyfyp.metrics.Metrics;
+import edu.guanyfyp.metrics.Metrics.Phase;
+
+/**
+ * Tests the metrics and how they are exposed.
+ */
+public class TestMetrics
+{
+	/**
+	 * Tests the counts, the quantiles and the bounds of a histogram.
+	 */
+	@Test
+	public void testHistogram()
+	{
+		var h = new LatencyHistogram();
+		assertEquals(0, h.getValueAtQuantile(0.5));
+		assertEquals(0.0, h.getMean());
+
+		for(long v = 1; v <= 1000; ++v)
+		{
+			h.record(v);
+		}
+		h.record(-5);
+		assertEquals(1001, h.getCount());
+		assertEquals(500500, h.getSum());
+		assertEquals(1000, h.getMax());
+
+		// Exact for the small values, within 1/8 above for the others.
+		assertEquals(0, h.getValueAtQuantile(0.0));
+		assertEquals(1000, h.getValueAtQuantile(1.0));
+		long median = h.getValueAtQuantile(0.5);
+		assertTrue(median >= 500 && median <= 500 + 500 / 8, "median = " + median);
+		long p99 = h.getValueAtQuantile(0.99);
+		assertTrue(p99 >= 990 && p99 <= 1000, "p99 = " + p99);
+
+		// Powers of 2 are bucket boundaries.
+		assertEquals(1001, h.countAtMost(1023));
+		assertEquals(512, h.countAtMost(511));
+		assertEquals(1, h.countAtMost(0));
+		assertEquals(1001, h.countAtMost(Long.MAX_VALUE));
+
+		h.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, h.getValueAtQuantile(1.0));
+		assertThrows(IllegalArgumentException.class, ()->h.getValueAtQuantile(1.5));
+	}
+
+	/**
+	 * Tests if creating and analyzing a source file records every phase once.
+	 */
+	@Test
+	public void testPhasesRecorded()
+	{
+		var metrics = Metrics.global();
+		long[] before = new long[Phase.values().length];
+		for(var p : Phase.values())
+		{
+			before[p.ordinal()] = metrics.getPhase(p).getCount();
+		}
+		long tokens_before = metrics.getNumTokensEvaluated();
+		long files_before = metrics.getNumFilesAnalyzed();
+
+		var sf = TestUtils.createSourceFileNoError("demo_data/good.java");
+		sf.analyze();
+
+		for(var p : Phase.values())
+		{
+			assertEquals(before[p.ordinal()] + 1, metrics.getPhase(p).getCount(), p.name());
+		}
+		assertEquals(files_before + 1, metrics.getNumFilesAnalyzed());
+		assertEquals(tokens_before + sf.numFormatTokens(), metrics.getNumTokensEvaluated());
+		assertTrue(metrics.getTokensPerSecond() > 0.0);
+	}
+
+	/**
+	 * Tests the Prometheus text, the scrape endpoint and the MXBean.
+	 */
+	@Test
+	public void testExposition() throws IOException, InterruptedException, JMException
+	{
+		var metrics = new Metrics();
+		metrics.record(Phase.PARSE, System.nanoTime() - 2_000_000);
+		metrics.recordFile(3000, 100);
+		metrics.recordAnalysis(500, 100);
+
+		String text = metrics.toPrometheusText();
+		assertTrue(text.contains("# TYPE guanyfyp_phase_duration_seconds histogram\n"));
+		assertTrue(text.contains("guanyfyp_phase_duration_seconds_bucket{phase=\"parse\",le=\"+Inf\"} 1\n"));
+		assertTrue(text.contains("guanyfyp_phase_duration_seconds_count{phase=\"lex\"} 0\n"));
+		assertTrue(text.contains("guanyfyp_file_chars_bucket{le=\"1024\"} 0\n"));
+		assertTrue(text.contains("guanyfyp_file_chars_bucket{le=\"4096\"} 1\n"));
+		assertTrue(text.contains("guanyfyp_tokens_evaluated_total 500\n"));
+		for(var line : text.split("\n"))
+		{
+			assertTrue(line.startsWith("# ") || line.matches("guanyfyp_\\w+(\\{[^}]*\\})? [0-9.E+-]+"), line);
+		}
+
+		// The endpoint
+		TestUtils.createSourceFileNoError("demo_data/good.java").analyze();
+		var server = Metrics.startHttp(0);
+		try
+		{
+			var url = URI.create("http://localhost:" + server.getAddress().getPort() + "/metrics").toURL();
+			try(var in = url.openStream())
+			{
+				String scraped = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+				assertTrue(scraped.contains("guanyfyp_files_analyzed_total "));
+			}
+		}
+		finally
+		{
+			server.stop(0);
+		}
+
+		// JMX
+		Metrics.registerMBean();
+		Metrics.registerMBean();
+		var name = new ObjectName(Metrics.METRICS_OBJECT_NAME);
+		long n = (Long)ManagementFactory.getPlatformMBeanServer().getAttribute(name, "NumFilesAnalyzed");
+		assertTrue(n >= 1);
+		assertNotNull(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "PhaseP99Millis"));
+	}
+
+	/**
+	 * Tests if each phase gives a flight recorder event with what it should carry.
+	 */
+	@Test
+	public void testFlightRecorderEvents() throws IOException
+	{
+		String path = "demo_data/good.java";
+		var file = Files.createTempFile("analysis", ".jfr");
+		SourceFile sf;
+		try(var recording = new Recording())
+		{
+			recording.enable(AnalysisEvents.Lex.class);
+			recording.enable(AnalysisEvents.Parse.class);
+			recording.enable(AnalysisEvents.ScopeBuilding.class);
+			recording.enable(AnalysisEvents.JavaDocMatching.class);
+			recording.enable(AnalysisEvents.Evaluation.class);
+			recording.start();
+			sf = TestUtils.createSourceFileNoError(path);
+			sf.analyze();
+			recording.stop();
+			recording.dump(file);
+		}
+
+		var events = new HashMap<String, RecordedEvent>();
+		try
+		{
+			for(var e : RecordingFile.readAllEvents(file))
+			{
+				if(e.getString("path") != null && e.getString("path").equals(path))
+				{
+					events.put(e.getEventType().getName(), e);
+				}
+			}
+		}
+		finally
+		{
+			Files.delete(file);
+		}
+
+		assertEquals(5, events.size(), events.keySet().toString());
+		for(var e : events.values())
+		{
+			assertEquals(sf.numFormatTokens(), e.getInt("tokenCount"));
+			assertEquals(sf.numLines(), e.getInt("lineCount"));
+			assertTrue(e.getInt("maxScopeDepth") >= 2);
+		}
+		assertTrue(events.containsKey("edu.guanyfyp.Evaluation"));
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import edu.guanyfyp.batch.BatchAnalyzer;
+import edu.guanyfyp.batch.NdjsonWriter;
+import edu.guanyfyp.format.FormatVerdict;
+import edu.guanyfyp.format.summaries.CompactSummary;
+
+/**
+ * Tests the NDJSON output of a batch.
+ */
+public class TestNdjsonWriter
+{
+	/**
+	 * Tests if there is one line per file and one for the batch, with what each should have.
+	 */
+	@Test
+	public void testBatch() throws InterruptedException, IOException
+	{
+		List<Path> files = List.of
+		(
+			Paths.get("demo_data/bad1.java"),
+			Paths.get("test_data/syntax_error1.txt")
+		);
+
+		var text = new StringWriter();
+		try(var writer = new NdjsonWriter(text, true, false))
+		{
+			var summary = new BatchAnalyzer(2).analyze(files, writer);
+			writer.writeSummary(summary);
+		}
+
+		String[] lines = text.toString().split("\n");
+		assertEquals(3, lines.length);
+		for(var l : lines)
+		{
+			assertTrue(l.startsWith("{") && l.endsWith("}"));
+		}
+
+		String bad1 = lines[0].contains("bad1") ? lines[0] : lines[1];
+		String error = lines[0].contains("bad1") ? lines[1] : lines[0];
+		assertTrue(bad1.startsWith("{\"type\":\"file\",\"path\":"));
+		assertTrue(bad1.contains("\"ok\":true"));
+		assertTrue(bad1.contains("\"identifierLengthProblem\":0.3125"));
+		assertTrue(bad1.contains("\"counts\":{\"codeBlocks\":"));
+		assertTrue(bad1.contains("\"issues\":{"));
+
+		assertTrue(error.contains("\"ok\":false,\"failure\":\"GRAMMATICAL_ERRORS\",\"error\":\""));
+		assertFalse(error.contains("\"frequencies\""));
+
+		assertTrue(lines[2].startsWith("{\"type\":\"batch\",\"numFiles\":2,\"numFailed\":1,"));
+		assertTrue(lines[2].contains("\"pooledFrequencies\":{\"identifierLengthProblem\":0.3125,"));
+	}
+
+	/**
+	 * Tests if the issues are where the summaries say, and the same for a compact verdict.
+	 */
+	@Test
+	public void testIssues() throws IOException
+	{
+		FormatVerdict verdict = TestUtils.createSourceFileNoError("test_data/different_lines.txt").analyze();
+		var result = new BatchAnalyzer.FileResult(Paths.get("a\"b\\c.txt"), verdict, BatchAnalyzer.Failure.NONE, null);
+
+		var full = new StringWriter();
+		new NdjsonWriter(full, true, false).write(result);
+		String line = full.toString();
+		assertTrue(line.contains("\"path\":\"a\\\"b\\\\c.txt\""));
+		assertTrue(line.contains("\"LINE_TOO_LONG\":3"));
+		assertTrue(line.contains("\"LINE_BADLY_INDENTED\":2"));
+		assertTrue(line.contains("\"LINE_TOO_LONG\":[[8,"));
+
+		// Without the issues
+		var noIssues = new StringWriter();
+		new NdjsonWriter(noIssues, false, false).write(result);
+		assertFalse(noIssues.toString().contains("\"issues\""));
+		assertTrue(noIssues.toString().contains("\"LINE_TOO_LONG\":3"));
+
+		// A compact verdict gives the same line.
+		verdict.compact(CompactSummary.DEFAULT_MAX_SAMPLES);
+		var compact = new StringWriter();
+		new NdjsonWriter(compact, true, false).write(result);
+		assertEquals(line.replaceAll(",\"(identifiers|operators|punctuation|comments)\":\\d+", ""), compact.toString());
+	}
+}
@@ -5,15 +5,24 @@ package test;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import org.antlr.v4.runtime.CommonToken;
 import org.junit.jupiter.api.Test;
 
 import edu.guanyfyp.SourceFile;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
 import edu.guanyfyp.format.primitives.CodeBlock;
 import edu.guanyfyp.format.primitives.CommentBlock;
 import edu.guanyfyp.format.primitives.JavaDocBlock;
+import edu.guanyfyp.format.primitives.Line;
 import edu.guanyfyp.format.primitives.WsBlock;
+import edu.guanyfyp.syntax.SyntaxScope;
 import test.TestUtils.FormatTokenTestProperties;
 
 /**
@@ -612,6 +621,32 @@ class TestSourceFile
 		assertEquals(null, s2.getNextFormatToken(s2.getFormatToken(9, 0)));
 	}
 	
+	/**
+	 * Tests if getPrevVisibleFormatToken and getNextVisibleFormatToken 
+	 * skip the whitespace, across lines if necessary.
+	 */
+	@Test
+	void testGetPrevNextVisibleFormatToken()
+	{
+		final String file_path_1 = "test_data/prev_next_test_exists.txt";
+		var s1 = TestUtils.createSourceFileNoError(file_path_1);
+		
+		// In the same line
+		assertEquals("public", s1.getPrevVisibleFormatToken(s1.getFormatToken(11, 2)).characters());
+		assertEquals("class", s1.getNextVisibleFormatToken(s1.getFormatToken(11, 0)).characters());
+		
+		// Across lines
+		assertEquals("// ...", s1.getPrevVisibleFormatToken(s1.getFormatToken(13, 1)).characters());
+		assertEquals("}", s1.getNextVisibleFormatToken(s1.getFormatToken(18, 1)).characters());
+		assertSame(s1.getFormatToken(19, 0), s1.getNextVisibleFormatToken(s1.getFormatToken(18, 1)));
+		// Starting from a whitespace
+		assertEquals(";", s1.getPrevVisibleFormatToken(s1.getFormatToken(16, 0)).characters());
+		
+		// None
+		assertNull(s1.getPrevVisibleFormatToken(s1.getFormatToken(1, 0)));
+		assertNull(s1.getNextVisibleFormatToken(s1.getFormatToken(22, 0)));
+	}
+	
 	/**
 	 * Tests the random access version of getFormatToken(),
 	 * when the tokens exist.
@@ -682,6 +717,15 @@ class TestSourceFile
 			UnsupportedOperationException.class, 
 			() -> {new SourceFile("test_data/syntax_error3.txt");}
 		);
+		
+		// The error is reported by the full LL stage, 
+		// so the message is the same as if only full LL were used.
+		var e = assertThrows
+		(
+			UnsupportedOperationException.class, 
+			() -> {new SourceFile("test_data/syntax_error1.txt");}
+		);
+		assertEquals("At line 1:12: missing '.' at 'ABC'", e.getMessage());
 	}
 	
 	/**
@@ -750,4 +794,418 @@ class TestSourceFile
 		assertFalse(s1_prime.includes(nowhere1));
 		assertFalse(s2.includes(nowhere1));
 	}
+	
+/////////////////////////////// Parallel analysis ////////////////////////////
+	
+	/**
+	 * analyzeParallel() should give the same result as analyze(), 
+	 * no matter how small the chunks are.
+	 */
+	@Test
+	void testAnalyzeParallelSameAsSequential() throws IOException
+	{
+		final String[] file_paths = 
+		{
+			"demo_data/good.java",
+			"demo_data/bad1.java",
+			"test_data/mixture1.txt",
+			"test_data/different_java_docs.java",
+			"test_data/different_lines.txt"
+		};
+		
+		for(var file_path : file_paths)
+		{
+			final String expected = new SourceFile(file_path).analyze(AnalysisSettings.DEFAULT).toString();
+			for(int chunk_size : new int[] {1, 7, 64, SourceFile.DEFAULT_PARALLEL_CHUNK_SIZE})
+			{
+				var verdict = new SourceFile(file_path).analyzeParallel(AnalysisSettings.DEFAULT, chunk_size);
+				assertEquals(expected, verdict.toString());
+			}
+		}
+		
+		// Only the primitives not carried over by edit() are evaluated, as in analyze().
+		String text = "class A\n{\n    int a;\n    void f() { }\n}\n";
+		var analyzed = SourceFile.fromString(text);
+		analyzed.analyze(AnalysisSettings.DEFAULT);
+		var edited = analyzed.edit(3, 0, 3, 0, "  ");
+		var fresh = SourceFile.fromString("class A\n{\n      int a;\n    void f() { }\n}\n");
+		assertEquals(fresh.analyze(AnalysisSettings.DEFAULT).toString(), edited.analyzeParallel(AnalysisSettings.DEFAULT, 2).toString());
+		
+		assertThrows(IllegalArgumentException.class, () -> {new SourceFile("demo_data/good.java").analyzeParallel(AnalysisSettings.DEFAULT, 0);});
+	}
+	
+/////////////////////////////// Other inputs ////////////////////////////
+	
+	/**
+	 * A SourceFile created from the source code in memory or from a mapped file
+	 * should be the same as the one created from the file path.
+	 */
+	@Test
+	void testFactoriesSameAsFilePath() throws IOException
+	{
+		final String file_path = "demo_data/bad1.java";
+		final byte[] bytes = Files.readAllBytes(Paths.get(file_path));
+		final String expected = new SourceFile(file_path).analyze().toString();
+		
+		var buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+		SourceFile[] sfs = 
+		{
+			SourceFile.fromString(new String(bytes, StandardCharsets.UTF_8)),
+			SourceFile.fromBytes(bytes, StandardCharsets.UTF_8),
+			SourceFile.fromByteBuffer(buffer, StandardCharsets.UTF_8),
+			SourceFile.fromInputStream(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8),
+			SourceFile.fromMappedFile(Paths.get(file_path), StandardCharsets.UTF_8)
+		};
+		
+		// The buffer is not consumed.
+		assertEquals(0, buffer.position());
+		
+		for(var sf : sfs)
+		{
+			assertEquals(expected, sf.analyze().toString());
+		}
+		
+		// Syntax errors are reported the same way.
+		assertThrows
+		(
+			UnsupportedOperationException.class, 
+			() -> {SourceFile.fromString("class A { int }");}
+		);
+	}
+	
+/////////////////////////////// Editing ////////////////////////////
+	
+	/**
+	 * Applies the edit to the text the way SourceFile.edit() does, for ASCII text.
+	 */
+	private static String applyEdit(String text, int start_line, int start_column, int end_line, int end_column, String replacement)
+	{
+		int[] line_offsets = new int[text.split("\n", -1).length + 1];
+		for(int i = 0, l = 1; i < text.length(); ++i)
+		{
+			if(text.charAt(i) == '\n')
+			{
+				line_offsets[l++] = i + 1;
+			}
+		}
+		return text.substring(0, line_offsets[start_line-1] + start_column) + 
+				replacement + text.substring(line_offsets[end_line-1] + end_column);
+	}
+	
+	/**
+	 * Asserts that edited has the same tokens and lines as expected and gives the same verdict.
+	 */
+	private static void assertSameAsFresh(SourceFile expected, SourceFile edited)
+	{
+		assertEquals(expected.numFormatTokens(), edited.numFormatTokens());
+		assertEquals(expected.numLines(), edited.numLines());
+		for(int i = 0; i < expected.numFormatTokens(); ++i)
+		{
+			var e = expected.getFormatToken(i);
+			var a = edited.getFormatToken(i);
+			assertEquals(e.getClass(), a.getClass());
+			assertEquals(e.characters(), a.characters());
+			assertEquals(e.line(), a.line());
+			assertEquals(e.actualPos(), a.actualPos());
+			assertEquals(e.startIndex(), a.startIndex());
+			assertEquals(e.visualPos, a.visualPos);
+			assertEquals(e.indexInLine, a.indexInLine);
+			assertEquals(i, a.index());
+			assertTrue(edited.includes(a));
+		}
+		for(int l = 1; l <= expected.numLines(); ++l)
+		{
+			assertEquals(l, edited.getLine(l).lineNumber);
+			assertEquals(expected.getLine(l).indentationLevel, edited.getLine(l).indentationLevel);
+			assertEquals(expected.getLine(l).visualLength, edited.getLine(l).visualLength);
+		}
+		
+		assertEquals(expected.analyze().toString(), edited.analyze().toString());
+	}
+	
+	/**
+	 * An edited SourceFile should be the same as the one created from the edited source code,
+	 * no matter if it was analyzed before the edit, and whether or not the edit changes code.
+	 */
+	@Test
+	void testEditSameAsFresh() throws IOException
+	{
+		final String text = Files.readString(Paths.get("demo_data/bad1.java"));
+		final Object[][] edits =
+		{
+			// Indentation
+			{10, 0, 10, 8, "    "},
+			// A line break between code
+			{21, 23, 21, 23, "\n            "},
+			// Removes an empty line
+			{12, 72, 13, 0, ""},
+			// A comment
+			{8, 22, 8, 31, "way too short"},
+			// The text of a JavaDoc
+			{15, 7, 15, 13, "constructor one"},
+			// A tab, which changes the visual positions after it
+			{8, 18, 8, 19, "\t"},
+			// Code
+			{8, 16, 8, 17, "j"},
+			// Code made up of whitespace: comments out a line
+			{10, 8, 10, 8, "//"},
+			// Across lines, at the end of the file
+			{23, 6, 24, 0, ""},
+		};
+		
+		for(var e : edits)
+		{
+			int sl = (int)e[0], sc = (int)e[1], el = (int)e[2], ec = (int)e[3];
+			String replacement = (String)e[4];
+			final String edited_text = applyEdit(text, sl, sc, el, ec, replacement);
+			
+			for(boolean analyzed_before : new boolean[] {false, true})
+			{
+				var sf = SourceFile.fromString(text);
+				if(analyzed_before)
+				{
+					sf.analyze();
+				}
+				assertSameAsFresh(SourceFile.fromString(edited_text), sf.edit(sl, sc, el, ec, replacement));
+			}
+		}
+	}
+	
+	/**
+	 * Edits one after another, analyzing only some of the SourceFiles in between.
+	 */
+	@Test
+	void testEditChained() throws IOException
+	{
+		String text = Files.readString(Paths.get("demo_data/good.java"));
+		var sf = SourceFile.fromString(text);
+		sf.analyze();
+		
+		final Object[][] edits =
+		{
+			{3, 0, 3, 0, "\n\n"},
+			{5, 0, 5, 0, "  "},
+			{4, 0, 5, 0, ""},
+			{2, 0, 2, 0, "// A new comment\n"},
+		};
+		for(int i = 0; i < edits.length; ++i)
+		{
+			var e = edits[i];
+			int sl = (int)e[0], sc = (int)e[1], el = (int)e[2], ec = (int)e[3];
+			String replacement = (String)e[4];
+			text = applyEdit(text, sl, sc, el, ec, replacement);
+			sf = sf.edit(sl, sc, el, ec, replacement);
+			if(i % 2 == 1)
+			{
+				assertSameAsFresh(SourceFile.fromString(text), sf);
+			}
+		}
+	}
+	
+	/**
+	 * A scope that becomes one line, a syntax error, and invalid ranges.
+	 */
+	@Test
+	void testEditSpecialCases() throws IOException
+	{
+		final String text = "class A\n{\n    void f() {\n    }\n}\n";
+		
+		// Joining the lines of the scope of f makes it one line.
+		assertSameAsFresh
+		(
+			SourceFile.fromString("class A\n{\n    void f() { }\n}\n"),
+			SourceFile.fromString(text).edit(3, 14, 4, 4, " ")
+		);
+		
+		// Before the first token
+		for(var path : new String[] {"test_data/prev_next_test.txt", "test_data/next_no_token_test.txt"})
+		{
+			final String file_text = Files.readString(Paths.get(path));
+			assertSameAsFresh
+			(
+				SourceFile.fromString(applyEdit(file_text, 2, 0, 2, 0, "  \n  ")),
+				SourceFile.fromString(file_text).edit(2, 0, 2, 0, "  \n  ")
+			);
+			assertSameAsFresh
+			(
+				SourceFile.fromString(applyEdit(file_text, 1, 0, 1, 0, "\n")),
+				SourceFile.fromString(file_text).edit(1, 0, 1, 0, "\n")
+			);
+		}
+		
+		// Braces added in a method, which no longer match or do
+		final String abc_text = Files.readString(Paths.get("test_data/next_no_token_test.txt"));
+		assertThrows
+		(
+			UnsupportedOperationException.class, 
+			() -> {SourceFile.fromString(abc_text).edit(8, 1, 8, 1, "{");}
+		);
+		assertSameAsFresh
+		(
+			SourceFile.fromString(applyEdit(abc_text, 7, 8, 7, 8, "{ } ")),
+			SourceFile.fromString(abc_text).edit(7, 8, 7, 8, "{ } ")
+		);
+		
+		// No change
+		var sf = SourceFile.fromString(text);
+		assertSame(sf, sf.edit(2, 1, 2, 1, ""));
+		
+		assertThrows
+		(
+			UnsupportedOperationException.class, 
+			() -> {SourceFile.fromString(text).edit(3, 14, 3, 14, "int");}
+		);
+		
+		assertThrows(IllegalArgumentException.class, () -> {sf.edit(0, 0, 1, 0, "");});
+		assertThrows(IllegalArgumentException.class, () -> {sf.edit(1, 8, 1, 8, "");});
+		assertThrows(IllegalArgumentException.class, () -> {sf.edit(7, 0, 7, 0, "");});
+		assertThrows(IllegalArgumentException.class, () -> {sf.edit(2, 1, 1, 0, "");});
+		
+		// Analyzed with other settings
+		var analyzed = SourceFile.fromString(text);
+		analyzed.analyze(AnalysisSettings.DEFAULT);
+		var cbs = new CodeBlock.Settings();
+		cbs.longestIdentifierLength += 1;
+		var other = new AnalysisSettings(cbs, new Line.Settings());
+		assertThrows(IllegalArgumentException.class, () -> {analyzed.edit(2, 1, 2, 1, " ").analyze(other);});
+	}
+	
+	/**
+	 * A SourceFile is left as it is by an edit that parses the source code from scratch or fails,
+	 * and cannot be used after an edit that moves its tokens.
+	 */
+	@Test
+	void testEditReceiver()
+	{
+		final String text = "class A\n{\n    void f() {\n    }\n}\n";
+		final String expected = SourceFile.fromString(text).analyze(AnalysisSettings.DEFAULT).toString();
+		var sf = SourceFile.fromString(text);
+		
+		// The name of the class
+		assertSameAsFresh(SourceFile.fromString("class B\n{\n    void f() {\n    }\n}\n"), sf.edit(1, 6, 1, 7, "B"));
+		assertThrows(UnsupportedOperationException.class, () -> {sf.edit(3, 14, 3, 14, "int");});
+		assertEquals("{", sf.getFormatToken(2, 0).characters());
+		assertEquals(expected, sf.analyze(AnalysisSettings.DEFAULT).toString());
+		
+		// Whitespace
+		var edited = sf.edit(2, 1, 2, 1, " ");
+		assertNotSame(sf, edited);
+		assertThrows(IllegalStateException.class, () -> {sf.numFormatTokens();});
+		assertThrows(IllegalStateException.class, () -> {sf.getFormatToken(2, 0);});
+		assertThrows(IllegalStateException.class, () -> {sf.getLine(1);});
+		assertThrows(IllegalStateException.class, () -> {sf.getSyntaxStructure();});
+		assertThrows(IllegalStateException.class, () -> {sf.analyze(AnalysisSettings.DEFAULT);});
+		assertThrows(IllegalStateException.class, () -> {sf.edit(1, 0, 1, 0, " ");});
+		assertSameAsFresh(SourceFile.fromString("class A\n{ \n    void f() {\n    }\n}\n"), edited);
+	}
+	
+	/**
+	 * An edit that changes the code in a method of a large file parses only the block it is in again,
+	 * so the scopes of the other methods are kept as they are.
+	 */
+	@Test
+	void testEditReparsesBlock()
+	{
+		final int num_methods = 200, edited_method = 120;
+		var sb = new StringBuilder("class Big\n{\n");
+		for(int k = 0; k < num_methods; ++k)
+		{
+			sb.append("    int m").append(k).append("(int p)\n    {\n")
+			  .append("        int v = p + ").append(k).append(";\n")
+			  .append("        if(v > 0)\n        {\n            v = v * 2;\n        }\n")
+			  .append("        return v;\n    }\n\n");
+		}
+		sb.append("}\n");
+		final String text = sb.toString();
+		// The v declared in the edited method
+		final int line = 3 + 10 * edited_method + 2;
+		
+		var sf = SourceFile.fromString(text);
+		sf.analyze();
+		var old_root = sf.getSyntaxStructure().getRootScope(0);
+		var old_methods = new ArrayList<>(old_root.children);
+		
+		final String edited_text = applyEdit(text, line, 12, line, 13, "total");
+		var edited = sf.edit(line, 12, line, 13, "total");
+		var fresh = SourceFile.fromString(edited_text);
+		assertSameAsFresh(fresh, edited);
+		assertSameStructure(fresh, edited);
+		
+		var new_methods = edited.getSyntaxStructure().getRootScope(0).children;
+		assertEquals(num_methods, new_methods.size());
+		for(int k = 0; k < num_methods; ++k)
+		{
+			if(k == edited_method)
+			{
+				assertNotSame(old_methods.get(k), new_methods.get(k));
+			}
+			else
+			{
+				assertSame(old_methods.get(k), new_methods.get(k));
+			}
+		}
+		
+		final Object[][] edits =
+		{
+			// Braces added in the block
+			{line, 24, line, 24, " { p = 1; }"},
+			// Scopes in the block that become one line
+			{line + 1, 17, line + 5, 9, " { v = 3; }"},
+			{line + 2, 9, line + 4, 8, " v = 2; "},
+			// A local class and an unmatched brace are parsed from scratch.
+			{line, 8, line, 8, "class L { }"},
+			{line, 8, line, 8, "{"},
+		};
+		for(var e : edits)
+		{
+			int sl = (int)e[0], sc = (int)e[1], el = (int)e[2], ec = (int)e[3];
+			String replacement = (String)e[4];
+			var expected_text = applyEdit(text, sl, sc, el, ec, replacement);
+			if(replacement.equals("{"))
+			{
+				assertThrows(UnsupportedOperationException.class, () -> {SourceFile.fromString(text).edit(sl, sc, el, ec, replacement);});
+				continue;
+			}
+			var expected = SourceFile.fromString(expected_text);
+			var actual = SourceFile.fromString(text).edit(sl, sc, el, ec, replacement);
+			assertSameAsFresh(expected, actual);
+			assertSameStructure(expected, actual);
+		}
+	}
+	
+	/**
+	 * Asserts that edited has the same scopes as expected, and the same types of CodeBlocks.
+	 */
+	private static void assertSameStructure(SourceFile expected, SourceFile edited)
+	{
+		var e = expected.getSyntaxStructure();
+		var a = edited.getSyntaxStructure();
+		assertEquals(e.getNumRootScopes(), a.getNumRootScopes());
+		for(int i = 0; i < e.getNumRootScopes(); ++i)
+		{
+			assertSameScope(e.getRootScope(i), a.getRootScope(i));
+		}
+		for(int i = 0; i < expected.numFormatTokens(); ++i)
+		{
+			if(expected.getFormatToken(i) instanceof CodeBlock cb)
+			{
+				assertEquals(cb.additionalAttr.getType(), ((CodeBlock)edited.getFormatToken(i)).additionalAttr.getType());
+			}
+		}
+	}
+	
+	private static void assertSameScope(SyntaxScope e, SyntaxScope a)
+	{
+		assertEquals(e.type, a.type);
+		assertEquals(e.level, a.level);
+		assertEquals(e.oneLine, a.oneLine);
+		assertEquals(e.block, a.block);
+		assertEquals(e.startToken.index(), a.startToken.index());
+		assertEquals(e.endToken.index(), a.endToken.index());
+		assertEquals(e.children.size(), a.children.size());
+		for(int i = 0; i < e.children.size(); ++i)
+		{
+			assertSameScope(e.children.get(i), a.children.get(i));
+		}
+	}
 }
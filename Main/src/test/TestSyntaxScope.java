@@ -283,4 +283,69 @@ public class TestSyntaxScope {
 		assertFalse(scope2.isPrimitiveInScope(p2_2));
 		assertTrue(scope2.isPrimitiveInScope(p3));
 	}
+
+	/**
+	 * Tests if the syntax context of a primitive is the innermost scope,
+	 * however deep it is.
+	 */
+	@Test
+	public void testSyntaxContextInnermost() {
+		var src = differentScopesSf;
+		var s = differentScopesSs;
+
+		var root = s.getRootScope(0);
+		var abc = root.children.get(3);
+		var unnamed = abc.children.get(0);
+		var f = root.children.get(5);
+		var ifScope = f.children.get(0);
+
+		// Outside of any scope
+		assertNull(s.getSyntaxContext(src.getFormatToken(1, 0)).scope);
+		assertNull(s.getSyntaxContext(src.getLine(1)).scope);
+		assertNull(s.getSyntaxContext(src.getLine(37)).scope);
+
+		// Level 0
+		assertSame(root, s.getSyntaxContext(src.getFormatToken(3, 0)).scope);
+		assertSame(root, s.getSyntaxContext(src.getLine(10)).scope);
+
+		// Level 2, below the first level of children.
+		assertSame(unnamed, s.getSyntaxContext(src.getFormatToken(22, 1)).scope);
+		assertSame(unnamed, s.getSyntaxContext(src.getLine(22)).scope);
+		assertSame(ifScope, s.getSyntaxContext(src.getFormatToken(33, 1)).scope);
+		// The lines of the { and the } belong to the parent.
+		assertSame(abc, s.getSyntaxContext(src.getLine(21)).scope);
+		assertSame(abc, s.getSyntaxContext(src.getLine(23)).scope);
+		assertSame(f, s.getSyntaxContext(src.getLine(33)).scope);
+
+		// In the second root
+		var iabc = s.getRootScope(1).children.get(0);
+		assertSame(iabc, s.getSyntaxContext(src.getLine(42)).scope);
+		assertSame(iabc, s.getSyntaxContext(src.getFormatToken(43, 1)).scope);
+	}
+
+	/**
+	 * Tests if the syntax context is the innermost scope when the scopes are nested far deeper than in the files above.
+	 */
+	@Test
+	public void testSyntaxContextDeeplyNested() {
+		final int depth = 64;
+		// A class, a method and blocks in it.
+		var src = new StringBuilder("class Nested {\nvoid m() {\n");
+		src.append("{\n".repeat(depth - 2));
+		src.append("int x = 1;\n");
+		src.append("}\n".repeat(depth));
+		var sf = SourceFile.fromString(src.toString());
+		var s = sf.getSyntaxStructure();
+
+		int x_line = depth + 1;
+		var innermost = s.getSyntaxContext(sf.getFormatToken(x_line, 0)).scope;
+		assertEquals(depth - 1, innermost.level);
+		assertSame(innermost, s.getSyntaxContext(sf.getLine(x_line)).scope);
+		assertTrue(innermost.children.isEmpty());
+
+		// Each line of a { is in the scope it is in, one level up each time.
+		for (int l = 2; l <= depth; ++l) {
+			assertEquals(l - 2, s.getSyntaxContext(sf.getLine(l)).scope.level);
+		}
+	}
 }
@@ -5,16 +5,29 @@ package test;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import edu.guanyfyp.SourceFile;
 import edu.guanyfyp.format.primitives.CodeBlock;
 import edu.guanyfyp.format.primitives.JavaDocBlock;
+import edu.guanyfyp.generated.JavaLexer;
+import edu.guanyfyp.syntax.SyntaxScope;
 import edu.guanyfyp.syntax.SyntaxStructure;
 import edu.guanyfyp.syntax.SyntaxStructureBuilder;
+import edu.guanyfyp.syntax.TwoStageParser;
 
 /**
  * 
@@ -65,33 +78,33 @@ class TestSyntaxStructureBuilder
 	{
 		// See if the indices of the tokens in the parse tree are what I expected them to be.
 		
-		var additional_tokens_attributes = manyDeclsSynBuilder.getAdditionalTokenAttributes();
+		var builder = manyDeclsSynBuilder;
 		
 		// class ABC
-		assertTrue(additional_tokens_attributes.containsKey(5));
-		assertEquals(CodeBlock.Type.CLASS_NAME, additional_tokens_attributes.get(5).getType());
+		assertNotNull(builder.getAdditionalTokenAttributes(5));
+		assertEquals(CodeBlock.Type.CLASS_NAME, builder.getAdditionalTokenAttributes(5).getType());
 		
 		// int a
-		assertTrue(additional_tokens_attributes.containsKey(12));
-		assertEquals(CodeBlock.Type.FIELD_NAME, additional_tokens_attributes.get(12).getType());
+		assertNotNull(builder.getAdditionalTokenAttributes(12));
+		assertEquals(CodeBlock.Type.FIELD_NAME, builder.getAdditionalTokenAttributes(12).getType());
 		// int b
-		assertTrue(additional_tokens_attributes.containsKey(15));
-		assertEquals(CodeBlock.Type.FIELD_NAME, additional_tokens_attributes.get(15).getType());
+		assertNotNull(builder.getAdditionalTokenAttributes(15));
+		assertEquals(CodeBlock.Type.FIELD_NAME, builder.getAdditionalTokenAttributes(15).getType());
 		// int c
-		assertTrue(additional_tokens_attributes.containsKey(18));
-		assertEquals(CodeBlock.Type.FIELD_NAME, additional_tokens_attributes.get(18).getType());
+		assertNotNull(builder.getAdditionalTokenAttributes(18));
+		assertEquals(CodeBlock.Type.FIELD_NAME, builder.getAdditionalTokenAttributes(18).getType());
 		
 		// Constructor ABC
-		assertTrue(additional_tokens_attributes.containsKey(27));
-		assertEquals(CodeBlock.Type.CONSTRUCTOR_NAME, additional_tokens_attributes.get(27).getType());
+		assertNotNull(builder.getAdditionalTokenAttributes(27));
+		assertEquals(CodeBlock.Type.CONSTRUCTOR_NAME, builder.getAdditionalTokenAttributes(27).getType());
 		
 		// method abc
-		assertTrue(additional_tokens_attributes.containsKey(39));
-		assertEquals(CodeBlock.Type.METHOD_NAME, additional_tokens_attributes.get(39).getType());
+		assertNotNull(builder.getAdditionalTokenAttributes(39));
+		assertEquals(CodeBlock.Type.METHOD_NAME, builder.getAdditionalTokenAttributes(39).getType());
 		
 		// enum EABC
-		assertTrue(additional_tokens_attributes.containsKey(54));
-		assertEquals(CodeBlock.Type.ENUM_NAME, additional_tokens_attributes.get(54).getType());
+		assertNotNull(builder.getAdditionalTokenAttributes(54));
+		assertEquals(CodeBlock.Type.ENUM_NAME, builder.getAdditionalTokenAttributes(54).getType());
 	}
 
 	/**
@@ -255,4 +268,108 @@ class TestSyntaxStructureBuilder
 			assertEquals(List.of("x", "y"), methodInfo7.parameterNames);
 		}
 	}
+
+	/**
+	 * Tests if building while parsing (listener mode, as SourceFile does) gives the same
+	 * attributes, scopes and JavaDoc matches as walking the parse tree (walk mode),
+	 * for every source file without syntax errors in test_data and demo_data.
+	 */
+	@Test
+	void testListenerModeSameAsWalkMode() throws IOException
+	{
+		var paths = new ArrayList<Path>();
+		for(var dir : new String[] {"test_data", "demo_data"})
+		{
+			try(var files = Files.list(Paths.get(dir)))
+			{
+				files.filter(Files::isRegularFile).sorted().forEach(paths::add);
+			}
+		}
+		
+		int numCompared = 0;
+		for(var path : paths)
+		{
+			SourceFile listened;
+			SourceFile walked;
+			try
+			{
+				listened = new SourceFile(path.toString());
+				walked = new SourceFile(path.toString());
+			}
+			catch(UnsupportedOperationException e)
+			{
+				// A syntax error
+				continue;
+			}
+			
+			// The walk sets what follows the JavaDocs of walked again, so forget what the listener set.
+			for(var jd : walked.getJavaDocs())
+			{
+				jd.setFollowing(JavaDocBlock.FollowingType.METHOD_LIKE, new JavaDocBlock.FollowingMethod());
+				jd.setFollowing(JavaDocBlock.FollowingType.OTHER, null);
+			}
+			var lexer = new JavaLexer(CharStreams.fromFileName(path.toString()));
+			ParseTree tree = TwoStageParser.parseCompilationUnit(new CommonTokenStream(lexer));
+			var walker = new SyntaxStructureBuilder(walked);
+			ParseTreeWalker.DEFAULT.walk(walker, tree);
+			
+			String msg = path.toString();
+			var listener = listened.getSyntaxStructureBuilder();
+			assertEquals(listened.numFormatTokens(), walked.numFormatTokens(), msg);
+			for(int i = 0; i < listened.numFormatTokens(); ++i)
+			{
+				var expected = walker.getAdditionalTokenAttributes(i);
+				var actual = listener.getAdditionalTokenAttributes(i);
+				assertEquals(expected == null, actual == null, msg + " token " + i);
+				if(expected != null)
+				{
+					assertTrue(expected.sameAs(actual), msg + " token " + i);
+				}
+			}
+			
+			var expectedSs = walker.getSyntaxStructure();
+			var actualSs = listener.getSyntaxStructure();
+			assertEquals(expectedSs.getNumRootScopes(), actualSs.getNumRootScopes(), msg);
+			for(int i = 0; i < expectedSs.getNumRootScopes(); ++i)
+			{
+				assertSameScope(expectedSs.getRootScope(i), actualSs.getRootScope(i), msg);
+			}
+			
+			var expectedJds = walked.getJavaDocs();
+			var actualJds = listened.getJavaDocs();
+			assertEquals(expectedJds.size(), actualJds.size(), msg);
+			for(int i = 0; i < expectedJds.size(); ++i)
+			{
+				var expected = expectedJds.get(i);
+				var actual = actualJds.get(i);
+				assertEquals(expected.getFollowingType(), actual.getFollowingType(), msg + " JavaDoc " + i);
+				if(expected.getFollowingType() == JavaDocBlock.FollowingType.METHOD_LIKE)
+				{
+					assertEquals(expected.getFollowingMethodInfo().returnType, actual.getFollowingMethodInfo().returnType, msg);
+					assertEquals(expected.getFollowingMethodInfo().parameterNames, actual.getFollowingMethodInfo().parameterNames, msg);
+				}
+			}
+			++numCompared;
+		}
+		// All but the files with syntax errors
+		assertTrue(numCompared >= paths.size() - 3);
+	}
+	
+	/**
+	 * Asserts that two scopes and all their descendants are at the same tokens and have the same properties.
+	 */
+	private static void assertSameScope(SyntaxScope expected, SyntaxScope actual, String msg)
+	{
+		assertEquals(expected.type, actual.type, msg);
+		assertEquals(expected.level, actual.level, msg);
+		assertEquals(expected.oneLine, actual.oneLine, msg);
+		assertEquals(expected.block, actual.block, msg);
+		assertEquals(expected.startToken.index(), actual.startToken.index(), msg);
+		assertEquals(expected.endToken.index(), actual.endToken.index(), msg);
+		assertEquals(expected.children.size(), actual.children.size(), msg);
+		for(int i = 0; i < expected.children.size(); ++i)
+		{
+			assertSameScope(expected.children.get(i), actual.children.get(i), msg);
+		}
+	}
 }
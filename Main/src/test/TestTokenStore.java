@@ -0,0 +1,102 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.junit.jupiter.api.Test;
+
+import edu.guanyfyp.format.primitives.CodeBlock;
+import edu.guanyfyp.format.primitives.TokenStore;
+import edu.guanyfyp.generated.JavaLexer;
+
+/**
+ * Tests the class TokenStore and the FormatTokens of it.
+ */
+class TestTokenStore
+{
+	/**
+	 * Tests if what is stored is what the lexer gives.
+	 */
+	@Test
+	void testSameAsLexer()
+	{
+		var source = CharStreams.fromString("class A\n{\n\tint b = 1;\n}\n");
+		var tokens = new CommonTokenStream(new JavaLexer(source));
+		tokens.fill();
+
+		var store = new TokenStore(source, tokens.size());
+		for(Token t : tokens.getTokens())
+		{
+			int slot = store.add(t);
+			assertEquals(t.getType(), store.type(slot));
+			assertEquals(t.getChannel(), store.channel(slot));
+			assertEquals(t.getLine(), store.line(slot));
+			assertEquals(t.getCharPositionInLine(), store.column(slot));
+			assertEquals(t.getStartIndex(), store.startIndex(slot));
+			assertEquals(t.getStopIndex(), store.stopIndex(slot));
+			assertEquals(t.getTokenIndex(), store.tokenIndex(slot));
+			if(t.getType() != Token.EOF)
+			{
+				assertEquals(t.getText(), store.text(slot));
+			}
+		}
+		assertEquals(tokens.size(), store.size());
+		assertThrows(ArrayIndexOutOfBoundsException.class, ()->store.add(tokens.get(0)));
+	}
+
+	/**
+	 * Tests if a token moved to another store is where it should be in the other source code.
+	 */
+	@Test
+	void testShift()
+	{
+		var source = CharStreams.fromString("int a;");
+		var tokens = new CommonTokenStream(new JavaLexer(source));
+		tokens.fill();
+		var store = new TokenStore(source, tokens.size());
+		for(Token t : tokens.getTokens())
+		{
+			store.add(t);
+		}
+
+		// "a" is at slot 2.
+		var a = new CodeBlock(store, 2, 4, 2, new CodeBlock.AdditionalAttributes());
+		var same = a.recreate(4, 2);
+		assertEquals(a, same);
+
+		var edited = new TokenStore(CharStreams.fromString("\n  int a;"), 1);
+		a.shift(edited, 1, 2, 3, 0);
+		assertEquals("a", a.characters());
+		assertEquals(2, a.line());
+		assertEquals(6, a.actualPos());
+		assertEquals(7, a.startIndex());
+		assertEquals(JavaLexer.IDENTIFIER, a.tokenType());
+
+		// The token created again from it before stays.
+		assertEquals(1, same.line());
+		assertNotEquals(a, same);
+	}
+
+	/**
+	 * Tests the store of a single token, which keeps its text.
+	 */
+	@Test
+	void testOf()
+	{
+		var t = new CommonToken(JavaLexer.SEMI, ";");
+		var store = TokenStore.of(t);
+		assertEquals(1, store.size());
+		assertEquals(";", store.text(0));
+		assertEquals(JavaLexer.SEMI, store.type(0));
+
+		var cb = new CodeBlock(t, 0, 0);
+		assertEquals(";", cb.characters());
+		assertEquals(JavaLexer.SEMI, cb.tokenType());
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ *
+ */
+package test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.guanyfyp.SourceFile;
+import edu.guanyfyp.batch.BatchAnalyzer;
+import edu.guanyfyp.batch.VerdictCache;
+import edu.guanyfyp.format.FormatVerdict;
+import edu.guanyfyp.format.primitives.AnalysisSettings;
+import edu.guanyfyp.format.primitives.CodeBlock;
+import edu.guanyfyp.format.primitives.Line;
+
+/**
+ * Tests the VerdictCache and the serialization of FormatVerdict it relies on.
+ */
+public class TestVerdictCache
+{
+	private Path dir;
+
+	@BeforeEach
+	public void setUp() throws IOException
+	{
+		dir = Files.createTempDirectory("verdicts");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException
+	{
+		try(Stream<Path> files = Files.walk(dir))
+		{
+			for(var f : (Iterable<Path>)files.sorted(Comparator.reverseOrder())::iterator)
+			{
+				Files.delete(f);
+			}
+		}
+	}
+
+	/**
+	 * Tests if a verdict read back gives the same as the one written.
+	 */
+	@Test
+	public void testVerdictRoundTrip() throws IOException
+	{
+		FormatVerdict verdict = new SourceFile("demo_data/bad1.java").analyze(AnalysisSettings.DEFAULT);
+
+		var bytes = new ByteArrayOutputStream();
+		verdict.writeTo(new DataOutputStream(bytes));
+		var read = FormatVerdict.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertTrue(read.hasGivenVerdict());
+		assertEquals(verdict.toString(), read.toString());
+		assertEquals(verdict.getIdentifierNamingProblemFrequency(), read.getIdentifierNamingProblemFrequency());
+		assertEquals(verdict.getHasCommentAtAll(), read.getHasCommentAtAll());
+		assertNull(read.getCodeBlockSummary());
+
+		// Only a given verdict can be written.
+		assertThrows(IllegalStateException.class, ()->{
+			new FormatVerdict().writeTo(new DataOutputStream(new ByteArrayOutputStream()));
+		});
+	}
+
+	/**
+	 * Tests if the key changes with the content, the version of the analyzer and the settings, but not with anything else.
+	 */
+	@Test
+	public void testKeyOf() throws IOException
+	{
+		byte[] content = Files.readAllBytes(Paths.get("demo_data/good.java"));
+		String key = VerdictCache.keyOf(content, AnalysisSettings.DEFAULT);
+
+		assertEquals(key, VerdictCache.keyOf(content.clone(), AnalysisSettings.DEFAULT));
+		// A verdict cached by another version of the analyzer is never looked up.
+		assertTrue(key.contains("-v" + VerdictCache.ANALYZER_VERSION + "-"));
+		assertNotEquals(key, VerdictCache.keyOf(Files.readAllBytes(Paths.get("demo_data/bad1.java")), AnalysisSettings.DEFAULT));
+
+		var cbs = new CodeBlock.Settings();
+		cbs.longestIdentifierLength += 1;
+		assertNotEquals(key, VerdictCache.keyOf(content, new AnalysisSettings(cbs, new Line.Settings())));
+	}
+
+	/**
+	 * Tests if the second run of a batch is served from the cache,
+	 * and identical files in one batch are analyzed once.
+	 */
+	@Test
+	public void testBatchWithCache() throws IOException, InterruptedException
+	{
+		// A copied submission
+		Path copy = dir.resolve("copy_of_bad1.java");
+		Files.copy(Paths.get("demo_data/bad1.java"), copy);
+		List<Path> files = List.of
+		(
+			Paths.get("demo_data/good.java"),
+			Paths.get("demo_data/bad1.java"),
+			copy,
+			Paths.get("test_data/syntax_error1.txt")
+		);
+
+		var cache = new VerdictCache(dir.resolve("cache"));
+		var analyzer = new BatchAnalyzer(2, AnalysisSettings.DEFAULT, cache);
+
+		var first = new ArrayList<BatchAnalyzer.FileResult>();
+		var summary = analyzer.analyze(files, first::add);
+		assertEquals(4, summary.getNumFiles());
+		assertEquals(1, summary.getNumFailed());
+		// The copy is not looked up, and the file with errors is not cached.
+		assertEquals(0, cache.getNumHits());
+		assertEquals(3, cache.getNumMisses());
+
+		var second = new ArrayList<BatchAnalyzer.FileResult>();
+		var summary2 = new BatchAnalyzer(2, AnalysisSettings.DEFAULT, cache).analyze(files, second::add);
+		assertEquals(2, cache.getNumHits());
+		assertEquals(summary.toString(), summary2.toString());
+
+		// The verdicts are the same as without the cache.
+		for(var r : second)
+		{
+			if(!r.succeeded())
+			{
+				continue;
+			}
+			var uncached = BatchAnalyzer.analyzeOne(r.path, AnalysisSettings.DEFAULT);
+			assertEquals(uncached.verdict.toString(), r.verdict.toString());
+		}
+	}
+
+	/**
+	 * Tests if the least recently used verdicts are evicted to keep within the bound.
+	 */
+	@Test
+	public void testEviction() throws IOException
+	{
+		FormatVerdict verdict = new SourceFile("demo_data/bad1.java").analyze(AnalysisSettings.DEFAULT);
+		var bytes = new ByteArrayOutputStream();
+		verdict.writeTo(new DataOutputStream(bytes));
+		long size = bytes.size();
+
+		// Room for 3 verdicts
+		var cache = new VerdictCache(dir, size * 3 + size / 2);
+		for(int i = 0; i < 10; ++i)
+		{
+			cache.put("key" + i, verdict);
+			assertTrue(cache.getTotalBytes() <= cache.getMaxBytes());
+		}
+
+		// The verdict put last is never evicted.
+		assertNotNull(cache.get("key9"));
+		try(Stream<Path> left = Files.list(dir))
+		{
+			assertTrue(left.count() <= 3);
+		}
+
+		// Reopening counts what is already there.
+		assertEquals(cache.getTotalBytes(), new VerdictCache(dir, cache.getMaxBytes()).getTotalBytes());
+	}
+}